@@ -1,8 +1,16 @@
 package com.bitcoincharts;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.net.Socket;
@@ -12,12 +20,28 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.chartsy.main.data.CsvParser;
 import org.chartsy.main.data.DataItem;
 import org.chartsy.main.data.DataProvider;
 import org.chartsy.main.data.Dataset;
+import org.chartsy.main.data.Quote;
 import org.chartsy.main.data.Stock;
 import org.chartsy.main.data.StockNode;
 import org.chartsy.main.data.StockSet;
+import org.chartsy.main.data.SymbolDirectory;
+import org.chartsy.main.events.TickEvent;
 import org.chartsy.main.exceptions.InvalidStockException;
 import org.chartsy.main.exceptions.RegistrationException;
 import org.chartsy.main.exceptions.StockNotFoundException;
@@ -25,6 +49,9 @@ import org.chartsy.main.intervals.Interval;
 import org.chartsy.main.managers.CacheManager;
 import org.chartsy.main.managers.DatasetUsage;
 import org.chartsy.main.managers.ProxyManager;
+import org.chartsy.main.managers.SymbolDirectoryManager;
+import org.chartsy.main.metrics.Metrics;
+import org.chartsy.main.utils.FileUtils;
 import org.chartsy.main.utils.SerialVersion;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -45,19 +72,35 @@ public final class BitcoinChartsDataProvider extends DataProvider implements Run
     };
 
     private static final int HEARTBEAT_TIMEOUT = 10000; // ms
+    private static final int MARKETS_TIMEOUT = 60; // s
+
+    private static final long HISTORY_CHUNK = 86400; // s
+    private static final int HISTORY_CHUNKS = 64;
+    private static final int HISTORY_THREADS = 4;
+    private static final int HISTORY_RETRIES = 3;
+    private static final long RECONNECT_DELAY = 1000; // ms
+    private static final long RECONNECT_MAX_DELAY = 60000; // ms
+    private static ExecutorService historyExecutor;
+
+    private static final Logger LOG = Logger.getLogger(BitcoinChartsDataProvider.class.getName());
 
     private final JSONParser parser;
-    private final HashMap<String,String> symbolMap;
-    private final HashMap<String,Long> lastTicks;
-    private final HashMap<String,Long> cachedTill;
+    private final ConcurrentHashMap<String,String> symbolMap;
+    private final ConcurrentHashMap<String,Long> lastTicks;
+    private final ConcurrentHashMap<String,Long> cachedTill;
+    // the minute bars missing since the live feed dropped, by symbol
+    private final ConcurrentHashMap<String,Gap> gaps;
+    private volatile boolean connected = false;
+    private volatile SymbolDirectory symbols;
 
     public BitcoinChartsDataProvider()
     {
         super(NbBundle.getBundle(BitcoinChartsDataProvider.class), true, false);
         parser = new JSONParser();
-        symbolMap = new HashMap<String,String>();
-        lastTicks = new HashMap<String,Long>();
-        cachedTill = new HashMap<String,Long>();
+        symbolMap = new ConcurrentHashMap<String,String>();
+        lastTicks = new ConcurrentHashMap<String,Long>();
+        cachedTill = new ConcurrentHashMap<String,Long>();
+        gaps = new ConcurrentHashMap<String,Gap>();
     }
 
     @Override
@@ -72,11 +115,31 @@ public final class BitcoinChartsDataProvider extends DataProvider implements Run
         return SUPPORTED_INTERVALS;
     }
 
+    /**
+     * Serves the market list of the last run, from a snapshot on disk, and
+     * starts the live feed before the list is fetched again.
+     */
     @Override
     public void initialize()
     {
+        List<String> snapshot = readMarkets();
+        if ( snapshot != null ) {
+            setMarkets( snapshot, false );
+            setReady();
+            startLiveFeed();
+        }
+
+        List<String> markets = new ArrayList<String>();
         try {
-            BufferedReader rd = ProxyManager.getDefault().bufferReaderGET(getMarketsUrl());
+            InputStream stream = ProxyManager.getDefault().cachedInputStreamGET(getMarketsUrl());
+            if ( stream == null )
+                throw new IOException("No response for " + getMarketsUrl());
+            if ( snapshot != null && ProxyManager.isNotModified(stream) ) {
+                // the snapshot was written from this same response
+                stream.close();
+                return;
+            }
+            BufferedReader rd = new BufferedReader( new InputStreamReader(stream) );
             JSONArray data = null;
             try {
                 data = (JSONArray)( parser.parse(rd) );
@@ -90,10 +153,7 @@ public final class BitcoinChartsDataProvider extends DataProvider implements Run
 
             for ( ListIterator iter = data.listIterator(); iter.hasNext(); ) {
                 JSONObject market = (JSONObject)( iter.next() );
-
-                String symbol = (String)( market.get("symbol") );
-                symbolMap.put( symbol.toUpperCase(), symbol );
-                lastTicks.put( symbol.toUpperCase(), Long.valueOf(0) );
+                markets.add( (String)( market.get("symbol") ) );
             }
         }
         catch (IOException e) {
@@ -101,6 +161,89 @@ public final class BitcoinChartsDataProvider extends DataProvider implements Run
             return;
         }
 
+        if ( !markets.equals(snapshot) ) {
+            setMarkets( markets, true );
+            writeMarkets( markets );
+        }
+        if ( snapshot == null )
+            startLiveFeed();
+    }
+
+    private void setMarkets(List<String> markets, boolean publish)
+    {
+        List<StockNode> stocks = new ArrayList<StockNode>();
+        for ( String symbol : markets ) {
+            String key = symbol.toUpperCase();
+            symbolMap.put( key, symbol );
+            lastTicks.putIfAbsent( key, Long.valueOf(0) );
+            stocks.add( new StockNode(key, key, null) );
+        }
+
+        SymbolDirectory directory = null;
+        if ( !publish )
+            directory = SymbolDirectoryManager.getDefault().getDirectory(getName());
+        symbols = ( directory != null ) ? directory : publishSymbols(stocks);
+    }
+
+    /**
+     * @return the market symbols written by the last run, or null
+     */
+    private List<String> readMarkets()
+    {
+        File file = getMarketsFile();
+        if ( !file.exists() )
+            return null;
+        try {
+            DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream(file) ) );
+            try {
+                int size = in.readInt();
+                List<String> markets = new ArrayList<String>(size);
+                for ( int i = 0; i < size; i++ )
+                    markets.add( in.readUTF() );
+                return markets;
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            LOG.log(Level.INFO, "Could not read the markets snapshot " + file, e);
+            file.delete();
+            return null;
+        }
+    }
+
+    private void writeMarkets(List<String> markets)
+    {
+        File file = getMarketsFile();
+        File temp = new File( file.getPath() + ".tmp" );
+        try {
+            DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream(temp) ) );
+            try {
+                out.writeInt( markets.size() );
+                for ( String symbol : markets )
+                    out.writeUTF( symbol );
+            }
+            finally {
+                out.close();
+            }
+            file.delete();
+            if ( !temp.renameTo(file) )
+                throw new IOException("Could not rename " + temp + " to " + file);
+        }
+        catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not write the markets snapshot " + file, e);
+            temp.delete();
+        }
+    }
+
+    private File getMarketsFile()
+    {
+        return new File( FileUtils.cacheSymbolsFolder(), FileUtils.getStringHash(getName()) + ".markets" );
+    }
+
+    private void startLiveFeed()
+    {
         Thread liveFeed = new Thread( this, BitcoinChartsDataProvider.class.getSimpleName() );
         liveFeed.setDaemon(true);
         liveFeed.start();
@@ -110,14 +253,27 @@ public final class BitcoinChartsDataProvider extends DataProvider implements Run
     public void run()
     {
         boolean running = true;
+        long delay = RECONNECT_DELAY;
 
         try {
             while (running) {
-                for ( String s : lastTicks.keySet() ) {
-                    lastTicks.put( s, Long.valueOf(0) );
+                Socket s;
+                try {
+                    s = new Socket( getLiveFeedAddress(), getLiveFeedPort() );
                 }
-
-                Socket s = new Socket( getLiveFeedAddress(), getLiveFeedPort() );
+                catch (IOException e) {
+                    // still offline, try again later
+                    try {
+                        Thread.sleep(delay);
+                    }
+                    catch (InterruptedException ie) {
+                        running = false;
+                    }
+                    delay = Math.min( 2*delay, RECONNECT_MAX_DELAY );
+                    continue;
+                }
+                delay = RECONNECT_DELAY;
+                Metrics.increment("feed.connects");
                 BufferedReader rd = new BufferedReader( new InputStreamReader( s.getInputStream() ) );
                 BufferedWriter wr = new BufferedWriter( new OutputStreamWriter( s.getOutputStream() ) );
 
@@ -126,6 +282,7 @@ public final class BitcoinChartsDataProvider extends DataProvider implements Run
                 try {
                     wr.write("{\"action\":\"subscribe\",\"channel\":\"tick\"}\r\n");
                     wr.flush();
+                    connected = true;
 
                     while (running) {
                         String line;
@@ -139,6 +296,8 @@ public final class BitcoinChartsDataProvider extends DataProvider implements Run
                             continue;
                         }
 
+                        long received = System.nanoTime();
+                        long start = Metrics.start();
                         JSONObject obj;
                         try {
                             obj = (JSONObject)( parser.parse(line) );
@@ -160,20 +319,36 @@ public final class BitcoinChartsDataProvider extends DataProvider implements Run
                         Stock stock = new Stock(symbol);
                         stock.setCompanyName(symbol);
 
-                        synchronized ( (stock.toString() + "-" + ONE_MINUTE.getTimeParam()).intern() )
+                        String minutesName = getDatasetKey(stock, ONE_MINUTE);
+                        synchronized ( DatasetUsage.getInstance().getLock(minutesName) )
                         {
-                            if ( lastTicks.get(symbol).longValue() > 1000*time )
+                            Long lastTick = lastTicks.get(symbol);
+                            if ( lastTick != null && lastTick.longValue() > 1000*time )
                                 continue;
 
                             lastTicks.put( symbol, Long.valueOf(1000*time) );
 
-                            String minutesName = getDatasetKey(stock, ONE_MINUTE);
-                            if ( DatasetUsage.getInstance().isDatasetInMemory(minutesName) )
+                            // the tail of a spilled dataset, not read back for a tick
+                            Dataset minutes = DatasetUsage.getInstance().getDatasetForUpdate(minutesName);
+                            if ( minutes != null )
                             {
-                                Dataset minutes = DatasetUsage.getInstance().getDatasetFromMemory(minutesName);
-
                                 long barTime = 1000 * ( time - time % ONE_MINUTE.getLengthInSeconds() );
-                                if ( barTime == minutes.getLastTime() ) {
+                                Gap gap = gaps.get(symbol);
+                                if ( gap != null && gap.end > 0 && System.currentTimeMillis() >= gap.retryAt ) {
+                                    // the backfill failed, the same trades are tried again
+                                    backfill(symbol, gap);
+                                }
+                                if ( gap != null && gap.end == 0 ) {
+                                    // the first tick since the outage, the trades before it are backfilled
+                                    gap.end = 1000*time;
+                                    DataItem bar = new DataItem(barTime,price,price,price,price,volume);
+                                    if ( barTime == minutes.getLastTime() )
+                                        minutes.setDataItem( minutes.getLastIndex(), bar );
+                                    else if ( barTime > minutes.getLastTime() )
+                                        minutes.addDataItem(bar);
+                                    backfill(symbol, gap);
+                                }
+                                else if ( barTime == minutes.getLastTime() ) {
                                     DataItem bar = minutes.getLastDataItem();
                                     if ( bar.getHigh() == 0 || bar.getHigh() < price ) bar.setHigh(price);
                                     if ( bar.getLow() == 0 || bar.getLow() > price ) bar.setLow(price);
@@ -185,6 +360,10 @@ public final class BitcoinChartsDataProvider extends DataProvider implements Run
                                 }
                             }
                         }
+                        DatasetUsage.getInstance().fireTick(
+                            new TickEvent(getName(), symbol, 1000*time, price, volume, received) );
+                        Metrics.increment("feed.ticks");
+                        Metrics.stop("feed.tick", start);
                     }
                 }
                 catch (IOException e) {
@@ -192,6 +371,8 @@ public final class BitcoinChartsDataProvider extends DataProvider implements Run
                     continue;
                 }
                 finally {
+                    connected = false;
+                    openGaps();
                     s.close();
                 }
             }
@@ -201,6 +382,165 @@ public final class BitcoinChartsDataProvider extends DataProvider implements Run
         }
     }
 
+    /**
+     * Marks the minute bars in memory as complete up to their last bar
+     * when the live feed drops. The trades from there to the first tick
+     * after the feed is back are backfilled then.
+     */
+    private void openGaps()
+    {
+        for ( String symbol : lastTicks.keySet() ) {
+            Stock stock = new Stock(symbol);
+            String minutesName = getDatasetKey(stock, ONE_MINUTE);
+            synchronized ( DatasetUsage.getInstance().getLock(minutesName) )
+            {
+                Dataset minutes = DatasetUsage.getInstance().getDatasetForUpdate(minutesName);
+                if ( minutes == null || minutes.isEmpty() )
+                    continue;
+
+                // an outage before the last one was backfilled, from where that one started
+                Gap old = gaps.get(symbol);
+                gaps.put( symbol, new Gap( old != null ? old.start : minutes.getLastTime() ) );
+                Metrics.increment("feed.gaps");
+            }
+        }
+    }
+
+    /**
+     * Downloads the trades of the gap in the background and merges them
+     * into the minute bars in memory and in the cache. The bars of the
+     * other intervals in memory are calculated again only where the gap
+     * falls. A gap that failed to download is tried again on a tick after
+     * a delay, doubled on every failure up to RECONNECT_MAX_DELAY.
+     */
+    private void backfill(final String symbol, final Gap gap)
+    {
+        gap.retryAt = Long.MAX_VALUE;
+        historyExecutor().execute( new Runnable()
+        {
+            public void run()
+            {
+                long start = Metrics.start();
+                List<DataItem> bars = null;
+                String url = getHistoryUrl(symbol, gap.start/1000, gap.end/1000);
+                for ( int attempt = 0; attempt < HISTORY_RETRIES && bars == null; attempt++ ) {
+                    try {
+                        bars = readMinutes(url, gap.start/1000, gap.end/1000);
+                    }
+                    catch (IOException e) {
+                        LOG.log(Level.FINE, "Could not backfill " + symbol, e);
+                    }
+                }
+
+                if ( bars == null ) {
+                    gap.retryAt = System.currentTimeMillis() + gap.delay;
+                    gap.delay = Math.min( 2*gap.delay, RECONNECT_MAX_DELAY );
+                    Metrics.increment("feed.backfill.failed");
+                    return;
+                }
+                try {
+                    mergeGap(symbol, gap, bars);
+                }
+                catch (IOException e) {
+                    LOG.log(Level.WARNING, "Could not cache the backfill of " + symbol, e);
+                }
+                Metrics.stop("feed.backfill", start);
+            }
+        });
+    }
+
+    private void mergeGap(String symbol, Gap gap, List<DataItem> bars)
+            throws IOException
+    {
+        Stock stock = new Stock(symbol);
+        String minutesName = getDatasetKey(stock, ONE_MINUTE);
+        synchronized ( DatasetUsage.getInstance().getLock(minutesName) )
+        {
+            // fetched again meanwhile, or the feed dropped again
+            if ( !gaps.remove(symbol, gap) )
+                return;
+
+            Dataset minutes = DatasetUsage.getInstance().getDatasetFromMemory(minutesName);
+            if ( minutes == null )
+                return;
+
+            // the live bar of the first tick has the trades from it on
+            long length = 1000 * ONE_MINUTE.getLengthInSeconds();
+            long liveBar = gap.end - gap.end % length;
+            long till = liveBar;
+            DataItem b = bars.isEmpty() ? null : bars.get(bars.size()-1);
+            int idx = minutes.getItemsCount();
+            for ( ; idx > 0; idx-- ) {
+                if ( minutes.getTimeAt(idx-1) <= liveBar )
+                    break;
+            }
+            if ( b != null && b.getTime() == liveBar && idx > 0 && minutes.getTimeAt(idx-1) == liveBar ) {
+                DataItem i = minutes.getDataItem(idx-1);
+                bars.set( bars.size()-1, new DataItem( liveBar, b.getOpen(),
+                        Math.max( b.getHigh(), i.getHigh() ), Math.min( b.getLow(), i.getLow() ),
+                        i.getClose(), b.getVolume() + i.getVolume() ) );
+                till = liveBar + length;
+            }
+            DatasetUsage.getInstance().replaceBars(minutesName, bars, gap.start, till);
+            Metrics.increment("feed.backfills");
+
+            minutes = DatasetUsage.getInstance().getDatasetFromMemory(minutesName);
+            Long cached = cachedTill.get(minutesName);
+            if ( cached != null )
+                cacheBars( minutes, minutesName, Math.min( cached.longValue(), gap.start ), ONE_MINUTE );
+
+            for ( Interval interval : SUPPORTED_INTERVALS ) {
+                if ( interval.equals(ONE_MINUTE) )
+                    continue;
+
+                String dataName = getDatasetKey(stock, interval);
+                synchronized ( DatasetUsage.getInstance().getLock(dataName) )
+                {
+                    if ( !DatasetUsage.getInstance().isDatasetInMemory(dataName) )
+                        continue;
+
+                    long size = 1000 * interval.getLengthInSeconds();
+                    long from = gap.start - gap.start % size;
+                    long to = liveBar - liveBar % size + size;
+
+                    // the minutes of the first bucket may be paged out
+                    minutes = DatasetUsage.getInstance().loadHistory(minutesName, from);
+                    List<DataItem> ticks = new ArrayList<DataItem>();
+                    for ( DataItem i : minutes.getDataItems() ) {
+                        if ( i != null && i.getTime() >= from && i.getTime() < to )
+                            ticks.add(i);
+                    }
+                    DatasetUsage.getInstance().replaceBars( dataName, aggregateTicks(ticks, interval), from, to );
+
+                    Long dataCached = cachedTill.get(dataName);
+                    if ( dataCached != null && from < dataCached.longValue() )
+                        cacheBars( DatasetUsage.getInstance().getDatasetFromMemory(dataName),
+                                dataName, from, interval );
+                }
+            }
+        }
+    }
+
+    /**
+     * Caches the bars of the dataset from the time on but the last one,
+     * which is still open, and moves on the time the cache reaches.
+     */
+    private void cacheBars(Dataset data, String dataName, long since, Interval interval)
+            throws IOException
+    {
+        int from = data.getItemsCount() - 1;
+        for ( ; from > 0; from-- ) {
+            if ( data.getTimeAt(from-1) < since )
+                break;
+        }
+        if ( from < 0 || from >= data.getLastIndex() )
+            return;
+
+        Dataset cached = new Dataset( data.getDataItems().subList(from, data.getLastIndex()) );
+        CacheManager.getInstance().cacheDataset( cached, dataName, true );
+        cachedTill.put( dataName, cached.getLastTime() + 1000 * interval.getLengthInSeconds() );
+    }
+
     @Override
     protected String fetchCompanyName(String symbol)
             throws InvalidStockException, StockNotFoundException, RegistrationException, IOException
@@ -212,14 +552,54 @@ public final class BitcoinChartsDataProvider extends DataProvider implements Run
     public StockSet fetchAutocomplete(String text)
             throws IOException
     {
-        StockSet result = new StockSet();
+        if ( symbols == null )
+            return new StockSet();
 
-        for ( String symbol : symbolMap.keySet() ) {
-            if ( symbol.startsWith(text) )
-                result.add( new StockNode(symbol,symbol,null) );
+        return symbols.search( text, Integer.MAX_VALUE );
+    }
+
+    /**
+     * Quotes all the stocks from the market list, with one request.
+     */
+    @Override
+    public Map<String, Quote> fetchQuotes(List<Stock> stocks)
+            throws IOException
+    {
+        Map<String, String> keys = new HashMap<String, String>();
+        for ( Stock stock : stocks ) {
+            keys.put( stock.getKey().toUpperCase(), stock.getKey() );
         }
 
-        return result;
+        JSONArray data;
+        BufferedReader rd = ProxyManager.getDefault().bufferReaderGET(getMarketsUrl());
+        try {
+            // the live feed thread uses the shared parser
+            data = (JSONArray)( new JSONParser().parse(rd) );
+        }
+        catch (org.json.simple.parser.ParseException e) {
+            throw new IOException(e);
+        }
+        finally {
+            rd.close();
+        }
+
+        Map<String, Quote> quotes = new HashMap<String, Quote>();
+        for ( Object o : data ) {
+            JSONObject market = (JSONObject) o;
+            String key = keys.get( ((String) market.get("symbol")).toUpperCase() );
+            Number close = (Number) market.get("close");
+            if ( key == null || close == null )
+                continue;
+
+            Number previous = (Number) market.get("previous_close");
+            Number volume = (Number) market.get("volume");
+            Number time = (Number) market.get("latest_trade");
+            quotes.put( key, new Quote( close.doubleValue(),
+                    previous == null ? close.doubleValue() : previous.doubleValue(),
+                    volume == null ? 0 : volume.doubleValue(),
+                    time == null ? 0 : 1000 * time.longValue() ) );
+        }
+        return quotes;
     }
 
     @Override
@@ -233,18 +613,23 @@ public final class BitcoinChartsDataProvider extends DataProvider implements Run
     protected Dataset fetchData(Stock stock, Interval interval)
             throws IOException, ParseException
     {
-        synchronized ( (stock.toString() + "-" + ONE_MINUTE.getTimeParam()).intern() )
+        String minutesName = getDatasetKey(stock, ONE_MINUTE);
+        synchronized ( DatasetUsage.getInstance().getLock(minutesName) )
         {
+            // charts restored at startup may ask before the market list is known
+            if ( !symbolMap.containsKey(stock.getSymbol()) && !isReady() )
+                awaitReady( MARKETS_TIMEOUT, TimeUnit.SECONDS );
             if ( !symbolMap.containsKey(stock.getSymbol()) )
                 return null;
 
-            String minutesName = getDatasetKey(stock, ONE_MINUTE);
             if ( !datasetExists(stock, ONE_MINUTE) ) {
                 fetchHistory(stock);
             }
 
             Dataset minutes = DatasetUsage.getInstance().getDatasetFromMemory(minutesName);
-            long fetchTill = lastTicks.get(stock.getSymbol()).longValue();
+            boolean live = minutes != null && connected && !gaps.containsKey(stock.getSymbol());
+            // without the live feed the trades up to now are fetched
+            long fetchTill = connected ? lastTicks.get(stock.getSymbol()).longValue() : 0;
             long fetchSince;
             if ( minutes == null ) {
                 CacheManager.getInstance().fetchDatasetFromCache(minutesName);
@@ -257,28 +642,31 @@ public final class BitcoinChartsDataProvider extends DataProvider implements Run
             }
 
             List<DataItem> ticks = new ArrayList<DataItem>();
-            String url = getHistoryUrl(stock.getSymbol(), fetchSince/1000);
-            BufferedReader rd = ProxyManager.getDefault().bufferReaderGET(url);
-            try {
-                String inputLine;
-                while ( (inputLine = rd.readLine()) != null ) {
-                    String[] values = inputLine.split(",");
-
-                    long time = Long.parseLong(values[0]);
-                    double price = Double.parseDouble(values[1]);
-                    double amount = Double.parseDouble(values[2]);
+            if ( live ) {
+                // the live feed added every trade since the bars were fetched
+                cacheBars( minutes, minutesName, fetchSince, ONE_MINUTE );
+                Metrics.increment("feed.fetch.live");
+            } else {
+                String url = getHistoryUrl(stock.getSymbol(), fetchSince/1000);
+                CsvParser rd = new CsvParser(ProxyManager.getDefault().inputStreamGET(url));
+                try {
+                    while ( rd.next() ) {
+                        long time = rd.getLong(0);
+                        double price = rd.getDouble(1);
+                        double amount = rd.getDouble(2);
 
-                    if ( amount == 0 )
-                        continue;
+                        if ( amount == 0 )
+                            continue;
 
-                    if ( 1000*time > fetchTill && fetchTill > 0 )
-                        break;
+                        if ( 1000*time > fetchTill && fetchTill > 0 )
+                            break;
 
-                    ticks.add( new DataItem( 1000*time, price, price, price, price, amount ) );
+                        ticks.add( new DataItem( 1000*time, price, price, price, price, amount ) );
+                    }
+                }
+                finally {
+                    rd.close();
                 }
-            }
-            finally {
-                rd.close();
             }
 
             if ( fetchTill == 0 && !ticks.isEmpty() ) {
@@ -323,12 +711,22 @@ public final class BitcoinChartsDataProvider extends DataProvider implements Run
                     minutes.addDataItem(b);
             }
 
+            Gap gap = gaps.get(stock.getSymbol());
+            if ( !connected ) {
+                // the trades from here to when the live feed is back
+                if ( gap == null && !minutes.isEmpty() )
+                    gaps.put( stock.getSymbol(), new Gap(minutes.getLastTime()) );
+            } else if ( gap != null && gap.end > 0 && fetchTill >= gap.end ) {
+                // fetched up to the live ticks, no backfill
+                gaps.remove(stock.getSymbol());
+            }
+
             if ( interval.equals(ONE_MINUTE) )
                 return minutes;
 
-            synchronized ( (stock.toString() + "-" + interval.getTimeParam()).intern() )
+            String dataName = getDatasetKey(stock, interval);
+            synchronized ( DatasetUsage.getInstance().getLock(dataName) )
             {
-                String dataName = getDatasetKey(stock, interval);
                 Dataset data = DatasetUsage.getInstance().getDatasetFromMemory(dataName);
                 if ( data == null ) {
                     CacheManager.getInstance().fetchDatasetFromCache(dataName);
@@ -339,6 +737,10 @@ public final class BitcoinChartsDataProvider extends DataProvider implements Run
                     fetchSince = cachedTill.get(dataName).longValue();
                 }
 
+                // only the recent minutes may be in memory
+                if ( !minutes.isEmpty() && minutes.getTimeAt(0) > fetchSince )
+                    minutes = DatasetUsage.getInstance().loadHistory(minutesName, fetchSince);
+
                 int idx = minutes.getItemsCount();
                 for ( ; idx > 0; idx-- ) {
                     if ( minutes.getDataItem(idx-1).getTime() < fetchSince )
@@ -394,22 +796,219 @@ public final class BitcoinChartsDataProvider extends DataProvider implements Run
     private void fetchHistory(Stock stock)
             throws IOException, ParseException
     {
-        String url = getHistoryUrl(stock.getSymbol(),0);
-        BufferedReader rd = ProxyManager.getDefault().bufferReaderGET(url);
+        List<DataItem> minutes = new HistoryLoader(stock.getSymbol()).load();
 
-        ArrayList<DataItem> minutes = new ArrayList<DataItem>();
+        for ( Interval i : SUPPORTED_INTERVALS ) {
+            List<DataItem> data = aggregateTicks(minutes,i);
 
-        try {
-            String inputLine;
-            while ( (inputLine = rd.readLine()) != null ) {
-                String[] values = inputLine.split(",");
+            synchronized ( DatasetUsage.getInstance().getLock(getDatasetKey(stock, i)) )
+            {
+                String fileName = getDatasetKey(stock,i);
+                CacheManager.getInstance().cacheDataset(
+                        new Dataset(data.subList(0,Math.max(0,data.size()-1))),
+                        fileName, true );
+            }
+        }
+    }
+
+    private static synchronized ExecutorService historyExecutor()
+    {
+        if ( historyExecutor == null ) {
+            historyExecutor = Executors.newFixedThreadPool(HISTORY_THREADS, new ThreadFactory()
+            {
+                final AtomicInteger threadNumber = new AtomicInteger(1);
+
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable,
+                            "history-bitcoincharts" + threadNumber.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return historyExecutor;
+    }
+
+    /**
+     * Downloads the trades of a market in at most HISTORY_CHUNKS chunks,
+     * HISTORY_THREADS at a time, and aggregates every chunk to minute bars.
+     * The chunk length is HISTORY_CHUNK seconds doubled until the history
+     * fits, and chunks are aligned to multiples of it. Each completed chunk
+     * except the last one is kept in the dataset cache until the whole
+     * history is loaded, so a load that failed resumes where it stopped.
+     * The chunks are kept by their start only: once the length doubled the
+     * chunk kept at a start covers the first half of the new chunk and the
+     * one kept in the middle the second half.
+     */
+    private final class HistoryLoader
+    {
+        private final String symbol;
+        private final String key;
+        private long chunk = HISTORY_CHUNK;
+
+        private HistoryLoader(String symbol)
+        {
+            this.symbol = symbol;
+            this.key = getDatasetKey(new Stock(symbol), ONE_MINUTE);
+        }
+
+        private List<DataItem> load()
+                throws IOException
+        {
+            long first = firstTradeTime();
+            if ( first < 0 )
+                return new ArrayList<DataItem>(0);
+
+            long now = System.currentTimeMillis() / 1000;
+            while ( (now - first) / chunk >= HISTORY_CHUNKS )
+                chunk *= 2;
+            List<Long> starts = new ArrayList<Long>();
+            for ( long start = first - first % chunk; start <= now; start += chunk )
+                starts.add( Long.valueOf(start) );
+
+            List<Future<List<DataItem>>> futures = new ArrayList<Future<List<DataItem>>>();
+            for ( int i = 0; i < starts.size(); i++ ) {
+                final long start = starts.get(i).longValue();
+                final boolean last = i == starts.size() - 1;
+                futures.add( historyExecutor().submit( new Callable<List<DataItem>>()
+                {
+                    public List<DataItem> call() throws Exception
+                    {
+                        return loadChunk(start, last);
+                    }
+                }));
+            }
+
+            List<DataItem> minutes = new ArrayList<DataItem>();
+            IOException failure = null;
+            for ( Future<List<DataItem>> future : futures ) {
+                try {
+                    List<DataItem> bars = future.get();
+                    if ( failure == null )
+                        minutes.addAll(bars);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+                catch (ExecutionException e) {
+                    if ( failure == null )
+                        failure = e.getCause() instanceof IOException
+                                ? (IOException) e.getCause()
+                                : new IOException(e.getCause());
+                }
+            }
+            if ( failure != null )
+                throw failure;
+
+            for ( int i = 0; i < starts.size() - 1; i++ ) {
+                long start = starts.get(i).longValue();
+                CacheManager.getInstance().removeDatasetFromCache( chunkName(start) );
+                CacheManager.getInstance().removeDatasetFromCache( chunkName(start + chunk / 2) );
+            }
+            return minutes;
+        }
+
+        private long firstTradeTime()
+                throws IOException
+        {
+            IOException failure = null;
+            for ( int attempt = 0; attempt < HISTORY_RETRIES; attempt++ ) {
+                try {
+                    return readFirstTradeTime();
+                }
+                catch (IOException e) {
+                    failure = e;
+                }
+            }
+            throw failure;
+        }
+
+        private long readFirstTradeTime()
+                throws IOException
+        {
+            CsvParser rd = new CsvParser(ProxyManager.getDefault().inputStreamGET(getHistoryUrl(symbol, 0)));
+            try {
+                while ( rd.next() ) {
+                    if ( rd.getColumnCount() >= 3 )
+                        return rd.getLong(0);
+                }
+                return -1;
+            }
+            catch (NumberFormatException e) {
+                throw new IOException(e);
+            }
+            finally {
+                rd.close();
+            }
+        }
+
+        private List<DataItem> loadChunk(long start, boolean last)
+                throws IOException
+        {
+            long end = start + chunk;
+            List<DataItem> resumed = new ArrayList<DataItem>();
+            long from = start;
+            if ( !last ) {
+                // the chunk kept at its start, then the second half kept
+                // before the length doubled
+                for ( long at = start; at < end; at += chunk / 2 ) {
+                    if ( at < from || !CacheManager.getInstance().datasetCacheExists(chunkName(at)) )
+                        continue;
+                    List<DataItem> bars = CacheManager.getInstance().getDatasetFromCache(chunkName(at)).getDataItems();
+                    resumed.addAll(bars);
+                    if ( !bars.isEmpty() )
+                        from = bars.get(bars.size() - 1).getTime() / 1000 + 60;
+                    Metrics.increment("history.chunks.resumed");
+                }
+                if ( from >= end )
+                    return resumed;
+            }
+
+            // only the trades after the last bar kept
+            String url = last ? getHistoryUrl(symbol, from) : getHistoryUrl(symbol, from, end);
+            IOException failure = null;
+            for ( int attempt = 0; attempt < HISTORY_RETRIES; attempt++ ) {
+                long timer = Metrics.start();
+                try {
+                    List<DataItem> minutes = new ArrayList<DataItem>(resumed);
+                    minutes.addAll( readMinutes(url, from, last ? Long.MAX_VALUE : end) );
+                    if ( !last ) {
+                        CacheManager.getInstance().cacheDataset( new Dataset(minutes), chunkName(start), true );
+                        CacheManager.getInstance().removeDatasetFromCache( chunkName(start + chunk / 2) );
+                    }
+                    Metrics.stop("history.chunk", timer);
+                    return minutes;
+                }
+                catch (IOException e) {
+                    failure = e;
+                }
+            }
+            throw failure;
+        }
 
-                long time = Long.parseLong(values[0]);
-                double price = Double.parseDouble(values[1]);
-                double amount = Double.parseDouble(values[2]);
+        private String chunkName(long start)
+        {
+            return key + "-history-" + start;
+        }
+    }
+
+    private List<DataItem> readMinutes(String url, long start, long end)
+            throws IOException
+    {
+        ArrayList<DataItem> minutes = new ArrayList<DataItem>();
+        CsvParser rd = new CsvParser(ProxyManager.getDefault().inputStreamGET(url));
+        try {
+            while ( rd.next() ) {
+                long time = rd.getLong(0);
+                double price = rd.getDouble(1);
+                double amount = rd.getDouble(2);
 
-                if ( amount == 0 )
+                if ( amount == 0 || time < start )
                     continue;
+                if ( time >= end )
+                    break;
 
                 DataItem last = minutes.isEmpty() ? null : minutes.get(minutes.size()-1);
                 long lastTime = 1000 * ( time - time % ONE_MINUTE.getLengthInSeconds() );
@@ -423,20 +1022,31 @@ public final class BitcoinChartsDataProvider extends DataProvider implements Run
                 }
             }
         }
+        catch (NumberFormatException e) {
+            throw new IOException(e);
+        }
         finally {
             rd.close();
         }
+        return minutes;
+    }
 
-        for ( Interval i : SUPPORTED_INTERVALS ) {
-            List<DataItem> data = aggregateTicks(minutes,i);
+    /**
+     * The minute bars from the start time, the last one before the live
+     * feed dropped, to the time of the first tick after it was back, 0
+     * until then.
+     */
+    private static final class Gap
+    {
+        private final long start;
+        private volatile long end = 0;
+        // when a failed backfill may be tried again, Long.MAX_VALUE while one runs
+        private volatile long retryAt = 0;
+        private volatile long delay = RECONNECT_DELAY;
 
-            synchronized ( (stock.toString() + "-" + i.getTimeParam()).intern() )
-            {
-                String fileName = getDatasetKey(stock,i);
-                CacheManager.getInstance().cacheDataset(
-                        new Dataset(data.subList(0,data.size()-1)),
-                        fileName, true );
-            }
+        private Gap(long start)
+        {
+            this.start = start;
         }
     }
 
@@ -453,9 +1063,9 @@ public final class BitcoinChartsDataProvider extends DataProvider implements Run
     @Override
     public List<DataItem> getLastDataItems(Stock stock, Interval interval)
     {
-        synchronized ( (stock.toString() + "-" + ONE_MINUTE.getTimeParam()).intern() )
+        String minutesName = getDatasetKey(stock, ONE_MINUTE);
+        synchronized ( DatasetUsage.getInstance().getLock(minutesName) )
         {
-            String minutesName = getDatasetKey(stock, ONE_MINUTE);
             if ( !DatasetUsage.getInstance().isDatasetInMemory(minutesName) )
                 return new ArrayList<DataItem>(0);
 
@@ -467,10 +1077,13 @@ public final class BitcoinChartsDataProvider extends DataProvider implements Run
                 return result;
             }
 
-            synchronized ( (stock.toString() + "-" + interval.getTimeParam()).intern() )
+            synchronized ( DatasetUsage.getInstance().getLock(getDatasetKey(stock, interval)) )
             {
                 String dataName = getDatasetKey(stock, interval);
-                Dataset data = DatasetUsage.getInstance().getDatasetFromMemory(dataName);
+                // the tail when it is spilled, the bars are merged into it
+                Dataset data = DatasetUsage.getInstance().getDatasetForUpdate(dataName);
+                if ( data == null )
+                    return new ArrayList<DataItem>(0);
 
                 int idx;
                 for ( idx = minutes.getItemsCount(); idx > 0; idx-- ) {
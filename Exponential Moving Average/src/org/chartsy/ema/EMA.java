@@ -82,6 +82,10 @@ public class EMA
         }
     }
 
+    @Override
+    public int getLookback()
+    { return properties.getPeriod(); }
+
     public Color[] getColors()
     { return new Color[] {properties.getColor()}; }
 
@@ -0,0 +1,57 @@
+package org.chartsy.ema;
+
+import org.chartsy.main.backtest.Backtest;
+import org.chartsy.main.backtest.Strategy;
+
+/**
+ * Holds a long position while the fast EMA of the close is above the slow
+ * one. Both averages are updated bar by bar, seeded like Dataset.EMA with
+ * the simple average of their first period.
+ */
+public class EMACrossover
+        extends Strategy
+{
+
+    private static final int FAST = 12;
+    private static final int SLOW = 26;
+
+    private int bars = 0;
+    private double fast = 0;
+    private double slow = 0;
+
+    public String getName()
+    {
+        return "EMA Crossover (" + FAST + ", " + SLOW + ")";
+    }
+
+    public Strategy newInstance()
+    {
+        return new EMACrossover();
+    }
+
+    public void onBar(Backtest test)
+    {
+        double close = test.getClose();
+        bars++;
+        fast = update(fast, close, FAST);
+        slow = update(slow, close, SLOW);
+        if (bars < SLOW)
+            return;
+
+        boolean above = fast > slow;
+        if (above && test.getPosition() <= 0)
+            test.setExposure(1);
+        else if (!above && test.getPosition() > 0)
+            test.setPosition(0);
+    }
+
+    private double update(double ema, double close, int period)
+    {
+        if (bars < period)
+            return ema + close;
+        if (bars == period)
+            return (ema + close) / period;
+        return ema + (close - ema) * 2 / (period + 1);
+    }
+
+}
@@ -11,12 +11,10 @@ import javax.swing.ActionMap;
 import javax.swing.text.DefaultEditorKit;
 import org.chartsy.favorites.xml.FavoritesXmlParser;
 import org.chartsy.favorites.xml.FavoritesXmlWriter;
-import org.chartsy.main.events.DataProviderEvent;
-import org.chartsy.main.events.DataProviderListener;
 import org.chartsy.main.favorites.FavoritesTreeView;
 import org.chartsy.main.favorites.nodes.RootAPI;
 import org.chartsy.main.favorites.nodes.RootAPINode;
-import org.chartsy.main.managers.DatasetUsage;
+import org.chartsy.main.managers.PrefetchManager;
 import org.chartsy.main.utils.FileUtils;
 import org.chartsy.main.utils.SerialVersion;
 import org.openide.explorer.ExplorerManager;
@@ -40,7 +38,7 @@ import org.openide.windows.WindowManager;
  * @author Viorel
  */
 public final class FavoritesComponent extends TopComponent 
-	implements DataProviderListener, ExplorerManager.Provider
+	implements ExplorerManager.Provider
 {
 
 	private static FavoritesComponent instance;
@@ -75,8 +73,6 @@ public final class FavoritesComponent extends TopComponent
 		map.put(DefaultEditorKit.pasteAction, ExplorerUtils.actionPaste(manager));
 		map.put("delete", ExplorerUtils.actionDelete(manager, true));
 		associateLookup(ExplorerUtils.createLookup(manager, map));
-
-		DatasetUsage.getInstance().addDataProviderListener((DataProviderListener) this);
     }
 
 	private void initComponents()
@@ -144,12 +140,6 @@ public final class FavoritesComponent extends TopComponent
         return PREFERRED_ID;
     }
 
-	public void triggerDataProviderListener(DataProviderEvent evt)
-	{
-		revalidate();
-		repaint();
-	}
-
 	public ExplorerManager getExplorerManager()
 	{
 		return manager;
@@ -189,6 +179,7 @@ public final class FavoritesComponent extends TopComponent
 		{
 			RootAPINode node = new RootAPINode(root);
 			setRootContext(node);
+			PrefetchManager.getDefault().warmUp(root);
 		}
 	}
 
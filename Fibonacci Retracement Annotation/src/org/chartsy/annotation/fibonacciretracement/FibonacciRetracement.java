@@ -85,6 +85,35 @@ public class FibonacciRetracement
             paintActionPoints(g);
     }
 
+    public @Override double getMaxValue()
+    {
+        double max = Math.max(getV1(), getV2()), min = Math.min(getV1(), getV2());
+        return min + ((max - min) * getMaxPercent()) / 100;
+    }
+
+    public @Override Rectangle getPaintBounds()
+    {
+        Rectangle bounds = super.getPaintBounds();
+        if (bounds != null)
+        {
+            // the labels start at the left of the lines and can be wider
+            double X = Math.min(getXFromTime(getT1()), getXFromTime(getT2()));
+            String label = getLabel(getMaxPercent(), Math.max(Math.abs(getMinValue()), Math.abs(getMaxValue())));
+            int width = getAnnotationPanel().getFontMetrics(font).stringWidth(label);
+            bounds.add(X + 4 + width + PAINT_MARGIN, bounds.getY());
+        }
+        return bounds;
+    }
+
+    private double getMaxPercent()
+    {
+        double percent = 100;
+        for (int i = 0; i < defaultShow.length; i++)
+            if (defaultShow[i])
+                percent = Math.max(percent, defaultLines[i]);
+        return percent;
+    }
+
     private String getLabel(double percent, double value)
     { return df.format(percent) + "% (" + df.format(value) + ")"; }
 
@@ -54,6 +54,12 @@ public class HorizontalLine
         return (getActionPoint(x, y) != NONE) || lineContains(bounds.getMinX(), Y, bounds.getMaxX(), Y, x, y, 4);
     }
 
+    public @Override long getMinTime()
+    { return Long.MIN_VALUE; }
+
+    public @Override long getMaxTime()
+    { return Long.MAX_VALUE; }
+
     public void paint(Graphics2D g)
     {
         Rectangle bounds = getAnnotationPanel().getBounds();
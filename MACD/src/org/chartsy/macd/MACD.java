@@ -123,6 +123,10 @@ public class MACD
         }
     }
 
+    @Override
+    public int getLookback()
+    { return properties.getSlow() + properties.getSmooth(); }
+
     public boolean hasZeroLine(){ return true; }
 
     public boolean getZeroLineVisibility(){ return properties.getZeroLineVisibility(); }
@@ -0,0 +1,119 @@
+package org.chartsy.macd;
+
+import java.util.concurrent.Callable;
+import org.chartsy.main.backtest.Backtest;
+import org.chartsy.main.backtest.BacktestSettings;
+import org.chartsy.main.backtest.Strategy;
+import org.chartsy.main.optimizer.BacktestObjective;
+import org.chartsy.main.optimizer.Objective;
+import org.chartsy.main.optimizer.PriceColumns;
+
+/**
+ * Holds a long position while the MACD line is above its signal line.
+ * The averages of the close and the MACD line come from the price columns,
+ * so optimizing fast, slow and smooth calculates every EMA and every MACD
+ * line only once.
+ */
+public class MACDStrategy
+        extends Strategy
+{
+
+    private final int fast;
+    private final int slow;
+    private final int smooth;
+    private PriceColumns columns;
+
+    private double[] macd;
+    private int count = 0;
+    private double signal = 0;
+
+    public MACDStrategy()
+    {
+        this(12, 26, 9, null);
+    }
+
+    /**
+     * @param columns the columns of the dataset the strategy is run over,
+     * or null to read them at the start
+     */
+    public MACDStrategy(int fast, int slow, int smooth, PriceColumns columns)
+    {
+        this.fast = fast;
+        this.slow = slow;
+        this.smooth = smooth;
+        this.columns = columns;
+    }
+
+    /**
+     * @return the objective of an optimization of the fast, slow and smooth
+     * periods, in this order
+     */
+    public static Objective objective(BacktestSettings settings)
+    {
+        return new BacktestObjective(settings)
+        {
+            protected Strategy createStrategy(PriceColumns columns, double[] parameters)
+            {
+                return new MACDStrategy((int) parameters[0], (int) parameters[1],
+                        (int) parameters[2], columns);
+            }
+        };
+    }
+
+    public String getName()
+    {
+        return "MACD Signal Cross (" + fast + ", " + slow + ", " + smooth + ")";
+    }
+
+    public Strategy newInstance()
+    {
+        return new MACDStrategy(fast, slow, smooth, null);
+    }
+
+    @Override
+    public void start(Backtest test)
+    {
+        if (columns == null)
+            columns = new PriceColumns(test.getDataset());
+        final double[] fastEMA = columns.getEMA(fast);
+        final double[] slowEMA = columns.getEMA(slow);
+        macd = columns.getSeries("macd." + fast + "." + slow, new Callable<double[]>()
+        {
+            public double[] call()
+            {
+                double[] result = new double[fastEMA.length];
+                for (int i = 0; i < result.length; i++)
+                    result[i] = fastEMA[i] - slowEMA[i];
+                return result;
+            }
+        });
+    }
+
+    public void onBar(Backtest test)
+    {
+        double value = macd[test.getIndex()];
+        if (Double.isNaN(value))
+            return;
+
+        // signal line, seeded like Dataset.EMA
+        count++;
+        if (count < smooth)
+        {
+            signal += value;
+            return;
+        } else if (count == smooth)
+        {
+            signal = (signal + value) / smooth;
+        } else
+        {
+            signal = (value - signal) * 2 / (smooth + 1) + signal;
+        }
+
+        boolean above = value > signal;
+        if (above && test.getPosition() <= 0)
+            test.setExposure(1);
+        else if (!above && test.getPosition() > 0)
+            test.setPosition(0);
+    }
+
+}
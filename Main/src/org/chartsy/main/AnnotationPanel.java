@@ -21,6 +21,7 @@ import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.ToolTipManager;
 import org.chartsy.main.chart.Annotation;
+import org.chartsy.main.chart.AnnotationIndex;
 import org.chartsy.main.chart.Indicator;
 import org.chartsy.main.chart.Overlay;
 import org.chartsy.main.data.ChartData;
@@ -49,6 +50,7 @@ public class AnnotationPanel extends JPanel
 
     private ChartFrame chartFrame;
     private List<Annotation> annotations;
+    private transient AnnotationIndex index;
     private Annotation current = null;
 	private ToolTipManager toolTipManager;
 
@@ -60,6 +62,7 @@ public class AnnotationPanel extends JPanel
 		toolTipManager.setLightWeightPopupEnabled(true);
 		toolTipManager.registerComponent(this);
         annotations = new ArrayList<Annotation>();
+        index = new AnnotationIndex();
 
         setOpaque(false);
 		setDoubleBuffered(true);
@@ -82,8 +85,13 @@ public class AnnotationPanel extends JPanel
 	public void paint(Graphics g)
 	{
 		Graphics2D g2 = GraphicsUtils.prepareGraphics(g);
+		Rectangle clip = g.getClipBounds();
         for (Annotation annotation : annotations)
-            annotation.paint(g2);
+		{
+			Rectangle bounds = clip != null ? annotation.getPaintBounds() : null;
+			if (bounds == null || bounds.intersects(clip))
+				annotation.paint(g2);
+		}
 	}
 
 	@Override
@@ -112,6 +120,7 @@ public class AnnotationPanel extends JPanel
             a.setChartFrame(chartFrame);
             a.setAnnotationPanel(this);
             annotations.add(a);
+            index.add(a);
         }
         repaint();
     }
@@ -123,7 +132,14 @@ public class AnnotationPanel extends JPanel
     { return annotations.toArray(new Annotation[annotations.size()]); }
 
     public void addAnnotation(Annotation a)
-    { annotations.add(a); }
+    { annotations.add(a);
+      index.add(a); }
+
+    /**
+     * Called by an annotation of this panel when its time or value changed.
+     */
+    public void annotationMoved(Annotation a)
+    { index.update(a); }
 
     public boolean hasCurrent()
     { return current != null; }
@@ -150,6 +166,7 @@ public class AnnotationPanel extends JPanel
         {
             current = null;
             annotations.clear();
+            index.clear();
             validate();
             repaint();
         }
@@ -165,6 +182,7 @@ public class AnnotationPanel extends JPanel
         {
             current.setSelected(false);
             annotations.remove(getCurrent());
+            index.remove(getCurrent());
             current = null;
             repaint();
         }
@@ -172,7 +190,7 @@ public class AnnotationPanel extends JPanel
 
     private boolean isAnnotation(int x, int y)
     {
-        for (Annotation a : annotations)
+        for (Annotation a : index.getAnnotationsAt(x, y))
         {
             boolean b = a.pointIntersects(x, y);
             if (b)
@@ -2,6 +2,8 @@ package org.chartsy.main;
 
 import java.awt.BorderLayout;
 import java.awt.Color;
+import java.awt.Component;
+import java.awt.Container;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.event.AdjustmentEvent;
@@ -9,9 +11,13 @@ import java.awt.event.AdjustmentListener;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import javax.swing.ImageIcon;
@@ -20,6 +26,7 @@ import javax.swing.JMenuItem;
 import javax.swing.JPopupMenu;
 import javax.swing.JScrollBar;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 import javax.swing.event.EventListenerList;
 import org.chartsy.main.chart.Annotation;
 import org.chartsy.main.chart.Chart;
@@ -27,7 +34,6 @@ import org.chartsy.main.chart.Indicator;
 import org.chartsy.main.chart.Overlay;
 import org.chartsy.main.data.ChartData;
 import org.chartsy.main.data.DataProvider;
-import org.chartsy.main.data.Dataset;
 import org.chartsy.main.data.Stock;
 import org.chartsy.main.events.DataProviderEvent;
 import org.chartsy.main.events.DataProviderListener;
@@ -35,7 +41,12 @@ import org.chartsy.main.history.History;
 import org.chartsy.main.history.HistoryItem;
 import org.chartsy.main.intervals.Interval;
 import org.chartsy.main.managers.CacheManager;
+import org.chartsy.main.managers.ChartManager;
 import org.chartsy.main.managers.DatasetUsage;
+import org.chartsy.main.managers.IndicatorManager;
+import org.chartsy.main.managers.OverlayManager;
+import org.chartsy.main.managers.PrefetchManager;
+import org.chartsy.main.metrics.Metrics;
 import org.chartsy.main.resources.ResourcesUtils;
 import org.chartsy.main.templates.Template;
 import org.chartsy.main.utils.ChartNode;
@@ -82,6 +93,14 @@ public class ChartFrame extends TopComponent
 		setToolTipText(NbBundle.getMessage(ChartFrame.class, "TOOL_ChartFrameEmpty"));
 	}
 
+	private ChartFrame(boolean offscreen)
+	{
+		this.offscreen = offscreen;
+		setLayout(new BorderLayout());
+		chartProperties = new ChartProperties();
+		history = new History();
+	}
+
     private void initComponents()
     {
 		setOpaque(false);
@@ -138,7 +157,12 @@ public class ChartFrame extends TopComponent
 			}
 		}
 
-		DatasetUsage.getInstance().addDataProviderListener(this);
+		if (!offscreen)
+		{
+			subscribe(chartData.getDatasetKey());
+			if (showing)
+				show(chartData.getDatasetKey());
+		}
 		addMouseWheelListener((MouseWheelListener) this);
 		scrollBar.addAdjustmentListener((AdjustmentListener) this);
 
@@ -355,6 +379,7 @@ public class ChartFrame extends TopComponent
 			popupMenu.add(new JMenuItem(MainActions.addToFavorites(this))); // add to favorites
 			popupMenu.add(new JMenuItem(MainActions.toggleToolbarVisibility(this))); // hide/show toolbar
 			popupMenu.add(MainActions.generateTemplatesMenu(this)); // save to template
+			popupMenu.add(MainActions.generateBacktestMenu(this)); // run a strategy
 
 			popupMenu.getComponent(8).setVisible(false);
 		}
@@ -397,14 +422,15 @@ public class ChartFrame extends TopComponent
     @Override
     protected Object writeReplace()
     {
-        return new ResolvableHelper(this);
+        return new Snapshot(this);
     }
 
 	@Override
 	protected void componentClosed()
 	{
 		super.componentClosed();
-		DatasetUsage.getInstance().removeDataProviderListener(this);
+		subscribe(null);
+		show(null);
 		String key = chartData.getDatasetKey();
 		DatasetUsage.getInstance().chartClosed(key);
 	}
@@ -413,7 +439,8 @@ public class ChartFrame extends TopComponent
     protected void componentOpened()
     {
         super.componentOpened();
-        if (chartData != null)
+        // restored charts are loaded when first shown
+        if (chartData != null && !restored)
             loading(chartData.getStock(), chartData.getInterval(), true);
     }
 
@@ -441,6 +468,22 @@ public class ChartFrame extends TopComponent
 	@Override
 	protected void componentShowing() {
 		super.componentShowing();
+		if (restored && !restoring && chartData != null)
+		{
+			restoring = true;
+			loading(chartData.getStock(), chartData.getInterval(), true);
+		}
+		showing = true;
+		if (initialized && chartData != null)
+		{
+			show(chartData.getDatasetKey());
+			if (evicted)
+			{
+				// reads the dataset back and calculates the studies again
+				evicted = false;
+				datasetKeyChanged(chartData.getDatasetKey());
+			}
+		}
 		if (getMainPanel() != null)
         {
             if (getSplitPanel() != null)
@@ -452,6 +495,14 @@ public class ChartFrame extends TopComponent
 		repaint();
 	}
 
+	@Override
+	protected void componentHidden()
+	{
+		super.componentHidden();
+		showing = false;
+		show(null);
+	}
+
 
 	public void resetHorizontalScrollBar()
 	{
@@ -554,6 +605,48 @@ public class ChartFrame extends TopComponent
         return image;
     }
 
+	public BufferedImage getOffscreenImage(int width, int height)
+	{
+		if (!offscreen)
+			return getBufferedImage(width, height);
+
+		mainPanel.setBounds(0, 0, width, height);
+		layoutOffscreen(mainPanel);
+		getSplitPanel().getIndicatorsPanel().calculateHeight();
+		layoutOffscreen(mainPanel);
+
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = GraphicsUtils.prepareGraphics(image.createGraphics());
+		g.setColor(chartProperties.getBackgroundColor());
+		g.fillRect(0, 0, width, height);
+		mainPanel.print(g);
+		g.dispose();
+		return image;
+	}
+
+	private static void layoutOffscreen(Container container)
+	{
+		container.doLayout();
+		for (Component component : container.getComponents())
+			if (component instanceof Container)
+				layoutOffscreen((Container) component);
+	}
+
+	public boolean isOffscreen()
+	{
+		return offscreen;
+	}
+
+	void updatePainted()
+	{
+		long when = pendingUpdate;
+		if (when != 0)
+		{
+			pendingUpdate = 0;
+			Metrics.stop("update.toScreen", when);
+		}
+	}
+
     public AbstractNode getNode()
     {
 		if (node == null)
@@ -591,23 +684,8 @@ public class ChartFrame extends TopComponent
 			@Override
 			public void run()
 			{
-				loadingError = false;
-				try
-				{
-					if (!DatasetUsage.getInstance().isDatasetInMemory(key))
-					{
-						dataProvider.fetchDataset(stock, interval);
-					} else
-					{
-						Dataset dataset = DatasetUsage.getInstance().getDatasetFromMemory(key);
-						if (dataset.getItemsCount() < 3)
-							dataProvider.fetchDataset(stock, interval);
-					}
-				} catch (Exception ex)
-				{
-					loadingError = true;
-				}
-
+				// loaded by the warm up already, or by its own load now
+				loadingError = !DatasetUsage.getInstance().isDatasetInMemory(key);
 				handle.finish();
 				if (!loadingError)
 				{
@@ -653,7 +731,20 @@ public class ChartFrame extends TopComponent
 			}
 		};
 
-		WindowManager.getDefault().invokeWhenUIReady(runnable);
+		WindowManager.getDefault().invokeWhenUIReady(new Runnable()
+		{
+			public void run()
+			{
+				PrefetchManager.getDefault().prefetch(dataProvider, stock, interval,
+					PrefetchManager.URGENT, new Runnable()
+				{
+					public void run()
+					{
+						SwingUtilities.invokeLater(runnable);
+					}
+				});
+			}
+		});
 
 		/*task = RP.create(runnable);
 		task.addTaskListener(new TaskListener()
@@ -749,8 +840,34 @@ public class ChartFrame extends TopComponent
 	public void triggerDataProviderListener(DataProviderEvent evt)
 	{
 		String key = chartData.getDatasetKey();
+		if (evt.isEvicted())
+		{
+			if (key.equals((String) evt.getSource()))
+				SwingUtilities.invokeLater(new Runnable()
+				{
+					public void run()
+					{
+						datasetEvicted();
+					}
+				});
+			return;
+		}
 		if (key.equals((String) evt.getSource()))
 		{
+			int itemsPrepended = evt.getItemsPrepended();
+			if (itemsPrepended > 0)
+			{
+				// older bars were paged in, the view stays on the same bars
+				if (chartData.getLast() >= 0)
+					chartData.setLast(chartData.getLast() + itemsPrepended);
+				datasetKeyChanged(key);
+				if (getSplitPanel() != null)
+					chartData.calculate(this);
+				repaint();
+				return;
+			}
+			if (Metrics.ENABLED && pendingUpdate == 0)
+				pendingUpdate = evt.getWhen();
 			int itemsAdded = evt.getItemsAdded();
 			int last = chartData.getLast();
 			datasetKeyChanged(key);
@@ -762,6 +879,10 @@ public class ChartFrame extends TopComponent
 		}
 	}
 
+    /**
+     * Reads the workspaces written before Snapshot, which carry the
+     * calculated datasets of the chart.
+     */
     final static class ResolvableHelper implements Serializable
     {
 
@@ -813,6 +934,169 @@ public class ChartFrame extends TopComponent
         }
     }
 
+	/**
+	 * What the window system saves of a chart: the symbol, interval, data
+	 * provider and chart type, the bars in view, the chart properties, the
+	 * history, the name and properties of every overlay and indicator, and
+	 * the annotations. Nothing calculated is written, the datasets are
+	 * loaded and the studies calculated again when the chart is first shown.
+	 */
+	final static class Snapshot implements Serializable
+	{
+
+		private static final long serialVersionUID = SerialVersion.APPVERSION;
+		private static final int VERSION = 1;
+
+		private transient ChartFrame chartFrame;
+
+		private Snapshot(ChartFrame chartFrame)
+		{
+			this.chartFrame = chartFrame;
+		}
+
+		private void writeObject(ObjectOutputStream out)
+			throws IOException
+		{
+			long start = Metrics.start();
+			ChartData data = chartFrame.getChartData();
+			ChartProperties properties = chartFrame.getChartProperties();
+			properties.clearPropertyChangeListenerList();
+			History history = chartFrame.getHistory();
+
+			out.writeInt(VERSION);
+			out.writeUTF(chartFrame.preferredID());
+			out.writeUTF(data.getDataProviderName());
+			out.writeObject(data.getStock());
+			out.writeObject(data.getInterval());
+			out.writeUTF(data.getChart().getName());
+			out.writeObject(data.getDatasetKey());
+			out.writeInt(data.getPeriod());
+			out.writeInt(data.getLast());
+			out.writeObject(properties);
+			out.writeObject(history.getCurrent());
+			out.writeObject(history.getBackHistoryList());
+			out.writeObject(history.getFwdHistoryList());
+
+			List<Overlay> overlays;
+			List<Indicator> indicators;
+			List<Integer> annotationsCount;
+			List<Annotation> annotations;
+			if (chartFrame.getSplitPanel() != null)
+			{
+				overlays = chartFrame.getSplitPanel().getChartPanel().getOverlays();
+				indicators = chartFrame.getSplitPanel().getIndicatorsPanel().getIndicatorsList();
+				annotationsCount = chartFrame.getAnnotationCount();
+				annotations = chartFrame.getAnnotations();
+			} else
+			{
+				// never shown since it was restored, or still loading
+				overlays = orEmpty(data.getSavedOverlays());
+				indicators = orEmpty(data.getSavedIndicators());
+				annotationsCount = orEmpty(data.getAnnotationsCount());
+				annotations = orEmpty(data.getAnnotations());
+			}
+
+			out.writeInt(overlays.size());
+			for (Overlay overlay : overlays)
+			{
+				out.writeUTF(overlay.getName());
+				out.writeObject(overlay.getPropertyValues());
+			}
+			out.writeInt(indicators.size());
+			for (Indicator indicator : indicators)
+			{
+				out.writeUTF(indicator.getName());
+				out.writeBoolean(indicator.isMaximized());
+				out.writeInt(indicator.getMaximizedHeight());
+				out.writeObject(indicator.getPropertyValues());
+			}
+			out.writeObject(new ArrayList<Integer>(annotationsCount));
+			out.writeObject(new ArrayList<Annotation>(annotations));
+			Metrics.stop("workspace.write", start);
+		}
+
+		@SuppressWarnings("unchecked")
+		private void readObject(ObjectInputStream in)
+			throws IOException, ClassNotFoundException
+		{
+			long start = Metrics.start();
+			if (in.readInt() != VERSION)
+				throw new IOException("Unknown chart snapshot version");
+			String id = in.readUTF();
+
+			ChartData data = new ChartData();
+			data.setDataProviderName(in.readUTF());
+			data.setStock((Stock) in.readObject());
+			data.setInterval((Interval) in.readObject());
+			data.setChart(ChartManager.getDefault().getChart(in.readUTF()));
+			String datasetKey = (String) in.readObject();
+			if (datasetKey != null)
+				data.restoreDatasetKey(datasetKey);
+			data.setPeriod(in.readInt());
+			data.setLast(in.readInt());
+			ChartProperties properties = (ChartProperties) in.readObject();
+
+			History history = new History();
+			history.initialize();
+			history.setCurrent((HistoryItem) in.readObject());
+			history.setBackHistoryList((HistoryItem[]) in.readObject());
+			history.setFwdHistoryList((HistoryItem[]) in.readObject());
+
+			List<Overlay> overlays = new ArrayList<Overlay>();
+			int count = in.readInt();
+			for (int i = 0; i < count; i++)
+			{
+				String name = in.readUTF();
+				Map<String, Object> values = (Map<String, Object>) in.readObject();
+				Overlay overlay = OverlayManager.getDefault().getOverlay(name);
+				if (overlay == null)
+					continue;
+				overlay = overlay.newInstance();
+				overlay.setPropertyValues(values);
+				overlays.add(overlay);
+			}
+			List<Indicator> indicators = new ArrayList<Indicator>();
+			count = in.readInt();
+			for (int i = 0; i < count; i++)
+			{
+				String name = in.readUTF();
+				boolean maximized = in.readBoolean();
+				int height = in.readInt();
+				Map<String, Object> values = (Map<String, Object>) in.readObject();
+				Indicator indicator = IndicatorManager.getDefault().getIndicator(name);
+				if (indicator == null)
+					continue;
+				indicator = indicator.newInstance();
+				indicator.setMaximized(maximized);
+				indicator.setMaximizedHeight(height);
+				indicator.setPropertyValues(values);
+				indicators.add(indicator);
+			}
+			data.setSavedOverlays(overlays);
+			data.setSavedIndicators(indicators);
+			data.setAnnotationsCount((List<Integer>) in.readObject());
+			data.setAnnotations((List<Annotation>) in.readObject());
+
+			chartFrame = new ChartFrame(id);
+			chartFrame.setChartData(data);
+			chartFrame.setChartProperties(properties);
+			chartFrame.setHistory(history);
+			chartFrame.setRestored(true);
+			Metrics.stop("workspace.read", start);
+		}
+
+		public Object readResolve()
+		{
+			return chartFrame;
+		}
+
+		private static <T> List<T> orEmpty(List<T> list)
+		{
+			return list != null ? list : new ArrayList<T>();
+		}
+
+	}
+
 	private transient EventListenerList chartFrameListeners;
 
 	private EventListenerList listenerList()
@@ -869,15 +1153,80 @@ public class ChartFrame extends TopComponent
 	public void datasetKeyChanged(String datasetKey)
 	{
 		ChartFrameListener[] listeners = listenerList().getListeners(ChartFrameListener.class);
+		int lookback = 0;
 		for (ChartFrameListener listener : listeners)
+		{
 			listener.datasetKeyChanged(datasetKey);
+			if (listener instanceof Overlay)
+				lookback = Math.max(lookback, ((Overlay) listener).getLookback());
+			else if (listener instanceof Indicator)
+				lookback = Math.max(lookback, ((Indicator) listener).getLookback());
+		}
+		chartData.setLookback(lookback);
+		if (!offscreen && initialized)
+		{
+			subscribe(datasetKey);
+			if (showing)
+				show(datasetKey);
+		}
+	}
+
+	/**
+	 * Releases the studies calculated from the dataset of a hidden chart
+	 * once the dataset was spilled, they are calculated again when the
+	 * chart is shown.
+	 */
+	private void datasetEvicted()
+	{
+		if (getSplitPanel() == null)
+			return;
+		if (showing)
+		{
+			datasetKeyChanged(chartData.getDatasetKey());
+			return;
+		}
+		evicted = true;
+		for (Overlay overlay : getSplitPanel().getChartPanel().getOverlays())
+			overlay.clearDatasets();
+		for (Indicator indicator : getSplitPanel().getIndicatorsPanel().getIndicatorsList())
+			indicator.clearDatasets();
+	}
+
+	/**
+	 * Moves the mark of the dataset showing in this chart to the given key,
+	 * or drops it for a null key. Datasets of showing charts are not spilled.
+	 */
+	private synchronized void show(String datasetKey)
+	{
+		if (shownKey != null ? shownKey.equals(datasetKey) : datasetKey == null)
+			return;
+		if (shownKey != null)
+			DatasetUsage.getInstance().datasetHidden(shownKey);
+		shownKey = datasetKey;
+		if (shownKey != null)
+			DatasetUsage.getInstance().datasetShown(shownKey);
+	}
+
+	/**
+	 * Moves the subscription for dataset updates to the given key, or drops
+	 * it for a null key.
+	 */
+	private synchronized void subscribe(String datasetKey)
+	{
+		if (subscribedKey != null ? subscribedKey.equals(datasetKey) : datasetKey == null)
+			return;
+		if (subscribedKey != null)
+			DatasetUsage.getInstance().removeDataProviderListener(subscribedKey, this);
+		subscribedKey = datasetKey;
+		if (subscribedKey != null)
+			DatasetUsage.getInstance().addDataProviderListener(subscribedKey, this);
 	}
 
 	public void overlayAdded(Overlay overlay)
 	{
 		addChartFrameListener(overlay);
 		overlay.setDatasetKey(chartData.getDatasetKey());
-		overlay.calculate();
+		overlay.recalculate();
 
 		ChartFrameListener[] listeners = listenerList().getListeners(ChartFrameListener.class);
 		for (ChartFrameListener listener : listeners)
@@ -896,7 +1245,7 @@ public class ChartFrame extends TopComponent
 	{
 		addChartFrameListener(indicator);
 		indicator.setDatasetKey(chartData.getDatasetKey());
-		indicator.calculate();
+		indicator.recalculate();
 
 		ChartFrameListener[] listeners = listenerList().getListeners(ChartFrameListener.class);
 		for (ChartFrameListener listener : listeners)
@@ -966,6 +1315,31 @@ public class ChartFrame extends TopComponent
 		return chartFrame;
 	}
 
+	/**
+	 * Creates a chart frame that is never opened in the window system, its
+	 * dataset must already be in memory. It doesn't listen for dataset
+	 * updates and can be painted from any thread with getOffscreenImage.
+	 * The overlays and indicators are added as they are, frames painted in
+	 * parallel must each be given their own copies.
+	 */
+	public static ChartFrame getOffscreenInstance(ChartData chartData, ChartProperties chartProperties,
+		List<Overlay> overlays, List<Indicator> indicators)
+	{
+		ChartFrame chartFrame = new ChartFrame(true);
+		chartFrame.setChartData(chartData);
+		if (chartProperties != null)
+			chartFrame.chartProperties.copyFrom(chartProperties);
+		DataProvider dataProvider = chartData.getDataProvider();
+		chartFrame.datasetKeyChanged(
+			dataProvider.getDatasetKey(chartData.getStock(), chartData.getInterval()));
+		chartFrame.initComponents();
+		for (Overlay overlay : overlays)
+			chartFrame.overlayAdded(overlay);
+		for (Indicator indicator : indicators)
+			chartFrame.indicatorAdded(indicator);
+		return chartFrame;
+	}
+
     public static ChartFrame findInstance(String id)
     {
         TopComponent win = WindowManager.getDefault().findTopComponent(id);
@@ -993,7 +1367,14 @@ public class ChartFrame extends TopComponent
 	private JPopupMenu popupMenu;
 
 	private boolean initialized = false;
+	private boolean offscreen = false;
+	private String subscribedKey;
+	private transient String shownKey;
+	private transient boolean showing = false;
+	private transient boolean evicted = false;
+	private transient volatile long pendingUpdate = 0;
     private boolean restored = false;
+	private transient boolean restoring = false;
     private boolean focus = true;
 	boolean loadingError = false;
 
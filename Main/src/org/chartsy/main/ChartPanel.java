@@ -34,6 +34,7 @@ import org.chartsy.main.chart.Overlay;
 import org.chartsy.main.data.Stock;
 import org.chartsy.main.dialogs.SettingsPanel;
 import org.chartsy.main.intervals.Interval;
+import org.chartsy.main.metrics.Metrics;
 import org.chartsy.main.resources.ResourcesUtils;
 import org.chartsy.main.utils.ColorGenerator;
 import org.chartsy.main.utils.GraphicsUtils;
@@ -232,16 +233,23 @@ public class ChartPanel extends JLayeredPane implements Serializable
 //		if (!overlayToolboxesUpdated)
 //			updateOverlayToolbar();
 
+		long start = Metrics.start();
 		chartFrame.getChartData().calculateRange(chartFrame, overlays);
 		if (!chartFrame.getChartData().isChartNull())
 			chartFrame.getChartData().getChart().paint(g2, chartFrame);
+		Metrics.stop("paint.chart", start);
 
 		if (!overlays.isEmpty())
 		{
 			Rectangle bounds = getBounds();
 			bounds.grow(-2, -2);
 			for (Overlay overlay : overlays)
+			{
+				start = Metrics.start();
 				overlay.paint(g2, chartFrame, bounds);
+				if (Metrics.ENABLED)
+					Metrics.stop("paint.overlay." + overlay.getName(), start);
+			}
 		}
 
 		super.paint(g);
@@ -292,7 +300,7 @@ public class ChartPanel extends JLayeredPane implements Serializable
         for (Overlay o : list)
         {
             o.setDatasetKey(chartFrame.getChartData().getDatasetKey());
-            o.calculate();
+            o.recalculate();
             addOverlay(o);
         }
 		updateOverlayToolbar();
@@ -29,6 +29,7 @@ import javax.swing.SwingConstants;
 import javax.swing.border.Border;
 import org.chartsy.main.chart.Indicator;
 import org.chartsy.main.dialogs.SettingsPanel;
+import org.chartsy.main.metrics.Metrics;
 import org.chartsy.main.resources.ResourcesUtils;
 import org.chartsy.main.utils.ColorGenerator;
 import org.chartsy.main.utils.GraphicsUtils;
@@ -267,7 +268,10 @@ public class IndicatorPanel extends JPanel implements Serializable
 		{
 			boolean isLog = cp.getAxisLogarithmicFlag();
 			if ( isLog ) cp.setAxisLogarithmicFlag(false);
+			long start = Metrics.start();
             indicator.paint(g2, chartFrame, rect);
+			if (Metrics.ENABLED)
+				Metrics.stop("paint.indicator." + indicator.getName(), start);
 			if ( isLog ) cp.setAxisLogarithmicFlag(true);
 		}
 
@@ -1,17 +1,26 @@
 package org.chartsy.main;
 
 import java.beans.PropertyEditorManager;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.prefs.Preferences;
+import org.chartsy.main.managers.AlertManager;
 import org.chartsy.main.managers.AnnotationManager;
+import org.chartsy.main.managers.CacheManager;
 import org.chartsy.main.managers.ChartManager;
 import org.chartsy.main.managers.DataProviderManager;
 import org.chartsy.main.managers.FacebookManager;
 import org.chartsy.main.managers.IndicatorManager;
 import org.chartsy.main.managers.OverlayManager;
+import org.chartsy.main.managers.PrefetchManager;
 import org.chartsy.main.managers.ProxyManager;
 import org.chartsy.main.managers.StockManager;
 import org.chartsy.main.managers.TemplateManager;
 import org.chartsy.main.managers.TwitterManager;
+import org.chartsy.main.metrics.Metrics;
 import org.chartsy.main.utils.AlphaPropertyEditor;
 import org.chartsy.main.utils.PricePropertyEditor;
 import org.chartsy.main.utils.StrokePropertyEditor;
@@ -24,6 +33,8 @@ import org.openide.windows.WindowManager;
 public class Installer extends ModuleInstall implements Runnable
 {
 
+	private static final Logger LOG = Logger.getLogger(Installer.class.getName());
+
 	private Preferences chartsyPreferences = NbPreferences.root().node("/org/chartsy/register");
 	private Preferences printPreferences = NbPreferences.root().node("/org/netbeans/modules/print");
 
@@ -32,26 +43,77 @@ public class Installer extends ModuleInstall implements Runnable
 		System.setProperty("sun.java2d.opengl", "true");
 		System.setProperty("sun.java2d.d3d", "false");
 		setPrintProperties();
+		// the restored charts find their data loaded when they are shown
+		PrefetchManager.getDefault().warmUp();
 	}
 
     public @Override void restored()
     {
+		long start = System.nanoTime();
 		WindowManager.getDefault().invokeWhenUIReady(this);
 		
 		PropertyEditorManager.registerEditor(int.class, StrokePropertyEditor.class);
 		PropertyEditorManager.registerEditor(String.class, PricePropertyEditor.class);
 		PropertyEditorManager.registerEditor(int.class, AlphaPropertyEditor.class);
 
+		// the data providers start on their own threads
 		ProxyManager.getDefault();
 		DataProviderManager.getDefault();
-		ChartManager.getDefault();
-		IndicatorManager.getDefault();
-		OverlayManager.getDefault();
-		AnnotationManager.getDefault();
-		TemplateManager.getDefault();
-		StockManager.getDefault();
-                FacebookManager.getDefault();
-                TwitterManager.getDefault();
+		log("providers", start);
+
+		// the rest is built on first use anyway, starting it here only
+		// saves the wait later
+		ExecutorService startup = Executors.newFixedThreadPool(
+			Runtime.getRuntime().availableProcessors(), new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "startup");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		startup(startup, "charts", new Runnable()
+		{
+			public void run()
+			{
+				ChartManager.getDefault();
+				IndicatorManager.getDefault();
+				OverlayManager.getDefault();
+				AnnotationManager.getDefault();
+			}
+		});
+		startup(startup, "templates", new Runnable()
+		{
+			public void run()
+			{
+				TemplateManager.getDefault();
+				StockManager.getDefault();
+			}
+		});
+		startup(startup, "alerts", new Runnable()
+		{
+			public void run()
+			{
+				AlertManager.getDefault();
+			}
+		});
+		startup(startup, "social", new Runnable()
+		{
+			public void run()
+			{
+				FacebookManager.getDefault();
+				TwitterManager.getDefault();
+			}
+		});
+		startup.shutdown();
+		log("restored", start);
+    }
+
+    public @Override void close()
+    {
+		AlertManager.getDefault().save();
+		CacheManager.getInstance().close();
     }
 
     public @Override boolean closing()
@@ -67,6 +129,34 @@ public class Installer extends ModuleInstall implements Runnable
             return false;
     }
 
+    private void startup(ExecutorService executor, final String phase, final Runnable task)
+    {
+		executor.execute(new Runnable()
+		{
+			public void run()
+			{
+				long start = System.nanoTime();
+				try
+				{
+					task.run();
+				} catch (RuntimeException ex)
+				{
+					LOG.log(Level.WARNING, "Startup of " + phase + " failed", ex);
+				} finally
+				{
+					log(phase, start);
+				}
+			}
+		});
+    }
+
+    private void log(String phase, long start)
+    {
+		Metrics.stop("startup." + phase, start);
+		LOG.log(Level.INFO, "Startup {0}: {1} ms",
+			new Object[] { phase, (System.nanoTime() - start) / 1000000 });
+    }
+
     private void setPrintProperties()
     {
 		if (!chartsyPreferences.getBoolean("print.init", false))
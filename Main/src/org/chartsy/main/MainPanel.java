@@ -13,6 +13,7 @@ import org.chartsy.main.axis.DateAxis;
 import org.chartsy.main.axis.Grid;
 import org.chartsy.main.axis.PriceAxis;
 import org.chartsy.main.data.ChartData;
+import org.chartsy.main.metrics.Metrics;
 import org.chartsy.main.utils.SerialVersion;
 
 /**
@@ -81,12 +82,18 @@ public class MainPanel extends JLayeredPane implements Serializable
     @Override
     public void paint(Graphics g)
     {
+		long start = Metrics.start();
         chartFrame.getChartData().calculate(chartFrame);
         chartFrame.getChartData().calculateRange(chartFrame, sPane.getChartPanel().getOverlays());
 
         setBackground(chartFrame.getChartProperties().getBackgroundColor());
 
         super.paint(g);
+		if (Metrics.ENABLED)
+		{
+			Metrics.stop("paint.frame", start);
+			chartFrame.updatePainted();
+		}
     }
 
 }
@@ -0,0 +1,157 @@
+package org.chartsy.main.alerts;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * A condition checked on every tick of one symbol. Alerts keep whatever
+ * state they need to tell from the new tick alone whether they fire, so a
+ * tick costs a few arithmetic operations per alert. The state is written
+ * with the alert and survives restarts.
+ */
+public abstract class Alert
+{
+
+	public static final int ABOVE = 0;
+	public static final int BELOW = 1;
+
+	static final int PRICE = 1;
+	static final int CROSSOVER = 2;
+	static final int RSI = 3;
+	static final int VOLUME = 4;
+
+	private final String dataProvider;
+	private final String symbol;
+	private boolean once = false;
+	private long lastFired = 0;
+
+	protected Alert(String dataProvider, String symbol)
+	{
+		this.dataProvider = dataProvider;
+		this.symbol = symbol.toUpperCase(Locale.ENGLISH);
+	}
+
+	public abstract String getLabel();
+
+	/**
+	 * Called with every tick of the symbol, from the thread of the feed.
+	 *
+	 * @param time the time of the tick in milliseconds
+	 * @return true if the alert fires on this tick
+	 */
+	protected abstract boolean update(long time, double price, double volume);
+
+	/**
+	 * @return what happened, called after the alert fired
+	 */
+	public String getMessage()
+	{
+		return getLabel();
+	}
+
+	public String getDataProvider()
+	{
+		return dataProvider;
+	}
+
+	public String getSymbol()
+	{
+		return symbol;
+	}
+
+	/**
+	 * @return true if the alert is removed once it fired
+	 */
+	public boolean isOnce()
+	{
+		return once;
+	}
+
+	public void setOnce(boolean once)
+	{
+		this.once = once;
+	}
+
+	/**
+	 * @return the time of the tick the alert last fired on, 0 if it never did
+	 */
+	public long getLastFired()
+	{
+		return lastFired;
+	}
+
+	final boolean tick(long time, double price, double volume)
+	{
+		if (!update(time, price, volume))
+			return false;
+		lastFired = time;
+		return true;
+	}
+
+	@Override
+	public String toString()
+	{
+		return getLabel();
+	}
+
+	protected abstract int getType();
+
+	/**
+	 * Writes the parameters and the state of the alert.
+	 */
+	protected abstract void writeState(DataOutputStream out)
+		throws IOException;
+
+	public final void write(DataOutputStream out)
+		throws IOException
+	{
+		out.writeInt(getType());
+		out.writeUTF(dataProvider);
+		out.writeUTF(symbol);
+		out.writeBoolean(once);
+		out.writeLong(lastFired);
+		writeState(out);
+	}
+
+	public static Alert read(DataInputStream in)
+		throws IOException
+	{
+		int type = in.readInt();
+		String dataProvider = in.readUTF();
+		String symbol = in.readUTF();
+		boolean once = in.readBoolean();
+		long lastFired = in.readLong();
+
+		Alert alert;
+		switch (type)
+		{
+			case PRICE:
+				alert = new PriceAlert(dataProvider, symbol, in);
+				break;
+			case CROSSOVER:
+				alert = new CrossoverAlert(dataProvider, symbol, in);
+				break;
+			case RSI:
+				alert = new RSIAlert(dataProvider, symbol, in);
+				break;
+			case VOLUME:
+				alert = new VolumeAlert(dataProvider, symbol, in);
+				break;
+			default:
+				throw new IOException("Unknown alert type " + type);
+		}
+		alert.once = once;
+		alert.lastFired = lastFired;
+		return alert;
+	}
+
+	static int checkDirection(int direction)
+	{
+		if (direction != ABOVE && direction != BELOW)
+			throw new IllegalArgumentException("Unknown direction " + direction);
+		return direction;
+	}
+
+}
@@ -0,0 +1,154 @@
+package org.chartsy.main.alerts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.chartsy.main.events.AlertEvent;
+import org.chartsy.main.events.AlertListener;
+import org.chartsy.main.events.TickEvent;
+import org.chartsy.main.events.TickListener;
+import org.chartsy.main.metrics.Metrics;
+
+/**
+ * Checks the alerts of a symbol on every tick of it. The alerts are kept
+ * in an array per data provider and symbol, replaced whenever one is added
+ * or removed, so a tick only looks up its symbol and walks the array. The
+ * listeners are called on the thread of the tick, they should hand any
+ * slow work to another thread.
+ */
+public class AlertEngine implements TickListener
+{
+
+	private static final Alert[] EMPTY = new Alert[0];
+
+	private final ConcurrentHashMap<String, Alert[]> alerts = new ConcurrentHashMap<String, Alert[]>();
+	private final List<AlertListener> listeners = new CopyOnWriteArrayList<AlertListener>();
+	private volatile boolean changed = false;
+
+	public void addAlertListener(AlertListener listener)
+	{
+		listeners.add(listener);
+	}
+
+	public void removeAlertListener(AlertListener listener)
+	{
+		listeners.remove(listener);
+	}
+
+	public synchronized void add(Alert alert)
+	{
+		String key = key(alert.getDataProvider(), alert.getSymbol());
+		Alert[] list = alerts.get(key);
+		if (list == null)
+			list = EMPTY;
+		list = Arrays.copyOf(list, list.length + 1);
+		list[list.length - 1] = alert;
+		alerts.put(key, list);
+		changed = true;
+	}
+
+	public synchronized boolean remove(Alert alert)
+	{
+		String key = key(alert.getDataProvider(), alert.getSymbol());
+		Alert[] list = alerts.get(key);
+		if (list == null)
+			return false;
+		for (int i = 0; i < list.length; i++)
+		{
+			if (list[i] == alert)
+			{
+				if (list.length == 1)
+				{
+					alerts.remove(key);
+				} else
+				{
+					Alert[] shorter = new Alert[list.length - 1];
+					System.arraycopy(list, 0, shorter, 0, i);
+					System.arraycopy(list, i + 1, shorter, i, shorter.length - i);
+					alerts.put(key, shorter);
+				}
+				changed = true;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public synchronized void clear()
+	{
+		alerts.clear();
+		changed = true;
+	}
+
+	public List<Alert> getAlerts()
+	{
+		List<Alert> list = new ArrayList<Alert>();
+		for (Alert[] array : alerts.values())
+			list.addAll(Arrays.asList(array));
+		return list;
+	}
+
+	public List<Alert> getAlerts(String dataProvider, String symbol)
+	{
+		Alert[] list = alerts.get(key(dataProvider, symbol.toUpperCase(Locale.ENGLISH)));
+		return list == null ? new ArrayList<Alert>() : Arrays.asList(list);
+	}
+
+	/**
+	 * @return true if alerts were added, removed or saw a tick since the
+	 * last call
+	 */
+	public boolean checkChanged()
+	{
+		boolean result = changed;
+		changed = false;
+		return result;
+	}
+
+	public void tickReceived(TickEvent evt)
+	{
+		Alert[] list = alerts.get(key((String) evt.getSource(), evt.getSymbol()));
+		if (list == null)
+			return;
+
+		long start = Metrics.start();
+		long time = evt.getTime();
+		double price = evt.getPrice();
+		double volume = evt.getVolume();
+		changed = true;
+		for (Alert alert : list)
+		{
+			boolean fired;
+			// the state is also read when the alerts are saved
+			synchronized (alert)
+			{
+				fired = alert.tick(time, price, volume);
+			}
+			if (fired)
+			{
+				if (alert.isOnce())
+					remove(alert);
+				fireAlert(new AlertEvent(alert, evt));
+			}
+		}
+		Metrics.stop("alerts.tick", start);
+	}
+
+	private void fireAlert(AlertEvent event)
+	{
+		if (Metrics.ENABLED)
+			Metrics.getDefault().histogram("alerts.latency").recordSince(event.getTick().getReceived());
+		Metrics.increment("alerts.fired");
+		for (AlertListener listener : listeners)
+			listener.alertFired(event);
+	}
+
+	private static String key(String dataProvider, String symbol)
+	{
+		return dataProvider + "_" + symbol;
+	}
+
+}
@@ -0,0 +1,153 @@
+package org.chartsy.main.alerts;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import org.chartsy.main.data.DataItem;
+import org.chartsy.main.data.Dataset;
+
+/**
+ * An alert on an indicator of the bars of some interval. The ticks are
+ * folded into the bar they fall in; the indicator state is advanced once
+ * when a bar closes, and checked against the bar still forming on every
+ * tick, so the alert fires on the tick the condition starts holding. It
+ * fires at most once per bar.
+ */
+public abstract class BarAlert extends Alert
+{
+
+	private static final long NONE = Long.MIN_VALUE;
+
+	private final int interval;
+	private long barTime = NONE;
+	private double barClose;
+	private double barVolume;
+	private int bars = 0;
+	private long firedBar = NONE;
+
+	/**
+	 * @param interval the length of the bars in seconds
+	 */
+	protected BarAlert(String dataProvider, String symbol, int interval)
+	{
+		super(dataProvider, symbol);
+		if (interval <= 0)
+			throw new IllegalArgumentException("Invalid interval " + interval);
+		this.interval = interval;
+	}
+
+	protected BarAlert(String dataProvider, String symbol, DataInputStream in)
+		throws IOException
+	{
+		super(dataProvider, symbol);
+		this.interval = in.readInt();
+		this.barTime = in.readLong();
+		this.barClose = in.readDouble();
+		this.barVolume = in.readDouble();
+		this.bars = in.readInt();
+		this.firedBar = in.readLong();
+	}
+
+	/**
+	 * Advances the indicator with a closed bar.
+	 */
+	protected abstract void closeBar(double close, double volume);
+
+	/**
+	 * @param price the last price of the bar forming
+	 * @param volume the volume of the bar forming so far
+	 * @return true if the condition holds on the bar forming
+	 */
+	protected abstract boolean check(double price, double volume);
+
+	/**
+	 * @return the length of the bars in seconds
+	 */
+	public int getInterval()
+	{
+		return interval;
+	}
+
+	/**
+	 * @return the number of bars closed so far
+	 */
+	public int getBars()
+	{
+		return bars;
+	}
+
+	/**
+	 * Starts the indicator from the bars of a dataset of the interval, the
+	 * last bar of the dataset is taken as the one forming. Does nothing once
+	 * the alert has seen a tick.
+	 */
+	public void seed(Dataset dataset)
+	{
+		if (barTime != NONE)
+			return;
+		int last = dataset.getItemsCount() - 1;
+		for (int i = 0; i <= last; i++)
+		{
+			DataItem item = dataset.getDataItem(i);
+			if (item == null)
+				continue;
+			if (barTime != NONE)
+			{
+				closeBar(barClose, barVolume);
+				bars++;
+			}
+			barTime = item.getTime();
+			barClose = item.getClose();
+			barVolume = item.getVolume();
+		}
+	}
+
+	protected final boolean update(long time, double price, double volume)
+	{
+		long length = interval * 1000L;
+		long bar = time - time % length;
+		if (barTime == NONE)
+		{
+			barTime = bar;
+			barVolume = volume;
+		} else if (bar > barTime)
+		{
+			closeBar(barClose, barVolume);
+			bars++;
+			barTime = bar;
+			barVolume = volume;
+		} else
+		{
+			barVolume += volume;
+		}
+		barClose = price;
+
+		if (!check(price, barVolume) || firedBar == barTime)
+			return false;
+		firedBar = barTime;
+		return true;
+	}
+
+	protected void writeState(DataOutputStream out)
+		throws IOException
+	{
+		out.writeInt(interval);
+		out.writeLong(barTime);
+		out.writeDouble(barClose);
+		out.writeDouble(barVolume);
+		out.writeInt(bars);
+		out.writeLong(firedBar);
+	}
+
+	static String formatInterval(int seconds)
+	{
+		if (seconds % 86400 == 0)
+			return (seconds / 86400) + "d";
+		if (seconds % 3600 == 0)
+			return (seconds / 3600) + "h";
+		if (seconds % 60 == 0)
+			return (seconds / 60) + "m";
+		return seconds + "s";
+	}
+
+}
@@ -0,0 +1,100 @@
+package org.chartsy.main.alerts;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Fires when the fast exponential moving average of the closes crosses the
+ * slow one, upwards for ABOVE and downwards for BELOW. The averages of the
+ * bar forming are the closed bar averages moved by one step towards the
+ * last price.
+ */
+public class CrossoverAlert extends BarAlert
+{
+
+	private final int fast;
+	private final int slow;
+	private final int direction;
+	private double fastAverage = Double.NaN;
+	private double slowAverage = Double.NaN;
+	// which average was on top on the last tick, 0 when not known yet
+	private int side = 0;
+
+	public CrossoverAlert(String dataProvider, String symbol, int interval,
+		int fast, int slow, int direction)
+	{
+		super(dataProvider, symbol, interval);
+		if (fast <= 0 || slow <= fast)
+			throw new IllegalArgumentException("Invalid periods " + fast + ", " + slow);
+		this.fast = fast;
+		this.slow = slow;
+		this.direction = checkDirection(direction);
+	}
+
+	CrossoverAlert(String dataProvider, String symbol, DataInputStream in)
+		throws IOException
+	{
+		super(dataProvider, symbol, in);
+		this.fast = in.readInt();
+		this.slow = in.readInt();
+		this.direction = checkDirection(in.readInt());
+		this.fastAverage = in.readDouble();
+		this.slowAverage = in.readDouble();
+		this.side = in.readInt();
+	}
+
+	public String getLabel()
+	{
+		return getSymbol() + " EMA(" + fast + ")" + (direction == ABOVE ? " crosses above" : " crosses below")
+			+ " EMA(" + slow + ") on " + formatInterval(getInterval());
+	}
+
+	protected void closeBar(double close, double volume)
+	{
+		if (Double.isNaN(fastAverage))
+		{
+			fastAverage = close;
+			slowAverage = close;
+		} else
+		{
+			fastAverage += (close - fastAverage) * 2 / (fast + 1);
+			slowAverage += (close - slowAverage) * 2 / (slow + 1);
+		}
+	}
+
+	protected boolean check(double price, double volume)
+	{
+		if (getBars() < slow)
+			return false;
+		double f = fastAverage + (price - fastAverage) * 2 / (fast + 1);
+		double s = slowAverage + (price - slowAverage) * 2 / (slow + 1);
+		int previous = side;
+		if (f > s)
+			side = 1;
+		else if (f < s)
+			side = -1;
+		if (previous == 0 || previous == side)
+			return false;
+		return direction == ABOVE ? side > 0 : side < 0;
+	}
+
+	protected int getType()
+	{
+		return CROSSOVER;
+	}
+
+	@Override
+	protected void writeState(DataOutputStream out)
+		throws IOException
+	{
+		super.writeState(out);
+		out.writeInt(fast);
+		out.writeInt(slow);
+		out.writeInt(direction);
+		out.writeDouble(fastAverage);
+		out.writeDouble(slowAverage);
+		out.writeInt(side);
+	}
+
+}
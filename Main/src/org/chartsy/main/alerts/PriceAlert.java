@@ -0,0 +1,78 @@
+package org.chartsy.main.alerts;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Fires when the price crosses a level, from below for ABOVE and from
+ * above for BELOW.
+ */
+public class PriceAlert extends Alert
+{
+
+	private final int direction;
+	private final double level;
+	private double last = Double.NaN;
+
+	public PriceAlert(String dataProvider, String symbol, int direction, double level)
+	{
+		super(dataProvider, symbol);
+		this.direction = checkDirection(direction);
+		this.level = level;
+	}
+
+	PriceAlert(String dataProvider, String symbol, DataInputStream in)
+		throws IOException
+	{
+		super(dataProvider, symbol);
+		this.direction = checkDirection(in.readInt());
+		this.level = in.readDouble();
+		this.last = in.readDouble();
+	}
+
+	public int getDirection()
+	{
+		return direction;
+	}
+
+	public double getLevel()
+	{
+		return level;
+	}
+
+	public String getLabel()
+	{
+		return getSymbol() + (direction == ABOVE ? " crosses above " : " crosses below ") + level;
+	}
+
+	@Override
+	public String getMessage()
+	{
+		return getSymbol() + " traded at " + last
+			+ (direction == ABOVE ? ", above " : ", below ") + level;
+	}
+
+	protected boolean update(long time, double price, double volume)
+	{
+		double previous = last;
+		last = price;
+		if (direction == ABOVE)
+			return previous < level && price >= level;
+		return previous > level && price <= level;
+	}
+
+	protected int getType()
+	{
+		return PRICE;
+	}
+
+	protected void writeState(DataOutputStream out)
+		throws IOException
+	{
+		out.writeInt(direction);
+		out.writeDouble(level);
+		out.writeDouble(last);
+	}
+
+}
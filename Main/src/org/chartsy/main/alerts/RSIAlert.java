@@ -0,0 +1,123 @@
+package org.chartsy.main.alerts;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Fires when the relative strength index crosses a level, upwards for
+ * ABOVE and downwards for BELOW. The averages of the gains and losses are
+ * smoothed the way Wilder does, the index of the bar forming is computed
+ * from the closed bar averages and the last price.
+ */
+public class RSIAlert extends BarAlert
+{
+
+	private final int period;
+	private final int direction;
+	private final double level;
+	private double previousClose = Double.NaN;
+	private double averageGain = 0;
+	private double averageLoss = 0;
+	private int changes = 0;
+	private double value = Double.NaN;
+	private int side = 0;
+
+	public RSIAlert(String dataProvider, String symbol, int interval,
+		int period, int direction, double level)
+	{
+		super(dataProvider, symbol, interval);
+		if (period <= 0)
+			throw new IllegalArgumentException("Invalid period " + period);
+		this.period = period;
+		this.direction = checkDirection(direction);
+		this.level = level;
+	}
+
+	RSIAlert(String dataProvider, String symbol, DataInputStream in)
+		throws IOException
+	{
+		super(dataProvider, symbol, in);
+		this.period = in.readInt();
+		this.direction = checkDirection(in.readInt());
+		this.level = in.readDouble();
+		this.previousClose = in.readDouble();
+		this.averageGain = in.readDouble();
+		this.averageLoss = in.readDouble();
+		this.changes = in.readInt();
+		this.side = in.readInt();
+	}
+
+	public String getLabel()
+	{
+		return getSymbol() + " RSI(" + period + ")" + (direction == ABOVE ? " crosses above " : " crosses below ")
+			+ level + " on " + formatInterval(getInterval());
+	}
+
+	@Override
+	public String getMessage()
+	{
+		return getLabel() + ", RSI at " + Math.round(value * 100) / 100d;
+	}
+
+	protected void closeBar(double close, double volume)
+	{
+		if (!Double.isNaN(previousClose))
+		{
+			double change = close - previousClose;
+			double gain = change > 0 ? change : 0;
+			double loss = change < 0 ? -change : 0;
+			if (changes < period)
+			{
+				averageGain += gain / period;
+				averageLoss += loss / period;
+			} else
+			{
+				averageGain = (averageGain * (period - 1) + gain) / period;
+				averageLoss = (averageLoss * (period - 1) + loss) / period;
+			}
+			changes++;
+		}
+		previousClose = close;
+	}
+
+	protected boolean check(double price, double volume)
+	{
+		if (changes < period)
+			return false;
+		double change = price - previousClose;
+		double gain = (averageGain * (period - 1) + (change > 0 ? change : 0)) / period;
+		double loss = (averageLoss * (period - 1) + (change < 0 ? -change : 0)) / period;
+		value = loss == 0 ? 100 : 100 - 100 / (1 + gain / loss);
+
+		int previous = side;
+		if (value > level)
+			side = 1;
+		else if (value < level)
+			side = -1;
+		if (previous == 0 || previous == side)
+			return false;
+		return direction == ABOVE ? side > 0 : side < 0;
+	}
+
+	protected int getType()
+	{
+		return RSI;
+	}
+
+	@Override
+	protected void writeState(DataOutputStream out)
+		throws IOException
+	{
+		super.writeState(out);
+		out.writeInt(period);
+		out.writeInt(direction);
+		out.writeDouble(level);
+		out.writeDouble(previousClose);
+		out.writeDouble(averageGain);
+		out.writeDouble(averageLoss);
+		out.writeInt(changes);
+		out.writeInt(side);
+	}
+
+}
@@ -0,0 +1,81 @@
+package org.chartsy.main.alerts;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Fires when the volume of the bar forming reaches a multiple of the
+ * average volume of the bars before it, an exponential average over the
+ * period.
+ */
+public class VolumeAlert extends BarAlert
+{
+
+	private final int period;
+	private final double factor;
+	private double average = 0;
+	private double volume = 0;
+
+	public VolumeAlert(String dataProvider, String symbol, int interval, int period, double factor)
+	{
+		super(dataProvider, symbol, interval);
+		if (period <= 0 || factor <= 0)
+			throw new IllegalArgumentException("Invalid period " + period + " or factor " + factor);
+		this.period = period;
+		this.factor = factor;
+	}
+
+	VolumeAlert(String dataProvider, String symbol, DataInputStream in)
+		throws IOException
+	{
+		super(dataProvider, symbol, in);
+		this.period = in.readInt();
+		this.factor = in.readDouble();
+		this.average = in.readDouble();
+	}
+
+	public String getLabel()
+	{
+		return getSymbol() + " volume above " + factor + "x its " + period
+			+ " bar average on " + formatInterval(getInterval());
+	}
+
+	@Override
+	public String getMessage()
+	{
+		return getLabel() + ", volume " + volume + " against " + Math.round(average * 100) / 100d;
+	}
+
+	protected void closeBar(double close, double volume)
+	{
+		// a simple average over the first bars, exponential after
+		int bars = getBars();
+		if (bars < period)
+			average += (volume - average) / (bars + 1);
+		else
+			average += (volume - average) * 2 / (period + 1);
+	}
+
+	protected boolean check(double price, double volume)
+	{
+		this.volume = volume;
+		return getBars() >= period && average > 0 && volume >= factor * average;
+	}
+
+	protected int getType()
+	{
+		return VOLUME;
+	}
+
+	@Override
+	protected void writeState(DataOutputStream out)
+		throws IOException
+	{
+		super.writeState(out);
+		out.writeInt(period);
+		out.writeDouble(factor);
+		out.writeDouble(average);
+	}
+
+}
@@ -12,7 +12,7 @@ import javax.swing.JPanel;
 import org.chartsy.main.ChartFrame;
 import org.chartsy.main.ChartProperties;
 import org.chartsy.main.data.ChartData;
-import org.chartsy.main.data.Dataset;
+import org.chartsy.main.data.TimeBoundaryIndex;
 import org.chartsy.main.intervals.Interval;
 import org.chartsy.main.intervals.WeeklyInterval;
 import org.chartsy.main.utils.CoordCalc;
@@ -52,7 +52,6 @@ public class DateAxis extends JPanel implements Serializable
         if (!cd.isVisibleNull() && !cd.getVisible().isEmpty())
         {
             Rectangle bounds = chartFrame.getSplitPanel().getChartPanel().getBounds();
-            Dataset dataset = cd.getVisible();
             Interval interval = cd.getInterval();
 
             g2.setFont(cp.getFont());
@@ -66,7 +65,8 @@ public class DateAxis extends JPanel implements Serializable
             FontRenderContext frc = g2.getFontRenderContext();
             LineMetrics lm = cp.getFont().getLineMetrics("0123456789/", g2.getFontRenderContext());
 
-			Calendar calendar = Calendar.getInstance();
+			TimeBoundaryIndex index = cd.getDataset().getTimeIndex();
+			int offset = cd.getVisibleOffset();
 			double[] list = cd.getDateValues();
             if (!interval.isIntraDay())
             {
@@ -78,11 +78,10 @@ public class DateAxis extends JPanel implements Serializable
 					{
 						double x = cd.getX(value, bounds);
 
-						calendar.setTimeInMillis(dataset.getTimeAt(j));
-						String string = months[calendar.get(Calendar.MONTH)];
+						String string = months[index.getMonth(offset + j)];
 						if (string.isEmpty())
 						{
-							string = String.valueOf(calendar.get(Calendar.YEAR)).substring(2);
+							string = String.valueOf(index.getYear(offset + j)).substring(2);
 						} else
 						{
 							if (interval instanceof WeeklyInterval)
@@ -92,9 +91,7 @@ public class DateAxis extends JPanel implements Serializable
 
 						if (firstFlag)
 						{
-							int index = (int) value;
-							long time = dataset.getTimeAt(index);
-							if (!cd.isFirstWorkingDayOfMonth(time))
+							if (!cd.isDateBoundary((int) value))
 							{
 								double nvalue = 0;
 								for (int k = j + 1; k < list.length; k++)
@@ -136,15 +133,15 @@ public class DateAxis extends JPanel implements Serializable
 					if (value != -1)
 					{
 						double x = cd.getX(value, bounds);
-						calendar.setTimeInMillis(dataset.getTimeAt(j));
+						int minutes = index.getMinuteOfDay(offset + j);
 						StringBuilder sb = new StringBuilder();
-						if (calendar.get(Calendar.HOUR_OF_DAY) < 10)
+						if (minutes / 60 < 10)
                             sb.append("0");
-                        sb.append(String.valueOf(calendar.get(Calendar.HOUR_OF_DAY)));
+                        sb.append(String.valueOf(minutes / 60));
                         sb.append(":");
-                        if (calendar.get(Calendar.MINUTE) < 10)
+                        if (minutes % 60 < 10)
                             sb.append("0");
-                        sb.append(String.valueOf(calendar.get(Calendar.MINUTE)));
+                        sb.append(String.valueOf(minutes % 60));
 						String label = sb.toString();
 						
 						double h = cp.getFont().getStringBounds(label, frc).getHeight();
@@ -63,9 +63,7 @@ public class Grid extends JPanel implements Serializable
 						x = cd.getX(value, chartBounds);
 						if (firstFlag)
 						{
-							int index = (int) value;
-							long time = cd.getVisible().getTimeAt(index);
-							if (cd.isFirstWorkingDayOfMonth(time))
+							if (cd.isDateBoundary((int) value))
 								g2.draw(CoordCalc.line(x, 0, x, getHeight()));
 							firstFlag = false;
 						} else
@@ -0,0 +1,402 @@
+package org.chartsy.main.backtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.chartsy.main.chart.Indicator;
+import org.chartsy.main.data.DataItem;
+import org.chartsy.main.data.Dataset;
+import org.chartsy.main.metrics.Metrics;
+
+/**
+ * Runs a strategy over the bars of a dataset in a single pass. The bar,
+ * the account and the pending orders are kept in primitive fields, the
+ * only things allocated while running are the closed trades.
+ *
+ * Orders are filled against the bars after the one they were placed on:
+ * market orders at the open, limit orders at the open or the limit price,
+ * stop orders at the open or the stop price once the bar trades through
+ * it. Market and stop orders are filled with slippage, every fill pays the
+ * commission and the fee of the settings. Limit and stop orders stay until
+ * they are filled or cancelled. A position still open after the last bar
+ * is closed at its close.
+ */
+public class Backtest
+{
+
+	private static final int MARKET = 0;
+	private static final int LIMIT = 1;
+	private static final int STOP = 2;
+
+	private final Dataset dataset;
+	private final Strategy strategy;
+	private final double commission;
+	private final double fee;
+	private final double slippage;
+	private final double capital;
+
+	// current bar
+	private int index = -1;
+	private long time;
+	private double open;
+	private double high;
+	private double low;
+	private double close;
+	private double volume;
+
+	// account
+	private double cash;
+	private double position = 0;
+	private double entryPrice = 0;
+	private double fees = 0;
+
+	// the open position
+	private long tradeTime;
+	private double tradeSize;
+	private double tradeProfit;
+	private double tradeFees;
+	private double exitQuantity;
+	private double exitValue;
+	private final List<BacktestTrade> trades = new ArrayList<BacktestTrade>();
+
+	// pending orders
+	private int orders = 0;
+	private int[] orderTypes = new int[4];
+	private double[] orderQuantities = new double[4];
+	private double[] orderPrices = new double[4];
+
+	// equity curve
+	private int points = 0;
+	private long[] times;
+	private double[] equity;
+
+	public Backtest(Dataset dataset, Strategy strategy, BacktestSettings settings)
+	{
+		this.dataset = dataset;
+		this.strategy = strategy;
+		this.commission = settings.getCommission();
+		this.fee = settings.getFee();
+		this.slippage = settings.getSlippage();
+		this.capital = settings.getCapital();
+		this.cash = capital;
+	}
+
+	public BacktestResult run()
+	{
+		long start = Metrics.start();
+		int count = dataset.getItemsCount();
+		times = new long[count];
+		equity = new double[count];
+
+		strategy.start(this);
+		for (int i = 0; i < count; i++)
+		{
+			DataItem item = dataset.getDataItem(i);
+			if (item == null)
+				continue;
+			index = i;
+			time = item.getTime();
+			open = item.getOpen();
+			high = item.getHigh();
+			low = item.getLow();
+			close = item.getClose();
+			volume = item.getVolume();
+
+			if (orders > 0)
+				fill();
+			times[points] = time;
+			equity[points] = cash + position * close;
+			points++;
+
+			strategy.onBar(this);
+		}
+		if (position != 0)
+		{
+			execute(-position, position > 0 ? close * (1 - slippage) : close * (1 + slippage));
+			equity[points - 1] = cash;
+		}
+		strategy.finish(this);
+
+		Metrics.stop("backtest.run", start);
+		return new BacktestResult(strategy.getName(), capital, trades, times, equity, points, fees);
+	}
+
+	public Dataset getDataset()
+	{
+		return dataset;
+	}
+
+	/**
+	 * Calculates the indicator over the whole dataset once.
+	 *
+	 * @param key the key the indicator adds the line under
+	 * @return the close of the line at every index of the dataset, NaN
+	 * where it has no value
+	 */
+	public double[] getValues(Indicator indicator, String key)
+	{
+		indicator.calculate(dataset);
+		Dataset line = indicator.getCalculatedDataset(key);
+		double[] values = new double[dataset.getItemsCount()];
+		for (int i = 0; i < values.length; i++)
+		{
+			DataItem item = line == null ? null : line.getDataItem(i);
+			values[i] = item == null ? Double.NaN : item.getClose();
+		}
+		return values;
+	}
+
+	/**
+	 * @return the index of the current bar in the dataset
+	 */
+	public int getIndex()
+	{
+		return index;
+	}
+
+	public long getTime()
+	{
+		return time;
+	}
+
+	public double getOpen()
+	{
+		return open;
+	}
+
+	public double getHigh()
+	{
+		return high;
+	}
+
+	public double getLow()
+	{
+		return low;
+	}
+
+	public double getClose()
+	{
+		return close;
+	}
+
+	public double getVolume()
+	{
+		return volume;
+	}
+
+	/**
+	 * @return the quantity held, negative when short
+	 */
+	public double getPosition()
+	{
+		return position;
+	}
+
+	/**
+	 * @return the average price the position was entered at
+	 */
+	public double getEntryPrice()
+	{
+		return entryPrice;
+	}
+
+	public double getCash()
+	{
+		return cash;
+	}
+
+	/**
+	 * @return the cash plus the position valued at the current close
+	 */
+	public double getEquity()
+	{
+		return cash + position * close;
+	}
+
+	public void buy(double quantity)
+	{
+		addOrder(MARKET, quantity, 0);
+	}
+
+	public void sell(double quantity)
+	{
+		addOrder(MARKET, -quantity, 0);
+	}
+
+	public void buyLimit(double quantity, double price)
+	{
+		addOrder(LIMIT, quantity, price);
+	}
+
+	public void sellLimit(double quantity, double price)
+	{
+		addOrder(LIMIT, -quantity, price);
+	}
+
+	public void buyStop(double quantity, double price)
+	{
+		addOrder(STOP, quantity, price);
+	}
+
+	public void sellStop(double quantity, double price)
+	{
+		addOrder(STOP, -quantity, price);
+	}
+
+	public void cancelOrders()
+	{
+		orders = 0;
+	}
+
+	/**
+	 * Replaces the pending market orders with one that brings the position
+	 * to the target at the next open.
+	 */
+	public void setPosition(double target)
+	{
+		int j = 0;
+		for (int i = 0; i < orders; i++)
+		{
+			if (orderTypes[i] != MARKET)
+			{
+				orderTypes[j] = orderTypes[i];
+				orderQuantities[j] = orderQuantities[i];
+				orderPrices[j] = orderPrices[i];
+				j++;
+			}
+		}
+		orders = j;
+		if (target != position)
+			addOrder(MARKET, target - position, 0);
+	}
+
+	/**
+	 * Sets the position to a fraction of the equity at the current close,
+	 * negative fractions go short. Call it when the signal changes, every
+	 * call rebalances and pays the fees.
+	 */
+	public void setExposure(double fraction)
+	{
+		setPosition(fraction * getEquity() / close);
+	}
+
+	private void addOrder(int type, double quantity, double price)
+	{
+		if (quantity == 0)
+			return;
+		if (orders == orderTypes.length)
+		{
+			int[] types = new int[orders * 2];
+			double[] quantities = new double[orders * 2];
+			double[] prices = new double[orders * 2];
+			System.arraycopy(orderTypes, 0, types, 0, orders);
+			System.arraycopy(orderQuantities, 0, quantities, 0, orders);
+			System.arraycopy(orderPrices, 0, prices, 0, orders);
+			orderTypes = types;
+			orderQuantities = quantities;
+			orderPrices = prices;
+		}
+		orderTypes[orders] = type;
+		orderQuantities[orders] = quantity;
+		orderPrices[orders] = price;
+		orders++;
+	}
+
+	private void fill()
+	{
+		int j = 0;
+		for (int i = 0; i < orders; i++)
+		{
+			double quantity = orderQuantities[i];
+			double price = orderPrices[i];
+			boolean buy = quantity > 0;
+			double fill = Double.NaN;
+			switch (orderTypes[i])
+			{
+				case MARKET:
+					fill = buy ? open * (1 + slippage) : open * (1 - slippage);
+					break;
+				case LIMIT:
+					if (buy ? open <= price : open >= price)
+						fill = open;
+					else if (buy ? low <= price : high >= price)
+						fill = price;
+					break;
+				default:
+					if (buy ? open >= price : open <= price)
+						fill = open;
+					else if (buy ? high >= price : low <= price)
+						fill = price;
+					if (!Double.isNaN(fill))
+						fill = buy ? fill * (1 + slippage) : fill * (1 - slippage);
+					break;
+			}
+
+			if (Double.isNaN(fill))
+			{
+				orderTypes[j] = orderTypes[i];
+				orderQuantities[j] = quantity;
+				orderPrices[j] = price;
+				j++;
+			} else
+			{
+				execute(quantity, fill);
+			}
+		}
+		orders = j;
+	}
+
+	private void execute(double quantity, double price)
+	{
+		double size = Math.abs(quantity);
+		double cost = size * price * commission + fee;
+		cash -= quantity * price + cost;
+		fees += cost;
+
+		double before = position;
+		double after = before + quantity;
+		if (Math.abs(after) < 1e-9 * Math.max(Math.abs(before), size))
+			after = 0;
+
+		if (before == 0)
+		{
+			openTrade(after, price, cost);
+		} else if ((before > 0) == (quantity > 0))
+		{
+			entryPrice = (entryPrice * Math.abs(before) + price * size) / Math.abs(after);
+			tradeSize = Math.max(tradeSize, Math.abs(after));
+			tradeProfit -= cost;
+			tradeFees += cost;
+		} else
+		{
+			double closed = Math.min(size, Math.abs(before));
+			double closedCost = cost * closed / size;
+			tradeProfit += (before > 0 ? price - entryPrice : entryPrice - price) * closed - closedCost;
+			tradeFees += closedCost;
+			exitQuantity += closed;
+			exitValue += closed * price;
+			if (after == 0 || (after > 0) != (before > 0))
+			{
+				trades.add(new BacktestTrade(before > 0, tradeTime, entryPrice, time,
+					exitValue / exitQuantity, tradeSize, tradeProfit, tradeFees));
+				if (after != 0)
+					openTrade(after, price, cost - closedCost);
+				else
+					entryPrice = 0;
+			}
+		}
+		position = after;
+	}
+
+	private void openTrade(double quantity, double price, double cost)
+	{
+		entryPrice = price;
+		tradeTime = time;
+		tradeSize = Math.abs(quantity);
+		// the profit of a trade is after the fees of both its ends
+		tradeProfit = -cost;
+		tradeFees = cost;
+		exitQuantity = 0;
+		exitValue = 0;
+	}
+
+}
@@ -0,0 +1,155 @@
+package org.chartsy.main.backtest;
+
+import java.io.PrintWriter;
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The equity curve and the trades of a backtest. The curve has one point
+ * per bar, the equity at its close.
+ */
+public class BacktestResult
+{
+
+	private final String strategy;
+	private final double capital;
+	private final List<BacktestTrade> trades;
+	private final long[] times;
+	private final double[] equity;
+	private final int size;
+	private final double fees;
+	private final double maxDrawdown;
+
+	BacktestResult(String strategy, double capital, List<BacktestTrade> trades,
+		long[] times, double[] equity, int size, double fees)
+	{
+		this.strategy = strategy;
+		this.capital = capital;
+		this.trades = Collections.unmodifiableList(new ArrayList<BacktestTrade>(trades));
+		this.times = times;
+		this.equity = equity;
+		this.size = size;
+		this.fees = fees;
+
+		double peak = capital, drawdown = 0;
+		for (int i = 0; i < size; i++)
+		{
+			peak = Math.max(peak, equity[i]);
+			drawdown = Math.max(drawdown, (peak - equity[i]) / peak);
+		}
+		this.maxDrawdown = drawdown;
+	}
+
+	public String getStrategy()
+	{
+		return strategy;
+	}
+
+	public List<BacktestTrade> getTrades()
+	{
+		return trades;
+	}
+
+	/**
+	 * @return the number of points of the equity curve
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	public long getTime(int index)
+	{
+		return times[index];
+	}
+
+	public double getEquity(int index)
+	{
+		return equity[index];
+	}
+
+	public double getInitialEquity()
+	{
+		return capital;
+	}
+
+	public double getFinalEquity()
+	{
+		return size == 0 ? capital : equity[size - 1];
+	}
+
+	/**
+	 * @return the return over the whole run, in percent
+	 */
+	public double getReturn()
+	{
+		return (getFinalEquity() - capital) / capital * 100;
+	}
+
+	/**
+	 * @return the largest fall of the equity from a previous peak, in percent
+	 */
+	public double getMaxDrawdown()
+	{
+		return maxDrawdown * 100;
+	}
+
+	public double getFees()
+	{
+		return fees;
+	}
+
+	public int getWinningTrades()
+	{
+		int count = 0;
+		for (BacktestTrade trade : trades)
+			if (trade.getProfit() > 0)
+				count++;
+		return count;
+	}
+
+	public String getSummary()
+	{
+		DecimalFormat df = new DecimalFormat("#,##0.00");
+		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+		StringBuilder sb = new StringBuilder();
+		sb.append("Strategy: ").append(strategy).append('\n');
+		if (size > 0)
+			sb.append("Period: ").append(sdf.format(new Date(times[0])))
+				.append(" - ").append(sdf.format(new Date(times[size - 1])))
+				.append(" (").append(size).append(" bars)\n");
+		sb.append("Equity: ").append(df.format(capital))
+			.append(" -> ").append(df.format(getFinalEquity())).append('\n');
+		sb.append("Return: ").append(df.format(getReturn())).append("%\n");
+		sb.append("Max drawdown: ").append(df.format(getMaxDrawdown())).append("%\n");
+		sb.append("Trades: ").append(trades.size())
+			.append(" (").append(getWinningTrades()).append(" winning)\n");
+		sb.append("Fees: ").append(df.format(fees)).append('\n');
+		return sb.toString();
+	}
+
+	/**
+	 * Writes the trades as comma separated values.
+	 */
+	public void writeTrades(PrintWriter out)
+	{
+		out.println("side,entry time,entry price,exit time,exit price,quantity,profit,fees");
+		for (BacktestTrade trade : trades)
+			out.println(trade);
+	}
+
+	/**
+	 * Writes the equity curve as comma separated values.
+	 */
+	public void writeEquity(PrintWriter out)
+	{
+		out.println("time,equity");
+		for (int i = 0; i < size; i++)
+			out.println(times[i] + "," + equity[i]);
+	}
+
+}
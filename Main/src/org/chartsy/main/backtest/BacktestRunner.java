@@ -0,0 +1,102 @@
+package org.chartsy.main.backtest;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import org.chartsy.main.data.Dataset;
+import org.chartsy.main.data.HistoryStore;
+import org.chartsy.main.managers.CacheManager;
+import org.chartsy.main.managers.StrategyManager;
+
+/**
+ * Runs a backtest from the command line over a dataset of the cache:
+ *
+ * <pre>
+ * BacktestRunner strategy datasetKey [--capital=10000] [--commission=0.002]
+ *     [--fee=0] [--slippage=0.0005] [--trades=file] [--equity=file]
+ * </pre>
+ *
+ * The strategy is the name of an installed strategy or the name of a
+ * Strategy class, the dataset key is the one of the data provider, like
+ * BitcoinCharts_MTGOXUSD_1. The cache is found under netbeans.user and
+ * only read, the application may be running on it.
+ */
+public final class BacktestRunner
+{
+
+	private BacktestRunner()
+	{
+	}
+
+	public static void main(String[] args)
+		throws Exception
+	{
+		if (args.length < 2)
+		{
+			System.err.println("Usage: BacktestRunner strategy datasetKey [--capital=N]"
+				+ " [--commission=F] [--fee=N] [--slippage=F] [--trades=file] [--equity=file]");
+			System.exit(2);
+		}
+
+		Strategy strategy = StrategyManager.getDefault().getStrategy(args[0]);
+		if (strategy == null)
+			strategy = (Strategy) Class.forName(args[0]).newInstance();
+
+		HistoryStore history = CacheManager.openHistory(args[1]);
+		if (history == null)
+		{
+			System.err.println("No cached dataset " + args[1]);
+			System.exit(1);
+		}
+		Dataset dataset = history.readAll();
+
+		BacktestSettings settings = new BacktestSettings();
+		String trades = null, equity = null;
+		for (int i = 2; i < args.length; i++)
+		{
+			String arg = args[i];
+			String value = arg.substring(arg.indexOf('=') + 1);
+			if (arg.startsWith("--capital="))
+				settings.setCapital(Double.parseDouble(value));
+			else if (arg.startsWith("--commission="))
+				settings.setCommission(Double.parseDouble(value));
+			else if (arg.startsWith("--fee="))
+				settings.setFee(Double.parseDouble(value));
+			else if (arg.startsWith("--slippage="))
+				settings.setSlippage(Double.parseDouble(value));
+			else if (arg.startsWith("--trades="))
+				trades = value;
+			else if (arg.startsWith("--equity="))
+				equity = value;
+			else
+				throw new IllegalArgumentException("Unknown option " + arg);
+		}
+
+		long start = System.currentTimeMillis();
+		BacktestResult result = new Backtest(dataset, strategy, settings).run();
+		long time = System.currentTimeMillis() - start;
+
+		System.out.print(result.getSummary());
+		System.out.println("Run time: " + time + " ms");
+		if (trades != null)
+		{
+			PrintWriter out = open(trades);
+			result.writeTrades(out);
+			out.close();
+		}
+		if (equity != null)
+		{
+			PrintWriter out = open(equity);
+			result.writeEquity(out);
+			out.close();
+		}
+	}
+
+	private static PrintWriter open(String file)
+		throws IOException
+	{
+		return new PrintWriter(new FileWriter(new File(file)));
+	}
+
+}
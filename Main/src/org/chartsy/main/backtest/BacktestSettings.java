@@ -0,0 +1,68 @@
+package org.chartsy.main.backtest;
+
+/**
+ * How a backtest models the account and the fills.
+ */
+public class BacktestSettings
+{
+
+	private double capital = 10000;
+	private double commission = 0.002;
+	private double fee = 0;
+	private double slippage = 0.0005;
+
+	public BacktestSettings()
+	{
+	}
+
+	public double getCapital()
+	{
+		return capital;
+	}
+
+	public void setCapital(double capital)
+	{
+		this.capital = capital;
+	}
+
+	/**
+	 * @return the commission paid on every fill, as a fraction of its value
+	 */
+	public double getCommission()
+	{
+		return commission;
+	}
+
+	public void setCommission(double commission)
+	{
+		this.commission = commission;
+	}
+
+	/**
+	 * @return the fixed fee paid on every fill
+	 */
+	public double getFee()
+	{
+		return fee;
+	}
+
+	public void setFee(double fee)
+	{
+		this.fee = fee;
+	}
+
+	/**
+	 * @return how much worse than the price market and stop orders are
+	 * filled, as a fraction of the price
+	 */
+	public double getSlippage()
+	{
+		return slippage;
+	}
+
+	public void setSlippage(double slippage)
+	{
+		this.slippage = slippage;
+	}
+
+}
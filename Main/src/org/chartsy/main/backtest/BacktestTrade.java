@@ -0,0 +1,86 @@
+package org.chartsy.main.backtest;
+
+/**
+ * A position of a backtest, from the fill that opened it to the fill that
+ * closed it. Prices are averaged over the fills that added to or reduced
+ * the position.
+ */
+public final class BacktestTrade
+{
+
+	private final boolean isLong;
+	private final long entryTime;
+	private final double entryPrice;
+	private final long exitTime;
+	private final double exitPrice;
+	private final double quantity;
+	private final double profit;
+	private final double fees;
+
+	BacktestTrade(boolean isLong, long entryTime, double entryPrice, long exitTime,
+		double exitPrice, double quantity, double profit, double fees)
+	{
+		this.isLong = isLong;
+		this.entryTime = entryTime;
+		this.entryPrice = entryPrice;
+		this.exitTime = exitTime;
+		this.exitPrice = exitPrice;
+		this.quantity = quantity;
+		this.profit = profit;
+		this.fees = fees;
+	}
+
+	public boolean isLong()
+	{
+		return isLong;
+	}
+
+	public long getEntryTime()
+	{
+		return entryTime;
+	}
+
+	public double getEntryPrice()
+	{
+		return entryPrice;
+	}
+
+	public long getExitTime()
+	{
+		return exitTime;
+	}
+
+	public double getExitPrice()
+	{
+		return exitPrice;
+	}
+
+	/**
+	 * @return the largest size the position had
+	 */
+	public double getQuantity()
+	{
+		return quantity;
+	}
+
+	/**
+	 * @return the profit after fees
+	 */
+	public double getProfit()
+	{
+		return profit;
+	}
+
+	public double getFees()
+	{
+		return fees;
+	}
+
+	@Override
+	public String toString()
+	{
+		return (isLong ? "long," : "short,") + entryTime + "," + entryPrice + ","
+			+ exitTime + "," + exitPrice + "," + quantity + "," + profit + "," + fees;
+	}
+
+}
@@ -0,0 +1,42 @@
+package org.chartsy.main.backtest;
+
+/**
+ * Trading rules run by a {@link Backtest}. Strategies are found in the
+ * lookup like indicators are, and every run uses a new instance, so the
+ * state of a strategy can be kept in plain fields.
+ */
+public abstract class Strategy
+{
+
+	public abstract String getName();
+
+	public abstract Strategy newInstance();
+
+	/**
+	 * Called once before the first bar, for example to calculate the
+	 * indicators the strategy reads with Backtest.getValues.
+	 */
+	public void start(Backtest test)
+	{
+	}
+
+	/**
+	 * Called at the close of every bar, orders placed here are filled from
+	 * the next bar on.
+	 */
+	public abstract void onBar(Backtest test);
+
+	/**
+	 * Called once after the last bar.
+	 */
+	public void finish(Backtest test)
+	{
+	}
+
+	@Override
+	public String toString()
+	{
+		return getName();
+	}
+
+}
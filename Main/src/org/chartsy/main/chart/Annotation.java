@@ -47,6 +47,8 @@ public abstract class Annotation implements Serializable, MouseListener, MouseMo
     public static final int BOTTOM_RIGHT = 8;
     public static final int CENTER = 9;
 
+    protected static final int PAINT_MARGIN = 16;
+
     protected static final int RESIZE = 0;
     protected static final int MOVE = 1;
 
@@ -139,25 +141,67 @@ public abstract class Annotation implements Serializable, MouseListener, MouseMo
     { return t1; }
 
     public void setT1(long l)
-    { t1 = l; }
+    { t1 = l; moved(); }
 
     public long getT2()
     { return t2; }
 
     public void setT2(long l)
-    { t2 = l; }
+    { t2 = l; moved(); }
 
     public double getV1()
     { return v1; }
 
     public void setV1(double d)
-    { v1 = d; }
+    { v1 = d; moved(); }
 
     public double getV2()
     { return v2; }
 
     public void setV2(double d)
-    { v2 = d; }
+    { v2 = d; moved(); }
+
+    private void moved()
+    {
+        if (annotationPanel != null)
+            annotationPanel.annotationMoved(this);
+    }
+
+    /**
+     * The bounds of the annotation in time and value, used to index it.
+     * Annotations painted across the panel return Long.MIN_VALUE and
+     * Long.MAX_VALUE or infinite values on that axis.
+     */
+    public long getMinTime()
+    { return Math.min(getT1(), getT2()); }
+
+    public long getMaxTime()
+    { return Math.max(getT1(), getT2()); }
+
+    public double getMinValue()
+    { return Math.min(getV1(), getV2()); }
+
+    public double getMaxValue()
+    { return Math.max(getV1(), getV2()); }
+
+    /**
+     * Returns the area of the annotation panel the annotation paints in, so
+     * a change repaints only that area, or null to repaint the whole panel.
+     */
+    public Rectangle getPaintBounds()
+    {
+        if (chartFrame == null || annotationPanel == null)
+            return null;
+        int width = annotationPanel.getWidth(), height = annotationPanel.getHeight();
+        double left = getMinTime() == Long.MIN_VALUE ? 0 : getXFromTime(getMinTime());
+        double right = getMaxTime() == Long.MAX_VALUE ? width : getXFromTime(getMaxTime());
+        double top = getMaxValue() == Double.POSITIVE_INFINITY ? 0 : getYFromValue(getMaxValue());
+        double bottom = getMinValue() == Double.NEGATIVE_INFINITY ? height : getYFromValue(getMinValue());
+        Rectangle r = new Rectangle();
+        r.setFrameFromDiagonal(left, top, right, bottom);
+        r.grow(PAINT_MARGIN, PAINT_MARGIN);
+        return r;
+    }
 
     public double getX1()
     { return x1; }
@@ -185,7 +229,6 @@ public abstract class Annotation implements Serializable, MouseListener, MouseMo
 
     protected double getXFromX(double x)
     { 
-        Integer idx = null;
         double xc = 0;
 
         ChartData cd = chartFrame.getChartData();
@@ -204,34 +247,18 @@ public abstract class Annotation implements Serializable, MouseListener, MouseMo
         boolean negative = (x < minX);
         if (negative)
         {
-            for (int i = 0; i < negCount; i++)
-            {
-                Rectangle2D r = CoordCalc.rectangle(minX + (-1 * (i * w)), 0, w, h);
-                if (r.contains(x, 0))
-                {
-                    idx = -1 * i;
-                    xc = r.getX() + (w/2);
-                    break;
-                }
-            }
-
-            if (idx == null)
+            int i = (int) Math.ceil((minX - x) / w);
+            if (i < negCount)
+                xc = CoordCalc.rectangle(minX + (-1 * (i * w)), 0, w, h).getX() + (w/2);
+            else
                 xc = CoordCalc.rectangle(minX + (-1 * (negCount * w)), 0, w, h).getX() + (w/2);
         }
         else
         {
-            for (int i = 0; i < posCount; i++)
-            {
-                Rectangle2D r = CoordCalc.rectangle(minX + (i * w), 0, w, h);
-                if (r.contains(x, 0))
-                {
-                    idx = i;
-                    xc = r.getX() + (w/2);
-                    break;
-                }
-            }
-
-            if (idx == null)
+            int i = (int) Math.floor((x - minX) / w);
+            if (i < posCount)
+                xc = CoordCalc.rectangle(minX + (i * w), 0, w, h).getX() + (w/2);
+            else
                 xc = CoordCalc.rectangle(minX + ((posCount -1 ) * w), 0, w, h).getX() + (w/2);
         }
 
@@ -243,6 +270,9 @@ public abstract class Annotation implements Serializable, MouseListener, MouseMo
         Integer idx = null;
         ChartData cd = chartFrame.getChartData();
         int count = cd.getDataset().getItemsCount();
+        int found = cd.getDataset().getIndex(t);
+        if (found >= 0)
+            return found;
         if (cd.getInterval() instanceof DailyInterval)
         {
             for (int i = 0; i < count; i++)
@@ -342,7 +372,7 @@ public abstract class Annotation implements Serializable, MouseListener, MouseMo
 
     protected long getTimeFromX(double x)
     {
-        Integer idx = null;
+        int idx;
         ChartData cd = chartFrame.getChartData();
         Rectangle rect = chartFrame.getSplitPanel().getChartPanel().getBounds();
         rect.grow(-2, -2);
@@ -352,37 +382,18 @@ public abstract class Annotation implements Serializable, MouseListener, MouseMo
         int negativeNr = count - items - (count - end);
         int positiveNr = count - negativeNr;
         double w = rect.getWidth() / items;
-        double h = rect.getHeight();
         double minX = rect.getMinX();
 
         boolean negative = (x < minX);
         if (negative)
         {
-            for (int i = 0; i < negativeNr; i++)
-            {
-                if (CoordCalc.rectangle(minX + (-1 * (i * w)), 0, w, h).contains(x, 0))
-                {
-                    idx = negativeNr - i;
-                    break;
-                }
-            }
-
-            if (idx == null)
-                idx = 0;
+            int i = (int) Math.ceil((minX - x) / w);
+            idx = i < negativeNr ? negativeNr - i : 0;
         }
         else
         {
-            for (int i = 0; i < positiveNr; i++)
-            {
-                if (CoordCalc.rectangle(minX + (i * w), 0, w, h).contains(x, 0))
-                {
-                    idx = negativeNr + i;
-                    break;
-                }
-            }
-
-            if (idx == null)
-                idx = count - 1;
+            int i = (int) Math.floor((x - minX) / w);
+            idx = i < positiveNr ? negativeNr + i : count - 1;
         }
 
         return chartFrame.getChartData().getDataset().getTimeAt(idx);
@@ -1058,11 +1069,15 @@ public abstract class Annotation implements Serializable, MouseListener, MouseMo
             int x = e.getX(), y = e.getY();
             if (current.isInBounds(x, y))
             {
-                if (current.updatePosition(x, y))
-                    current.updateArea(getAnnotationPanel());
+                Rectangle before = current.getPaintBounds();
+                current.updatePosition(x, y);
+                Rectangle after = current.getPaintBounds();
+                if (before != null && after != null)
+                    getAnnotationPanel().repaint(before.union(after));
+                else
+                    getAnnotationPanel().repaint();
             }
         }
-        getAnnotationPanel().repaint();
     }
 
     public void mouseReleased(MouseEvent e)
@@ -0,0 +1,319 @@
+package org.chartsy.main.chart;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.chartsy.main.ChartFrame;
+import org.chartsy.main.data.ChartData;
+import org.chartsy.main.data.Dataset;
+import org.chartsy.main.utils.Range;
+
+/**
+ * Uniform grid over the time and value bounds of the annotations of a panel,
+ * used to find the annotations that may be under the mouse without asking
+ * every one of them. The grid is sized from the visible part of the chart
+ * and is built again only when the chart is zoomed far enough for the cells
+ * to get too big or too small, edits move single annotations between cells.
+ */
+public class AnnotationIndex
+{
+
+	private static final int GRID = 16;
+	private static final int MAX_CELLS = 64;
+	private static final int TOLERANCE = 8;
+
+	private final Map<Annotation, Entry> entries = new IdentityHashMap<Annotation, Entry>();
+	private final Map<Long, List<Annotation>> cells = new HashMap<Long, List<Annotation>>();
+	private final List<Annotation> wide = new ArrayList<Annotation>();
+	private int order = 0;
+
+	private boolean built = false;
+	private long timeOrigin;
+	private long timeCell;
+	private double valueOrigin;
+	private double valueCell;
+
+	public void add(Annotation annotation)
+	{
+		if (entries.containsKey(annotation))
+			return;
+		Entry entry = new Entry(order++);
+		entries.put(annotation, entry);
+		if (built)
+			insert(annotation, entry);
+	}
+
+	public void remove(Annotation annotation)
+	{
+		Entry entry = entries.remove(annotation);
+		if (entry != null && built)
+			delete(annotation, entry);
+	}
+
+	/**
+	 * Called when the time or value bounds of the annotation changed.
+	 */
+	public void update(Annotation annotation)
+	{
+		Entry entry = entries.get(annotation);
+		if (entry != null && built)
+		{
+			delete(annotation, entry);
+			insert(annotation, entry);
+		}
+	}
+
+	public void clear()
+	{
+		entries.clear();
+		cells.clear();
+		wide.clear();
+		built = false;
+	}
+
+	public int size()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * Returns the annotations whose bounds are near the given point of the
+	 * annotation panel, in the order they were added.
+	 */
+	public List<Annotation> getAnnotationsAt(double x, double y)
+	{
+		if (entries.isEmpty())
+			return Collections.emptyList();
+
+		Annotation probe = entries.keySet().iterator().next();
+		ChartFrame chartFrame = probe.getChartFrame();
+		ChartData chartData = chartFrame.getChartData();
+		Dataset dataset = chartData.getDataset();
+		int count = dataset == null ? 0 : dataset.getItemsCount();
+		if (count == 0 || chartData.getPeriod() <= 0)
+			return sorted(new ArrayList<Annotation>(entries.keySet()));
+
+		if (!built || resized(chartData, probe.getAnnotationPanel().getRange()))
+			build(chartData, probe.getAnnotationPanel().getRange());
+
+		Rectangle rect = chartFrame.getSplitPanel().getChartPanel().getBounds();
+		rect.grow(-2, -2);
+		double width = rect.getWidth() / chartData.getPeriod();
+		int offset = chartData.getLast() - chartData.getPeriod();
+		int from = offset + (int) Math.floor((x - TOLERANCE - rect.getMinX()) / width) - 1;
+		int to = offset + (int) Math.floor((x + TOLERANCE - rect.getMinX()) / width) + 1;
+		long minTime = from <= 0 ? Long.MIN_VALUE : dataset.getTimeAt(Math.min(from, count - 1));
+		long maxTime = to >= count - 1 ? Long.MAX_VALUE : dataset.getTimeAt(Math.max(to, 0));
+
+		double v1 = probe.getValueFromY(y - TOLERANCE);
+		double v2 = probe.getValueFromY(y + TOLERANCE);
+		double minValue = Math.min(v1, v2);
+		double maxValue = Math.max(v1, v2);
+
+		List<Annotation> list = new ArrayList<Annotation>();
+		for (Annotation annotation : wide)
+			if (overlaps(annotation, minTime, maxTime, minValue, maxValue))
+				list.add(annotation);
+
+		int qx0 = timeCell(minTime), qx1 = timeCell(maxTime);
+		int qy0 = valueCell(minValue), qy1 = valueCell(maxValue);
+		if (((long) qx1 - qx0 + 1) * ((long) qy1 - qy0 + 1) <= cells.size())
+		{
+			for (int cx = qx0; cx <= qx1; cx++)
+				for (int cy = qy0; cy <= qy1; cy++)
+				{
+					List<Annotation> cell = cells.get(key(cx, cy));
+					if (cell != null)
+						collect(cell, cx, cy, qx0, qy0, minTime, maxTime, minValue, maxValue, list);
+				}
+		} else
+		{
+			for (Map.Entry<Long, List<Annotation>> cell : cells.entrySet())
+			{
+				int cx = (int) (cell.getKey() >> 32);
+				int cy = (int) cell.getKey().longValue();
+				if (cx >= qx0 && cx <= qx1 && cy >= qy0 && cy <= qy1)
+					collect(cell.getValue(), cx, cy, qx0, qy0, minTime, maxTime, minValue, maxValue, list);
+			}
+		}
+
+		return sorted(list);
+	}
+
+	private void collect(List<Annotation> cell, int cx, int cy, int qx0, int qy0,
+		long minTime, long maxTime, double minValue, double maxValue, List<Annotation> list)
+	{
+		for (Annotation annotation : cell)
+		{
+			Entry entry = entries.get(annotation);
+			// an annotation is in all the cells it spans, report it only once
+			if (cx == Math.max(entry.x0, qx0) && cy == Math.max(entry.y0, qy0)
+				&& overlaps(annotation, minTime, maxTime, minValue, maxValue))
+				list.add(annotation);
+		}
+	}
+
+	private List<Annotation> sorted(List<Annotation> list)
+	{
+		Collections.sort(list, new Comparator<Annotation>()
+		{
+			public int compare(Annotation a1, Annotation a2)
+			{
+				int o1 = entries.get(a1).order, o2 = entries.get(a2).order;
+				return o1 < o2 ? -1 : (o1 == o2 ? 0 : 1);
+			}
+		});
+		return list;
+	}
+
+	private boolean resized(ChartData chartData, Range range)
+	{
+		double time = (double) visibleTime(chartData) / GRID;
+		double value = (range.getUpperBound() - range.getLowerBound()) / GRID;
+		return time > timeCell * 4d || time * 4d < timeCell
+			|| value > valueCell * 4d || value * 4d < valueCell;
+	}
+
+	private void build(ChartData chartData, Range range)
+	{
+		Dataset dataset = chartData.getDataset();
+		timeOrigin = dataset.getTimeAt(Math.max(0, chartData.getLast() - chartData.getPeriod()));
+		timeCell = Math.max(1, visibleTime(chartData) / GRID);
+		valueOrigin = range.getLowerBound();
+		valueCell = (range.getUpperBound() - range.getLowerBound()) / GRID;
+		if (!(valueCell > 0) || Double.isInfinite(valueCell))
+			valueCell = 1;
+
+		cells.clear();
+		wide.clear();
+		built = true;
+		for (Map.Entry<Annotation, Entry> entry : entries.entrySet())
+			insert(entry.getKey(), entry.getValue());
+	}
+
+	private long visibleTime(ChartData chartData)
+	{
+		Dataset dataset = chartData.getDataset();
+		int last = Math.min(chartData.getLast(), dataset.getItemsCount()) - 1;
+		int first = Math.max(0, chartData.getLast() - chartData.getPeriod());
+		if (last <= first)
+			return 1;
+		return dataset.getTimeAt(last) - dataset.getTimeAt(first);
+	}
+
+	private void insert(Annotation annotation, Entry entry)
+	{
+		long minTime = annotation.getMinTime(), maxTime = annotation.getMaxTime();
+		double minValue = annotation.getMinValue(), maxValue = annotation.getMaxValue();
+		entry.x0 = timeCell(minTime);
+		entry.x1 = timeCell(maxTime);
+		entry.y0 = valueCell(minValue);
+		entry.y1 = valueCell(maxValue);
+		entry.wide = minTime == Long.MIN_VALUE || maxTime == Long.MAX_VALUE
+			|| Double.isInfinite(minValue) || Double.isInfinite(maxValue)
+			|| Double.isNaN(minValue) || Double.isNaN(maxValue)
+			|| ((long) entry.x1 - entry.x0 + 1) * ((long) entry.y1 - entry.y0 + 1) > MAX_CELLS;
+
+		if (entry.wide)
+		{
+			wide.add(annotation);
+			return;
+		}
+		for (int cx = entry.x0; cx <= entry.x1; cx++)
+			for (int cy = entry.y0; cy <= entry.y1; cy++)
+			{
+				Long key = key(cx, cy);
+				List<Annotation> cell = cells.get(key);
+				if (cell == null)
+				{
+					cell = new ArrayList<Annotation>(2);
+					cells.put(key, cell);
+				}
+				cell.add(annotation);
+			}
+	}
+
+	private void delete(Annotation annotation, Entry entry)
+	{
+		if (entry.wide)
+		{
+			removeIdentity(wide, annotation);
+			return;
+		}
+		for (int cx = entry.x0; cx <= entry.x1; cx++)
+			for (int cy = entry.y0; cy <= entry.y1; cy++)
+			{
+				Long key = key(cx, cy);
+				List<Annotation> cell = cells.get(key);
+				if (cell != null)
+				{
+					removeIdentity(cell, annotation);
+					if (cell.isEmpty())
+						cells.remove(key);
+				}
+			}
+	}
+
+	private static void removeIdentity(List<Annotation> list, Annotation annotation)
+	{
+		// Annotation.equals compares positions, two annotations can be equal
+		for (int i = list.size() - 1; i >= 0; i--)
+			if (list.get(i) == annotation)
+			{
+				list.remove(i);
+				return;
+			}
+	}
+
+	private static boolean overlaps(Annotation annotation,
+		long minTime, long maxTime, double minValue, double maxValue)
+	{
+		return annotation.getMinTime() <= maxTime && annotation.getMaxTime() >= minTime
+			&& !(annotation.getMinValue() > maxValue) && !(annotation.getMaxValue() < minValue);
+	}
+
+	private int timeCell(long time)
+	{
+		if (time == Long.MIN_VALUE)
+			return Integer.MIN_VALUE;
+		if (time == Long.MAX_VALUE)
+			return Integer.MAX_VALUE;
+		double cell = Math.floor(((double) time - timeOrigin) / timeCell);
+		return (int) Math.max(Integer.MIN_VALUE + 1, Math.min(Integer.MAX_VALUE - 1, cell));
+	}
+
+	private int valueCell(double value)
+	{
+		if (Double.isNaN(value) || value == Double.NEGATIVE_INFINITY)
+			return Integer.MIN_VALUE;
+		if (value == Double.POSITIVE_INFINITY)
+			return Integer.MAX_VALUE;
+		double cell = Math.floor((value - valueOrigin) / valueCell);
+		return (int) Math.max(Integer.MIN_VALUE + 1, Math.min(Integer.MAX_VALUE - 1, cell));
+	}
+
+	private static Long key(int cx, int cy)
+	{
+		return Long.valueOf(((long) cx << 32) | (cy & 0xffffffffL));
+	}
+
+	private static class Entry
+	{
+
+		private final int order;
+		private int x0, x1, y0, y1;
+		private boolean wide;
+
+		private Entry(int order)
+		{
+			this.order = order;
+		}
+
+	}
+
+}
@@ -1,6 +1,7 @@
 package org.chartsy.main.chart;
 
 import java.awt.Color;
+import java.awt.Font;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.Stroke;
@@ -14,12 +15,15 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.chartsy.main.ChartFrame;
 import org.chartsy.main.ChartFrameAdapter;
 import org.chartsy.main.data.ChartData;
 import org.chartsy.main.data.Dataset;
+import org.chartsy.main.data.RangeIndex;
+import org.chartsy.main.metrics.Metrics;
 import org.chartsy.main.managers.DatasetUsage;
 import org.chartsy.main.utils.Range;
 import org.chartsy.main.utils.SerialVersion;
@@ -44,6 +48,8 @@ public abstract class Indicator extends ChartFrameAdapter
     protected boolean maximized = true;
     private int maximizedHeight = DEFAULT_HEIGHT;
 	protected boolean active = true;
+	// the dataset calculated when there is no chart, see calculate(Dataset)
+	private transient Dataset source;
 
     public Indicator()
     {
@@ -78,6 +84,8 @@ public abstract class Indicator extends ChartFrameAdapter
 
     protected Dataset getDataset()
     {
+		if (source != null)
+			return source;
         return DatasetUsage.getInstance().getDatasetFromMemory(datasetKey);
     }
 
@@ -96,6 +104,14 @@ public abstract class Indicator extends ChartFrameAdapter
 		return datasets.get(key);
     }
 
+	/**
+	 * @return the dataset calculated for the key, or null
+	 */
+	public Dataset getCalculatedDataset(String key)
+	{
+		return datasets.get(key);
+	}
+
 	protected boolean datasetExists(String key)
 	{
 		return datasets.containsKey(key);
@@ -122,6 +138,15 @@ public abstract class Indicator extends ChartFrameAdapter
 		datasets.clear();
     }
 
+	/**
+	 * @return the bars the indicator needs before a bar to have a value at
+	 * it, charts keep as many bars paged in before the visible ones
+	 */
+	public int getLookback()
+	{
+		return 0;
+	}
+
     public abstract String getName();
     public abstract String getLabel();
     public abstract String getPaintedLabel(ChartFrame cf);
@@ -138,12 +163,18 @@ public abstract class Indicator extends ChartFrameAdapter
 		Range range = null;
 		Iterator<String> it = datasets.keySet().iterator();
 
+		int period = cf.getChartData().getPeriod();
+		int last = cf.getChartData().getLast();
 		while (it.hasNext())
 		{
-			Dataset d = visibleDataset(cf, it.next());
+			Dataset d = getDataset(it.next());
+			if (d == null)
+				continue;
 
-			double min = d.getMin(Dataset.CLOSE_PRICE);
-			double max = d.getMax(Dataset.CLOSE_PRICE);
+			RangeIndex index = d.getRangeIndex();
+			int from = Math.max(0, last - period);
+			double min = index.getMin(Dataset.CLOSE_PRICE, from, last);
+			double max = index.getMax(Dataset.CLOSE_PRICE, from, last);
 
 			if (range == null)
 			{
@@ -313,6 +344,54 @@ public abstract class Indicator extends ChartFrameAdapter
         }
     }
 
+	/**
+	 * @return the values saveToTemplate writes, by the name of the property
+	 */
+	public HashMap<String, Object> getPropertyValues()
+	{
+		HashMap<String, Object> values = new HashMap<String, Object>();
+		AbstractPropertiesNode node = (AbstractPropertiesNode) getNode();
+		AbstractPropertyListener listener = node.getAbstractPropertyListener();
+		for (Field field : listener.getClass().getDeclaredFields())
+		{
+			try
+			{
+				field.setAccessible(true);
+				if (field.getModifiers() == Modifier.PRIVATE)
+				{
+					Object value = field.get(listener);
+					if (value instanceof String || value instanceof Number || value instanceof Boolean
+						|| value instanceof Color || value instanceof Font)
+						values.put(field.getName(), value);
+				}
+			} catch (Exception ex)
+			{
+				Logger.getLogger(getName()).log(Level.SEVERE, "", ex);
+			}
+		}
+		return values;
+	}
+
+	public void setPropertyValues(Map<String, Object> values)
+	{
+		AbstractPropertiesNode node = (AbstractPropertiesNode) getNode();
+		AbstractPropertyListener listener = node.getAbstractPropertyListener();
+		for (Field field : listener.getClass().getDeclaredFields())
+		{
+			Object value = values.get(field.getName());
+			if (value == null || field.getModifiers() != Modifier.PRIVATE)
+				continue;
+			try
+			{
+				field.setAccessible(true);
+				field.set(listener, value);
+			} catch (Exception ex)
+			{
+				Logger.getLogger(getName()).log(Level.SEVERE, "", ex);
+			}
+		}
+	}
+
     public void loadFromTemplate(Element element)
     {
         AbstractPropertiesNode node = (AbstractPropertiesNode) getNode();
@@ -370,7 +449,33 @@ public abstract class Indicator extends ChartFrameAdapter
 	public void datasetKeyChanged(String datasetKey)
 	{
 		setDatasetKey(datasetKey);
+		recalculate();
+	}
+
+	public final void recalculate()
+	{
+		long start = Metrics.start();
 		calculate();
+		if (Metrics.ENABLED)
+			Metrics.stop("calculate.indicator." + getName(), start);
+	}
+
+	/**
+	 * Calculates the indicator over the dataset instead of the dataset of a
+	 * chart, the results are then read with getCalculatedDataset. Use a new
+	 * instance for every thread.
+	 */
+	public final void calculate(Dataset dataset)
+	{
+		source = dataset;
+		try
+		{
+			clearDatasets();
+			recalculate();
+		} finally
+		{
+			source = null;
+		}
 	}
 
 }
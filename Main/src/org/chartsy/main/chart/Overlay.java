@@ -1,18 +1,23 @@
 package org.chartsy.main.chart;
 
 import java.awt.Color;
+import java.awt.Font;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.io.Serializable;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.chartsy.main.ChartFrame;
 import org.chartsy.main.ChartFrameAdapter;
 import org.chartsy.main.data.Dataset;
+import org.chartsy.main.data.RangeIndex;
+import org.chartsy.main.metrics.Metrics;
 import org.chartsy.main.managers.DatasetUsage;
 import org.chartsy.main.utils.Range;
 import org.chartsy.main.utils.SerialVersion;
@@ -107,11 +112,18 @@ public abstract class Overlay extends ChartFrameAdapter
     {
         Range range = null;
 		String[] keys = datasets.keySet().toArray(new String[datasets.size()]);
+		int period = cf.getChartData().getPeriod();
+		int last = cf.getChartData().getLast();
+		int from = Math.max(0, last - period);
+		int p = Dataset.getPrice(price);
         for (String key : keys)
         {
-            Dataset dataset = visibleDataset(cf, key);
-            double min = dataset.getMinNotZero(price);
-            double max = dataset.getMaxNotZero(price);
+            Dataset dataset = getDataset(key);
+			if (dataset == null)
+				continue;
+            RangeIndex index = dataset.getRangeIndex();
+            double min = index.getMinNotZero(p, from, last);
+            double max = index.getMaxNotZero(p, from, last);
             if (range == null)
             {
                 range = new Range(min - (max - min) * 0.01, max + (max - min) * 0.01);
@@ -127,6 +139,15 @@ public abstract class Overlay extends ChartFrameAdapter
 
     public abstract void calculate();
 
+	/**
+	 * @return the bars the overlay needs before a bar to have a value at
+	 * it, charts keep as many bars paged in before the visible ones
+	 */
+	public int getLookback()
+	{
+		return 0;
+	}
+
     public abstract Color[] getColors();
 
     public abstract double[] getValues(ChartFrame cf);
@@ -170,6 +191,54 @@ public abstract class Overlay extends ChartFrameAdapter
 		}
 	}
 
+	/**
+	 * @return the values saveToTemplate writes, by the name of the property
+	 */
+	public HashMap<String, Object> getPropertyValues()
+	{
+		HashMap<String, Object> values = new HashMap<String, Object>();
+		AbstractPropertiesNode node = (AbstractPropertiesNode) getNode();
+		AbstractPropertyListener listener = node.getAbstractPropertyListener();
+		for (Field field : listener.getClass().getDeclaredFields())
+		{
+			try
+			{
+				field.setAccessible(true);
+				if (field.getModifiers() == Modifier.PRIVATE)
+				{
+					Object value = field.get(listener);
+					if (value instanceof String || value instanceof Number || value instanceof Boolean
+						|| value instanceof Color || value instanceof Font)
+						values.put(field.getName(), value);
+				}
+			} catch (Exception ex)
+			{
+				Logger.getLogger(getName()).log(Level.SEVERE, "", ex);
+			}
+		}
+		return values;
+	}
+
+	public void setPropertyValues(Map<String, Object> values)
+	{
+		AbstractPropertiesNode node = (AbstractPropertiesNode) getNode();
+		AbstractPropertyListener listener = node.getAbstractPropertyListener();
+		for (Field field : listener.getClass().getDeclaredFields())
+		{
+			Object value = values.get(field.getName());
+			if (value == null || field.getModifiers() != Modifier.PRIVATE)
+				continue;
+			try
+			{
+				field.setAccessible(true);
+				field.set(listener, value);
+			} catch (Exception ex)
+			{
+				Logger.getLogger(getName()).log(Level.SEVERE, "", ex);
+			}
+		}
+	}
+
 	public void loadFromTemplate(Element element)
 	{
 		AbstractPropertiesNode node = (AbstractPropertiesNode) getNode();
@@ -221,7 +290,15 @@ public abstract class Overlay extends ChartFrameAdapter
 	public void datasetKeyChanged(String datasetKey)
 	{
 		setDatasetKey(datasetKey);
+		recalculate();
+	}
+
+	public final void recalculate()
+	{
+		long start = Metrics.start();
 		calculate();
+		if (Metrics.ENABLED)
+			Metrics.stop("calculate.overlay." + getName(), start);
 	}
     
 }
@@ -7,7 +7,7 @@ import java.io.Serializable;
 import java.text.DecimalFormat;
 import java.text.ParseException;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Arrays;
 import java.util.List;
 import javax.swing.event.EventListenerList;
 import org.chartsy.main.ChartFrame;
@@ -20,7 +20,6 @@ import org.chartsy.main.events.DatasetEvent;
 import org.chartsy.main.events.DatasetListener;
 import org.chartsy.main.intervals.Interval;
 import org.chartsy.main.intervals.MonthlyInterval;
-import org.chartsy.main.intervals.WeeklyInterval;
 import org.chartsy.main.managers.DataProviderManager;
 import org.chartsy.main.managers.DatasetUsage;
 import org.chartsy.main.utils.Bounds;
@@ -56,6 +55,7 @@ public class ChartData implements Serializable, ChartFrameListener
     private int period = -1;
     private int last = -1;
 	private int size = -1;
+	private transient int lookback = 0;
 
     public ChartData()
     {
@@ -160,6 +160,15 @@ public class ChartData implements Serializable, ChartFrameListener
 		size = getDataset().getItemsCount();
     }
 
+	/**
+	 * Sets the key of a dataset that is not loaded yet, the size is set
+	 * when the chart loads it.
+	 */
+	public void restoreDatasetKey(String datasetKey)
+	{
+		this.datasetKey = datasetKey;
+	}
+
 	public String getDatasetKey()
 	{
 		return datasetKey;
@@ -203,8 +212,34 @@ public class ChartData implements Serializable, ChartFrameListener
     public void setLast(int last)
     {
         this.last = last;
+		requestHistory();
     }
 
+	/**
+	 * @return the bars the studies of the chart need before the first
+	 * visible one
+	 */
+	public int getLookback()
+	{
+		return lookback;
+	}
+
+	public void setLookback(int lookback)
+	{
+		this.lookback = lookback;
+	}
+
+	/**
+	 * Pages in older bars once the visible ones, with the lookback of the
+	 * studies, come within a period of the start of the dataset.
+	 */
+	private void requestHistory()
+	{
+		if (datasetKey != null && last > 0 && period > 0
+			&& last - period < period + lookback)
+			DatasetUsage.getInstance().requestHistory(datasetKey, 2 * period + lookback);
+	}
+
     public void setSavedIndicators(List<Indicator> list)
     {
         savedIndicators = list;
@@ -288,22 +323,32 @@ public class ChartData implements Serializable, ChartFrameListener
         Range range = new Range();
         if (!isVisibleNull())
         {
-            double hBound = getVisible().getAverageNotZero(Dataset.CLOSE_PRICE)
-                    + 3 * Math.sqrt( getVisible().getVarianceNotZero(Dataset.CLOSE_PRICE) );
-
-            double lBound = getVisible().getAverageNotZero(Dataset.CLOSE_PRICE)
-                    - 3 * Math.sqrt( getVisible().getVarianceNotZero(Dataset.CLOSE_PRICE) );
-
-            double min = Double.MAX_VALUE;
-            double max = Double.MIN_VALUE;
-            for ( DataItem item : getVisible().getDataItems() ) {
-                if ( item != null && item.getHigh() != 0 && max < item.getHigh() && item.getHigh() < hBound ) {
-                    max = item.getHigh();
-                }
-                if ( item != null && item.getLow() != 0 && min > item.getLow() && item.getLow() > lBound ) {
-                    min = item.getLow();
-                }
-            }
+			RangeIndex index = getDataset().getRangeIndex();
+			int from = getVisibleOffset();
+			int to = from + getVisible().getItemsCount();
+
+			double average = index.getAverageNotZero(Dataset.CLOSE_PRICE, from, to);
+			double deviation = 3 * Math.sqrt(index.getVarianceNotZero(Dataset.CLOSE_PRICE, from, to));
+            double hBound = average + deviation;
+            double lBound = average - deviation;
+
+            double min = index.getMinNotZero(Dataset.LOW_PRICE, from, to);
+            double max = index.getMaxNotZero(Dataset.HIGH_PRICE, from, to);
+
+			// outliers outside three standard deviations need a scan to skip them
+			if (!(max < hBound && min > lBound))
+			{
+				min = Double.MAX_VALUE;
+				max = Double.MIN_VALUE;
+				for ( DataItem item : getVisible().getDataItems() ) {
+					if ( item != null && item.getHigh() != 0 && max < item.getHigh() && item.getHigh() < hBound ) {
+						max = item.getHigh();
+					}
+					if ( item != null && item.getLow() != 0 && min > item.getLow() && item.getLow() > lBound ) {
+						min = item.getLow();
+					}
+				}
+			}
 
             if ( getVisible().getLastClose() < min )
                 min = getVisible().getLastClose();
@@ -345,6 +390,7 @@ public class ChartData implements Serializable, ChartFrameListener
 			period = 150;
 		if (period > size)
 			period = size;
+		requestHistory();
 
 		if (getDataset() != null)
 		{
@@ -361,56 +407,23 @@ public class ChartData implements Serializable, ChartFrameListener
 		if (!isVisibleNull())
 		{
 			int count = getVisible().getItemsCount();
-			Interval itrv = getInterval();
-			double[] list = new double[getVisible().getItemsCount()];
+			double[] list = new double[count];
+			Arrays.fill(list, -1);
 
-			if (!itrv.isIntraDay())
+			if (!getInterval().isIntraDay())
 			{
-				Calendar cal = Calendar.getInstance();
-				cal.setFirstDayOfWeek(Calendar.MONDAY);
-				cal.setTimeInMillis(getVisible().getTimeAt(0));
-				list[0] = 0;
-				
-				if (itrv instanceof MonthlyInterval)
-				{
-					int year = cal.get(Calendar.YEAR);
-					for (int i = 2; i < count + 1; i++)
-					{
-						cal.setTimeInMillis(getVisible().getTimeAt(i - 1));
-						if (year != cal.get(Calendar.YEAR))
-						{
-							list[i - 1] = i - 1;
-							year = cal.get(Calendar.YEAR);
-						} else
-						{
-							list[i - 1] = -1;
-						}
-					}
-				} else
-				{
-					int month = cal.get(Calendar.MONTH);
-					for (int i = 2; i < count + 1; i++)
-					{
-						cal.setTimeInMillis(getVisible().getTimeAt(i - 1));
-						if (month != cal.get(Calendar.MONTH))
-						{
-							list[i - 1] = i - 1;
-							month = cal.get(Calendar.MONTH);
-						} else
-						{
-							list[i - 1] = -1;
-						}
-					}
-				}
+				if (count > 0)
+					list[0] = 0;
+
+				int offset = getVisibleOffset();
+				int[] boundaries = getDataset().getTimeIndex()
+					.getBoundaries(getDateBoundaryLevel(), offset + 1, offset + count);
+				for (int i = 0; i < boundaries.length; i++)
+					list[boundaries[i] - offset] = boundaries[i] - offset;
 			} else
 			{
-				for (int i = 0; i < count; i++)
-				{
-					if (i % 10 == 0)
-						list[i] = i;
-					else
-						list[i] = -1;
-				}
+				for (int i = 0; i < count; i += 10)
+					list[i] = i;
 			}
 
 			return list;
@@ -419,94 +432,40 @@ public class ChartData implements Serializable, ChartFrameListener
 		return new double[0];
     }
 
-	public boolean isFirstWorkingDayOfMonth(long time)
+	public boolean isDateBoundary(int index)
 	{
-		Calendar calendar = Calendar.getInstance();
-		calendar.setFirstDayOfWeek(Calendar.MONDAY);
-		calendar.setTimeInMillis(time);
-		if (getInterval() instanceof WeeklyInterval)
-		{
-			int day = calendar.get(Calendar.DAY_OF_WEEK);
-			int week = getFirstWeekMondayOfMonth(
-				calendar.get(Calendar.MONTH),
-				calendar.get(Calendar.YEAR));
-			if (week == calendar.get(Calendar.WEEK_OF_MONTH))
-			{
-				return day == Calendar.MONDAY;
-			}
-			return false;
-		} else
-		{
-			int week = getFirstWorkingWeekOfMonth(
-				calendar.get(Calendar.MONTH),
-				calendar.get(Calendar.YEAR));
-			if (calendar.get(Calendar.WEEK_OF_MONTH) == week)
-				return calendar.get(Calendar.DAY_OF_WEEK) ==
-					getFirstWorkingDayOfMonth(
-					calendar.get(Calendar.MONTH),
-					calendar.get(Calendar.YEAR));
-			else
-				return false;
-		}
+		return getDataset().getTimeIndex()
+			.isBoundary(getDateBoundaryLevel(), getVisibleOffset() + index);
 	}
 
-	private int getFirstWeekMondayOfMonth(int month, int year)
+	public int getVisibleOffset()
 	{
-		Calendar calendar = Calendar.getInstance();
-		calendar.set(Calendar.YEAR, year);
-		calendar.set(Calendar.MONDAY, month);
-		calendar.set(Calendar.DAY_OF_MONTH, 1);
-		if (calendar.get(Calendar.DAY_OF_WEEK) == Calendar.MONDAY)
-		{
-			return calendar.get(Calendar.WEEK_OF_MONTH);
-		} else
-		{
-			while (calendar.get(Calendar.DAY_OF_WEEK) != Calendar.MONDAY)
-				calendar.add(Calendar.DAY_OF_MONTH, 1);
-			return calendar.get(Calendar.WEEK_OF_MONTH);
-		}
+		return Math.max(0, last - period);
 	}
 
-	private static int getFirstWorkingWeekOfMonth(int month, int year)
+	private int getDateBoundaryLevel()
 	{
-		Calendar calendar = Calendar.getInstance();
-		calendar.set(Calendar.YEAR, year);
-		calendar.set(Calendar.MONDAY, month);
-		calendar.set(Calendar.DAY_OF_MONTH, 1);
-		switch (calendar.get(Calendar.DAY_OF_WEEK))
-		{
-			case Calendar.SATURDAY:
-				calendar.add(Calendar.DAY_OF_MONTH, 2);
-				return calendar.get(Calendar.WEEK_OF_MONTH);
-			case Calendar.SUNDAY:
-				calendar.add(Calendar.DAY_OF_MONTH, 1);
-				return calendar.get(Calendar.WEEK_OF_MONTH);
-			default:
-				return calendar.get(Calendar.WEEK_OF_MONTH);
-		}
+		return getInterval() instanceof MonthlyInterval
+			? TimeBoundaryIndex.YEAR
+			: TimeBoundaryIndex.MONTH;
 	}
 
-	private int getFirstWorkingDayOfMonth(int month, int year)
+	private static final ThreadLocal<DecimalFormat> D1 = new ThreadLocal<DecimalFormat>()
 	{
-		Calendar calendar = Calendar.getInstance();
-		calendar.set(Calendar.YEAR, year);
-		calendar.set(Calendar.MONDAY, month);
-		calendar.set(Calendar.DAY_OF_MONTH, 1);
-		switch (calendar.get(Calendar.DAY_OF_WEEK))
+		@Override
+		protected DecimalFormat initialValue()
 		{
-			case Calendar.SATURDAY:
-				calendar.add(Calendar.DAY_OF_MONTH, 2);
-				return calendar.get(Calendar.DAY_OF_WEEK);
-			case Calendar.SUNDAY:
-				calendar.add(Calendar.DAY_OF_MONTH, 1);
-				return calendar.get(Calendar.DAY_OF_WEEK);
-			default:
-				return calendar.get(Calendar.DAY_OF_WEEK);
+			return new DecimalFormat("0.###");
 		}
-	}
-
-	private static DecimalFormat D1 = new DecimalFormat("0.###");
-	private static DecimalFormat D2 = new DecimalFormat("0.0");
+	};
+	private static final ThreadLocal<DecimalFormat> D2 = new ThreadLocal<DecimalFormat>()
+	{
+		@Override
+		protected DecimalFormat initialValue()
+		{
+			return new DecimalFormat("0.0");
+		}
+	};
 
 	public double[] getYValues(Rectangle rectangle, Range range, int fontHeight)
 	{
@@ -529,19 +488,19 @@ public class ChartData implements Serializable, ChartFrameListener
 			rangeUnit = 0.001d;
 		} else if (rangeUnit >= 0.001 && rangeUnit < 0.05)
 		{
-			String unitStr = D1.format(rangeUnit);
+			String unitStr = D1.get().format(rangeUnit);
 			try
 			{
-				rangeUnit = D1.parse(unitStr.trim()).doubleValue();
+				rangeUnit = D1.get().parse(unitStr.trim()).doubleValue();
 			} catch (ParseException ex)
 			{
 			}
 		} else if (rangeUnit >= 0.05 && rangeUnit < 1)
 		{
-			String unitStr = D2.format(rangeUnit);
+			String unitStr = D2.get().format(rangeUnit);
 			try
 			{
-				rangeUnit = D2.parse(unitStr.trim()).doubleValue();
+				rangeUnit = D2.get().parse(unitStr.trim()).doubleValue();
 			} catch (ParseException ex)
 			{
 			}
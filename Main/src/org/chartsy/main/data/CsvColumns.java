@@ -0,0 +1,215 @@
+package org.chartsy.main.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rows of a csv stream kept as one time column and a few value columns of
+ * primitive arrays. Whether the times arrived in ascending or descending
+ * order is tracked while reading, so {@link #sort} only has work to do
+ * when the rows were really out of order.
+ */
+public class CsvColumns
+{
+
+	/** the time column is a number of seconds since the epoch */
+	public static final int SECONDS = 0;
+	/** the time column is a number of milliseconds since the epoch */
+	public static final int MILLISECONDS = 1;
+	/** the time column is a yyyy-MM-dd date */
+	public static final int DATE = 2;
+
+	private long[] times;
+	private double[][] values;
+	private int size = 0;
+	private boolean ascending = true;
+	private boolean descending = true;
+
+	public CsvColumns(int valueColumns)
+	{
+		this(valueColumns, 1024);
+	}
+
+	public CsvColumns(int valueColumns, int capacity)
+	{
+		times = new long[Math.max(1, capacity)];
+		values = new double[valueColumns][times.length];
+	}
+
+	/**
+	 * Reads the remaining lines of the parser.
+	 *
+	 * @param timeColumn the csv column of the time
+	 * @param timeFormat one of SECONDS, MILLISECONDS or DATE
+	 * @param valueColumns the csv columns of the values, in the order they
+	 * are kept
+	 */
+	public static CsvColumns read(CsvParser parser, int timeColumn, int timeFormat, int... valueColumns)
+		throws IOException
+	{
+		CsvColumns result = new CsvColumns(valueColumns.length);
+		double[] row = new double[valueColumns.length];
+		while (parser.next())
+		{
+			long time;
+			switch (timeFormat)
+			{
+				case SECONDS:
+					time = parser.getLong(timeColumn) * 1000;
+					break;
+				case MILLISECONDS:
+					time = parser.getLong(timeColumn);
+					break;
+				default:
+					time = parser.getDate(timeColumn);
+					break;
+			}
+			for (int i = 0; i < valueColumns.length; i++)
+				row[i] = parser.getDouble(valueColumns[i]);
+			result.add(time, row);
+		}
+		return result;
+	}
+
+	public void add(long time, double[] row)
+	{
+		if (size == times.length)
+			grow();
+		if (size > 0)
+		{
+			long last = times[size - 1];
+			if (time < last)
+				ascending = false;
+			else // equal times would change order when reversed
+				descending = false;
+		}
+		times[size] = time;
+		for (int i = 0; i < values.length; i++)
+			values[i][size] = row[i];
+		size++;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public long getTime(int index)
+	{
+		return times[index];
+	}
+
+	public double getValue(int column, int index)
+	{
+		return values[column][index];
+	}
+
+	public boolean isSorted()
+	{
+		return ascending;
+	}
+
+	/**
+	 * Puts the rows in ascending time order, keeping the order of rows with
+	 * the same time. Reversed input is only reversed.
+	 */
+	public void sort()
+	{
+		if (ascending)
+			return;
+		if (descending)
+		{
+			reverse();
+		} else
+		{
+			int[] order = new int[size];
+			for (int i = 0; i < size; i++)
+				order[i] = i;
+			mergeSort(order, new int[size], 0, size);
+			permute(order);
+		}
+		ascending = true;
+		descending = size < 2;
+	}
+
+	/**
+	 * Creates the sorted data items, the value columns are read as open,
+	 * high, low, close and volume.
+	 */
+	public List<DataItem> toDataItems()
+	{
+		sort();
+		List<DataItem> items = new ArrayList<DataItem>(size);
+		for (int i = 0; i < size; i++)
+			items.add(new DataItem(times[i],
+				values[0][i], values[1][i], values[2][i], values[3][i], values[4][i]));
+		return items;
+	}
+
+	private void grow()
+	{
+		int capacity = times.length * 2;
+		long[] newTimes = new long[capacity];
+		System.arraycopy(times, 0, newTimes, 0, size);
+		times = newTimes;
+		for (int i = 0; i < values.length; i++)
+		{
+			double[] column = new double[capacity];
+			System.arraycopy(values[i], 0, column, 0, size);
+			values[i] = column;
+		}
+	}
+
+	private void reverse()
+	{
+		for (int i = 0, j = size - 1; i < j; i++, j--)
+		{
+			long time = times[i];
+			times[i] = times[j];
+			times[j] = time;
+			for (double[] column : values)
+			{
+				double value = column[i];
+				column[i] = column[j];
+				column[j] = value;
+			}
+		}
+	}
+
+	private void mergeSort(int[] order, int[] work, int from, int to)
+	{
+		if (to - from < 2)
+			return;
+		int middle = (from + to) >>> 1;
+		mergeSort(order, work, from, middle);
+		mergeSort(order, work, middle, to);
+		if (times[order[middle - 1]] <= times[order[middle]])
+			return;
+
+		System.arraycopy(order, from, work, from, to - from);
+		int i = from, j = middle, k = from;
+		while (i < middle && j < to)
+			order[k++] = times[work[j]] < times[work[i]] ? work[j++] : work[i++];
+		while (i < middle)
+			order[k++] = work[i++];
+		while (j < to)
+			order[k++] = work[j++];
+	}
+
+	private void permute(int[] order)
+	{
+		long[] newTimes = new long[times.length];
+		for (int i = 0; i < size; i++)
+			newTimes[i] = times[order[i]];
+		times = newTimes;
+		for (int c = 0; c < values.length; c++)
+		{
+			double[] column = new double[times.length];
+			for (int i = 0; i < size; i++)
+				column[i] = values[c][order[i]];
+			values[c] = column;
+		}
+	}
+
+}
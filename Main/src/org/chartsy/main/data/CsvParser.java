@@ -0,0 +1,386 @@
+package org.chartsy.main.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * Reads comma separated values straight from the bytes of a stream, without
+ * decoding characters or creating a string per line or field. Fields are
+ * parsed on demand with {@link #getLong}, {@link #getDouble} and
+ * {@link #getDate}, or a whole stream is read into {@link CsvColumns}.
+ *
+ * Quoted fields are not supported, the feeds of the data providers do not
+ * use them. Malformed numbers and dates throw a NumberFormatException, like
+ * Long.parseLong and Double.parseDouble do.
+ */
+public class CsvParser
+{
+
+	private static final int BUFFER_SIZE = 65536;
+	private static final int MAX_COLUMNS = 64;
+	private static final long DAY_MILLIS = 86400000L;
+
+	// powers of ten that are exact as doubles
+	private static final double[] POW10 = new double[23];
+	// days before the first of every month in a non leap year
+	private static final int[] MONTH_DAYS = {0, 31, 59, 90, 120, 151, 181, 212, 243, 273, 304, 334};
+
+	static
+	{
+		POW10[0] = 1d;
+		for (int i = 1; i < POW10.length; i++)
+			POW10[i] = POW10[i - 1] * 10d;
+	}
+
+	private final InputStream in;
+	private final TimeZone zone;
+	private byte[] buffer = new byte[BUFFER_SIZE];
+	private int position = 0;
+	private int limit = 0;
+	private boolean eof = false;
+
+	private final int[] starts = new int[MAX_COLUMNS];
+	private final int[] ends = new int[MAX_COLUMNS];
+	private int columns = 0;
+
+	private int lastDay = -1;
+	private long lastDayTime;
+	private Calendar calendar;
+
+	public CsvParser(InputStream in)
+	{
+		this(in, TimeZone.getDefault());
+	}
+
+	/**
+	 * @param zone the time zone dates are read in
+	 */
+	public CsvParser(InputStream in, TimeZone zone)
+	{
+		this.in = in;
+		this.zone = (TimeZone) zone.clone();
+	}
+
+	/**
+	 * Moves to the next line that is not empty.
+	 *
+	 * @return false at the end of the stream
+	 */
+	public boolean next()
+		throws IOException
+	{
+		while (true)
+		{
+			int end = findLineEnd();
+			if (end < 0)
+				return false;
+
+			int lineEnd = end;
+			if (lineEnd > position && buffer[lineEnd - 1] == '\r')
+				lineEnd--;
+			if (lineEnd == position)
+			{
+				position = end + 1;
+				continue;
+			}
+
+			columns = 0;
+			int start = position;
+			for (int i = position; i < lineEnd; i++)
+			{
+				if (buffer[i] == ',')
+				{
+					addColumn(start, i);
+					start = i + 1;
+				}
+			}
+			addColumn(start, lineEnd);
+			position = end + 1;
+			return true;
+		}
+	}
+
+	/**
+	 * Skips the next line, for headers.
+	 *
+	 * @return false at the end of the stream
+	 */
+	public boolean skipLine()
+		throws IOException
+	{
+		int end = findLineEnd();
+		if (end < 0)
+			return false;
+		position = end + 1;
+		columns = 0;
+		return true;
+	}
+
+	public int getColumnCount()
+	{
+		return columns;
+	}
+
+	public String getString(int column)
+	{
+		check(column);
+		StringBuilder sb = new StringBuilder(ends[column] - starts[column]);
+		for (int i = starts[column]; i < ends[column]; i++)
+			sb.append((char) (buffer[i] & 0xff));
+		return sb.toString();
+	}
+
+	public long getLong(int column)
+	{
+		check(column);
+		int i = starts[column], end = ends[column];
+		boolean negative = false;
+		if (i < end && (buffer[i] == '-' || buffer[i] == '+'))
+			negative = buffer[i++] == '-';
+		if (i == end || end - i > 18)
+			return Long.parseLong(getString(column).trim());
+
+		long value = 0;
+		for (; i < end; i++)
+		{
+			int digit = buffer[i] - '0';
+			if (digit < 0 || digit > 9)
+				return Long.parseLong(getString(column).trim());
+			value = value * 10 + digit;
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Parses plain and scientific decimals of up to 15 significant digits
+	 * without rounding errors, anything else is left to Double.parseDouble.
+	 */
+	public double getDouble(int column)
+	{
+		check(column);
+		int i = starts[column], end = ends[column];
+		boolean negative = false;
+		if (i < end && (buffer[i] == '-' || buffer[i] == '+'))
+			negative = buffer[i++] == '-';
+
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean any = false;
+		for (; i < end; i++)
+		{
+			int digit = buffer[i] - '0';
+			if (digit < 0 || digit > 9)
+				break;
+			any = true;
+			if (mantissa != 0 || digit != 0)
+				digits++;
+			mantissa = mantissa * 10 + digit;
+			if (digits > 15)
+				return slowDouble(column);
+		}
+		if (i < end && buffer[i] == '.')
+		{
+			for (i++; i < end; i++)
+			{
+				int digit = buffer[i] - '0';
+				if (digit < 0 || digit > 9)
+					break;
+				any = true;
+				if (mantissa != 0 || digit != 0)
+					digits++;
+				mantissa = mantissa * 10 + digit;
+				scale--;
+				if (digits > 15)
+					return slowDouble(column);
+			}
+		}
+		if (!any)
+			return slowDouble(column);
+		if (i < end && (buffer[i] == 'e' || buffer[i] == 'E'))
+		{
+			i++;
+			boolean negativeExponent = false;
+			if (i < end && (buffer[i] == '-' || buffer[i] == '+'))
+				negativeExponent = buffer[i++] == '-';
+			if (i == end || end - i > 4)
+				return slowDouble(column);
+			int exponent = 0;
+			for (; i < end; i++)
+			{
+				int digit = buffer[i] - '0';
+				if (digit < 0 || digit > 9)
+					return slowDouble(column);
+				exponent = exponent * 10 + digit;
+			}
+			scale += negativeExponent ? -exponent : exponent;
+		}
+		if (i != end)
+			return slowDouble(column);
+
+		double value;
+		if (mantissa == 0)
+			value = 0d;
+		else if (scale == 0)
+			value = mantissa;
+		else if (scale < 0 && scale >= -22)
+			value = mantissa / POW10[-scale];
+		else if (scale > 0 && scale <= 22)
+			value = mantissa * POW10[scale];
+		else
+			return slowDouble(column);
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Parses a yyyy-MM-dd date and returns the time of its midnight.
+	 */
+	public long getDate(int column)
+	{
+		check(column);
+		int i = starts[column];
+		if (ends[column] - i != 10 || buffer[i + 4] != '-' || buffer[i + 7] != '-')
+			throw new NumberFormatException("Not a yyyy-MM-dd date: " + getString(column));
+
+		int year = digits(i, 4);
+		int month = digits(i + 5, 2);
+		int day = digits(i + 8, 2);
+		if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31)
+			throw new NumberFormatException("Not a yyyy-MM-dd date: " + getString(column));
+
+		// intraday rows repeat the same date
+		int key = year * 10000 + month * 100 + day;
+		if (key != lastDay)
+		{
+			lastDayTime = midnight(year, month, day);
+			lastDay = key;
+		}
+		return lastDayTime;
+	}
+
+	public void close()
+		throws IOException
+	{
+		in.close();
+	}
+
+	private long midnight(int year, int month, int day)
+	{
+		if (year > 1600)
+		{
+			long utc = epochDay(year, month, day) * DAY_MILLIS;
+			int offset = zone.getOffset(utc - zone.getRawOffset());
+			long local = utc - offset;
+			// only trust the arithmetic when the offset does not change that day
+			if (zone.getOffset(local - DAY_MILLIS) == offset
+				&& zone.getOffset(local) == offset
+				&& zone.getOffset(local + DAY_MILLIS) == offset)
+				return local;
+		}
+
+		// resolve the day the way SimpleDateFormat does
+		if (calendar == null)
+			calendar = new GregorianCalendar(zone);
+		calendar.clear();
+		calendar.set(year, month - 1, day);
+		return calendar.getTimeInMillis();
+	}
+
+	private static long epochDay(int year, int month, int day)
+	{
+		long y = year - 1;
+		long days = 365 * y + y / 4 - y / 100 + y / 400 + MONTH_DAYS[month - 1] + day - 1;
+		if (month > 2 && (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)))
+			days++;
+		// days from 0001-01-01 to 1970-01-01
+		return days - 719162;
+	}
+
+	private int digits(int from, int count)
+	{
+		int value = 0;
+		for (int i = from; i < from + count; i++)
+		{
+			int digit = buffer[i] - '0';
+			if (digit < 0 || digit > 9)
+				return -1;
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	private double slowDouble(int column)
+	{
+		return Double.parseDouble(getString(column).trim());
+	}
+
+	private void addColumn(int start, int end)
+	{
+		if (columns == MAX_COLUMNS)
+			return;
+		starts[columns] = start;
+		ends[columns] = end;
+		columns++;
+	}
+
+	private void check(int column)
+	{
+		if (column < 0 || column >= columns)
+			throw new NumberFormatException("Missing column " + column);
+	}
+
+	/**
+	 * @return the index of the \n ending the current line, reading more of
+	 * the stream if needed, or -1 if the stream is exhausted
+	 */
+	private int findLineEnd()
+		throws IOException
+	{
+		int scanned = position;
+		while (true)
+		{
+			for (int i = scanned; i < limit; i++)
+				if (buffer[i] == '\n')
+					return i;
+			scanned = limit;
+
+			if (eof)
+			{
+				if (position == limit)
+					return -1;
+				// last line without a line break
+				ensureCapacity();
+				buffer[limit] = '\n';
+				return limit++;
+			}
+
+			if (position > 0)
+			{
+				System.arraycopy(buffer, position, buffer, 0, limit - position);
+				scanned -= position;
+				limit -= position;
+				position = 0;
+			}
+			ensureCapacity();
+			int read = in.read(buffer, limit, buffer.length - limit);
+			if (read < 0)
+				eof = true;
+			else
+				limit += read;
+		}
+	}
+
+	private void ensureCapacity()
+	{
+		if (limit == buffer.length)
+		{
+			byte[] bigger = new byte[buffer.length * 2];
+			System.arraycopy(buffer, 0, bigger, 0, limit);
+			buffer = bigger;
+		}
+	}
+
+}
@@ -1,11 +1,25 @@
 package org.chartsy.main.data;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.Serializable;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.chartsy.main.exceptions.InvalidStockException;
 import org.chartsy.main.exceptions.RegistrationException;
 import org.chartsy.main.exceptions.StockNotFoundException;
@@ -20,7 +34,10 @@ import org.chartsy.main.intervals.ThirtyMinuteInterval;
 import org.chartsy.main.intervals.WeeklyInterval;
 import org.chartsy.main.managers.CacheManager;
 import org.chartsy.main.managers.DatasetUsage;
+import org.chartsy.main.managers.SymbolDirectoryManager;
+import org.chartsy.main.metrics.Metrics;
 import org.chartsy.main.utils.SerialVersion;
+import org.chartsy.main.utils.TaskEngine;
 import org.openide.util.NbBundle;
 
 /**
@@ -31,6 +48,7 @@ public abstract class DataProvider implements Serializable
 {
 
 	private static final long serialVersionUID = SerialVersion.APPVERSION;
+	private static final Logger LOG = Logger.getLogger(DataProvider.class.getName());
 
     public DataProvider(ResourceBundle bundle)
     {
@@ -66,10 +84,126 @@ public abstract class DataProvider implements Serializable
 		this.supportsCustomInterval = supportsCustomIntervals;
 	}
 
+    /**
+     * Called once at startup, off the event dispatch thread. Providers that
+     * can serve requests before it returns, like from a snapshot on disk,
+     * call setReady as soon as they can.
+     */
     public void initialize()
     {
     }
 
+	/**
+	 * Initializes the provider on the calling thread, unless it was started
+	 * already.
+	 */
+	public final void start()
+	{
+		synchronized (this)
+		{
+			if (startTime != 0)
+				return;
+			startTime = System.nanoTime();
+		}
+		try
+		{
+			initialize();
+		} finally
+		{
+			setReady();
+			Metrics.stop("provider.initialize." + getName(), startTime);
+			LOG.log(Level.INFO, "{0} initialized in {1} ms",
+				new Object[] { getName(), (System.nanoTime() - startTime) / 1000000 });
+		}
+	}
+
+	/**
+	 * Marks the provider as able to serve requests, for the ones waiting on
+	 * getReady.
+	 */
+	protected final void setReady()
+	{
+		synchronized (this)
+		{
+			FutureTask<DataProvider> task = readiness();
+			if (task.isDone())
+				return;
+			task.run();
+		}
+		if (startTime != 0)
+		{
+			Metrics.stop("provider.ready." + getName(), startTime);
+			LOG.log(Level.INFO, "{0} ready in {1} ms",
+				new Object[] { getName(), (System.nanoTime() - startTime) / 1000000 });
+		}
+	}
+
+	/**
+	 * @return a future done once the provider can serve requests
+	 */
+	public final Future<DataProvider> getReady()
+	{
+		return readiness();
+	}
+
+	public final boolean isReady()
+	{
+		return readiness().isDone();
+	}
+
+	/**
+	 * Waits for the provider to be ready.
+	 *
+	 * @return false if it is still not ready after the timeout
+	 */
+	public final boolean awaitReady(long timeout, TimeUnit unit)
+	{
+		try
+		{
+			readiness().get(timeout, unit);
+			return true;
+		} catch (TimeoutException ex)
+		{
+			return false;
+		} catch (ExecutionException ex)
+		{
+			return true;
+		} catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private synchronized Map<String, Flight> flights()
+	{
+		if (flights == null)
+			flights = new HashMap<String, Flight>();
+		return flights;
+	}
+
+	private synchronized AtomicLong savedFetches()
+	{
+		if (savedFetches == null)
+			savedFetches = new AtomicLong();
+		return savedFetches;
+	}
+
+	private synchronized FutureTask<DataProvider> readiness()
+	{
+		if (ready == null)
+		{
+			ready = new FutureTask<DataProvider>(new Callable<DataProvider>()
+			{
+				public DataProvider call()
+				{
+					return DataProvider.this;
+				}
+			});
+		}
+		return ready;
+	}
+
     public String getName()
     {
         return this.name;
@@ -222,17 +356,129 @@ public abstract class DataProvider implements Serializable
 	protected abstract Dataset fetchDataForFavorites(Stock stock)
 		throws IOException, ParseException;
 
-    public void fetchDataset(Stock stock, Interval interval)
+	/**
+	 * Fetches the quotes of the stocks, keyed by stock key. Stocks that could
+	 * not be quoted are left out. Providers that can quote many stocks with
+	 * one request should override this, by default the favorites dataset of
+	 * every stock is fetched.
+	 */
+	public Map<String, Quote> fetchQuotes(List<Stock> stocks)
+		throws IOException
+	{
+		Map<String, Quote> quotes = new HashMap<String, Quote>();
+		for (Stock stock : stocks)
+		{
+			Dataset dataset;
+			try
+			{
+				dataset = fetchDataForFavorites(stock);
+			} catch (ParseException ex)
+			{
+				continue;
+			} catch (IOException ex)
+			{
+				continue;
+			}
+			if (dataset == null || dataset.isEmpty())
+				continue;
+
+			int last = dataset.getLastIndex();
+			quotes.put(stock.getKey(), new Quote(
+				dataset.getCloseAt(last),
+				dataset.getCloseAt(Math.max(0, last - 1)),
+				dataset.getVolumeAt(last),
+				dataset.getTimeAt(last)));
+		}
+		return quotes;
+	}
+
+	/**
+	 * Fetches the dataset into DatasetUsage. Callers asking for a dataset
+	 * already being fetched wait for that fetch instead of starting their
+	 * own, and all of them get its outcome. The fetch runs on its own
+	 * thread and is cancelled when every caller waiting for it was
+	 * interrupted.
+	 */
+    public void fetchDataset(final Stock stock, final Interval interval)
 		throws IOException, ParseException
 	{
-		Dataset dataset = fetchData(stock, interval);
-		if (dataset != null)
+		final String key = getDatasetKey(stock, interval);
+		Map<String, Flight> flights = flights();
+		Flight flight;
+		boolean leader = false;
+		synchronized (flights)
 		{
-			String key = getDatasetKey(stock, interval);
-			DatasetUsage.getInstance().addDataset(key, dataset);
-			//cacheDataset(key, dataset);
-		} else
-			throw new IOException();
+			flight = flights.get(key);
+			if (flight == null)
+			{
+				flight = new Flight(key, new Callable<Void>()
+				{
+					public Void call()
+						throws IOException, ParseException
+					{
+						long start = Metrics.start();
+						Dataset dataset = fetchData(stock, interval);
+						if (Metrics.ENABLED)
+							Metrics.stop("provider.fetch." + getName(), start);
+						if (dataset == null)
+							throw new IOException("No data for " + key);
+						DatasetUsage.getInstance().addDataset(key, dataset);
+						return null;
+					}
+				});
+				flights.put(key, flight);
+				leader = true;
+			} else
+			{
+				savedFetches().incrementAndGet();
+				Metrics.increment("provider.fetch.shared");
+			}
+			flight.waiters++;
+		}
+		if (leader)
+			TaskEngine.getInstance().submit(flight);
+
+		try
+		{
+			flight.get();
+		} catch (InterruptedException ex)
+		{
+			synchronized (flights)
+			{
+				if (--flight.waiters == 0)
+					flight.cancel(true);
+			}
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Stopped waiting for " + key);
+		} catch (CancellationException ex)
+		{
+			throw new InterruptedIOException("Fetch of " + key + " was cancelled");
+		} catch (ExecutionException ex)
+		{
+			Throwable cause = ex.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof ParseException)
+				throw (ParseException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IOException(cause);
+		}
+		synchronized (flights)
+		{
+			flight.waiters--;
+		}
+	}
+
+	/**
+	 * @return how many fetches were not made because the same dataset was
+	 * being fetched already
+	 */
+	public long getSavedFetches()
+	{
+		return savedFetches().get();
 	}
 
 	protected abstract Dataset fetchData(Stock stock, Interval interval)
@@ -284,6 +530,15 @@ public abstract class DataProvider implements Serializable
     public abstract StockSet fetchAutocomplete(String text)
 		throws IOException;
 
+	/**
+	 * Makes the list of all the symbols of this provider the one
+	 * autocomplete searches, instead of calling fetchAutocomplete.
+	 */
+	protected SymbolDirectory publishSymbols(Collection<StockNode> stocks)
+	{
+		return SymbolDirectoryManager.getDefault().publish(getName(), stocks);
+	}
+
     /*
      * Return the refresh interval in seconds
      */
@@ -358,5 +613,40 @@ public abstract class DataProvider implements Serializable
     protected boolean initializeFlag = true;
 	protected boolean needsRegistration = false;
 	protected boolean isRegistered = false;
-	
+	private transient FutureTask<DataProvider> ready;
+	private transient volatile long startTime = 0;
+	// the dataset fetches in flight, by dataset key
+	private transient Map<String, Flight> flights;
+	private transient AtomicLong savedFetches;
+
+	/**
+	 * A fetch and the number of callers waiting for it, guarded by the map
+	 * of the flights. Done, it leaves the map for the next fetch of the
+	 * dataset to start anew.
+	 */
+	private final class Flight extends FutureTask<Void>
+	{
+
+		private final String key;
+		private int waiters = 0;
+
+		private Flight(String key, Callable<Void> fetch)
+		{
+			super(fetch);
+			this.key = key;
+		}
+
+		@Override
+		protected void done()
+		{
+			Map<String, Flight> map = flights();
+			synchronized (map)
+			{
+				if (map.get(key) == this)
+					map.remove(key);
+			}
+		}
+
+	}
+
 }
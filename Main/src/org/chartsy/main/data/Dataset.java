@@ -17,6 +17,8 @@ public class Dataset implements Serializable
     private static final long serialVersionUID = SerialVersion.APPVERSION;
 
     private List<DataItem> data;
+	private transient TimeBoundaryIndex timeIndex;
+	private transient RangeIndex rangeIndex;
 
     public Dataset()
     {
@@ -41,6 +43,8 @@ public class Dataset implements Serializable
     public void sort()
     {
 		Collections.sort(data);
+		if (rangeIndex != null)
+			rangeIndex.clear();
     }
 
     public int getItemsCount()
@@ -87,6 +91,7 @@ public class Dataset implements Serializable
         if (index < 0 || index >= data.size())
             return;
         data.set(index, item);
+		changed(index);
     }
 
     public void addDataItem(DataItem item)
@@ -94,6 +99,26 @@ public class Dataset implements Serializable
         data.add(item);
     }
 
+	public synchronized TimeBoundaryIndex getTimeIndex()
+	{
+		if (timeIndex == null)
+			timeIndex = new TimeBoundaryIndex(this);
+		return timeIndex;
+	}
+
+	public synchronized RangeIndex getRangeIndex()
+	{
+		if (rangeIndex == null)
+			rangeIndex = new RangeIndex(this);
+		return rangeIndex;
+	}
+
+	private void changed(int index)
+	{
+		if (rangeIndex != null)
+			rangeIndex.changed(index);
+	}
+
     public long[] getTimeValues()
     {
         long[] values = new long[data.size()];
@@ -179,6 +204,29 @@ public class Dataset implements Serializable
         data.get(index).setTime(value);
     }
 
+	/**
+	 * Binary search for the bar with the given time, the items must be
+	 * sorted. Returns the index of the bar, or (-(insertion point) - 1) like
+	 * Arrays.binarySearch if there is no bar at that time.
+	 */
+	public int getIndex(long time)
+	{
+		int low = 0;
+		int high = data.size() - 1;
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			long value = getTimeAt(mid);
+			if (value < time)
+				low = mid + 1;
+			else if (value > time)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -(low + 1);
+	}
+
     public Date getDateAt(int index)
     {
         if (index < 0 || index > data.size())
@@ -204,6 +252,7 @@ public class Dataset implements Serializable
             return;
         }
         data.get(index).setOpen(value);
+		changed(index);
     }
 
     public double getHighAt(int index)
@@ -222,6 +271,7 @@ public class Dataset implements Serializable
             return;
         }
         data.get(index).setHigh(value);
+		changed(index);
     }
 
     public double getLowAt(int index)
@@ -240,6 +290,7 @@ public class Dataset implements Serializable
             return;
         }
         data.get(index).setLow(value);
+		changed(index);
     }
 
     public double getCloseAt(int index)
@@ -258,6 +309,7 @@ public class Dataset implements Serializable
             return;
         }
         data.get(index).setClose(value);
+		changed(index);
     }
 
     public double getVolumeAt(int index)
@@ -276,6 +328,7 @@ public class Dataset implements Serializable
             return;
         }
         data.get(index).setVolume(value);
+		changed(index);
     }
 
 	public DataItem getLastDataItem()
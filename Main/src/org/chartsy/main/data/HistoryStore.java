@@ -0,0 +1,566 @@
+package org.chartsy.main.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * The cached history of a dataset, kept in a folder as one file per
+ * calendar month, or per year for datasets of daily bars and longer, with
+ * an index of the partitions. The partitions are compressed by SeriesCodec
+ * in blocks, so the most recent bars are read without reading the rest,
+ * and older ones are read a partition at a time when they are needed.
+ *
+ * Writing a dataset replaces the history from its first bar on, so a
+ * dataset holding only the recent partitions is written without losing
+ * the older ones. Partitions that did not change are not written again.
+ */
+public class HistoryStore
+{
+
+	private static final int VERSION = 1;
+	private static final int MONTH = 0;
+	private static final int YEAR = 1;
+	private static final long DAY = 86400000L;
+	private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+	private final File folder;
+	private final File indexFile;
+	private final boolean readOnly;
+	private int unit = -1;
+	// the partitions in time order
+	private int partitions = 0;
+	private long[] starts = new long[8];
+	private int[] counts = new int[8];
+	private long[] firsts = new long[8];
+	private long[] checksums = new long[8];
+
+	public HistoryStore(File folder)
+		throws IOException
+	{
+		this(folder, false);
+	}
+
+	/**
+	 * @param readOnly true to refuse writing or deleting the history, for
+	 * reading it while another process may be writing it
+	 */
+	public HistoryStore(File folder, boolean readOnly)
+		throws IOException
+	{
+		this.folder = folder;
+		this.indexFile = new File(folder, "index");
+		this.readOnly = readOnly;
+		if (indexFile.exists())
+			readIndex();
+	}
+
+	public synchronized boolean exists()
+	{
+		return indexFile.exists();
+	}
+
+	public synchronized long lastModified()
+	{
+		return indexFile.lastModified();
+	}
+
+	public synchronized int getItemsCount()
+	{
+		int count = 0;
+		for (int i = 0; i < partitions; i++)
+			count += counts[i];
+		return count;
+	}
+
+	/**
+	 * @return the bytes the history takes on disk
+	 */
+	public synchronized long getSize()
+	{
+		long size = indexFile.length();
+		for (int i = 0; i < partitions; i++)
+			size += getPartitionFile(starts[i]).length();
+		return size;
+	}
+
+	/**
+	 * @return the time of the first bar, or Long.MAX_VALUE if there is none
+	 */
+	public synchronized long getFirstTime()
+	{
+		return partitions == 0 ? Long.MAX_VALUE : firsts[0];
+	}
+
+	/**
+	 * Replaces the history from the first bar of the dataset on with the
+	 * dataset, or all of it if the dataset is empty.
+	 */
+	public synchronized void write(Dataset dataset)
+		throws IOException
+	{
+		checkWritable();
+		List<DataItem> items = dataset.getDataItems();
+		long first = Long.MAX_VALUE;
+		long last = Long.MIN_VALUE;
+		int timed = 0;
+		for (DataItem item : items)
+		{
+			if (item == null)
+				continue;
+			if (first == Long.MAX_VALUE)
+				first = item.getTime();
+			last = item.getTime();
+			timed++;
+		}
+
+		if (!folder.exists())
+		{
+			if (!folder.mkdirs())
+				throw new IOException("Could not create " + folder);
+		}
+		if (unit == -1 && timed > 0)
+			unit = timed > 1 && (last - first) / (timed - 1) < DAY ? MONTH : YEAR;
+
+		// the partitions before the first bar stay as they are
+		int kept = 0;
+		List<DataItem> carried = new ArrayList<DataItem>();
+		if (first != Long.MAX_VALUE)
+		{
+			long start = partitionStart(first);
+			while (kept < partitions && starts[kept] < start)
+				kept++;
+			if (kept < partitions && starts[kept] == start && firsts[kept] < first)
+				for (DataItem item : readPartition(kept))
+					if (item != null && item.getTime() < first)
+						carried.add(item);
+		}
+		int old = partitions;
+		long[] oldStarts = copy(starts, old);
+		long[] oldChecksums = copy(checksums, old);
+		int[] oldCounts = new int[old];
+		System.arraycopy(counts, 0, oldCounts, 0, old);
+		partitions = kept;
+
+		List<DataItem> partition = carried;
+		long start = Long.MIN_VALUE;
+		long end = Long.MIN_VALUE;
+		for (DataItem item : items)
+		{
+			if (item != null && (item.getTime() < start || item.getTime() >= end))
+			{
+				if (start != Long.MIN_VALUE)
+				{
+					writePartition(start, partition, oldStarts, oldCounts, oldChecksums, kept);
+					partition = new ArrayList<DataItem>();
+				}
+				start = partitionStart(item.getTime());
+				end = partitionEnd(start);
+			}
+			partition.add(item);
+		}
+		if (timed > 0)
+			writePartition(start, partition, oldStarts, oldCounts, oldChecksums, kept);
+
+		// the partitions the dataset does not reach any more
+		for (int i = kept; i < old; i++)
+		{
+			if (indexOf(oldStarts[i]) < 0)
+				getPartitionFile(oldStarts[i]).delete();
+		}
+		writeIndex();
+	}
+
+	public synchronized Dataset readAll()
+		throws IOException
+	{
+		return new Dataset(read(0));
+	}
+
+	/**
+	 * Reads the given number of bars from the end, or all of them if there
+	 * are fewer. Only the blocks of the partitions holding them are read.
+	 */
+	public synchronized Dataset readRecent(int bars)
+		throws IOException
+	{
+		int from = partitions;
+		int count = 0;
+		while (from > 0 && (count < bars || from == partitions))
+			count += counts[--from];
+
+		List<DataItem> items = new ArrayList<DataItem>(Math.min(count, Math.max(bars, 1)));
+		for (int i = from; i < partitions; i++)
+		{
+			int skip = i == from ? Math.max(0, count - Math.max(bars, 1)) : 0;
+			items.addAll(readPartition(i, skip, counts[i]));
+		}
+		return new Dataset(items);
+	}
+
+	/**
+	 * Reads the bars from index from to index to of the whole history.
+	 */
+	public synchronized Dataset readRange(int from, int to)
+		throws IOException
+	{
+		List<DataItem> items = new ArrayList<DataItem>(Math.max(0, to - from));
+		int offset = 0;
+		for (int i = 0; i < partitions && offset < to; i++)
+		{
+			if (offset + counts[i] > from)
+				items.addAll(readPartition(i, from - offset, Math.min(to - offset, counts[i])));
+			offset += counts[i];
+		}
+		return new Dataset(items);
+	}
+
+	/**
+	 * Reads the bars before the given time from the partitions before it,
+	 * as many partitions as it takes to have at least the given number of
+	 * bars and to reach back to the since time.
+	 */
+	public synchronized List<DataItem> readBefore(long time, long since, int bars)
+		throws IOException
+	{
+		int to = 0;
+		while (to < partitions && starts[to] < time)
+			to++;
+		if (to == 0)
+			return new ArrayList<DataItem>();
+
+		// the partition holding the time is read up to it
+		List<DataItem> last = readPartition(to - 1, 0, indexOfTime(to - 1, time));
+		int from = to - 1;
+		int count = last.size();
+		while (from > 0 && (count < bars || starts[from] > since))
+			count += counts[--from];
+
+		List<DataItem> items = new ArrayList<DataItem>(count);
+		for (int i = from; i < to - 1; i++)
+			items.addAll(readPartition(i));
+		items.addAll(last);
+		return items;
+	}
+
+	public synchronized void delete()
+	{
+		checkWritable();
+		for (int i = 0; i < partitions; i++)
+			getPartitionFile(starts[i]).delete();
+		indexFile.delete();
+		folder.delete();
+		partitions = 0;
+		unit = -1;
+	}
+
+	/**
+	 * Writes the items in the format of the partitions, compressed by
+	 * SeriesCodec. A null item stays null.
+	 */
+	public static void writeItems(DataOutputStream out, List<DataItem> items)
+		throws IOException
+	{
+		SeriesCodec.write(out, items);
+	}
+
+	/**
+	 * Reads the items written by writeItems, or the uncompressed items
+	 * written before the codec, starting with their number.
+	 */
+	public static List<DataItem> readItems(DataInputStream in)
+		throws IOException
+	{
+		in.mark(4);
+		int size = in.readInt();
+		if (size == SeriesCodec.MAGIC)
+		{
+			in.reset();
+			return SeriesCodec.read(in);
+		}
+		if (size < 0)
+			throw new IOException("Corrupted items");
+		List<DataItem> items = new ArrayList<DataItem>(size);
+		for (int i = 0; i < size; i++)
+		{
+			if (!in.readBoolean())
+			{
+				items.add(null);
+				continue;
+			}
+			items.add(new DataItem(in.readLong(), in.readDouble(), in.readDouble(),
+				in.readDouble(), in.readDouble(), in.readDouble()));
+		}
+		return items;
+	}
+
+	private List<DataItem> read(int from)
+		throws IOException
+	{
+		int count = 0;
+		for (int i = from; i < partitions; i++)
+			count += counts[i];
+		List<DataItem> items = new ArrayList<DataItem>(count);
+		for (int i = from; i < partitions; i++)
+			items.addAll(readPartition(i));
+		return items;
+	}
+
+	private List<DataItem> readPartition(int index)
+		throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+			new FileInputStream(getPartitionFile(starts[index]))));
+		try
+		{
+			List<DataItem> items = readItems(in);
+			if (items.size() != counts[index])
+				throw new IOException("Corrupted partition " + starts[index] + " in " + folder);
+			return items;
+		} finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the bars of the partition from index from to index to.
+	 */
+	private List<DataItem> readPartition(int index, int from, int to)
+		throws IOException
+	{
+		if (from <= 0 && to >= counts[index])
+			return readPartition(index);
+		RandomAccessFile file = new RandomAccessFile(getPartitionFile(starts[index]), "r");
+		try
+		{
+			if (file.readInt() == SeriesCodec.MAGIC)
+				return SeriesCodec.read(file, from, to);
+		} finally
+		{
+			file.close();
+		}
+		// written before the codec
+		return new ArrayList<DataItem>(readPartition(index).subList(from, to));
+	}
+
+	/**
+	 * @return the index of the first bar of the partition at or after the
+	 * time, or the number of its bars if there is none
+	 */
+	private int indexOfTime(int index, long time)
+		throws IOException
+	{
+		if (firsts[index] >= time)
+			return 0;
+		RandomAccessFile file = new RandomAccessFile(getPartitionFile(starts[index]), "r");
+		try
+		{
+			if (file.readInt() == SeriesCodec.MAGIC)
+				return SeriesCodec.indexOf(file, time);
+		} finally
+		{
+			file.close();
+		}
+		List<DataItem> items = readPartition(index);
+		for (int i = 0; i < items.size(); i++)
+			if (items.get(i) != null && items.get(i).getTime() >= time)
+				return i;
+		return items.size();
+	}
+
+	private void writePartition(long start, List<DataItem> items, long[] oldStarts,
+		int[] oldCounts, long[] oldChecksums, int from)
+		throws IOException
+	{
+		long checksum = checksum(items);
+		long first = Long.MAX_VALUE;
+		for (DataItem item : items)
+			if (item != null)
+			{
+				first = item.getTime();
+				break;
+			}
+
+		boolean changed = true;
+		for (int i = from; i < oldStarts.length; i++)
+			if (oldStarts[i] == start)
+				changed = oldCounts[i] != items.size() || oldChecksums[i] != checksum;
+		if (changed)
+		{
+			File file = getPartitionFile(start);
+			File temp = new File(file.getPath() + ".tmp");
+			DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temp)));
+			try
+			{
+				writeItems(out, items);
+			} finally
+			{
+				out.close();
+			}
+			rename(temp, file);
+		}
+
+		if (partitions == starts.length)
+		{
+			starts = copy(starts, partitions * 2);
+			firsts = copy(firsts, partitions * 2);
+			checksums = copy(checksums, partitions * 2);
+			int[] c = new int[partitions * 2];
+			System.arraycopy(counts, 0, c, 0, partitions);
+			counts = c;
+		}
+		starts[partitions] = start;
+		counts[partitions] = items.size();
+		firsts[partitions] = first;
+		checksums[partitions] = checksum;
+		partitions++;
+	}
+
+	private void checkWritable()
+	{
+		if (readOnly)
+			throw new IllegalStateException("The history in " + folder + " is read only");
+	}
+
+	private void readIndex()
+		throws IOException
+	{
+		DataInputStream in = new DataInputStream(
+			new BufferedInputStream(new FileInputStream(indexFile)));
+		try
+		{
+			if (in.readInt() != VERSION)
+				throw new IOException("Unknown history version in " + folder);
+			unit = in.readInt();
+			int size = in.readInt();
+			if (size < 0)
+				throw new IOException("Corrupted history index in " + folder);
+			starts = new long[Math.max(8, size)];
+			counts = new int[starts.length];
+			firsts = new long[starts.length];
+			checksums = new long[starts.length];
+			for (int i = 0; i < size; i++)
+			{
+				starts[i] = in.readLong();
+				counts[i] = in.readInt();
+				firsts[i] = in.readLong();
+				checksums[i] = in.readLong();
+			}
+			partitions = size;
+		} finally
+		{
+			in.close();
+		}
+	}
+
+	private void writeIndex()
+		throws IOException
+	{
+		File temp = new File(indexFile.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(
+			new BufferedOutputStream(new FileOutputStream(temp)));
+		try
+		{
+			out.writeInt(VERSION);
+			out.writeInt(unit);
+			out.writeInt(partitions);
+			for (int i = 0; i < partitions; i++)
+			{
+				out.writeLong(starts[i]);
+				out.writeInt(counts[i]);
+				out.writeLong(firsts[i]);
+				out.writeLong(checksums[i]);
+			}
+		} finally
+		{
+			out.close();
+		}
+		rename(temp, indexFile);
+	}
+
+	private int indexOf(long start)
+	{
+		for (int i = 0; i < partitions; i++)
+			if (starts[i] == start)
+				return i;
+		return -1;
+	}
+
+	private long partitionStart(long time)
+	{
+		Calendar calendar = Calendar.getInstance(UTC);
+		calendar.setTimeInMillis(time);
+		if (unit == YEAR)
+			calendar.set(Calendar.MONTH, Calendar.JANUARY);
+		calendar.set(Calendar.DAY_OF_MONTH, 1);
+		calendar.set(Calendar.HOUR_OF_DAY, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		return calendar.getTimeInMillis();
+	}
+
+	private long partitionEnd(long start)
+	{
+		Calendar calendar = Calendar.getInstance(UTC);
+		calendar.setTimeInMillis(start);
+		calendar.add(unit == YEAR ? Calendar.YEAR : Calendar.MONTH, 1);
+		return calendar.getTimeInMillis();
+	}
+
+	private File getPartitionFile(long start)
+	{
+		return new File(folder, Long.toString(start));
+	}
+
+	private static long checksum(List<DataItem> items)
+	{
+		long hash = 1;
+		for (DataItem item : items)
+		{
+			if (item == null)
+			{
+				hash = 31 * hash;
+				continue;
+			}
+			hash = 31 * hash + item.getTime();
+			hash = 31 * hash + Double.doubleToLongBits(item.getOpen());
+			hash = 31 * hash + Double.doubleToLongBits(item.getHigh());
+			hash = 31 * hash + Double.doubleToLongBits(item.getLow());
+			hash = 31 * hash + Double.doubleToLongBits(item.getClose());
+			hash = 31 * hash + Double.doubleToLongBits(item.getVolume());
+		}
+		return hash;
+	}
+
+	private static void rename(File temp, File file)
+		throws IOException
+	{
+		file.delete();
+		if (!temp.renameTo(file))
+		{
+			temp.delete();
+			throw new IOException("Could not rename " + temp + " to " + file);
+		}
+	}
+
+	private static long[] copy(long[] array, int length)
+	{
+		long[] result = new long[length];
+		System.arraycopy(array, 0, result, 0, Math.min(length, array.length));
+		return result;
+	}
+
+}
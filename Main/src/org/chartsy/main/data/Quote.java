@@ -0,0 +1,80 @@
+package org.chartsy.main.data;
+
+/**
+ * Snapshot of the last price of a stock, as shown in the favorites.
+ */
+public final class Quote
+{
+
+	private final double last;
+	private final double previousClose;
+	private final double volume;
+	private final long time;
+
+	public Quote(double last, double previousClose, double volume, long time)
+	{
+		this.last = last;
+		this.previousClose = previousClose;
+		this.volume = volume;
+		this.time = time;
+	}
+
+	public double getLast()
+	{
+		return last;
+	}
+
+	public double getPreviousClose()
+	{
+		return previousClose;
+	}
+
+	public double getChange()
+	{
+		return last - previousClose;
+	}
+
+	public double getPercentChange()
+	{
+		return previousClose == 0 ? 0 : (last - previousClose) / previousClose * 100;
+	}
+
+	public double getVolume()
+	{
+		return volume;
+	}
+
+	public long getTime()
+	{
+		return time;
+	}
+
+	public @Override boolean equals(Object obj)
+	{
+		if (obj == this)
+			return true;
+		if (!(obj instanceof Quote))
+			return false;
+		Quote that = (Quote) obj;
+		return Double.doubleToLongBits(last) == Double.doubleToLongBits(that.last)
+			&& Double.doubleToLongBits(previousClose) == Double.doubleToLongBits(that.previousClose)
+			&& Double.doubleToLongBits(volume) == Double.doubleToLongBits(that.volume)
+			&& time == that.time;
+	}
+
+	public @Override int hashCode()
+	{
+		long bits = Double.doubleToLongBits(last);
+		bits = 31 * bits + Double.doubleToLongBits(previousClose);
+		bits = 31 * bits + Double.doubleToLongBits(volume);
+		bits = 31 * bits + time;
+		return (int) (bits ^ (bits >>> 32));
+	}
+
+	public @Override String toString()
+	{
+		return "Quote[last=" + last + ", previousClose=" + previousClose
+			+ ", volume=" + volume + ", time=" + time + "]";
+	}
+
+}
@@ -0,0 +1,300 @@
+package org.chartsy.main.data;
+
+import java.util.Arrays;
+
+/**
+ * Answers min, max, average and variance queries over a range of bars of a
+ * dataset in O(log n). Min and max use a segment tree per price, built the
+ * first time that price is asked for. Average and variance use running sums.
+ * The index is extended when bars are appended and keeps up with updates of
+ * the last bar; Dataset tells it about any other change.
+ */
+public class RangeIndex
+{
+
+	private static final int MIN = 0;
+	private static final int MAX = 1;
+	private static final int MIN_NOT_ZERO = 2;
+	private static final int MAX_NOT_ZERO = 3;
+	private static final int PRICES = Dataset.VOLUME_PRICE + 1;
+
+	private final Dataset dataset;
+
+	private int count = 0;
+	private long lastTime = 0;
+	private int capacity = 0;
+	private double[][] trees = new double[PRICES * 4][];
+
+	private int[][] counts = new int[PRICES][];
+	private double[][] sums = new double[PRICES][];
+	private double[][] squares = new double[PRICES][];
+	private double[] reference = new double[PRICES];
+
+	public RangeIndex(Dataset dataset)
+	{
+		this.dataset = dataset;
+	}
+
+	public synchronized double getMin(int price, int from, int to)
+	{
+		return query(price, MIN, from, to);
+	}
+
+	public synchronized double getMax(int price, int from, int to)
+	{
+		return query(price, MAX, from, to);
+	}
+
+	public synchronized double getMinNotZero(int price, int from, int to)
+	{
+		return query(price, MIN_NOT_ZERO, from, to);
+	}
+
+	public synchronized double getMaxNotZero(int price, int from, int to)
+	{
+		return query(price, MAX_NOT_ZERO, from, to);
+	}
+
+	public synchronized double getAverageNotZero(int price, int from, int to)
+	{
+		update();
+		sums(price);
+		from = Math.max(from, 0);
+		to = Math.min(to, count);
+		if (to <= from)
+			return 0;
+
+		int n = counts[price][to] - counts[price][from];
+		if (n == 0)
+			return 0;
+		double sum = sums[price][to] - sums[price][from];
+		return reference[price] + sum / n;
+	}
+
+	public synchronized double getVarianceNotZero(int price, int from, int to)
+	{
+		update();
+		sums(price);
+		from = Math.max(from, 0);
+		to = Math.min(to, count);
+		if (to <= from)
+			return 0;
+
+		int n = counts[price][to] - counts[price][from];
+		if (n == 0)
+			return 0;
+		double avg = (sums[price][to] - sums[price][from]) / n;
+		double var = (squares[price][to] - squares[price][from]) / n;
+		return var - avg * avg;
+	}
+
+	/**
+	 * Called by the dataset when the bar at the given index was changed.
+	 */
+	synchronized void changed(int index)
+	{
+		if (index < count - 1)
+			clear();
+	}
+
+	synchronized void clear()
+	{
+		count = 0;
+		lastTime = 0;
+		capacity = 0;
+		Arrays.fill(trees, null);
+		Arrays.fill(counts, null);
+		Arrays.fill(sums, null);
+		Arrays.fill(squares, null);
+	}
+
+	private double query(int price, int kind, int from, int to)
+	{
+		update();
+		double[] tree = tree(price, kind);
+		boolean min = kind == MIN || kind == MIN_NOT_ZERO;
+		double value = min ? Double.MAX_VALUE : Double.MIN_VALUE;
+
+		from = Math.max(from, 0) + capacity;
+		to = Math.min(to, count) + capacity;
+		while (from < to)
+		{
+			if ((from & 1) == 1)
+			{
+				value = min ? Math.min(value, tree[from]) : Math.max(value, tree[from]);
+				from++;
+			}
+			if ((to & 1) == 1)
+			{
+				to--;
+				value = min ? Math.min(value, tree[to]) : Math.max(value, tree[to]);
+			}
+			from >>= 1;
+			to >>= 1;
+		}
+		return value;
+	}
+
+	private void update()
+	{
+		int size = dataset.getItemsCount();
+		if (size < count || (count > 0 && dataset.getTimeAt(count - 1) != lastTime))
+			clear();
+		else if (count > 0)
+			refresh(count - 1);
+
+		if (size > count)
+		{
+			if (size > capacity)
+			{
+				int newCapacity = Math.max(capacity, 16);
+				while (newCapacity < size)
+					newCapacity <<= 1;
+				capacity = newCapacity;
+				for (int i = 0; i < trees.length; i++)
+					if (trees[i] != null)
+						trees[i] = new double[capacity * 2];
+				int old = count;
+				count = size;
+				for (int i = 0; i < trees.length; i++)
+					if (trees[i] != null)
+						build(trees[i], i / 4, i % 4);
+				count = old;
+			} else
+			{
+				for (int i = 0; i < trees.length; i++)
+					if (trees[i] != null)
+						for (int j = count; j < size; j++)
+							set(trees[i], i / 4, i % 4, j);
+			}
+
+			for (int price = 0; price < PRICES; price++)
+				if (counts[price] != null)
+					extendSums(price, count, size);
+
+			count = size;
+		}
+
+		if (count > 0)
+			lastTime = dataset.getTimeAt(count - 1);
+	}
+
+	private void refresh(int index)
+	{
+		for (int i = 0; i < trees.length; i++)
+			if (trees[i] != null)
+				set(trees[i], i / 4, i % 4, index);
+		for (int price = 0; price < PRICES; price++)
+			if (counts[price] != null)
+				extendSums(price, index, index + 1);
+	}
+
+	private double[] tree(int price, int kind)
+	{
+		int key = price * 4 + kind;
+		if (trees[key] == null)
+		{
+			if (capacity == 0)
+				capacity = 16;
+			trees[key] = new double[capacity * 2];
+			build(trees[key], price, kind);
+		}
+		return trees[key];
+	}
+
+	private void build(double[] tree, int price, int kind)
+	{
+		boolean min = kind == MIN || kind == MIN_NOT_ZERO;
+		Arrays.fill(tree, min ? Double.MAX_VALUE : Double.MIN_VALUE);
+		for (int i = 0; i < count; i++)
+			tree[capacity + i] = leaf(price, kind, i);
+		for (int i = capacity - 1; i > 0; i--)
+			tree[i] = min
+				? Math.min(tree[2 * i], tree[2 * i + 1])
+				: Math.max(tree[2 * i], tree[2 * i + 1]);
+	}
+
+	private void set(double[] tree, int price, int kind, int index)
+	{
+		boolean min = kind == MIN || kind == MIN_NOT_ZERO;
+		int i = capacity + index;
+		tree[i] = leaf(price, kind, index);
+		for (i >>= 1; i > 0; i >>= 1)
+			tree[i] = min
+				? Math.min(tree[2 * i], tree[2 * i + 1])
+				: Math.max(tree[2 * i], tree[2 * i + 1]);
+	}
+
+	private double leaf(int price, int kind, int index)
+	{
+		DataItem item = dataset.getDataItem(index);
+		boolean min = kind == MIN || kind == MIN_NOT_ZERO;
+		double identity = min ? Double.MAX_VALUE : Double.MIN_VALUE;
+		if (item == null)
+			return identity;
+		double value = value(item, price);
+		if ((kind == MIN_NOT_ZERO || kind == MAX_NOT_ZERO) && value == 0)
+			return identity;
+		return value;
+	}
+
+	private void sums(int price)
+	{
+		if (counts[price] == null)
+			extendSums(price, 0, count);
+	}
+
+	private void extendSums(int price, int from, int to)
+	{
+		if (counts[price] == null || counts[price].length < to + 1)
+		{
+			int length = Math.max(to + 1, counts[price] == null ? 16 : counts[price].length * 2);
+			counts[price] = counts[price] == null ? new int[length] : Arrays.copyOf(counts[price], length);
+			sums[price] = sums[price] == null ? new double[length] : Arrays.copyOf(sums[price], length);
+			squares[price] = squares[price] == null ? new double[length] : Arrays.copyOf(squares[price], length);
+		}
+		if (from == 0)
+			reference[price] = 0;
+
+		for (int i = from; i < to; i++)
+		{
+			counts[price][i + 1] = counts[price][i];
+			sums[price][i + 1] = sums[price][i];
+			squares[price][i + 1] = squares[price][i];
+
+			DataItem item = dataset.getDataItem(i);
+			if (item != null)
+			{
+				double value = value(item, price);
+				if (value != 0)
+				{
+					if (counts[price][i] == 0 && reference[price] == 0)
+						reference[price] = value;
+					double shifted = value - reference[price];
+					counts[price][i + 1]++;
+					sums[price][i + 1] += shifted;
+					squares[price][i + 1] += shifted * shifted;
+				}
+			}
+		}
+	}
+
+	private static double value(DataItem item, int price)
+	{
+		switch (price)
+		{
+			case Dataset.OPEN_PRICE:
+				return item.getOpen();
+			case Dataset.HIGH_PRICE:
+				return item.getHigh();
+			case Dataset.LOW_PRICE:
+				return item.getLow();
+			case Dataset.CLOSE_PRICE:
+				return item.getClose();
+			case Dataset.VOLUME_PRICE:
+				return item.getVolume();
+		}
+		return 0;
+	}
+
+}
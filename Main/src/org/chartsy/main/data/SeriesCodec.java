@@ -0,0 +1,581 @@
+package org.chartsy.main.data;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compresses bars column by column, in blocks of BLOCK bars that are
+ * decoded on their own, so a range of bars is read without reading the
+ * ones before it. Times are written as the difference between consecutive
+ * deltas, a single bit for evenly spaced bars. Prices and volumes are
+ * written against a predicted value: the open is predicted by the last
+ * close, the high, low and close by the open, the volume by the last
+ * volume. When all the prices, or all the volumes, of a block have at most
+ * MAX_SCALE decimals they are written as the difference to the prediction
+ * in units of their last decimal, otherwise as the XOR with it keeping
+ * only the bits between the leading and the trailing zeros. Repeated
+ * values take a single bit either way.
+ *
+ * The format starts with a header and a table with the offset and the
+ * first time of every block:
+ *
+ * <pre>
+ * int magic, int count, int block size, int blocks
+ * blocks * (int offset, long first time)
+ * int length of the data, the data
+ * </pre>
+ */
+public final class SeriesCodec
+{
+
+	public static final int MAGIC = 0xC0DEC001;
+	public static final int BLOCK = 1024;
+
+	private static final int MAX_SCALE = 8;
+	private static final int XOR = 15;
+	// scaled values stay exact as doubles
+	private static final double MAX_SCALED = 1L << 52;
+	private static final double[] POW10 = new double[MAX_SCALE + 1];
+
+	static
+	{
+		POW10[0] = 1d;
+		for (int i = 1; i < POW10.length; i++)
+			POW10[i] = POW10[i - 1] * 10d;
+	}
+
+	private SeriesCodec()
+	{
+	}
+
+	public static void write(DataOutputStream out, List<DataItem> items)
+		throws IOException
+	{
+		int count = items.size();
+		int blocks = (count + BLOCK - 1) / BLOCK;
+		int[] offsets = new int[blocks];
+		long[] firsts = new long[blocks];
+		BitWriter writer = new BitWriter(count * 16 + 16);
+		for (int b = 0; b < blocks; b++)
+		{
+			offsets[b] = writer.size();
+			firsts[b] = encodeBlock(writer, items, b * BLOCK, Math.min(count, (b + 1) * BLOCK));
+			writer.align();
+		}
+
+		out.writeInt(MAGIC);
+		out.writeInt(count);
+		out.writeInt(BLOCK);
+		out.writeInt(blocks);
+		for (int b = 0; b < blocks; b++)
+		{
+			out.writeInt(offsets[b]);
+			out.writeLong(firsts[b]);
+		}
+		out.writeInt(writer.size());
+		out.write(writer.bytes(), 0, writer.size());
+	}
+
+	public static List<DataItem> read(DataInputStream in)
+		throws IOException
+	{
+		Header header = new Header(in);
+		byte[] data = new byte[in.readInt()];
+		in.readFully(data);
+		List<DataItem> items = new ArrayList<DataItem>(header.count);
+		for (int b = 0; b < header.blocks; b++)
+			decodeBlock(new BitReader(data, header.offsets[b]), header.size(b), items);
+		return items;
+	}
+
+	/**
+	 * Reads the bars from index from to index to, decoding only the blocks
+	 * holding them.
+	 */
+	public static List<DataItem> read(RandomAccessFile file, int from, int to)
+		throws IOException
+	{
+		file.seek(0);
+		Header header = new Header(file);
+		int length = file.readInt();
+		long data = file.getFilePointer();
+		from = Math.max(0, from);
+		to = Math.min(header.count, to);
+		List<DataItem> items = new ArrayList<DataItem>(Math.max(0, to - from));
+		if (from >= to)
+			return items;
+
+		int first = from / header.blockSize;
+		int last = (to - 1) / header.blockSize;
+		int start = header.offsets[first];
+		int end = last + 1 < header.blocks ? header.offsets[last + 1] : length;
+		byte[] bytes = new byte[end - start];
+		file.seek(data + start);
+		file.readFully(bytes);
+
+		List<DataItem> block = new ArrayList<DataItem>(header.blockSize);
+		for (int b = first; b <= last; b++)
+		{
+			block.clear();
+			decodeBlock(new BitReader(bytes, header.offsets[b] - start), header.size(b), block);
+			int offset = b * header.blockSize;
+			int i = Math.max(from, offset) - offset;
+			int j = Math.min(to, offset + block.size()) - offset;
+			items.addAll(block.subList(i, j));
+		}
+		return items;
+	}
+
+	/**
+	 * @return the index of the first bar at or after the time, or the
+	 * number of bars if there is none
+	 */
+	public static int indexOf(RandomAccessFile file, long time)
+		throws IOException
+	{
+		file.seek(0);
+		Header header = new Header(file);
+		int b = 0;
+		while (b + 1 < header.blocks && header.firsts[b + 1] <= time)
+			b++;
+		int from = b * header.blockSize;
+		List<DataItem> block = read(file, from, from + header.size(b));
+		for (int i = 0; i < block.size(); i++)
+		{
+			DataItem item = block.get(i);
+			if (item != null && item.getTime() >= time)
+				return from + i;
+		}
+		return from + block.size();
+	}
+
+	private static long encodeBlock(BitWriter writer, List<DataItem> items, int from, int to)
+	{
+		boolean nulls = false;
+		for (int i = from; i < to && !nulls; i++)
+			nulls = items.get(i) == null;
+		writer.writeBit(nulls);
+		if (nulls)
+			for (int i = from; i < to; i++)
+				writer.writeBit(items.get(i) != null);
+
+		List<DataItem> bars = new ArrayList<DataItem>(to - from);
+		for (int i = from; i < to; i++)
+			if (items.get(i) != null)
+				bars.add(items.get(i));
+		if (bars.isEmpty())
+			return Long.MIN_VALUE;
+
+		// times
+		long time = bars.get(0).getTime();
+		long delta = 0;
+		writer.writeBits(time, 64);
+		for (int i = 1; i < bars.size(); i++)
+		{
+			long next = bars.get(i).getTime() - time;
+			writer.writeSigned(next - delta);
+			delta = next;
+			time += next;
+		}
+
+		// prices and volumes
+		Column[] columns = columns(writer, scale(bars, false), scale(bars, true));
+		double lastClose = 0;
+		double lastVolume = 0;
+		for (int i = 0; i < bars.size(); i++)
+		{
+			DataItem bar = bars.get(i);
+			double open = bar.getOpen();
+			columns[0].write(writer, lastClose, open);
+			columns[1].write(writer, open, bar.getHigh());
+			columns[2].write(writer, open, bar.getLow());
+			columns[3].write(writer, open, bar.getClose());
+			columns[4].write(writer, lastVolume, bar.getVolume());
+			lastClose = bar.getClose();
+			lastVolume = bar.getVolume();
+		}
+		return bars.get(0).getTime();
+	}
+
+	private static void decodeBlock(BitReader reader, int size, List<DataItem> items)
+		throws IOException
+	{
+		boolean[] present = null;
+		int bars = size;
+		if (reader.readBit())
+		{
+			present = new boolean[size];
+			bars = 0;
+			for (int i = 0; i < size; i++)
+				if (present[i] = reader.readBit())
+					bars++;
+		}
+
+		long[] times = new long[bars];
+		if (bars > 0)
+		{
+			long delta = 0;
+			times[0] = reader.readBits(64);
+			for (int i = 1; i < bars; i++)
+			{
+				delta += reader.readSigned();
+				times[i] = times[i - 1] + delta;
+			}
+		}
+
+		if (bars == 0)
+		{
+			for (int i = 0; i < size; i++)
+				items.add(null);
+			return;
+		}
+		Column[] columns = columns(reader);
+		double lastClose = 0;
+		double lastVolume = 0;
+		int bar = 0;
+		for (int i = 0; i < size; i++)
+		{
+			if (present != null && !present[i])
+			{
+				items.add(null);
+				continue;
+			}
+			double open = columns[0].read(reader, lastClose);
+			double high = columns[1].read(reader, open);
+			double low = columns[2].read(reader, open);
+			double close = columns[3].read(reader, open);
+			double volume = columns[4].read(reader, lastVolume);
+			items.add(new DataItem(times[bar++], open, high, low, close, volume));
+			lastClose = close;
+			lastVolume = volume;
+		}
+	}
+
+	/**
+	 * @return the fewest decimals all the prices or all the volumes of the
+	 * bars are written with exactly, or -1 if there are more than MAX_SCALE
+	 */
+	private static int scale(List<DataItem> bars, boolean volumes)
+	{
+		int scale = 0;
+		for (int i = 0; i < bars.size() && scale >= 0; i++)
+		{
+			DataItem bar = bars.get(i);
+			if (volumes)
+			{
+				scale = scale(bar.getVolume(), scale);
+			} else
+			{
+				scale = scale(bar.getOpen(), scale);
+				scale = scale(bar.getHigh(), scale);
+				scale = scale(bar.getLow(), scale);
+				scale = scale(bar.getClose(), scale);
+			}
+		}
+		return scale;
+	}
+
+	private static int scale(double value, int scale)
+	{
+		for (; scale >= 0 && scale <= MAX_SCALE; scale++)
+		{
+			double factor = POW10[scale];
+			double scaled = value * factor;
+			if (Math.abs(scaled) < MAX_SCALED && Double.doubleToRawLongBits(
+				Math.round(scaled) / factor) == Double.doubleToRawLongBits(value))
+				return scale;
+		}
+		return -1;
+	}
+
+	private static Column[] columns(BitWriter writer, int prices, int volumes)
+	{
+		writer.writeBits(prices < 0 ? XOR : prices, 4);
+		writer.writeBits(volumes < 0 ? XOR : volumes, 4);
+		return columns(prices, volumes);
+	}
+
+	private static Column[] columns(BitReader reader)
+		throws IOException
+	{
+		int prices = (int) reader.readBits(4);
+		int volumes = (int) reader.readBits(4);
+		if ((prices > MAX_SCALE && prices != XOR) || (volumes > MAX_SCALE && volumes != XOR))
+			throw new IOException("Corrupted series data");
+		return columns(prices == XOR ? -1 : prices, volumes == XOR ? -1 : volumes);
+	}
+
+	private static Column[] columns(int prices, int volumes)
+	{
+		Column[] columns = new Column[5];
+		for (int i = 0; i < 4; i++)
+			columns[i] = new Column(prices);
+		columns[4] = new Column(volumes);
+		return columns;
+	}
+
+	private static final class Header
+	{
+
+		private final int count;
+		private final int blockSize;
+		private final int blocks;
+		private final int[] offsets;
+		private final long[] firsts;
+
+		private Header(DataInput in)
+			throws IOException
+		{
+			if (in.readInt() != MAGIC)
+				throw new IOException("Not an encoded series");
+			count = in.readInt();
+			blockSize = in.readInt();
+			blocks = in.readInt();
+			if (count < 0 || blockSize <= 0 || blocks != (count + blockSize - 1) / blockSize)
+				throw new IOException("Corrupted series header");
+			offsets = new int[blocks];
+			firsts = new long[blocks];
+			for (int b = 0; b < blocks; b++)
+			{
+				offsets[b] = in.readInt();
+				firsts[b] = in.readLong();
+			}
+		}
+
+		private int size(int block)
+		{
+			return Math.min(blockSize, count - block * blockSize);
+		}
+
+	}
+
+	/**
+	 * The state of one column: the factor of its decimals, or for a column
+	 * of XOR values the window of meaningful bits of the last value written
+	 * with its own window.
+	 */
+	private static final class Column
+	{
+
+		private final double factor;
+		private int leading = -1;
+		private int trailing;
+
+		private Column(int scale)
+		{
+			factor = scale < 0 ? 0 : POW10[scale];
+		}
+
+		private void write(BitWriter writer, double predicted, double value)
+		{
+			if (factor != 0)
+			{
+				writer.writeSigned(Math.round(value * factor) - Math.round(predicted * factor));
+				return;
+			}
+			long xor = Double.doubleToRawLongBits(predicted) ^ Double.doubleToRawLongBits(value);
+			if (xor == 0)
+			{
+				writer.writeBit(false);
+				return;
+			}
+			writer.writeBit(true);
+			int lead = Math.min(31, Long.numberOfLeadingZeros(xor));
+			int trail = Long.numberOfTrailingZeros(xor);
+			if (leading >= 0 && lead >= leading && trail >= trailing)
+			{
+				writer.writeBit(false);
+				writer.writeBits(xor >>> trailing, 64 - leading - trailing);
+			} else
+			{
+				writer.writeBit(true);
+				writer.writeBits(lead, 5);
+				writer.writeBits(64 - lead - trail - 1, 6);
+				writer.writeBits(xor >>> trail, 64 - lead - trail);
+				leading = lead;
+				trailing = trail;
+			}
+		}
+
+		private double read(BitReader reader, double predicted)
+			throws IOException
+		{
+			if (factor != 0)
+				return (Math.round(predicted * factor) + reader.readSigned()) / factor;
+			if (!reader.readBit())
+				return predicted;
+			if (reader.readBit())
+			{
+				leading = (int) reader.readBits(5);
+				int meaningful = (int) reader.readBits(6) + 1;
+				trailing = 64 - leading - meaningful;
+			}
+			if (leading < 0)
+				throw new IOException("Corrupted series data");
+			return Double.longBitsToDouble(Double.doubleToRawLongBits(predicted)
+				^ (reader.readBits(64 - leading - trailing) << trailing));
+		}
+
+	}
+
+	private static final class BitWriter
+	{
+
+		private byte[] bytes;
+		private int size = 0;
+		private long buffer = 0;
+		private int bits = 0;
+
+		private BitWriter(int capacity)
+		{
+			bytes = new byte[Math.max(16, capacity)];
+		}
+
+		private void writeBit(boolean bit)
+		{
+			writeBits(bit ? 1 : 0, 1);
+		}
+
+		private void writeBits(long value, int count)
+		{
+			if (count == 0)
+				return;
+			if (count > 32)
+			{
+				writeBits(value >>> 32, count - 32);
+				count = 32;
+			}
+			buffer = (buffer << count) | (value & ((1L << count) - 1));
+			bits += count;
+			while (bits >= 8)
+			{
+				bits -= 8;
+				put((byte) (buffer >>> bits));
+			}
+		}
+
+		/**
+		 * Writes a signed value with a prefix telling how many bits follow,
+		 * a single 0 bit for zero.
+		 */
+		private void writeSigned(long value)
+		{
+			if (value == 0)
+				writeBits(0, 1);
+			else if (value >= -63 && value <= 64)
+			{
+				writeBits(2, 2);
+				writeBits(value + 63, 7);
+			} else if (value >= -255 && value <= 256)
+			{
+				writeBits(6, 3);
+				writeBits(value + 255, 9);
+			} else if (value >= -2047 && value <= 2048)
+			{
+				writeBits(14, 4);
+				writeBits(value + 2047, 12);
+			} else if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE)
+			{
+				writeBits(30, 5);
+				writeBits(value, 32);
+			} else
+			{
+				writeBits(31, 5);
+				writeBits(value, 64);
+			}
+		}
+
+		private void align()
+		{
+			if (bits > 0)
+				writeBits(0, 8 - bits);
+		}
+
+		private void put(byte b)
+		{
+			if (size == bytes.length)
+			{
+				byte[] grown = new byte[size * 2];
+				System.arraycopy(bytes, 0, grown, 0, size);
+				bytes = grown;
+			}
+			bytes[size++] = b;
+		}
+
+		private int size()
+		{
+			return size;
+		}
+
+		private byte[] bytes()
+		{
+			return bytes;
+		}
+
+	}
+
+	private static final class BitReader
+	{
+
+		private final byte[] bytes;
+		private int position;
+		private long buffer = 0;
+		private int bits = 0;
+
+		private BitReader(byte[] bytes, int position)
+		{
+			this.bytes = bytes;
+			this.position = position;
+		}
+
+		private boolean readBit()
+			throws IOException
+		{
+			return readBits(1) != 0;
+		}
+
+		private long readBits(int count)
+			throws IOException
+		{
+			if (count == 0)
+				return 0;
+			if (count > 32)
+			{
+				long high = readBits(count - 32);
+				return (high << 32) | readBits(32);
+			}
+			while (bits < count)
+			{
+				if (position == bytes.length)
+					throw new IOException("Truncated series data");
+				buffer = (buffer << 8) | (bytes[position++] & 0xff);
+				bits += 8;
+			}
+			bits -= count;
+			return (buffer >>> bits) & ((1L << count) - 1);
+		}
+
+		private long readSigned()
+			throws IOException
+		{
+			if (readBits(1) == 0)
+				return 0;
+			if (readBits(1) == 0)
+				return readBits(7) - 63;
+			if (readBits(1) == 0)
+				return readBits(9) - 255;
+			if (readBits(1) == 0)
+				return readBits(12) - 2047;
+			if (readBits(1) == 0)
+				return (int) readBits(32);
+			return readBits(64);
+		}
+
+	}
+
+}
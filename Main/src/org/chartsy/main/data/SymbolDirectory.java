@@ -0,0 +1,282 @@
+package org.chartsy.main.data;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Immutable catalog of the symbols of a data provider, sorted so the
+ * symbols starting with some text are found with two binary searches. The
+ * words of the company names are indexed the same way, and as a last resort
+ * names containing the letters of the text in order are matched too.
+ */
+public class SymbolDirectory
+{
+
+	private static final int VERSION = 1;
+
+	private final String[] symbols;
+	private final String[] companies;
+	private final String[] exchanges;
+	// upper case symbols in sort order
+	private final String[] keys;
+	// upper case company name words in sort order, with the entry they are of
+	private final String[] words;
+	private final int[] wordEntries;
+	private final String[] names;
+
+	public SymbolDirectory(Collection<StockNode> stocks)
+	{
+		this(column(stocks, 0), column(stocks, 1), column(stocks, 2));
+	}
+
+	/**
+	 * @param s the symbols
+	 * @param c the company names of the symbols
+	 * @param e the exchanges of the symbols
+	 */
+	public SymbolDirectory(String[] s, String[] c, String[] e)
+	{
+		int size = s.length;
+		int i;
+		this.symbols = new String[size];
+		this.companies = new String[size];
+		this.exchanges = new String[size];
+		this.keys = new String[size];
+		this.names = new String[size];
+
+		final String[] upper = new String[size];
+		Integer[] order = new Integer[size];
+		for (i = 0; i < size; i++)
+		{
+			upper[i] = s[i] == null ? "" : s[i].toUpperCase(Locale.ENGLISH);
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>()
+		{
+			public int compare(Integer o1, Integer o2)
+			{
+				return upper[o1].compareTo(upper[o2]);
+			}
+		});
+		for (i = 0; i < size; i++)
+		{
+			int j = order[i];
+			symbols[i] = s[j];
+			companies[i] = c[j];
+			exchanges[i] = e[j];
+			keys[i] = upper[j];
+			names[i] = c[j] == null ? "" : c[j].toUpperCase(Locale.ENGLISH);
+		}
+
+		List<Word> wordList = new ArrayList<Word>();
+		for (i = 0; i < size; i++)
+		{
+			String name = names[i];
+			int start = -1;
+			for (int j = 0; j <= name.length(); j++)
+			{
+				boolean letter = j < name.length() && Character.isLetterOrDigit(name.charAt(j));
+				if (letter && start < 0)
+				{
+					start = j;
+				} else if (!letter && start >= 0)
+				{
+					wordList.add(new Word(name.substring(start, j), i));
+					start = -1;
+				}
+			}
+		}
+		Word[] sorted = wordList.toArray(new Word[wordList.size()]);
+		Arrays.sort(sorted);
+		words = new String[sorted.length];
+		wordEntries = new int[sorted.length];
+		for (i = 0; i < sorted.length; i++)
+		{
+			words[i] = sorted[i].word;
+			wordEntries[i] = sorted[i].entry;
+		}
+	}
+
+	public int size()
+	{
+		return symbols.length;
+	}
+
+	/**
+	 * Finds at most limit stocks for the text: symbols starting with it
+	 * first, then companies with a word starting with it, then companies
+	 * with its letters in order. Matches of a kind are in symbol order.
+	 */
+	public StockSet search(String text, int limit)
+	{
+		ArrayList<StockNode> result = new ArrayList<StockNode>();
+		String prefix = text.trim().toUpperCase(Locale.ENGLISH);
+		if (prefix.length() == 0 || limit <= 0)
+			return new StockSet(result);
+
+		boolean[] added = new boolean[symbols.length];
+		int from = lowerBound(keys, prefix);
+		int to = upperBound(keys, prefix, from);
+		for (int i = from; i < to && result.size() < limit; i++)
+			add(i, added, result);
+
+		if (result.size() < limit)
+		{
+			from = lowerBound(words, prefix);
+			to = upperBound(words, prefix, from);
+			int[] entries = new int[to - from];
+			for (int i = from; i < to; i++)
+				entries[i - from] = wordEntries[i];
+			Arrays.sort(entries);
+			for (int i = 0; i < entries.length && result.size() < limit; i++)
+				if (!added[entries[i]])
+					add(entries[i], added, result);
+		}
+
+		if (result.size() < limit && prefix.length() > 2)
+		{
+			for (int i = 0; i < names.length && result.size() < limit; i++)
+			{
+				if (Thread.currentThread().isInterrupted())
+					break;
+				if (!added[i] && subsequence(prefix, names[i]))
+					add(i, added, result);
+			}
+		}
+
+		return new StockSet(result);
+	}
+
+	public List<StockNode> getStocks()
+	{
+		ArrayList<StockNode> list = new ArrayList<StockNode>(symbols.length);
+		for (int i = 0; i < symbols.length; i++)
+			list.add(new StockNode(symbols[i], companies[i], exchanges[i]));
+		return list;
+	}
+
+	public void write(DataOutputStream out)
+		throws IOException
+	{
+		out.writeInt(VERSION);
+		out.writeInt(symbols.length);
+		for (int i = 0; i < symbols.length; i++)
+		{
+			writeString(out, symbols[i]);
+			writeString(out, companies[i]);
+			writeString(out, exchanges[i]);
+		}
+	}
+
+	public static SymbolDirectory read(DataInputStream in)
+		throws IOException
+	{
+		if (in.readInt() != VERSION)
+			throw new IOException("Unknown symbol directory version");
+		int size = in.readInt();
+		if (size < 0)
+			throw new IOException("Corrupted symbol directory");
+		String[] s = new String[size], c = new String[size], e = new String[size];
+		for (int i = 0; i < size; i++)
+		{
+			s[i] = readString(in);
+			c[i] = readString(in);
+			e[i] = readString(in);
+		}
+		return new SymbolDirectory(s, c, e);
+	}
+
+	private static String[] column(Collection<StockNode> stocks, int column)
+	{
+		String[] result = new String[stocks.size()];
+		int i = 0;
+		for (StockNode stock : stocks)
+			result[i++] = column == 0 ? stock.getSymbol()
+				: (column == 1 ? stock.getCompanyName() : stock.getExchange());
+		return result;
+	}
+
+	private void add(int index, boolean[] added, List<StockNode> result)
+	{
+		added[index] = true;
+		result.add(new StockNode(symbols[index], companies[index], exchanges[index]));
+	}
+
+	private static int lowerBound(String[] array, String prefix)
+	{
+		int low = 0, high = array.length;
+		while (low < high)
+		{
+			int middle = (low + high) >>> 1;
+			if (array[middle].compareTo(prefix) < 0)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	private static int upperBound(String[] array, String prefix, int from)
+	{
+		int low = from, high = array.length;
+		while (low < high)
+		{
+			int middle = (low + high) >>> 1;
+			if (array[middle].startsWith(prefix))
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	private static boolean subsequence(String text, String name)
+	{
+		int j = 0;
+		for (int i = 0; i < name.length() && j < text.length(); i++)
+			if (name.charAt(i) == text.charAt(j))
+				j++;
+		return j == text.length();
+	}
+
+	private static void writeString(DataOutputStream out, String value)
+		throws IOException
+	{
+		out.writeBoolean(value != null);
+		if (value != null)
+			out.writeUTF(value);
+	}
+
+	private static String readString(DataInputStream in)
+		throws IOException
+	{
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	private static class Word implements Comparable<Word>
+	{
+
+		private final String word;
+		private final int entry;
+
+		private Word(String word, int entry)
+		{
+			this.word = word;
+			this.entry = entry;
+		}
+
+		public int compareTo(Word other)
+		{
+			return word.compareTo(other.word);
+		}
+
+	}
+
+}
@@ -0,0 +1,233 @@
+package org.chartsy.main.data;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+
+/**
+ * Records the bar indices where session, day, week, month and year
+ * boundaries fall in a dataset. The index uses epoch arithmetic in a time
+ * zone fixed when it is created. It is extended when bars are appended and
+ * rebuilt if the dataset was changed in another way.
+ */
+public class TimeBoundaryIndex
+{
+
+	public static final int SESSION = 0;
+	public static final int DAY = 1;
+	public static final int WEEK = 2;
+	public static final int MONTH = 3;
+	public static final int YEAR = 4;
+
+	private static final long DAY_MILLIS = 86400000L;
+	private static final int[] EMPTY = new int[0];
+
+	private final Dataset dataset;
+	private final TimeZone zone;
+	private final long sessionStart;
+
+	private long[] local = new long[0];
+	private int count = 0;
+	private long lastTime = 0;
+	private int[][] boundaries = new int[YEAR + 1][];
+	private int[] boundariesCount = new int[YEAR + 1];
+
+	public TimeBoundaryIndex(Dataset dataset)
+	{
+		this(dataset, TimeZone.getDefault(), 0);
+	}
+
+	/**
+	 * @param sessionStart the time of day, in milliseconds, a session starts
+	 * at. Markets that trade around the clock roll over at this time.
+	 */
+	public TimeBoundaryIndex(Dataset dataset, TimeZone zone, long sessionStart)
+	{
+		this.dataset = dataset;
+		this.zone = (TimeZone) zone.clone();
+		this.sessionStart = sessionStart;
+		for (int i = 0; i < boundaries.length; i++)
+			boundaries[i] = new int[16];
+	}
+
+	public synchronized int[] getBoundaries(int level, int from, int to)
+	{
+		update();
+		int[] list = boundaries[level];
+		int size = boundariesCount[level];
+		int start = lowerBound(list, size, from);
+		int end = lowerBound(list, size, to);
+		if (end <= start)
+			return EMPTY;
+		return Arrays.copyOfRange(list, start, end);
+	}
+
+	public synchronized boolean isBoundary(int level, int index)
+	{
+		update();
+		int[] list = boundaries[level];
+		int size = boundariesCount[level];
+		int i = lowerBound(list, size, index);
+		return i < size && list[i] == index;
+	}
+
+	public synchronized int getYear(int index)
+	{
+		update();
+		return civil(floorDiv(local[index], DAY_MILLIS))[0];
+	}
+
+	/**
+	 * @return the month of the bar, from 0 like Calendar.MONTH
+	 */
+	public synchronized int getMonth(int index)
+	{
+		update();
+		return civil(floorDiv(local[index], DAY_MILLIS))[1] - 1;
+	}
+
+	public synchronized int getDayOfMonth(int index)
+	{
+		update();
+		return civil(floorDiv(local[index], DAY_MILLIS))[2];
+	}
+
+	public synchronized int getMinuteOfDay(int index)
+	{
+		update();
+		return (int) (floorMod(local[index], DAY_MILLIS) / 60000);
+	}
+
+	private void update()
+	{
+		int size = dataset.getItemsCount();
+		if (size < count || (count > 0 && dataset.getTimeAt(count - 1) != lastTime))
+			clear();
+		if (size > count)
+			append(size);
+	}
+
+	private void clear()
+	{
+		count = 0;
+		lastTime = 0;
+		Arrays.fill(boundariesCount, 0);
+	}
+
+	private void append(int size)
+	{
+		if (local.length < size)
+			local = Arrays.copyOf(local, Math.max(size, local.length * 2));
+
+		for (int i = count; i < size; i++)
+		{
+			long time = dataset.getTimeAt(i);
+			local[i] = time + zone.getOffset(time);
+			if (i == 0)
+			{
+				long day = floorDiv(local[0], DAY_MILLIS);
+				int[] date = civil(day);
+				addBoundary(SESSION, 0);
+				addBoundary(DAY, 0);
+				if (onlyWeekendBefore(day, day - dayOfWeek(day)))
+					addBoundary(WEEK, 0);
+				if (onlyWeekendBefore(day, day - date[2] + 1))
+					addBoundary(MONTH, 0);
+				if (date[1] == 1 && onlyWeekendBefore(day, day - date[2] + 1))
+					addBoundary(YEAR, 0);
+			} else
+			{
+				long prevDay = floorDiv(local[i - 1], DAY_MILLIS);
+				long day = floorDiv(local[i], DAY_MILLIS);
+				if (floorDiv(local[i - 1] - sessionStart, DAY_MILLIS)
+					!= floorDiv(local[i] - sessionStart, DAY_MILLIS))
+					addBoundary(SESSION, i);
+				if (prevDay != day)
+				{
+					addBoundary(DAY, i);
+					if (floorDiv(prevDay + 3, 7) != floorDiv(day + 3, 7))
+						addBoundary(WEEK, i);
+					int[] prevDate = civil(prevDay);
+					int[] date = civil(day);
+					if (prevDate[0] != date[0] || prevDate[1] != date[1])
+						addBoundary(MONTH, i);
+					if (prevDate[0] != date[0])
+						addBoundary(YEAR, i);
+				}
+			}
+		}
+
+		count = size;
+		lastTime = dataset.getTimeAt(size - 1);
+	}
+
+	private void addBoundary(int level, int index)
+	{
+		int size = boundariesCount[level];
+		if (size == boundaries[level].length)
+			boundaries[level] = Arrays.copyOf(boundaries[level], size * 2);
+		boundaries[level][size] = index;
+		boundariesCount[level] = size + 1;
+	}
+
+	private static int lowerBound(int[] list, int size, int value)
+	{
+		int low = 0;
+		int high = size;
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (list[mid] < value)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	private static boolean onlyWeekendBefore(long day, long periodStart)
+	{
+		for (long d = periodStart; d < day; d++)
+			if (dayOfWeek(d) < 5)
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return the day of the week, starting with 0 for Monday
+	 */
+	private static int dayOfWeek(long day)
+	{
+		return (int) floorMod(day + 3, 7);
+	}
+
+	/**
+	 * Converts days since the epoch to {year, month (1-12), day of month}.
+	 */
+	private static int[] civil(long day)
+	{
+		long z = day + 719468;
+		long era = (z >= 0 ? z : z - 146096) / 146097;
+		long doe = z - era * 146097;
+		long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+		long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+		long mp = (5 * doy + 2) / 153;
+		int d = (int) (doy - (153 * mp + 2) / 5 + 1);
+		int m = (int) (mp < 10 ? mp + 3 : mp - 9);
+		int y = (int) (yoe + era * 400 + (m <= 2 ? 1 : 0));
+		return new int[] {y, m, d};
+	}
+
+	private static long floorDiv(long x, long y)
+	{
+		long q = x / y;
+		if ((x % y != 0) && ((x ^ y) < 0))
+			q--;
+		return q;
+	}
+
+	private static long floorMod(long x, long y)
+	{
+		return x - floorDiv(x, y) * y;
+	}
+
+}
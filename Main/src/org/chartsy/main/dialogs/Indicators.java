@@ -356,7 +356,7 @@ public class Indicators extends javax.swing.JDialog
             {
                 Indicator ind = selected.get(i);
                 ind.setDatasetKey(parent.getChartData().getDatasetKey());
-                ind.calculate();
+                ind.recalculate();
                 parent.getSplitPanel().getIndicatorsPanel().addIndicator(ind);
             }
             parent.getSplitPanel().getIndicatorsPanel().calculateHeight();
@@ -95,9 +95,9 @@ public class SettingsPanel extends JPanel
 			/*if (object instanceof ChartFrame)
 				((ChartFrame) object).repaint();
 			else */if (object instanceof Indicator)
-				((Indicator) object).calculate();
+				((Indicator) object).recalculate();
 			else if (object instanceof Overlay)
-				((Overlay) object).calculate();
+				((Overlay) object).recalculate();
 		}
 	}
 
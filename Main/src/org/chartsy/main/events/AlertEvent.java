@@ -0,0 +1,31 @@
+package org.chartsy.main.events;
+
+import java.util.EventObject;
+import org.chartsy.main.alerts.Alert;
+
+public class AlertEvent extends EventObject
+{
+
+	private final TickEvent tick;
+
+	/**
+	 * @param source the alert that fired
+	 * @param tick the tick it fired on
+	 */
+	public AlertEvent(Alert source, TickEvent tick)
+	{
+		super(source);
+		this.tick = tick;
+	}
+
+	public Alert getAlert()
+	{
+		return (Alert) getSource();
+	}
+
+	public TickEvent getTick()
+	{
+		return tick;
+	}
+
+}
@@ -0,0 +1,10 @@
+package org.chartsy.main.events;
+
+import java.util.EventListener;
+
+public interface AlertListener extends EventListener
+{
+
+	public void alertFired(AlertEvent evt);
+
+}
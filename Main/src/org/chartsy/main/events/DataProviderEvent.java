@@ -10,11 +10,27 @@ public class DataProviderEvent extends EventObject
 {
 
 	private int itemsAdded;
+	private long when;
+	private boolean evicted;
+	private int itemsPrepended;
 
 	public DataProviderEvent(Object source, int itemsAdded)
+	{
+		this(source, itemsAdded, false);
+	}
+
+	public DataProviderEvent(Object source, int itemsAdded, boolean evicted)
 	{
 		super(source);
 		this.itemsAdded = itemsAdded;
+		this.when = System.nanoTime();
+		this.evicted = evicted;
+	}
+
+	public DataProviderEvent(Object source, int itemsAdded, int itemsPrepended)
+	{
+		this(source, itemsAdded, false);
+		this.itemsPrepended = itemsPrepended;
 	}
 
 	public int getItemsAdded()
@@ -22,4 +38,30 @@ public class DataProviderEvent extends EventObject
 		return this.itemsAdded;
 	}
 
+	/**
+	 * @return the System.nanoTime() the event was created at
+	 */
+	public long getWhen()
+	{
+		return this.when;
+	}
+
+	/**
+	 * @return the number of older items paged in at the start of the
+	 * dataset, the indexes into it moved by as many
+	 */
+	public int getItemsPrepended()
+	{
+		return this.itemsPrepended;
+	}
+
+	/**
+	 * @return true if the dataset was moved out of memory, whatever was
+	 * calculated from it should be released until it is needed again
+	 */
+	public boolean isEvicted()
+	{
+		return this.evicted;
+	}
+
 }
@@ -0,0 +1,25 @@
+package org.chartsy.main.events;
+
+import java.util.EventObject;
+import org.chartsy.main.data.Quote;
+
+public class QuoteEvent extends EventObject
+{
+
+	private Quote quote;
+
+	/**
+	 * @param source the key of the stock
+	 */
+	public QuoteEvent(Object source, Quote quote)
+	{
+		super(source);
+		this.quote = quote;
+	}
+
+	public Quote getQuote()
+	{
+		return this.quote;
+	}
+
+}
@@ -0,0 +1,10 @@
+package org.chartsy.main.events;
+
+import java.util.EventListener;
+
+public interface QuoteListener extends EventListener
+{
+
+	public void quoteChanged(QuoteEvent evt);
+
+}
@@ -0,0 +1,68 @@
+package org.chartsy.main.events;
+
+import java.util.EventObject;
+
+/**
+ * A trade received from the live feed of a data provider.
+ */
+public class TickEvent extends EventObject
+{
+
+	private final String symbol;
+	private final long time;
+	private final double price;
+	private final double volume;
+	private final long received;
+
+	/**
+	 * @param source the name of the data provider
+	 * @param time the time of the trade in milliseconds
+	 * @param volume the volume of the trade
+	 */
+	public TickEvent(Object source, String symbol, long time, double price, double volume)
+	{
+		this(source, symbol, time, price, volume, System.nanoTime());
+	}
+
+	/**
+	 * @param received the System.nanoTime the tick was read at
+	 */
+	public TickEvent(Object source, String symbol, long time, double price, double volume, long received)
+	{
+		super(source);
+		this.symbol = symbol;
+		this.time = time;
+		this.price = price;
+		this.volume = volume;
+		this.received = received;
+	}
+
+	public String getSymbol()
+	{
+		return symbol;
+	}
+
+	public long getTime()
+	{
+		return time;
+	}
+
+	public double getPrice()
+	{
+		return price;
+	}
+
+	public double getVolume()
+	{
+		return volume;
+	}
+
+	/**
+	 * @return the System.nanoTime the tick was received at
+	 */
+	public long getReceived()
+	{
+		return received;
+	}
+
+}
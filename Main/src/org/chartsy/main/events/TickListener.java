@@ -0,0 +1,10 @@
+package org.chartsy.main.events;
+
+import java.util.EventListener;
+
+public interface TickListener extends EventListener
+{
+
+	public void tickReceived(TickEvent evt);
+
+}
@@ -1,16 +1,22 @@
 package org.chartsy.main.favorites.nodes;
 
 import java.awt.event.ActionEvent;
+import java.util.ArrayList;
+import java.util.List;
 import javax.swing.AbstractAction;
 import javax.swing.Action;
 import org.chartsy.main.ChartFrame;
+import org.chartsy.main.alerts.Alert;
+import org.chartsy.main.alerts.PriceAlert;
 import org.chartsy.main.data.ChartData;
 import org.chartsy.main.intervals.DailyInterval;
+import org.chartsy.main.managers.AlertManager;
 import org.chartsy.main.managers.ChartManager;
 import org.chartsy.main.managers.TemplateManager;
 import org.chartsy.main.templates.Template;
 import org.openide.DialogDescriptor;
 import org.openide.DialogDisplayer;
+import org.openide.NotifyDescriptor;
 import org.openide.NotifyDescriptor.InputLine;
 import org.openide.NotifyDescriptor.Message;
 import org.openide.nodes.Node;
@@ -28,6 +34,8 @@ public class Actions
 	{}
 
 	public static Action openStock(StockAPINode node)							{ return new OpenStock(node); }
+	public static Action addPriceAlert(StockAPINode node)						{ return new AddPriceAlert(node); }
+	public static Action removeAlerts(StockAPINode node)						{ return new RemoveAlerts(node); }
 	public static Action addFolder(RootAPINode node)							{ return AddFolder.addFolder(node); }
 	public static Action renameFolder()											{ return RenameFolder.getDefault(); }
 
@@ -77,6 +85,114 @@ public class Actions
 
 	}
 
+	private static class AddPriceAlert extends AbstractAction
+		implements HelpCtx.Provider
+	{
+
+		private StockAPINode node;
+
+		public AddPriceAlert(StockAPINode node)
+		{
+			this.node = node;
+			putValue(NAME, "Add Price Alert...");
+		}
+
+		public void actionPerformed(ActionEvent e)
+		{
+			if (node == null)
+				return;
+			StockAPI stock = node.getLookup().lookup(StockAPI.class);
+			if (stock == null)
+				return;
+
+			double last = stock.getLastValue();
+			if (last <= 0)
+			{
+				Message message = new DialogDescriptor.Message(
+					"There is no quote for " + stock.getSymbol() + " yet.",
+					DialogDescriptor.INFORMATION_MESSAGE);
+				DialogDisplayer.getDefault().notify(message);
+				return;
+			}
+
+			InputLine descriptor = new DialogDescriptor.InputLine(
+				"Alert when the price crosses:", "Add Price Alert");
+			descriptor.setInputText(String.valueOf(last));
+			descriptor.setOptions(new Object[]
+			{
+				DialogDescriptor.OK_OPTION,
+				DialogDescriptor.CANCEL_OPTION
+			});
+
+			Object ret = DialogDisplayer.getDefault().notify(descriptor);
+			if (!ret.equals(DialogDescriptor.OK_OPTION))
+				return;
+			double level;
+			try
+			{
+				level = Double.parseDouble(descriptor.getInputText().trim());
+			} catch (NumberFormatException ex)
+			{
+				Message message = new DialogDescriptor.Message(
+					"Invalid price.",
+					DialogDescriptor.WARNING_MESSAGE);
+				DialogDisplayer.getDefault().notify(message);
+				return;
+			}
+
+			// the price has to cross the level from where it is now
+			int direction = level > last ? Alert.ABOVE : Alert.BELOW;
+			AlertManager.getDefault().addAlert(new PriceAlert(
+				stock.getDataProviderName(), stock.getSymbol(), direction, level));
+		}
+
+		public HelpCtx getHelpCtx()
+		{
+			return new HelpCtx(AddPriceAlert.class);
+		}
+
+	}
+
+	private static class RemoveAlerts extends AbstractAction
+		implements HelpCtx.Provider
+	{
+
+		private StockAPINode node;
+		private List<Alert> alerts = new ArrayList<Alert>();
+
+		public RemoveAlerts(StockAPINode node)
+		{
+			this.node = node;
+			putValue(NAME, "Remove Alerts");
+			StockAPI stock = node == null ? null : node.getLookup().lookup(StockAPI.class);
+			if (stock != null)
+				for (Alert alert : AlertManager.getDefault().getAlerts())
+					if (alert.getDataProvider().equals(stock.getDataProviderName())
+						&& alert.getSymbol().equals(stock.getSymbol()))
+						alerts.add(alert);
+			setEnabled(!alerts.isEmpty());
+		}
+
+		public void actionPerformed(ActionEvent e)
+		{
+			StringBuilder text = new StringBuilder("Remove the alerts:");
+			for (Alert alert : alerts)
+				text.append("\n").append(alert.getLabel());
+			NotifyDescriptor descriptor = new NotifyDescriptor.Confirmation(
+				text.toString(), "Remove Alerts", NotifyDescriptor.OK_CANCEL_OPTION);
+			if (!DialogDisplayer.getDefault().notify(descriptor).equals(NotifyDescriptor.OK_OPTION))
+				return;
+			for (Alert alert : alerts)
+				AlertManager.getDefault().removeAlert(alert);
+		}
+
+		public HelpCtx getHelpCtx()
+		{
+			return new HelpCtx(RemoveAlerts.class);
+		}
+
+	}
+
 	private static class AddFolder extends NodeAction
 	{
 
@@ -1,13 +1,15 @@
 package org.chartsy.main.favorites.nodes;
 
 import java.text.DecimalFormat;
+import javax.swing.event.ChangeListener;
 import org.chartsy.main.data.DataProvider;
-import org.chartsy.main.data.Dataset;
+import org.chartsy.main.data.Quote;
 import org.chartsy.main.data.Stock;
-import org.chartsy.main.events.DataProviderAdapter;
-import org.chartsy.main.events.DataProviderEvent;
+import org.chartsy.main.events.QuoteEvent;
+import org.chartsy.main.events.QuoteListener;
 import org.chartsy.main.managers.DataProviderManager;
-import org.chartsy.main.managers.DatasetUsage;
+import org.chartsy.main.managers.QuoteManager;
+import org.openide.util.ChangeSupport;
 
 /**
  *
@@ -21,8 +23,11 @@ public class StockAPI extends Object
 	private String exchange;
 	private String companyName;
 
-	private double newValue = -1;
-	private double oldValue = -1;
+	private volatile double newValue = -1;
+	private volatile double oldValue = -1;
+
+	private QuoteListener quoteListener;
+	private final ChangeSupport changeSupport = new ChangeSupport(this);
 
 	public StockAPI()
 	{
@@ -92,60 +97,67 @@ public class StockAPI extends Object
 		return DataProviderManager.getDefault().getDataProvider(dataProviderName);
 	}
 
+	/**
+	 * Starts following the quote of the stock, the change listeners are
+	 * notified every time it changes.
+	 */
 	public void initializeDataProvider()
 	{
-		final DataProvider dp = getDataProvider();
-		if (dp != null)
+		if (quoteListener != null || getDataProvider() == null)
+			return;
+
+		quoteListener = new QuoteListener()
 		{
-			final Stock stock = getStock();
-			String key = dp.getDatasetKey(stock, dp.DAILY);
-			if (!DatasetUsage.getInstance().isDatasetInMemory(key))
+			public void quoteChanged(QuoteEvent evt)
 			{
-				try
-				{
-					dp.fetchDatasetForFavorites(stock);
-				} catch (Exception ex)
-				{
-					// do nothing
-				}
-			}
-			
-			DataProviderAdapter adapter = new DataProviderAdapter()
-			{
-				@Override
-				public void triggerDataProviderListener(DataProviderEvent evt)
-				{
-					String key = dp.getDatasetKey(stock, dp.DAILY);
-					if (key.equals((String) evt.getSource()))
-					{
-						Dataset dataset = DatasetUsage.getInstance().getDatasetFromMemory(key);
-						if (dataset != null && !dataset.isEmpty())
-						{
-							oldValue = dataset.getCloseAt(dataset.getLastIndex() - 1);
-							newValue = dataset.getLastClose();
-						} else
-						{
-							oldValue = 0;
-							newValue = 0;
-						}
-					}
-				}
-			};
-			
-			DatasetUsage.getInstance().addDataProviderListener(adapter);
-			DatasetUsage.getInstance().addDatasetUpdater(dataProviderName, stock, dp.DAILY);
-			Dataset dataset = DatasetUsage.getInstance().getDatasetFromMemory(key);
-			if (dataset != null && !dataset.isEmpty())
-			{
-				DatasetUsage.getInstance().fetchDataset(key);
-				oldValue = dataset.getCloseAt(dataset.getLastIndex() - 1);
-				newValue = dataset.getLastClose();
-			} else
-			{
-				oldValue = 0;
-				newValue = 0;
+				setQuote(evt.getQuote());
 			}
+		};
+		setQuote(QuoteManager.getDefault().addQuoteListener(dataProviderName, getStock(), quoteListener));
+	}
+
+	/**
+	 * Stops following the quote of the stock.
+	 */
+	public void dispose()
+	{
+		if (quoteListener != null)
+		{
+			QuoteManager.getDefault().removeQuoteListener(dataProviderName, getStock(), quoteListener);
+			quoteListener = null;
+		}
+	}
+
+	private void setQuote(Quote quote)
+	{
+		if (quote != null)
+		{
+			oldValue = quote.getPreviousClose();
+			newValue = quote.getLast();
+		} else
+		{
+			oldValue = 0;
+			newValue = 0;
 		}
+		changeSupport.fireChange();
+	}
+
+	public void addChangeListener(ChangeListener listener)
+	{
+		changeSupport.addChangeListener(listener);
+	}
+
+	public void removeChangeListener(ChangeListener listener)
+	{
+		changeSupport.removeChangeListener(listener);
+	}
+
+	/**
+	 * @return the last price quoted, 0 or less if there is no quote yet
+	 */
+	public double getLastValue()
+	{
+		return newValue;
 	}
 
 	public Object[][] getData()
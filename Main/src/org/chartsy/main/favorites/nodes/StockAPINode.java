@@ -2,6 +2,8 @@ package org.chartsy.main.favorites.nodes;
 
 import java.io.IOException;
 import javax.swing.Action;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import org.openide.actions.CopyAction;
 import org.openide.actions.CutAction;
 import org.openide.actions.DeleteAction;
@@ -22,6 +24,14 @@ public class StockAPINode extends AbstractNode
 	{
 		super(Children.LEAF, Lookups.fixed(new Object[] {stock}));
 		setDisplayName(stock.getDisplayName());
+		stock.addChangeListener(new ChangeListener()
+		{
+			public void stateChanged(ChangeEvent e)
+			{
+				// repaints the row of this stock only
+				fireDisplayNameChange(null, getDisplayName());
+			}
+		});
 		stock.initializeDataProvider();
 	}
 
@@ -59,7 +69,10 @@ public class StockAPINode extends AbstractNode
             null,
             SystemAction.get(DeleteAction.class),
 			null,
-			Actions.openStock(this)
+			Actions.openStock(this),
+			null,
+			Actions.addPriceAlert(this),
+			Actions.removeAlerts(this)
 		};
 	}
 
@@ -79,6 +92,7 @@ public class StockAPINode extends AbstractNode
 			folder.getChildren().remove(new Node[] { this });
 		}
 
+		getStock().dispose();
 		super.destroy();
 	}
 
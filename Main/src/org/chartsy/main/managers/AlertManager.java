@@ -0,0 +1,202 @@
+package org.chartsy.main.managers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.TimerTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.SwingUtilities;
+import org.chartsy.main.alerts.Alert;
+import org.chartsy.main.alerts.AlertEngine;
+import org.chartsy.main.alerts.BarAlert;
+import org.chartsy.main.data.DataProvider;
+import org.chartsy.main.data.Dataset;
+import org.chartsy.main.data.Stock;
+import org.chartsy.main.events.AlertEvent;
+import org.chartsy.main.events.AlertListener;
+import org.chartsy.main.intervals.Interval;
+import org.chartsy.main.utils.FileUtils;
+import org.chartsy.main.utils.NotifyUtil;
+import org.chartsy.main.utils.TaskEngine;
+
+/**
+ * Keeps the alerts of the user. They are checked on every tick of the live
+ * feeds, whether a chart of the symbol is open or not, shown as
+ * notifications when they fire, and saved with their state in the settings
+ * folder every minute they changed and when the application closes.
+ */
+public class AlertManager
+{
+
+	private static final Logger LOG = Logger.getLogger(AlertManager.class.getName());
+	private static final int VERSION = 1;
+	private static final long SAVE_PERIOD = 60000; // ms
+
+	private static AlertManager instance;
+
+	private final AlertEngine engine = new AlertEngine();
+
+	public static synchronized AlertManager getDefault()
+	{
+		if (instance == null)
+			instance = new AlertManager();
+		return instance;
+	}
+
+	private AlertManager()
+	{
+		load();
+		engine.checkChanged();
+		engine.addAlertListener(new AlertListener()
+		{
+			public void alertFired(AlertEvent evt)
+			{
+				// the message is of the tick the alert fired on
+				final String title = "Alert " + evt.getAlert().getSymbol();
+				final String message = evt.getAlert().getMessage();
+				SwingUtilities.invokeLater(new Runnable()
+				{
+					public void run()
+					{
+						NotifyUtil.info(title, message, false);
+					}
+				});
+			}
+		});
+		DatasetUsage.getInstance().addTickListener(engine);
+		TaskEngine.getInstance().scheduleAtFixedRate(new TimerTask()
+		{
+			public void run()
+			{
+				if (engine.checkChanged())
+					save();
+			}
+		}, SAVE_PERIOD, SAVE_PERIOD);
+	}
+
+	public AlertEngine getEngine()
+	{
+		return engine;
+	}
+
+	public List<Alert> getAlerts()
+	{
+		return engine.getAlerts();
+	}
+
+	/**
+	 * Adds the alert, indicator alerts are started from the dataset of their
+	 * interval if one is in memory or in the cache.
+	 */
+	public void addAlert(Alert alert)
+	{
+		if (alert instanceof BarAlert)
+			seed((BarAlert) alert);
+		engine.add(alert);
+		save();
+	}
+
+	public void removeAlert(Alert alert)
+	{
+		if (engine.remove(alert))
+			save();
+	}
+
+	public synchronized void save()
+	{
+		File file = getFile();
+		File temp = new File(file.getPath() + ".tmp");
+		try
+		{
+			DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temp)));
+			try
+			{
+				List<Alert> alerts = engine.getAlerts();
+				out.writeInt(VERSION);
+				out.writeInt(alerts.size());
+				for (Alert alert : alerts)
+				{
+					synchronized (alert)
+					{
+						alert.write(out);
+					}
+				}
+			} finally
+			{
+				out.close();
+			}
+			file.delete();
+			if (!temp.renameTo(file))
+				throw new IOException("Could not rename " + temp + " to " + file);
+		} catch (IOException ex)
+		{
+			LOG.log(Level.WARNING, "Could not save the alerts", ex);
+			temp.delete();
+		}
+	}
+
+	private void load()
+	{
+		File file = getFile();
+		if (!file.exists())
+			return;
+		try
+		{
+			DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file)));
+			try
+			{
+				if (in.readInt() != VERSION)
+					throw new IOException("Unknown alerts version");
+				int size = in.readInt();
+				for (int i = 0; i < size; i++)
+					engine.add(Alert.read(in));
+			} finally
+			{
+				in.close();
+			}
+		} catch (IOException ex)
+		{
+			LOG.log(Level.WARNING, "Could not read the alerts", ex);
+		}
+	}
+
+	private void seed(BarAlert alert)
+	{
+		DataProvider provider = DataProviderManager.getDefault().getDataProvider(alert.getDataProvider());
+		if (provider == null)
+			return;
+		for (Interval interval : provider.getSupportedIntervals())
+		{
+			if (interval.getLengthInSeconds() != alert.getInterval())
+				continue;
+			String key = provider.getDatasetKey(new Stock(alert.getSymbol()), interval);
+			try
+			{
+				Dataset dataset = DatasetUsage.getInstance().getDatasetFromMemory(key);
+				if (dataset == null && CacheManager.getInstance().datasetCacheExists(key))
+					dataset = CacheManager.getInstance().getDatasetFromCache(key);
+				if (dataset != null)
+					alert.seed(dataset);
+			} catch (IOException ex)
+			{
+				LOG.log(Level.FINE, "Could not read the cached dataset " + key, ex);
+			}
+			return;
+		}
+	}
+
+	private File getFile()
+	{
+		return new File(FileUtils.SettingsFolder(), "alerts.dat");
+	}
+
+}
@@ -19,7 +19,7 @@ public class AnnotationManager {
     private LinkedHashMap<String, Annotation> annotations;
     private Annotation current;
 
-    public static AnnotationManager getDefault()
+    public static synchronized AnnotationManager getDefault()
     {
         if (instance == null)
             instance = new AnnotationManager();
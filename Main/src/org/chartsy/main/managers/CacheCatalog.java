@@ -0,0 +1,439 @@
+package org.chartsy.main.managers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.chartsy.main.data.Stock;
+import org.chartsy.main.utils.FileUtils;
+
+/**
+ * The stocks and datasets in the cache, kept in memory and in a single log
+ * file records are appended to as they change. The log is read once, and
+ * written again with only the live records when most of it is superseded.
+ *
+ * Stocks cached for the session only are kept in memory. Datasets cached
+ * for the session only are recorded as temporary, for their histories to
+ * be deleted on close, or on the next start if the application did not
+ * close. Stocks and datasets cached before the catalog, in files named by
+ * the hash of their key, are moved into it the first time they are asked
+ * for.
+ *
+ * The time every dataset was last used is kept with it. Reads only note
+ * it in memory, the datasets used since are appended as access records
+ * by {@link #flushAccessed}, every few minutes and on close.
+ */
+final class CacheCatalog
+{
+
+	private static final Logger LOG = Logger.getLogger(CacheCatalog.class.getName());
+	private static final int VERSION = 3;
+	private static final byte STOCK = 1;
+	private static final byte DATASET = 2;
+	private static final byte TEMPORARY = 3;
+	private static final byte REMOVED = 4;
+	private static final byte ACCESSED = 5;
+
+	private final File file;
+	private final Map<String, Stock> stocks = new ConcurrentHashMap<String, Stock>();
+	// the keys of the stocks in the log
+	private final Set<String> persistentStocks = new HashSet<String>();
+	// the cached datasets, true for the persistent ones
+	private final Map<String, Boolean> datasets = new ConcurrentHashMap<String, Boolean>();
+	private final Map<String, Long> accessed = new ConcurrentHashMap<String, Long>();
+	private final Set<String> legacyStocks;
+	private final Set<String> legacyDatasets;
+	// the datasets used since their access time was written
+	private final Set<String> touched = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private DataOutputStream out;
+	private int records = 0;
+
+	CacheCatalog(File file)
+	{
+		this.file = file;
+		boolean complete = true;
+		if (file.exists())
+			complete = read();
+		legacyStocks = list(new File(FileUtils.cacheStocksFolder()));
+		legacyDatasets = list(new File(FileUtils.cacheDatasetsFolder()));
+		if (!complete || isFragmented())
+			compact();
+	}
+
+	Stock getStock(String key)
+	{
+		Stock stock = stocks.get(key);
+		if (stock == null && !legacyStocks.isEmpty())
+			stock = migrateStock(key);
+		return stock;
+	}
+
+	synchronized void putStock(String key, Stock stock, boolean persist)
+	{
+		Stock old = stocks.put(key, stock);
+		if (persist && (persistentStocks.add(key) || !same(old, stock)))
+			append(STOCK, key, stock);
+	}
+
+	/**
+	 * A dataset cached before the catalog is added to it, and to the log,
+	 * the first time it is asked for.
+	 */
+	boolean hasDataset(String key)
+	{
+		if (datasets.containsKey(key))
+			return true;
+		return !legacyDatasets.isEmpty() && migrateDataset(key);
+	}
+
+	synchronized void putDataset(String key, boolean persist)
+	{
+		Boolean old = datasets.get(key);
+		if (old != null && (old.booleanValue() || !persist))
+			return;
+		datasets.put(key, Boolean.valueOf(persist));
+		accessed.put(key, Long.valueOf(System.currentTimeMillis()));
+		append(persist ? DATASET : TEMPORARY, key, null);
+	}
+
+	synchronized void removeDataset(String key)
+	{
+		legacyDatasets.remove(FileUtils.getStringHash(key));
+		accessed.remove(key);
+		touched.remove(key);
+		if (datasets.remove(key) != null)
+			append(REMOVED, key, null);
+	}
+
+	/**
+	 * Records the dataset as used now, without writing to the log.
+	 */
+	void touch(String key)
+	{
+		if (datasets.containsKey(key))
+		{
+			accessed.put(key, Long.valueOf(System.currentTimeMillis()));
+			touched.add(key);
+		}
+	}
+
+	/**
+	 * Appends the access times of the datasets used since they were last
+	 * written, one record for each.
+	 */
+	synchronized void flushAccessed()
+	{
+		List<String> keys = new ArrayList<String>(touched);
+		for (String key : keys)
+		{
+			touched.remove(key);
+			if (datasets.containsKey(key))
+				append(ACCESSED, key, null);
+		}
+	}
+
+	/**
+	 * @return the time the dataset was last used, or 0 if it is not known
+	 */
+	long getAccessed(String key)
+	{
+		Long time = accessed.get(key);
+		return time == null ? 0 : time.longValue();
+	}
+
+	/**
+	 * @return the keys of the datasets kept on disk
+	 */
+	List<String> getPersistentDatasets()
+	{
+		List<String> keys = new ArrayList<String>();
+		for (Map.Entry<String, Boolean> entry : datasets.entrySet())
+			if (entry.getValue().booleanValue())
+				keys.add(entry.getKey());
+		return keys;
+	}
+
+	/**
+	 * @return the hashes of the datasets cached before the catalog and not
+	 * asked for since
+	 */
+	List<String> getLegacyDatasets()
+	{
+		synchronized (legacyDatasets)
+		{
+			return new ArrayList<String>(legacyDatasets);
+		}
+	}
+
+	void removeLegacyDataset(String hash)
+	{
+		legacyDatasets.remove(hash);
+	}
+
+	/**
+	 * @return true if most of the log is superseded records
+	 */
+	boolean isFragmented()
+	{
+		return records > 2 * (persistentStocks.size() + datasets.size()) + 64;
+	}
+
+	/**
+	 * @return the keys of the datasets cached for the session only
+	 */
+	List<String> getTemporaryDatasets()
+	{
+		List<String> keys = new ArrayList<String>();
+		for (Map.Entry<String, Boolean> entry : datasets.entrySet())
+			if (!entry.getValue().booleanValue())
+				keys.add(entry.getKey());
+		return keys;
+	}
+
+	synchronized void close()
+	{
+		flushAccessed();
+		if (out == null)
+			return;
+		try
+		{
+			out.close();
+		} catch (IOException ex)
+		{
+			LOG.log(Level.FINE, "Could not close the cache catalog", ex);
+		}
+		out = null;
+	}
+
+	private synchronized Stock migrateStock(String key)
+	{
+		Stock stock = stocks.get(key);
+		String hash = FileUtils.getStringHash(key);
+		if (stock != null || !legacyStocks.remove(hash))
+			return stock;
+
+		File legacy = FileUtils.hashedCacheFile(FileUtils.cacheStocksFolder(), key);
+		Properties properties = new Properties();
+		try
+		{
+			FileInputStream in = new FileInputStream(legacy);
+			try
+			{
+				properties.load(in);
+			} finally
+			{
+				in.close();
+			}
+		} catch (IOException ex)
+		{
+			LOG.log(Level.FINE, "Could not read the cached stock " + key, ex);
+			return null;
+		}
+		stock = new Stock();
+		stock.setSymbol(properties.getProperty("symbol"));
+		stock.setExchange(properties.getProperty("exchange", ""));
+		stock.setCompanyName(properties.getProperty("companyName", ""));
+		putStock(key, stock, true);
+		legacy.delete();
+		return stock;
+	}
+
+	private synchronized boolean migrateDataset(String key)
+	{
+		if (datasets.containsKey(key))
+			return true;
+		if (!legacyDatasets.remove(FileUtils.getStringHash(key)))
+			return false;
+		putDataset(key, true);
+		return true;
+	}
+
+	private boolean read()
+	{
+		try
+		{
+			DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file)));
+			try
+			{
+				int version = in.readInt();
+				if (version < 1 || version > VERSION)
+					throw new IOException("Unknown cache catalog version");
+				while (true)
+				{
+					int type = in.read();
+					if (type == -1)
+						return version == VERSION;
+					String key = in.readUTF();
+					switch (type)
+					{
+						case STOCK:
+							Stock stock = new Stock(in.readUTF(), in.readUTF());
+							stock.setCompanyName(in.readUTF());
+							stocks.put(key, stock);
+							persistentStocks.add(key);
+							break;
+						case DATASET:
+						case TEMPORARY:
+							datasets.put(key, Boolean.valueOf(type == DATASET));
+							accessed.put(key, Long.valueOf(version > 1 ? in.readLong() : 0));
+							break;
+						case REMOVED:
+							datasets.remove(key);
+							accessed.remove(key);
+							break;
+						case ACCESSED:
+							long time = in.readLong();
+							if (datasets.containsKey(key))
+								accessed.put(key, Long.valueOf(time));
+							break;
+						default:
+							throw new IOException("Corrupted cache catalog");
+					}
+					records++;
+				}
+			} finally
+			{
+				in.close();
+			}
+		} catch (EOFException ex)
+		{
+			// a record cut short when the application did not close
+			LOG.log(Level.INFO, "Cache catalog ends in an incomplete record");
+			return false;
+		} catch (IOException ex)
+		{
+			LOG.log(Level.WARNING, "Could not read the cache catalog", ex);
+			stocks.clear();
+			persistentStocks.clear();
+			datasets.clear();
+			accessed.clear();
+			return false;
+		}
+	}
+
+	/**
+	 * Writes the live records to a new log and appends to it from then on.
+	 */
+	synchronized void compact()
+	{
+		if (out != null)
+		{
+			try
+			{
+				out.close();
+			} catch (IOException ex)
+			{
+				LOG.log(Level.FINE, "Could not close the cache catalog", ex);
+			}
+			out = null;
+		}
+		// the access times are in the dataset records
+		touched.clear();
+		File temp = new File(file.getPath() + ".tmp");
+		try
+		{
+			DataOutputStream tempOut = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temp)));
+			try
+			{
+				tempOut.writeInt(VERSION);
+				for (String key : persistentStocks)
+					write(tempOut, STOCK, key, stocks.get(key), 0);
+				for (Map.Entry<String, Boolean> entry : datasets.entrySet())
+					write(tempOut, entry.getValue().booleanValue() ? DATASET : TEMPORARY,
+						entry.getKey(), null, getAccessed(entry.getKey()));
+			} finally
+			{
+				tempOut.close();
+			}
+			file.delete();
+			if (!temp.renameTo(file))
+				throw new IOException("Could not rename " + temp + " to " + file);
+			records = persistentStocks.size() + datasets.size();
+		} catch (IOException ex)
+		{
+			LOG.log(Level.WARNING, "Could not write the cache catalog", ex);
+			temp.delete();
+		}
+	}
+
+	private void append(byte type, String key, Stock stock)
+	{
+		try
+		{
+			if (out == null)
+			{
+				boolean empty = !file.exists() || file.length() == 0;
+				out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+				if (empty)
+					out.writeInt(VERSION);
+			}
+			write(out, type, key, stock, getAccessed(key));
+			out.flush();
+			records++;
+		} catch (IOException ex)
+		{
+			LOG.log(Level.WARNING, "Could not write to the cache catalog", ex);
+		}
+	}
+
+	private static void write(DataOutputStream out, byte type, String key, Stock stock, long time)
+		throws IOException
+	{
+		out.writeByte(type);
+		out.writeUTF(key);
+		if (type == STOCK)
+		{
+			out.writeUTF(stock.getSymbol());
+			out.writeUTF(stock.getExchange() == null ? "" : stock.getExchange());
+			out.writeUTF(stock.getCompanyName() == null ? "" : stock.getCompanyName());
+		} else if (type != REMOVED)
+		{
+			out.writeLong(time);
+		}
+	}
+
+	private static boolean same(Stock a, Stock b)
+	{
+		return a != null && a.getSymbol().equals(b.getSymbol())
+			&& String.valueOf(a.getExchange()).equals(String.valueOf(b.getExchange()))
+			&& String.valueOf(a.getCompanyName()).equals(String.valueOf(b.getCompanyName()));
+	}
+
+	/**
+	 * @return the hashes of the entries of the folder, the names of the
+	 * history folders and of the properties files without the extension
+	 */
+	private static Set<String> list(File folder)
+	{
+		Set<String> hashes = Collections.synchronizedSet(new HashSet<String>());
+		String[] names = folder.list();
+		if (names == null)
+			return hashes;
+		for (String name : names)
+		{
+			if (name.endsWith(".properties"))
+				hashes.add(name.substring(0, name.length() - ".properties".length()));
+			else if (name.indexOf('.') < 0)
+				hashes.add(name);
+		}
+		return hashes;
+	}
+
+}
@@ -0,0 +1,306 @@
+package org.chartsy.main.managers;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.chartsy.main.metrics.Metrics;
+import org.chartsy.main.utils.FileUtils;
+
+/**
+ * Keeps the dataset cache within a disk budget, every few minutes on a low
+ * priority thread. Datasets not used for longer than the retention of their
+ * interval are deleted, then the least recently used ones until the cache
+ * is back under the budget. Datasets in memory are in use and stay. The
+ * access times noted since the last run are appended to the catalog log,
+ * the log is written again when it is fragmented, and temporary files
+ * left by writes that never finished are deleted.
+ *
+ * The budget is chartsy.cache.budget, in MB. The retention is
+ * chartsy.cache.retention, a list of interval=days like 1=30,d=0, where
+ * the interval is the time parameter ending the dataset key and 0 keeps the
+ * datasets for good.
+ */
+final class CacheLifecycle implements Runnable
+{
+
+	private static final Logger LOG = Logger.getLogger(CacheLifecycle.class.getName());
+	private static final long DAY = 86400000L;
+	private static final long PERIOD = 10; // minutes
+	// temporary files younger than this may still be written
+	private static final long STALE = 3600000L;
+	// evicts down to this part of the budget, not to evict on every run
+	private static final double LOW_WATER = 0.9;
+	private static final String DEFAULT_RETENTION = "1=30,5=60,15=90,30=90,60=180,d=0,w=0,m=0";
+	// days datasets of an interval without a retention are kept
+	private static final int DEFAULT_DAYS = 30;
+
+	private final CacheManager cache;
+	private final CacheCatalog catalog;
+	private final ScheduledExecutorService service;
+	private final Map<String, Integer> retention = new HashMap<String, Integer>();
+	private volatile long budget;
+	private volatile long used = 0;
+
+	CacheLifecycle(CacheManager cache, CacheCatalog catalog)
+	{
+		this.cache = cache;
+		this.catalog = catalog;
+		this.budget = Long.getLong("chartsy.cache.budget", 2048) << 20;
+		parseRetention(DEFAULT_RETENTION);
+		parseRetention(System.getProperty("chartsy.cache.retention", ""));
+
+		service = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "cache");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+		service.scheduleWithFixedDelay(this, 1, PERIOD, TimeUnit.MINUTES);
+	}
+
+	long getBudget()
+	{
+		return budget;
+	}
+
+	void setBudget(long bytes)
+	{
+		budget = bytes;
+		service.execute(this);
+	}
+
+	/**
+	 * @return the bytes the datasets took on disk at the last run
+	 */
+	long getUsed()
+	{
+		return used;
+	}
+
+	/**
+	 * @return the days the datasets of the interval are kept after they
+	 * were last used, 0 for good
+	 */
+	synchronized int getRetention(String interval)
+	{
+		Integer days = retention.get(interval);
+		return days == null ? DEFAULT_DAYS : days.intValue();
+	}
+
+	synchronized void setRetention(String interval, int days)
+	{
+		retention.put(interval, Integer.valueOf(Math.max(0, days)));
+	}
+
+	void stop()
+	{
+		service.shutdownNow();
+	}
+
+	public void run()
+	{
+		long start = Metrics.start();
+		try
+		{
+			maintain();
+		} catch (RuntimeException ex)
+		{
+			LOG.log(Level.WARNING, "Cache maintenance failed", ex);
+		} finally
+		{
+			Metrics.stop("cache.maintain", start);
+		}
+	}
+
+	private void maintain()
+	{
+		long now = System.currentTimeMillis();
+		List<Entry> entries = new ArrayList<Entry>();
+		long total = 0;
+
+		for (String key : catalog.getPersistentDatasets())
+		{
+			long size = cache.getDatasetCacheSize(key);
+			long accessed = catalog.getAccessed(key);
+			if (accessed == 0)
+				accessed = cache.datasetCacheModified(key);
+			int days = getRetention(interval(key));
+			if (days > 0 && now - accessed > days * DAY && remove(key, null))
+			{
+				Metrics.increment("cache.expired");
+				continue;
+			}
+			entries.add(new Entry(key, null, accessed, size));
+			total += size;
+		}
+
+		// datasets cached before the catalog, only their folders are known
+		File datasets = new File(FileUtils.cacheDatasetsFolder());
+		for (String hash : catalog.getLegacyDatasets())
+		{
+			File folder = new File(datasets, hash);
+			File properties = new File(datasets, hash + ".properties");
+			File file = folder.exists() ? folder : properties;
+			if (!file.exists())
+			{
+				catalog.removeLegacyDataset(hash);
+				continue;
+			}
+			long size = size(file);
+			entries.add(new Entry(null, hash, file.lastModified(), size));
+			total += size;
+		}
+
+		if (total > budget)
+		{
+			Collections.sort(entries, new Comparator<Entry>()
+			{
+				public int compare(Entry o1, Entry o2)
+				{
+					return o1.accessed < o2.accessed ? -1 : (o1.accessed == o2.accessed ? 0 : 1);
+				}
+			});
+			long target = (long) (budget * LOW_WATER);
+			for (int i = 0; i < entries.size() && total > target; i++)
+			{
+				Entry entry = entries.get(i);
+				if (remove(entry.key, entry.hash))
+				{
+					total -= entry.size;
+					Metrics.increment("cache.evicted");
+				}
+			}
+		}
+		used = total;
+
+		sweep(new File(FileUtils.cacheFolder()), now);
+		catalog.flushAccessed();
+		if (catalog.isFragmented())
+		{
+			catalog.compact();
+			Metrics.increment("cache.compacted");
+		}
+	}
+
+	/**
+	 * Removes the dataset of the key, or the legacy files of the hash,
+	 * unless the dataset is in memory.
+	 */
+	private boolean remove(String key, String hash)
+	{
+		if (key == null)
+		{
+			File datasets = new File(FileUtils.cacheDatasetsFolder());
+			delete(new File(datasets, hash));
+			new File(datasets, hash + ".properties").delete();
+			catalog.removeLegacyDataset(hash);
+			return true;
+		}
+		DatasetUsage usage = DatasetUsage.getInstance();
+		if (usage.isDatasetInMemory(key))
+			return false;
+		synchronized (usage.getLock(key))
+		{
+			if (usage.isDatasetInMemory(key))
+				return false;
+			cache.removeDatasetFromCache(key);
+		}
+		return true;
+	}
+
+	/**
+	 * Deletes the temporary files of writes that did not finish.
+	 */
+	private static void sweep(File folder, long now)
+	{
+		File[] files = folder.listFiles();
+		if (files == null)
+			return;
+		for (File file : files)
+		{
+			if (file.isDirectory())
+				sweep(file, now);
+			else if (file.getName().endsWith(".tmp") && now - file.lastModified() > STALE)
+				file.delete();
+		}
+	}
+
+	private static long size(File file)
+	{
+		File[] files = file.listFiles();
+		if (files == null)
+			return file.length();
+		long size = 0;
+		for (File child : files)
+			size += size(child);
+		return size;
+	}
+
+	private static void delete(File file)
+	{
+		File[] files = file.listFiles();
+		if (files != null)
+			for (File child : files)
+				delete(child);
+		file.delete();
+	}
+
+	/**
+	 * @return the time parameter of the interval ending the dataset key
+	 */
+	private static String interval(String key)
+	{
+		return key.substring(key.lastIndexOf('_') + 1);
+	}
+
+	private synchronized void parseRetention(String text)
+	{
+		for (String policy : text.split(","))
+		{
+			int index = policy.indexOf('=');
+			if (index <= 0)
+				continue;
+			try
+			{
+				setRetention(policy.substring(0, index).trim(),
+					Integer.parseInt(policy.substring(index + 1).trim()));
+			} catch (NumberFormatException ex)
+			{
+				LOG.log(Level.WARNING, "Ignoring the cache retention {0}", policy);
+			}
+		}
+	}
+
+	private static final class Entry
+	{
+
+		private final String key;
+		private final String hash;
+		private final long accessed;
+		private final long size;
+
+		private Entry(String key, String hash, long accessed, long size)
+		{
+			this.key = key;
+			this.hash = hash;
+			this.accessed = accessed;
+			this.size = size;
+		}
+
+	}
+
+}
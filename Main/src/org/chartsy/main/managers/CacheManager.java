@@ -1,15 +1,23 @@
 package org.chartsy.main.managers;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import org.chartsy.main.data.DataItem;
 import org.chartsy.main.data.Dataset;
+import org.chartsy.main.data.HistoryStore;
 import org.chartsy.main.data.Stock;
+import org.chartsy.main.metrics.Metrics;
 import org.chartsy.main.utils.FileUtils;
 
 /**
@@ -19,9 +27,16 @@ import org.chartsy.main.utils.FileUtils;
 public class CacheManager
 {
 
+	// the bars of a cached dataset read when a chart opens
+	private static final int RECENT_ITEMS = 2000;
 	private static CacheManager instance;
 
-	public static CacheManager getInstance()
+	private final ConcurrentHashMap<String, HistoryStore> histories
+		= new ConcurrentHashMap<String, HistoryStore>();
+	private final CacheCatalog catalog;
+	private final CacheLifecycle lifecycle;
+
+	public static synchronized CacheManager getInstance()
 	{
 		if (instance == null)
 			instance = new CacheManager();
@@ -30,6 +45,29 @@ public class CacheManager
 
 	private CacheManager()
 	{
+		// spilled datasets left by a session that did not close
+		File[] spilled = new File(FileUtils.cacheSpillFolder()).listFiles();
+		if (spilled != null)
+			for (File file : spilled)
+				file.delete();
+		catalog = new CacheCatalog(new File(FileUtils.cacheFolder(), "catalog"));
+		removeTemporaryDatasets();
+		lifecycle = new CacheLifecycle(this, catalog);
+	}
+
+	/**
+	 * Deletes the datasets cached for the session only and closes the
+	 * catalog, called when the application closes.
+	 */
+	public void close()
+	{
+		lifecycle.stop();
+		removeTemporaryDatasets();
+		File[] spilled = new File(FileUtils.cacheSpillFolder()).listFiles();
+		if (spilled != null)
+			for (File file : spilled)
+				file.delete();
+		catalog.close();
 	}
 
 	public int getLastChartFrameId()
@@ -67,9 +105,7 @@ public class CacheManager
 
 	public boolean stockCacheExists(String fileName)
 	{
-		String folder = FileUtils.cacheStocksFolder();
-		File file = FileUtils.hashedCacheFile(folder, fileName);
-		return file.exists();
+		return catalog.getStock(fileName) != null;
 	}
 
 	public void cacheStock(Stock stock, String fileName)
@@ -78,53 +114,101 @@ public class CacheManager
         cacheStock(stock, fileName, false);
     }
 
+	/**
+	 * Caches the stock in the catalog, kept on disk if persist is true and
+	 * only for the session otherwise.
+	 */
 	public void cacheStock(Stock stock, String fileName, boolean persist)
 		throws IOException
 	{
-		String folder = FileUtils.cacheStocksFolder();
-		File file = FileUtils.hashedCacheFile(folder, fileName);
-		if (!file.exists())
+		catalog.putStock(fileName, stock, persist);
+	}
+
+	public Stock fetchStockFromCache(String fileName)
+		throws IOException
+	{
+		Stock stock = catalog.getStock(fileName);
+		if (stock == null)
+			throw new FileNotFoundException("No cached stock " + fileName);
+		return stock;
+	}
+
+	public boolean datasetCacheExists(String fileName)
+	{
+		boolean exists = catalog.hasDataset(fileName);
+		Metrics.increment(exists ? "cache.hit" : "cache.miss");
+		return exists;
+	}
+
+	/**
+	 * @return the bytes the cached dataset takes on disk
+	 */
+	public long getDatasetCacheSize(String fileName)
+	{
+		HistoryStore history = histories.get(fileName);
+		try
 		{
-			file.createNewFile();
-            if ( !persist )
-                file.deleteOnExit();
+			// not kept, the sizes of all the datasets are asked for
+			return history != null ? history.getSize()
+				: new HistoryStore(getHistoryFolder(fileName)).getSize();
+		} catch (IOException ex)
+		{
+			return 0;
 		}
+	}
 
-		Properties properties = new Properties();
-		properties.setProperty("symbol", stock.getSymbol());
-		properties.setProperty("exchange", stock.getExchange());
-		properties.setProperty("companyName", stock.getCompanyName());
-
-		FileOutputStream fileOutputStream = new FileOutputStream(file);
-		properties.store(fileOutputStream, "");
-		fileOutputStream.flush();
-		fileOutputStream.close();
+	/**
+	 * @return the disk budget of the dataset cache in bytes
+	 */
+	public long getCacheBudget()
+	{
+		return lifecycle.getBudget();
 	}
 
-	public Stock fetchStockFromCache(String fileName)
-		throws IOException
+	/**
+	 * Sets the disk budget of the dataset cache, the least recently used
+	 * datasets are deleted in the background until the cache fits.
+	 */
+	public void setCacheBudget(long bytes)
 	{
-		String folder = FileUtils.cacheStocksFolder();
-		File file = FileUtils.hashedCacheFile(folder, fileName);
+		lifecycle.setBudget(bytes);
+	}
 
-		FileInputStream fileInputStream = new FileInputStream(file);
-		Properties properties = new Properties();
-		properties.load(fileInputStream);
+	/**
+	 * @return the bytes the cached datasets took at the last maintenance
+	 */
+	public long getCacheUsed()
+	{
+		return lifecycle.getUsed();
+	}
 
-		Stock stock = new Stock();
-		stock.setSymbol(properties.getProperty("symbol"));
-		stock.setExchange(properties.getProperty("exchange", ""));
-		stock.setCompanyName(properties.getProperty("companyName", ""));
+	/**
+	 * @param interval the time parameter of the interval
+	 * @return the days cached datasets of the interval are kept after
+	 * they were last used, 0 for good
+	 */
+	public int getCacheRetention(String interval)
+	{
+		return lifecycle.getRetention(interval);
+	}
 
-		fileInputStream.close();
-		return stock;
+	public void setCacheRetention(String interval, int days)
+	{
+		lifecycle.setRetention(interval, days);
 	}
 
-	public boolean datasetCacheExists(String fileName)
+	/**
+	 * @return the time the dataset was last cached, or 0 if it is not
+	 */
+	public long datasetCacheModified(String fileName)
 	{
-		String folder = FileUtils.cacheDatasetsFolder();
-		File file = FileUtils.hashedCacheFile(folder, fileName);
-		return file.exists();
+		try
+		{
+			return getHistory(fileName).lastModified();
+		} catch (IOException ex)
+		{
+			return 0;
+		}
 	}
 
     public void cacheDataset(Dataset dataset, String fileName)
@@ -133,87 +217,183 @@ public class CacheManager
         cacheDataset(dataset, fileName, false);
     }
 
+	/**
+	 * Caches the dataset in the history of the file name, replacing the
+	 * history from its first bar on. A dataset holding only the recent bars
+	 * keeps the older history as it is.
+	 */
 	public void cacheDataset(Dataset dataset, String fileName, boolean persist)
 		throws IOException
 	{
-		String folder = FileUtils.cacheDatasetsFolder();
-		File file = FileUtils.hashedCacheFile(folder, fileName);
-		if (!file.exists())
-		{
-			file.createNewFile();
-            if ( !persist )
-                file.deleteOnExit();
-		}
+		long start = Metrics.start();
+		// recorded first, a temporary history is deleted even if the
+		// application does not close
+		catalog.putDataset(fileName, persist);
+		catalog.touch(fileName);
+		getHistory(fileName).write(dataset);
+		Metrics.stop("cache.store", start);
+	}
 
-		Properties properties = new Properties();
-		int size = dataset.getItemsCount();
-		for (int i = 0; i < size; i++)
+	public void removeDatasetFromCache(String fileName)
+	{
+		HistoryStore history = histories.remove(fileName);
+		try
 		{
-			DataItem item = dataset.getDataItem(i);
-			if (item != null)
-				properties.setProperty(Integer.toString(i), dataset.getDataItem(i).toString());
-			else
-				properties.setProperty(Integer.toString(i), "null");
+			if (history == null)
+				history = new HistoryStore(getHistoryFolder(fileName));
+			history.delete();
+		} catch (IOException ex)
+		{
+			// an unreadable index, nothing can be read from it anyway
 		}
+		File file = FileUtils.hashedCacheFile(FileUtils.cacheDatasetsFolder(), fileName);
+		if (file.exists())
+			file.delete();
+		catalog.removeDataset(fileName);
+	}
 
-		FileOutputStream fileOutputStream = new FileOutputStream(file);
-		properties.store(fileOutputStream, "");
-		fileOutputStream.flush();
-		fileOutputStream.close();
+	private void touch(String fileName)
+	{
+		// hasDataset adds a dataset cached before the catalog to it and
+		// to its log, touch itself only records the access in memory
+		if (catalog.hasDataset(fileName))
+			catalog.touch(fileName);
+	}
+
+	private void removeTemporaryDatasets()
+	{
+		for (String fileName : catalog.getTemporaryDatasets())
+			removeDatasetFromCache(fileName);
 	}
 
+	/**
+	 * Reads the most recent partitions of the cached dataset into memory,
+	 * the older ones are paged in by DatasetUsage when they are needed.
+	 */
 	public void fetchDatasetFromCache(String fileName)
 		throws IOException
 	{
-		String folder = FileUtils.cacheDatasetsFolder();
-		File file = FileUtils.hashedCacheFile(folder, fileName);
+		long start = Metrics.start();
+		touch(fileName);
+		Dataset dataset = getHistory(fileName).readRecent(RECENT_ITEMS);
+		DatasetUsage.getInstance().addDataset(fileName, dataset);
+		Metrics.stop("cache.load", start);
+	}
 
-		Properties properties = new Properties();
-		FileInputStream fileInputStream = new FileInputStream(file);
-		properties.load(fileInputStream);
+	/**
+	 * @return the whole cached dataset
+	 */
+	public Dataset getDatasetFromCache(String fileName)
+		throws IOException
+	{
+		long start = Metrics.start();
+		touch(fileName);
+		Dataset dataset = getHistory(fileName).readAll();
+		Metrics.stop("cache.load", start);
+		return dataset;
+	}
 
-		int size = properties.size();
-		List<DataItem> items = new ArrayList<DataItem>();
-		
-		for (int i = 0; i < size; i++)
+	/**
+	 * Reads the cached bars before the time, whole partitions at a time,
+	 * at least the given number of them and back to the since time if the
+	 * history has them.
+	 */
+	public List<DataItem> fetchHistoryFromCache(String fileName, long time, long since, int items)
+		throws IOException
+	{
+		long start = Metrics.start();
+		touch(fileName);
+		List<DataItem> list = getHistory(fileName).readBefore(time, since, items);
+		Metrics.stop("cache.page", start);
+		return list;
+	}
+
+	/**
+	 * @return the time of the first cached bar, or Long.MAX_VALUE if there
+	 * is none
+	 */
+	public long fetchHistoryStart(String fileName)
+		throws IOException
+	{
+		return getHistory(fileName).getFirstTime();
+	}
+
+	public int fetchDatasetSize(String fileName)
+		throws IOException
+	{
+		return getHistory(fileName).getItemsCount();
+	}
+
+	public Dataset fetchVisibleDatasetFromCache(String fileName, int period, int end)
+		throws IOException
+	{
+		touch(fileName);
+		HistoryStore history = getHistory(fileName);
+		int size = history.getItemsCount();
+		return history.readRange(Math.max(0, end - period), Math.min(size, end));
+	}
+
+	/**
+	 * Gives the history of the file name, moving the dataset cached in
+	 * the properties format before partitioned histories into it.
+	 */
+	private HistoryStore getHistory(String fileName)
+		throws IOException
+	{
+		HistoryStore history = histories.get(fileName);
+		if (history != null)
+			return history;
+
+		synchronized (histories)
 		{
-			String key = Integer.toString(i);
-			String property = properties.getProperty(key);
-			if (property.equals("null"))
+			history = histories.get(fileName);
+			if (history != null)
+				return history;
+			history = new HistoryStore(getHistoryFolder(fileName));
+			File file = FileUtils.hashedCacheFile(FileUtils.cacheDatasetsFolder(), fileName);
+			if (!history.exists() && file.exists())
 			{
-				items.add(null);
-			} else
-			{
-				String[] values = property.split(",");
-				DataItem item = new DataItem(
-					Long.parseLong(values[0]),
-					Double.parseDouble(values[1]),
-					Double.parseDouble(values[2]),
-					Double.parseDouble(values[3]),
-					Double.parseDouble(values[4]),
-					Double.parseDouble(values[5]));
-				items.add(item);
+				history.write(readPropertiesDataset(file));
+				file.delete();
 			}
+			histories.put(fileName, history);
+			return history;
 		}
+	}
 
-		Dataset dataset = new Dataset(items);
-		DatasetUsage.getInstance().addDataset(fileName, dataset);
-		fileInputStream.close();
+	private static File getHistoryFolder(String fileName)
+	{
+		return new File(FileUtils.cacheDatasetsFolder(), FileUtils.getStringHash(fileName));
 	}
 
-	public Dataset getDatasetFromCache(String fileName)
+	/**
+	 * Opens the cached history of the dataset read only, without the cache
+	 * manager, so the cache of a running application is left as it is.
+	 *
+	 * @return the history, or null if the dataset is not cached
+	 */
+	public static HistoryStore openHistory(String fileName)
 		throws IOException
 	{
-		String folder = FileUtils.cacheDatasetsFolder();
-		File file = FileUtils.hashedCacheFile(folder, fileName);
+		HistoryStore history = new HistoryStore(getHistoryFolder(fileName), true);
+		return history.exists() ? history : null;
+	}
 
+	private Dataset readPropertiesDataset(File file)
+		throws IOException
+	{
 		Properties properties = new Properties();
 		FileInputStream fileInputStream = new FileInputStream(file);
-		properties.load(fileInputStream);
+		try
+		{
+			properties.load(fileInputStream);
+		} finally
+		{
+			fileInputStream.close();
+		}
 
 		int size = properties.size();
 		List<DataItem> items = new ArrayList<DataItem>();
-
 		for (int i = 0; i < size; i++)
 		{
 			String key = Integer.toString(i);
@@ -234,67 +414,54 @@ public class CacheManager
 				items.add(item);
 			}
 		}
-
-		Dataset dataset = new Dataset(items);
-		fileInputStream.close();
-		return dataset;
+		return new Dataset(items);
 	}
 
-	public int fetchDatasetSize(String fileName)
+	/**
+	 * Writes the dataset to the spill folder in binary, for DatasetUsage to
+	 * read it back when it is needed again. Spilled datasets do not outlive
+	 * the application.
+	 */
+	public void spillDataset(Dataset dataset, String fileName)
 		throws IOException
 	{
-		String folder = FileUtils.cacheDatasetsFolder();
-		File file = FileUtils.hashedCacheFile(folder, fileName);
-
-		Properties properties = new Properties();
-		FileInputStream fileInputStream = new FileInputStream(file);
-		properties.load(fileInputStream);
-
-		int size = properties.size();
-		fileInputStream.close();
-		return size;
+		File file = getSpillFile(fileName);
+		DataOutputStream out = new DataOutputStream(
+			new BufferedOutputStream(new FileOutputStream(file)));
+		try
+		{
+			HistoryStore.writeItems(out, dataset.getDataItems());
+		} finally
+		{
+			out.close();
+		}
 	}
 
-	public Dataset fetchVisibleDatasetFromCache(String fileName, int period, int end)
+	public Dataset readSpilledDataset(String fileName)
 		throws IOException
 	{
-		String folder = FileUtils.cacheDatasetsFolder();
-		File file = FileUtils.hashedCacheFile(folder, fileName);
-
-		Properties properties = new Properties();
-		FileInputStream fileInputStream = new FileInputStream(file);
-		properties.load(fileInputStream);
-
-		List<DataItem> items = new ArrayList<DataItem>();
-		int size = properties.size();
-		for (int i = 0; i < period; i++)
+		File file = getSpillFile(fileName);
+		DataInputStream in = new DataInputStream(
+			new BufferedInputStream(new FileInputStream(file)));
+		try
 		{
-			int j = end - period + i;
-			if (j < size && j >= 0)
-			{
-				String key = Integer.toString(j);
-				String property = properties.getProperty(key);
-				if (property.equals("null"))
-				{
-					items.add(null);
-				} else
-				{
-					String[] values = property.split(",");
-					DataItem item = new DataItem(
-						Long.parseLong(values[0]),
-						Double.parseDouble(values[1]),
-						Double.parseDouble(values[2]),
-						Double.parseDouble(values[3]),
-						Double.parseDouble(values[4]),
-						Double.parseDouble(values[5]));
-					items.add(item);
-				}
-			}
+			return new Dataset(HistoryStore.readItems(in));
+		} finally
+		{
+			in.close();
 		}
+	}
 
-		fileInputStream.close();
-		Dataset dataset = new Dataset(items);
-		return dataset;
+	public void removeSpilledDataset(String fileName)
+	{
+		File file = getSpillFile(fileName);
+		if (file.exists())
+			file.delete();
+	}
+
+	private File getSpillFile(String fileName)
+	{
+		return new File(FileUtils.cacheSpillFolder(), FileUtils.getStringHash(fileName) + ".spill");
 	}
 
 }
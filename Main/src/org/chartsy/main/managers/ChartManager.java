@@ -18,7 +18,7 @@ public class ChartManager
     private static ChartManager instance;
     private LinkedHashMap<String, Chart> charts;
 
-    public static ChartManager getDefault()
+    public static synchronized ChartManager getDefault()
     {
         if (instance == null)
             instance = new ChartManager();
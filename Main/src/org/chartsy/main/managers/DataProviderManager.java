@@ -9,6 +9,10 @@ import org.chartsy.main.data.DataProvider;
 import org.openide.util.Lookup;
 
 /**
+ * Finds the installed data providers and starts each of them on its own
+ * thread, so a provider waiting on the network does not hold up the others
+ * or the startup of the application. Use DataProvider.getReady to wait for
+ * one.
  *
  * @author viorel.gheba
  */
@@ -20,7 +24,7 @@ public class DataProviderManager
     private LinkedHashMap<String, DataProvider> dataProviders;
     private boolean updated = false;
 
-    public static DataProviderManager getDefault()
+    public static synchronized DataProviderManager getDefault()
     {
         if (instance == null)
         {
@@ -36,13 +40,22 @@ public class DataProviderManager
         for (DataProvider dp : list)
         {
             if (!ignored.contains(dp.getName()))
-            {
-                dp.initialize();
                 dataProviders.put(dp.getName(), dp);
-            }
         }
 
         sort();
+        for (final DataProvider dp : dataProviders.values())
+        {
+            Thread thread = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    dp.start();
+                }
+            }, "start " + dp.getName());
+            thread.setDaemon(true);
+            thread.start();
+        }
     }
 
     private void sort()
@@ -1,12 +1,21 @@
 package org.chartsy.main.managers;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.swing.event.EventListenerList;
 import org.chartsy.main.data.DataItem;
 import org.chartsy.main.data.DataProvider;
@@ -14,24 +23,56 @@ import org.chartsy.main.data.Dataset;
 import org.chartsy.main.data.Stock;
 import org.chartsy.main.events.DataProviderEvent;
 import org.chartsy.main.events.DataProviderListener;
+import org.chartsy.main.events.TickEvent;
+import org.chartsy.main.events.TickListener;
 import org.chartsy.main.intervals.Interval;
+import org.chartsy.main.metrics.Metrics;
 
 /**
+ * Keeps the datasets in use within a memory budget. When the datasets in
+ * memory take more than the budget, the least recently used ones that no
+ * showing chart needs are spilled to disk and read back the next time they
+ * are asked for. Updates for a spilled dataset are kept in a tail of the
+ * last bars and merged into it when it is read back.
+ *
+ * The budget is set in megabytes with the chartsy.datasets.budget system
+ * property, by default it is a quarter of the maximum heap.
+ *
+ * Datasets read from the cache hold only the recent part of the history,
+ * older bars are paged in from the cache when a chart scrolls towards them.
+ * Paging in replaces the dataset with one starting earlier, so whatever
+ * changes a dataset holds the lock of its key.
+ *
+ * Spilling is done in the background: the datasets to spill are picked
+ * under the monitor of the usage and each one is written holding only the
+ * lock of its key, the monitor is taken after it just to swap the dataset
+ * for its tail. Reading a dataset back does the same the other way.
  *
  * @author Viorel
  */
 public class DatasetUsage
 {
 
+	private static final Logger LOG = Logger.getLogger(DatasetUsage.class.getName());
+	// the heap taken by a bar: the item and the slot of the list
+	private static final int ITEM_BYTES = 72;
+
 	private static DatasetUsage instance;
 	private final static ScheduledExecutorService service = Executors.newScheduledThreadPool(1);
 
-	private HashMap<String, Dataset> datasets;
-	private HashMap<String, AtomicInteger> datasetsUsage;
-	private HashMap<String, DatasetUpdaterExecutor> datasetsUpdaters;
+	private ConcurrentHashMap<String, Dataset> datasets;
+	private ConcurrentHashMap<String, AtomicInteger> datasetsUsage;
+	private ConcurrentHashMap<String, DatasetUpdaterExecutor> datasetsUpdaters;
 	private EventListenerList eventListenerList;
+	private ConcurrentHashMap<String, CopyOnWriteArrayList<WeakReference<DataProviderListener>>> subscribers;
+	private CopyOnWriteArrayList<TickListener> tickListeners;
+	private ConcurrentHashMap<String, Entry> entries;
+	private ConcurrentHashMap<String, Object> locks;
+	private ConcurrentHashMap<String, Boolean> paging;
+	private volatile long budget;
+	private boolean trimming;
 
-	public static DatasetUsage getInstance()
+	public static synchronized DatasetUsage getInstance()
 	{
 		if (instance == null)
 			instance = new DatasetUsage();
@@ -40,12 +81,218 @@ public class DatasetUsage
 
 	private DatasetUsage()
 	{
-		datasets = new HashMap<String, Dataset>();
-		datasetsUsage = new HashMap<String, AtomicInteger>();
-		datasetsUpdaters = new HashMap<String, DatasetUpdaterExecutor>();
+		datasets = new ConcurrentHashMap<String, Dataset>();
+		datasetsUsage = new ConcurrentHashMap<String, AtomicInteger>();
+		datasetsUpdaters = new ConcurrentHashMap<String, DatasetUpdaterExecutor>();
 		eventListenerList = new EventListenerList();
+		subscribers = new ConcurrentHashMap<String, CopyOnWriteArrayList<WeakReference<DataProviderListener>>>();
+		tickListeners = new CopyOnWriteArrayList<TickListener>();
+		entries = new ConcurrentHashMap<String, Entry>();
+		locks = new ConcurrentHashMap<String, Object>();
+		paging = new ConcurrentHashMap<String, Boolean>();
+		int megabytes = (int) (Runtime.getRuntime().maxMemory() / 4 >> 20);
+		budget = (long) Integer.getInteger("chartsy.datasets.budget", megabytes) << 20;
+	}
+
+	/**
+	 * @return the object to synchronize on while changing the dataset of
+	 * the key
+	 */
+	public Object getLock(String key)
+	{
+		Object lock = locks.get(key);
+		if (lock == null)
+		{
+			lock = new Object();
+			Object previous = locks.putIfAbsent(key, lock);
+			if (previous != null)
+				lock = previous;
+		}
+		return lock;
+	}
+
+	/**
+	 * @return true if the cache has bars older than the dataset in memory
+	 */
+	public boolean hasMoreHistory(String key)
+	{
+		Dataset dataset = datasets.get(key);
+		if (dataset == null || !CacheManager.getInstance().datasetCacheExists(key))
+			return false;
+		try
+		{
+			return CacheManager.getInstance().fetchHistoryStart(key) < getFirstTime(dataset);
+		} catch (IOException ex)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Pages in at least the given number of older bars from the cache in
+	 * the background, if it has them. The subscribers of the key are told
+	 * how many bars were added at the start of the dataset.
+	 */
+	public void requestHistory(final String key, final int items)
+	{
+		if (!hasMoreHistory(key) || paging.putIfAbsent(key, Boolean.TRUE) != null)
+			return;
+		service.execute(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					pageIn(key, Long.MAX_VALUE, items);
+				} finally
+				{
+					paging.remove(key);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Pages in the bars of the cache back to the time, in the calling thread.
+	 *
+	 * @return the dataset, starting at the time if the cache goes back to it
+	 */
+	public Dataset loadHistory(String key, long since)
+	{
+		Dataset dataset = getDatasetFromMemory(key);
+		if (dataset != null && getFirstTime(dataset) > since && hasMoreHistory(key))
+			pageIn(key, since, 0);
+		return getDatasetFromMemory(key);
 	}
 
+	private void pageIn(String key, long since, int items)
+	{
+		long start = Metrics.start();
+		Dataset dataset = getDatasetFromMemory(key);
+		if (dataset == null)
+			return;
+		long first = getFirstTime(dataset);
+		List<DataItem> older;
+		try
+		{
+			older = CacheManager.getInstance().fetchHistoryFromCache(key, first, since, items);
+		} catch (IOException ex)
+		{
+			LOG.log(Level.WARNING, "Could not page in the history of " + key, ex);
+			return;
+		}
+		if (older.isEmpty())
+			return;
+
+		synchronized (getLock(key))
+		{
+			synchronized (this)
+			{
+				Dataset current = getDatasetFromMemory(key);
+				if (current == null || getFirstTime(current) != first)
+					return;
+				List<DataItem> list = new ArrayList<DataItem>(older.size() + current.getItemsCount());
+				list.addAll(older);
+				list.addAll(current.getDataItems());
+				datasets.put(key, new Dataset(list));
+			}
+		}
+		Metrics.increment("datasets.paged");
+		Metrics.stop("datasets.page", start);
+
+		fireDataProviderEvent(new DataProviderEvent(key, 0, older.size()));
+		synchronized (this)
+		{
+			trim(key);
+		}
+	}
+
+	/**
+	 * Replaces the bars of the dataset from the time on, up to the end
+	 * time, with the given ones, reading the dataset back if it is spilled.
+	 * Bars older than the first one in memory are left to the cache.
+	 *
+	 * @return false if the dataset is not in memory
+	 */
+	public boolean replaceBars(String key, List<DataItem> bars, long from, long to)
+	{
+		int itemsAdded;
+		synchronized (getLock(key))
+		{
+			if (getDatasetFromMemory(key) == null)
+				return false;
+			synchronized (this)
+			{
+				Dataset dataset = datasets.get(key);
+				if (dataset == null)
+					return false;
+				List<DataItem> items = dataset.getDataItems();
+				int end = items.size();
+				while (end > 0 && items.get(end - 1) != null && items.get(end - 1).getTime() >= to)
+					end--;
+				int begin = end;
+				while (begin > 0 && items.get(begin - 1) != null && items.get(begin - 1).getTime() >= from)
+					begin--;
+				long first = Math.max(from, getFirstTime(dataset));
+
+				List<DataItem> list = new ArrayList<DataItem>(items.size() - (end - begin) + bars.size());
+				list.addAll(items.subList(0, begin));
+				for (DataItem bar : bars)
+					if (bar.getTime() >= first && bar.getTime() < to)
+						list.add(bar);
+				list.addAll(items.subList(end, items.size()));
+				datasets.put(key, new Dataset(list));
+				itemsAdded = list.size() - items.size();
+			}
+		}
+		Metrics.increment("datasets.replaced");
+
+		fireDataProviderEvent(new DataProviderEvent(key, itemsAdded));
+		synchronized (this)
+		{
+			trim(key);
+		}
+		return true;
+	}
+
+	private static long getFirstTime(Dataset dataset)
+	{
+		for (DataItem item : dataset.getDataItems())
+			if (item != null)
+				return item.getTime();
+		return Long.MAX_VALUE;
+	}
+
+	public long getMemoryBudget()
+	{
+		return budget;
+	}
+
+	/**
+	 * Sets the bytes the datasets may take in memory, spilling the ones
+	 * over it right away.
+	 */
+	public synchronized void setMemoryBudget(long bytes)
+	{
+		budget = bytes;
+		trim(null);
+	}
+
+	/**
+	 * @return an estimate of the bytes the datasets in memory take
+	 */
+	public long getMemoryUsed()
+	{
+		long size = 0;
+		for (Dataset dataset : datasets.values())
+			size += (long) dataset.getItemsCount() * ITEM_BYTES;
+		return size;
+	}
+
+	/**
+	 * Adds a listener for the updates of every dataset, prefer subscribing
+	 * to the key of the dataset.
+	 */
 	public void addDataProviderListener(DataProviderListener listener)
 	{
 		eventListenerList.add(DataProviderListener.class, listener);
@@ -56,14 +303,88 @@ public class DatasetUsage
 		eventListenerList.remove(DataProviderListener.class, listener);
 	}
 
+	/**
+	 * Adds a listener for the updates of the dataset with the given key. The
+	 * listener is only weakly referenced, whoever adds it has to keep it.
+	 */
+	public synchronized void addDataProviderListener(String key, DataProviderListener listener)
+	{
+		CopyOnWriteArrayList<WeakReference<DataProviderListener>> list = subscribers.get(key);
+		if (list == null)
+		{
+			list = new CopyOnWriteArrayList<WeakReference<DataProviderListener>>();
+			subscribers.put(key, list);
+		}
+		for (WeakReference<DataProviderListener> reference : list)
+			if (reference.get() == listener)
+				return;
+		list.add(new WeakReference<DataProviderListener>(listener));
+	}
+
+	public synchronized void removeDataProviderListener(String key, DataProviderListener listener)
+	{
+		CopyOnWriteArrayList<WeakReference<DataProviderListener>> list = subscribers.get(key);
+		if (list == null)
+			return;
+		for (WeakReference<DataProviderListener> reference : list)
+		{
+			DataProviderListener l = reference.get();
+			if (l == null || l == listener)
+				list.remove(reference);
+		}
+		if (list.isEmpty())
+			subscribers.remove(key);
+	}
+
 	private void fireDataProviderEvent(DataProviderEvent event)
 	{
+		String key = (String) event.getSource();
+		CopyOnWriteArrayList<WeakReference<DataProviderListener>> list = subscribers.get(key);
+		if (list != null)
+		{
+			boolean collected = false;
+			for (WeakReference<DataProviderListener> reference : list)
+			{
+				DataProviderListener listener = reference.get();
+				if (listener != null)
+					listener.triggerDataProviderListener(event);
+				else
+					collected = true;
+			}
+			if (collected)
+				removeDataProviderListener(key, null);
+		}
+
 		DataProviderListener[] listeners = eventListenerList.getListeners(DataProviderListener.class);
 		for (DataProviderListener listener : listeners)
 			listener.triggerDataProviderListener(event);
 	}
 
-	public void addDatasetUpdater(String dataProvider, Stock stock, Interval interval)
+	/**
+	 * Adds a listener for the ticks of every live feed, whether a dataset
+	 * of the symbol is in memory or not.
+	 */
+	public void addTickListener(TickListener listener)
+	{
+		tickListeners.addIfAbsent(listener);
+	}
+
+	public void removeTickListener(TickListener listener)
+	{
+		tickListeners.remove(listener);
+	}
+
+	/**
+	 * Called by the data providers with a live feed for every trade, from
+	 * the thread of the feed.
+	 */
+	public void fireTick(TickEvent event)
+	{
+		for (TickListener listener : tickListeners)
+			listener.tickReceived(event);
+	}
+
+	public synchronized void addDatasetUpdater(String dataProvider, Stock stock, Interval interval)
 	{
 		DataProvider provider = DataProviderManager.getDefault().getDataProvider(dataProvider);
 		String key = provider.getDatasetKey(stock, interval);
@@ -74,33 +395,295 @@ public class DatasetUsage
 		}
 	}
 
-	public void addDataset(String key, Dataset dataset)
+	public synchronized void addDataset(String key, Dataset dataset)
 	{
 		datasets.put(key, dataset);
+		Entry entry = getEntry(key);
+		entry.used = System.nanoTime();
+		if (entry.tail != null)
+		{
+			// fetched again while spilled, the new one is more recent
+			entry.tail = null;
+			CacheManager.getInstance().removeSpilledDataset(key);
+		}
+		trim(key);
 	}
 
-	public void removeDataset(String key)
+	public synchronized void removeDataset(String key)
 	{
 		datasets.remove(key);
+		Entry entry = entries.remove(key);
+		if (entry != null && entry.tail != null)
+			CacheManager.getInstance().removeSpilledDataset(key);
 		datasetsUsage.remove(key);
-		datasetsUpdaters.get(key).stop();
-		datasetsUpdaters.remove(key);
+		DatasetUpdaterExecutor updaterExecutor = datasetsUpdaters.remove(key);
+		if (updaterExecutor != null)
+			updaterExecutor.stop();
 		System.gc();
 	}
 
+	/**
+	 * @return true if the dataset is in memory or spilled, spilled datasets
+	 * are read back by getDatasetFromMemory
+	 */
 	public boolean isDatasetInMemory(String key)
 	{
-		boolean exists = datasets.containsKey(key);
+		boolean exists = datasets.containsKey(key) || isDatasetEvicted(key);
 		return exists;
 	}
 
+	public boolean isDatasetEvicted(String key)
+	{
+		Entry entry = entries.get(key);
+		return entry != null && entry.tail != null;
+	}
+
 	public Dataset getDatasetFromMemory(String key)
 	{
 		Dataset dataset = datasets.get(key);
+		Entry entry = entries.get(key);
+		if (entry != null)
+		{
+			entry.used = System.nanoTime();
+			if (dataset == null && entry.tail != null)
+				dataset = rehydrate(key);
+		}
 		return dataset;
 	}
 
-	public void fetchDataset(String key)
+	/**
+	 * Gives the dataset live updates are added to without reading it back
+	 * when it is spilled: the dataset when it is in memory, the tail of its
+	 * last bars when it is spilled, or null.
+	 */
+	public Dataset getDatasetForUpdate(String key)
+	{
+		Dataset dataset = datasets.get(key);
+		if (dataset != null)
+			return dataset;
+		Entry entry = entries.get(key);
+		Dataset tail = entry == null ? null : entry.tail;
+		return tail != null ? tail : datasets.get(key);
+	}
+
+	/**
+	 * Marks the dataset as needed by a showing chart, it is not spilled
+	 * until it is hidden again.
+	 */
+	public synchronized void datasetShown(String key)
+	{
+		getEntry(key).showing++;
+	}
+
+	public synchronized void datasetHidden(String key)
+	{
+		Entry entry = entries.get(key);
+		if (entry != null && entry.showing > 0)
+		{
+			entry.showing--;
+			entry.used = System.nanoTime();
+		}
+		trim(null);
+	}
+
+	private Entry getEntry(String key)
+	{
+		Entry entry = entries.get(key);
+		if (entry == null)
+		{
+			entry = new Entry();
+			entries.put(key, entry);
+		}
+		return entry;
+	}
+
+	/**
+	 * Spills in the background the least recently used datasets no showing
+	 * chart needs until the datasets in memory fit the budget. Called
+	 * holding the monitor, which the spilling must not, so it only picks
+	 * the datasets.
+	 *
+	 * @param keep the key of a dataset not to spill, or null
+	 */
+	private void trim(String keep)
+	{
+		if (trimming || getMemoryUsed() <= budget)
+			return;
+
+		final List<String> keys = pickSpilled(keep);
+		if (keys.isEmpty())
+			return;
+		trimming = true;
+		service.execute(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					long size = getMemoryUsed();
+					for (int i = 0; i < keys.size() && size > budget; i++)
+						size -= evict(keys.get(i));
+				} finally
+				{
+					synchronized (DatasetUsage.this)
+					{
+						trimming = false;
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return the keys of the datasets that can be spilled, the least
+	 * recently used first
+	 */
+	private List<String> pickSpilled(String keep)
+	{
+		List<String> keys = new ArrayList<String>();
+		for (Map.Entry<String, Dataset> e : datasets.entrySet())
+		{
+			Entry entry = entries.get(e.getKey());
+			if (entry != null && entry.showing == 0 && !e.getKey().equals(keep)
+				&& e.getValue().getLastDataItem() != null)
+				keys.add(e.getKey());
+		}
+		Collections.sort(keys, new Comparator<String>()
+		{
+			public int compare(String o1, String o2)
+			{
+				long u1 = entries.get(o1).used, u2 = entries.get(o2).used;
+				return u1 < u2 ? -1 : (u1 == u2 ? 0 : 1);
+			}
+		});
+		return keys;
+	}
+
+	/**
+	 * Spills the dataset unless it was shown, removed or spilled since it
+	 * was picked.
+	 *
+	 * @return the bytes freed
+	 */
+	private long evict(String key)
+	{
+		long start = Metrics.start();
+		long freed;
+		synchronized (getLock(key))
+		{
+			Dataset dataset;
+			Entry entry;
+			synchronized (this)
+			{
+				dataset = datasets.get(key);
+				entry = entries.get(key);
+				if (dataset == null || entry == null || entry.showing > 0
+					|| entry.tail != null || dataset.getLastDataItem() == null)
+					return 0;
+			}
+
+			// nothing changes the dataset without the lock of its key
+			try
+			{
+				CacheManager.getInstance().spillDataset(dataset, key);
+			} catch (IOException ex)
+			{
+				LOG.log(Level.WARNING, "Could not spill the dataset " + key, ex);
+				return 0;
+			}
+
+			synchronized (this)
+			{
+				// shown or removed while it was written
+				if (datasets.get(key) != dataset || entries.get(key) != entry || entry.showing > 0)
+				{
+					CacheManager.getInstance().removeSpilledDataset(key);
+					return 0;
+				}
+				DataItem last = dataset.getLastDataItem();
+				Dataset tail = new Dataset();
+				tail.addDataItem(new DataItem(last.getTime(), last.getOpen(),
+					last.getHigh(), last.getLow(), last.getClose(), last.getVolume()));
+				entry.tail = tail;
+				datasets.remove(key);
+				freed = (long) dataset.getItemsCount() * ITEM_BYTES;
+			}
+		}
+		Metrics.increment("datasets.evicted");
+		Metrics.stop("datasets.evict", start);
+
+		fireDataProviderEvent(new DataProviderEvent(key, 0, true));
+		return freed;
+	}
+
+	private Dataset rehydrate(String key)
+	{
+		synchronized (getLock(key))
+		{
+			Dataset dataset;
+			Entry entry;
+			synchronized (this)
+			{
+				dataset = datasets.get(key);
+				entry = entries.get(key);
+				if (dataset != null || entry == null || entry.tail == null)
+					return dataset;
+			}
+
+			long start = Metrics.start();
+			try
+			{
+				dataset = CacheManager.getInstance().readSpilledDataset(key);
+			} catch (IOException ex)
+			{
+				// forget it, the chart fetches it again
+				LOG.log(Level.WARNING, "Could not read back the dataset " + key, ex);
+				synchronized (this)
+				{
+					entries.remove(key, entry);
+				}
+				CacheManager.getInstance().removeSpilledDataset(key);
+				return null;
+			}
+
+			synchronized (this)
+			{
+				// removed while it was read
+				if (entries.get(key) != entry || entry.tail == null)
+					return datasets.get(key);
+				for (DataItem item : entry.tail.getDataItems())
+					merge(dataset, item);
+				datasets.put(key, dataset);
+				entry.tail = null;
+				entry.used = System.nanoTime();
+				trim(key);
+			}
+			CacheManager.getInstance().removeSpilledDataset(key);
+			Metrics.increment("datasets.rehydrated");
+			Metrics.stop("datasets.rehydrate", start);
+			return dataset;
+		}
+	}
+
+	/**
+	 * Replaces the last bar of the dataset with the item if it has the same
+	 * time, or adds it if it is newer.
+	 *
+	 * @return true if the dataset changed
+	 */
+	private static boolean merge(Dataset dataset, DataItem item)
+	{
+		DataItem last = dataset.getLastDataItem();
+		if (last != null && last.getTime() == item.getTime())
+			dataset.setDataItem(dataset.getLastIndex(), item);
+		else if (last == null || last.getTime() < item.getTime())
+			dataset.addDataItem(item);
+		else
+			return false;
+		return true;
+	}
+
+	public synchronized void fetchDataset(String key)
 	{
 		if (!datasetsUsage.containsKey(key))
 		{
@@ -114,7 +697,7 @@ public class DatasetUsage
 		}
 	}
 
-	public void chartClosed(String key)
+	public synchronized void chartClosed(String key)
 	{
 		AtomicInteger integer = datasetsUsage.get(key);
 		if (integer != null)
@@ -149,52 +732,109 @@ public class DatasetUsage
 				= DataProviderManager.getDefault().getDataProvider(dataProviderName);
 			int refreshInterval = dataProvider.getRefreshInterval();
 
+			final long period = refreshInterval * 1000000000L;
 			final Runnable updater = new Runnable()
 			{
+				private long scheduled = System.nanoTime() + period;
+
 				@Override
 				public void run()
 				{
+					long start = Metrics.start();
+					if (Metrics.ENABLED)
+					{
+						Metrics.getDefault().histogram("updater.lag").record(start - scheduled);
+						scheduled += period;
+					}
+
 					int itemsAdded = 0;
 					boolean fireUpdate = false;
 					String key = dataProvider.getDatasetKey(stock, interval);
+					if (getDatasetForUpdate(key) == null)
+						return;
+					// fetched without the lock, the dataset may be spilled
+					// or read back meanwhile
+					boolean evicted;
 					if (!interval.isIntraDay())
 					{
 						DataItem newItem = dataProvider.getLastDataItem(stock, interval);
-						if (newItem != null)
+						synchronized (getLock(key))
 						{
-							DataItem oldItem = getDatasetFromMemory(key).getLastDataItem();
+							// spilled datasets are updated through their tail
+							Dataset dataset = getDatasetForUpdate(key);
+							if (dataset == null)
+								return;
+							evicted = isDatasetEvicted(key);
+							if (newItem != null)
+							{
+								DataItem oldItem = dataset.getLastDataItem();
 
-							long oldTime = oldItem.getTime();
-							long newTime = newItem.getTime();
+								long oldTime = oldItem.getTime();
+								long newTime = newItem.getTime();
 
-							if ( oldTime != newTime )
-							{
-								getDatasetFromMemory(key).addDataItem(newItem);
-								itemsAdded = 1;
-								fireUpdate = true;
-							} else
-							{
-								boolean updateClose = oldItem.updateClose(newItem);
-								if ( updateClose )
+								if ( oldTime != newTime )
 								{
-									int index = getDatasetFromMemory(key).getLastIndex();
-									DatasetUsage.getInstance().getDatasetFromMemory(key).setDataItem(index, newItem);
+									dataset.addDataItem(newItem);
+									itemsAdded = 1;
 									fireUpdate = true;
+								} else
+								{
+									boolean updateClose = oldItem.updateClose(newItem);
+									if ( updateClose )
+									{
+										int index = dataset.getLastIndex();
+										dataset.setDataItem(index, newItem);
+										fireUpdate = true;
+									}
 								}
 							}
 						}
 					} else
 					{
-						int count = getDatasetFromMemory(key).getItemsCount();
 						List<DataItem> dataItems = dataProvider.getLastDataItems(stock, interval);
-						if (dataItems.size() > 0)
+						Dataset dataset;
+						int count;
+						synchronized (getLock(key))
+						{
+							dataset = getDatasetForUpdate(key);
+							if (dataset == null)
+								return;
+							evicted = isDatasetEvicted(key);
+							count = dataset.getItemsCount();
+							if (evicted)
+							{
+								for (DataItem item : dataItems)
+									fireUpdate |= merge(dataset, item);
+								itemsAdded = dataset.getItemsCount() - count;
+							}
+						}
+						// the provider takes the locks of the datasets it updates
+						if (!evicted && dataItems.size() > 0)
 						{
 							fireUpdate = dataProvider.updateIntraDay(key, dataItems);
-							itemsAdded = getDatasetFromMemory(key).getItemsCount() - count;
+							// paging in replaces the dataset, it has no count to compare
+							if (getDatasetForUpdate(key) == dataset)
+								itemsAdded = dataset.getItemsCount() - count;
 						}
 						dataItems = null;
 					}
 
+					Metrics.stop("updater.run", start);
+
+					if ( evicted )
+					{
+						// the charts of it are hidden, they catch up when shown
+						if ( fireUpdate )
+							Metrics.increment("datasets.tail");
+						return;
+					}
+					if ( itemsAdded > 0 )
+					{
+						synchronized (DatasetUsage.this)
+						{
+							trim(key);
+						}
+					}
 					if ( fireUpdate )
 					{
 						DataProviderEvent event = new DataProviderEvent(key, itemsAdded);
@@ -217,4 +857,15 @@ public class DatasetUsage
 
 	}
 
+	private static final class Entry
+	{
+
+		private volatile long used;
+		// the charts showing the dataset
+		private int showing;
+		// the bars added while the dataset is spilled, null when it is not
+		private volatile Dataset tail;
+
+	}
+
 }
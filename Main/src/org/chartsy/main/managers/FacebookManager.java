@@ -53,7 +53,7 @@ public final class FacebookManager
 
     private PhotoCaptionPanel captionPanel;
 
-    public static FacebookManager getDefault()
+    public static synchronized FacebookManager getDefault()
     {
         if (instance == null) {
             instance = new FacebookManager();
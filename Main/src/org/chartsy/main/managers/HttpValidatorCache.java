@@ -0,0 +1,108 @@
+package org.chartsy.main.managers;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+import org.chartsy.main.utils.FileUtils;
+
+/**
+ * Keeps the ETag and Last-Modified of the last complete response for an url,
+ * next to a copy of its body, so a GET can be made conditional and answered
+ * from disk when the server replies 304 Not Modified.
+ */
+final class HttpValidatorCache
+{
+
+	private static final String ETAG = "etag";
+	private static final String LAST_MODIFIED = "last_modified";
+
+	/**
+	 * @return {ETag, Last-Modified}, either can be null, or null if there is
+	 * no copy of the body for the url
+	 */
+	synchronized String[] getValidators(String url)
+	{
+		File file = FileUtils.hashedCacheFile(FileUtils.cacheHttpFolder(), url);
+		if (!file.exists() || !getBody(url).exists())
+			return null;
+
+		Properties properties = new Properties();
+		try
+		{
+			FileInputStream in = new FileInputStream(file);
+			try
+			{
+				properties.load(in);
+			} finally
+			{
+				in.close();
+			}
+		} catch (IOException ex)
+		{
+			return null;
+		}
+
+		String etag = properties.getProperty(ETAG);
+		String lastModified = properties.getProperty(LAST_MODIFIED);
+		if (etag == null && lastModified == null)
+			return null;
+		return new String[] {etag, lastModified};
+	}
+
+	File getBody(String url)
+	{
+		return new File(FileUtils.cacheHttpFolder(), FileUtils.getStringHash(url) + ".body");
+	}
+
+	File createTempBody(String url)
+		throws IOException
+	{
+		return File.createTempFile(FileUtils.getStringHash(url), ".tmp",
+			new File(FileUtils.cacheHttpFolder()));
+	}
+
+	/**
+	 * Replaces the copy of the body for the url with the given file, which
+	 * must hold a complete response.
+	 */
+	synchronized void store(String url, String etag, String lastModified, File body)
+		throws IOException
+	{
+		File file = FileUtils.hashedCacheFile(FileUtils.cacheHttpFolder(), url);
+		if (etag == null && lastModified == null)
+		{
+			body.delete();
+			remove(url);
+			return;
+		}
+
+		File target = getBody(url);
+		if (target.exists() && !target.delete())
+			throw new IOException("Could not replace " + target);
+		if (!body.renameTo(target))
+			throw new IOException("Could not rename " + body + " to " + target);
+
+		Properties properties = new Properties();
+		if (etag != null)
+			properties.setProperty(ETAG, etag);
+		if (lastModified != null)
+			properties.setProperty(LAST_MODIFIED, lastModified);
+		FileOutputStream out = new FileOutputStream(file);
+		try
+		{
+			properties.store(out, url);
+		} finally
+		{
+			out.close();
+		}
+	}
+
+	synchronized void remove(String url)
+	{
+		FileUtils.hashedCacheFile(FileUtils.cacheHttpFolder(), url).delete();
+		getBody(url).delete();
+	}
+
+}
@@ -18,7 +18,7 @@ public class IndicatorManager {
     private static IndicatorManager instance;
     private LinkedHashMap<String, Indicator> indicators;
 
-    public static IndicatorManager getDefault() {
+    public static synchronized IndicatorManager getDefault() {
         if (instance == null) instance = new IndicatorManager();
         return instance;
     }
@@ -18,7 +18,7 @@ public class OverlayManager {
     private static OverlayManager instance;
     private LinkedHashMap<String, Overlay> overlays;
 
-    public static OverlayManager getDefault() {
+    public static synchronized OverlayManager getDefault() {
         if (instance == null) instance = new OverlayManager();
         return instance;
     }
@@ -0,0 +1,252 @@
+package org.chartsy.main.managers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.chartsy.main.ChartFrame;
+import org.chartsy.main.data.ChartData;
+import org.chartsy.main.data.DataProvider;
+import org.chartsy.main.data.Dataset;
+import org.chartsy.main.data.Stock;
+import org.chartsy.main.favorites.nodes.FolderAPI;
+import org.chartsy.main.favorites.nodes.RootAPI;
+import org.chartsy.main.favorites.nodes.StockAPI;
+import org.chartsy.main.intervals.DailyInterval;
+import org.chartsy.main.intervals.Interval;
+import org.chartsy.main.metrics.Metrics;
+import org.openide.windows.TopComponent;
+
+/**
+ * Loads the datasets of the charts and favorites into DatasetUsage ahead
+ * of being shown. Every dataset is loaded once however many ask for it,
+ * the loads of one data provider run at most chartsy.prefetch.threads at a
+ * time, the most urgent first: a chart waiting for its data, then the
+ * charts showing, the other open charts and the favorites.
+ */
+public class PrefetchManager
+{
+
+	public static final int URGENT = 0;
+	public static final int VISIBLE = 1;
+	public static final int OPEN = 2;
+	public static final int FAVORITE = 3;
+
+	private static final Logger LOG = Logger.getLogger(PrefetchManager.class.getName());
+	private static final int THREADS = Integer.getInteger("chartsy.prefetch.threads", 2);
+
+	private static PrefetchManager instance;
+
+	private final Map<String, ThreadPoolExecutor> executors = new HashMap<String, ThreadPoolExecutor>();
+	// the loads queued or running, by dataset key
+	private final Map<String, Load> loads = new HashMap<String, Load>();
+	private final AtomicLong sequence = new AtomicLong();
+
+	public static synchronized PrefetchManager getDefault()
+	{
+		if (instance == null)
+			instance = new PrefetchManager();
+		return instance;
+	}
+
+	private PrefetchManager()
+	{
+	}
+
+	/**
+	 * Queues the charts open in the workspace, the ones showing first.
+	 * Called from the event dispatch thread once the windows are restored.
+	 */
+	public void warmUp()
+	{
+		int charts = 0;
+		for (TopComponent component : TopComponent.getRegistry().getOpened())
+		{
+			if (!(component instanceof ChartFrame))
+				continue;
+			ChartData chartData = ((ChartFrame) component).getChartData();
+			if (chartData == null || chartData.getStock() == null || chartData.getInterval() == null)
+				continue;
+			DataProvider provider = chartData.getDataProvider();
+			if (provider == null)
+				continue;
+			prefetch(provider, chartData.getStock(), chartData.getInterval(),
+				component.isShowing() ? VISIBLE : OPEN, null);
+			charts++;
+		}
+		LOG.log(Level.FINE, "Warming up {0} charts", charts);
+	}
+
+	/**
+	 * Queues the daily datasets of the favorites, the interval they open
+	 * charts with.
+	 */
+	public void warmUp(RootAPI root)
+	{
+		for (StockAPI stock : root.getStocks())
+			prefetch(stock);
+		for (FolderAPI folder : root.getFolders())
+			for (StockAPI stock : folder.getStocks())
+				prefetch(stock);
+	}
+
+	/**
+	 * Loads the dataset of the stock into DatasetUsage, unless it is there
+	 * already. A dataset already queued is not queued again, it is moved
+	 * ahead if the priority is more urgent.
+	 *
+	 * @param done run on the loading thread when the load ends, whether the
+	 * dataset was loaded or not, may be null
+	 */
+	public Future<?> prefetch(DataProvider provider, Stock stock, Interval interval, int priority, Runnable done)
+	{
+		String key = provider.getDatasetKey(stock, interval);
+		Load load;
+		synchronized (this)
+		{
+			load = loads.get(key);
+			if (load == null)
+			{
+				load = new Load(key, provider, stock, interval, priority);
+				loads.put(key, load);
+				if (done != null)
+					load.callbacks.add(done);
+				getExecutor(provider.getName()).execute(load);
+				Metrics.increment("prefetch.queued");
+				return load;
+			}
+
+			Metrics.increment("prefetch.shared");
+			if (done != null && !load.isDone())
+			{
+				load.callbacks.add(done);
+				done = null;
+			}
+			ThreadPoolExecutor executor = getExecutor(provider.getName());
+			if (priority < load.priority && executor.remove(load))
+			{
+				load.priority = priority;
+				executor.execute(load);
+			}
+		}
+		// ended while the callback was added
+		if (done != null)
+			done.run();
+		return load;
+	}
+
+	private void prefetch(StockAPI stockAPI)
+	{
+		DataProvider provider = stockAPI.getDataProvider();
+		Stock stock = stockAPI.getStock();
+		if (provider != null && stock != null)
+			prefetch(provider, stock, new DailyInterval(), FAVORITE, null);
+	}
+
+	private ThreadPoolExecutor getExecutor(final String provider)
+	{
+		ThreadPoolExecutor executor = executors.get(provider);
+		if (executor == null)
+		{
+			executor = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS,
+				new PriorityBlockingQueue<Runnable>(), new ThreadFactory()
+			{
+				public Thread newThread(Runnable r)
+				{
+					Thread thread = new Thread(r, "prefetch-" + provider);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			executor.allowCoreThreadTimeOut(true);
+			executors.put(provider, executor);
+		}
+		return executor;
+	}
+
+	private synchronized void finished(Load load)
+	{
+		loads.remove(load.key);
+	}
+
+	private final class Load extends FutureTask<Void> implements Comparable<Load>
+	{
+
+		private final String key;
+		private final long order = sequence.getAndIncrement();
+		private final List<Runnable> callbacks = new ArrayList<Runnable>();
+		private int priority;
+
+		private Load(final String key, final DataProvider provider, final Stock stock,
+			final Interval interval, int priority)
+		{
+			super(new Runnable()
+			{
+				public void run()
+				{
+					long start = Metrics.start();
+					DatasetUsage usage = DatasetUsage.getInstance();
+					Dataset dataset = usage.isDatasetInMemory(key) ? usage.getDatasetFromMemory(key) : null;
+					if (dataset != null && dataset.getItemsCount() >= 3)
+					{
+						Metrics.increment("prefetch.resident");
+						return;
+					}
+					try
+					{
+						provider.fetchDataset(stock, interval);
+					} catch (Exception ex)
+					{
+						LOG.log(Level.FINE, "Could not load " + key, ex);
+						throw new IllegalStateException(ex);
+					} finally
+					{
+						Metrics.stop("prefetch.load", start);
+					}
+				}
+			}, null);
+			this.key = key;
+			this.priority = priority;
+		}
+
+		public int compareTo(Load other)
+		{
+			if (priority != other.priority)
+				return priority < other.priority ? -1 : 1;
+			return order < other.order ? -1 : (order == other.order ? 0 : 1);
+		}
+
+		@Override
+		protected void done()
+		{
+			finished(this);
+			List<Runnable> list;
+			synchronized (PrefetchManager.this)
+			{
+				list = new ArrayList<Runnable>(callbacks);
+				callbacks.clear();
+			}
+			for (Runnable callback : list)
+			{
+				try
+				{
+					callback.run();
+				} catch (RuntimeException ex)
+				{
+					LOG.log(Level.WARNING, "Prefetch callback failed", ex);
+				}
+			}
+		}
+
+	}
+
+}
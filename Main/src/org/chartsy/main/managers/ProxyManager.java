@@ -1,15 +1,26 @@
 package org.chartsy.main.managers;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.prefs.Preferences;
+import java.util.zip.GZIPInputStream;
 import org.apache.commons.httpclient.Credentials;
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HostConfiguration;
 import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.NameValuePair;
@@ -18,21 +29,28 @@ import org.apache.commons.httpclient.auth.AuthScope;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.chartsy.main.metrics.Metrics;
 import org.openide.util.NbPreferences;
 
 /**
+ * Responses are streamed, the connection goes back to the pool when the
+ * returned stream or reader is closed, so callers must always close it.
  *
  * @author viorel.gheba
  */
 public final class ProxyManager
 {
 
+    private static final Logger LOG = Logger.getLogger(ProxyManager.class.getName());
+    private static final int BUFFER_SIZE = 8192;
+
     private static ProxyManager instance;
     private static Preferences corePreferences = NbPreferences.root().node("/org/netbeans/core");
     private HttpClient client;
     private boolean isOnline;
+    private final HttpValidatorCache validatorCache = new HttpValidatorCache();
 
-    public static ProxyManager getDefault()
+    public static synchronized ProxyManager getDefault()
     {
         if (instance == null)
         {
@@ -52,6 +70,7 @@ public final class ProxyManager
         MultiThreadedHttpConnectionManager manager = new MultiThreadedHttpConnectionManager();
         HttpConnectionManagerParams params = new HttpConnectionManagerParams();
         params.setMaxTotalConnections(100);
+        params.setDefaultMaxConnectionsPerHost(8);
         manager.setParams(params);
 
         client = new HttpClient(manager);
@@ -68,57 +87,83 @@ public final class ProxyManager
     public String inputStringPOST(String url, NameValuePair[] query, NameValuePair[] request)
 		throws IOException
     {
-        String response = "";
         PostMethod method = new PostMethod(url);
         method.setQueryString(query);
         method.setRequestBody(request);
 
-		int status = client.executeMethod(method);
-		if (status != HttpStatus.SC_OK)
-		{
-			throw new IOException(method.getStatusText());
-		} else
+		try
 		{
+			int status = client.executeMethod(method);
+			if (status != HttpStatus.SC_OK)
+				throw new IOException(method.getStatusText());
+
 			InputStream is = method.getResponseBodyAsStream();
+			if (is == null)
+				return "";
 			BufferedInputStream bis = new BufferedInputStream(is);
 
-			String datastr = null;
 			StringBuilder sb = new StringBuilder();
-			byte[] bytes = new byte[8192]; // reading as chunk of 8192 bytes
-
-			int count = bis.read(bytes);
-			while (count != -1 && count <= 8192)
-			{
-				datastr = new String(bytes, 0, count);
-				sb.append(datastr);
-				count = bis.read(bytes);
-			}
+			byte[] bytes = new byte[BUFFER_SIZE];
+			int count;
+			while ((count = bis.read(bytes)) != -1)
+				sb.append(new String(bytes, 0, count));
 
 			bis.close();
-			response = sb.toString();
+			return sb.toString();
+		} finally
+		{
+			method.releaseConnection();
 		}
-		
-		method.releaseConnection();
-
-        return response;
     }
 
     public InputStream inputStreamGET(String url)
 		throws IOException
     {
-        InputStream stream = null;
         GetMethod method = new GetMethod(url);
+        method.setRequestHeader("Accept-Encoding", "gzip");
+		return open(method, null, null);
+    }
 
-		int status = client.executeMethod(method);
-		if (status != HttpStatus.SC_OK)
-		{
-			throw new IOException(method.getStatusText());
-		} else
+    /**
+     * Conditional GET: the ETag and Last-Modified of the last complete
+     * response are sent with the request, and if the server replies 304 Not
+     * Modified the copy of that response kept on disk is returned, which
+     * isNotModified tells apart.
+     */
+    public InputStream cachedInputStreamGET(String url)
+		throws IOException
+    {
+        GetMethod method = new GetMethod(url);
+        method.setRequestHeader("Accept-Encoding", "gzip");
+		String[] validators = validatorCache.getValidators(url);
+		if (validators != null)
 		{
-			stream = new ByteArrayInputStream(method.getResponseBody());
+			if (validators[0] != null)
+				method.setRequestHeader("If-None-Match", validators[0]);
+			if (validators[1] != null)
+				method.setRequestHeader("If-Modified-Since", validators[1]);
 		}
-		
-        return stream;
+		return open(method, url, validators);
+    }
+
+    /**
+     * @return true if the stream is the copy on disk returned by
+     * cachedInputStreamGET because the server replied 304 Not Modified
+     */
+    public static boolean isNotModified(InputStream stream)
+    {
+        return stream instanceof NotModifiedStream;
+    }
+
+    public BufferedReader cachedBufferReaderGET(String url)
+		throws IOException
+    {
+        InputStream stream = cachedInputStreamGET(url);
+        if (stream != null)
+        {
+            return new BufferedReader(new InputStreamReader(stream));
+        }
+        return null;
     }
 
     public BufferedReader bufferReaderGET(String url)
@@ -135,20 +180,59 @@ public final class ProxyManager
     public InputStream inputStreamPOST(String url, NameValuePair[] query)
 		throws IOException
     {
-        InputStream stream = null;
         PostMethod method = new PostMethod(url);
+        method.setRequestHeader("Accept-Encoding", "gzip");
         method.setRequestBody(query);
+		return open(method, null, null);
+    }
 
-		int status = client.executeMethod(method);
-		if (status != HttpStatus.SC_OK)
+    private InputStream open(HttpMethod method, String cacheUrl, String[] validators)
+		throws IOException
+    {
+		long start = Metrics.start();
+		boolean opened = false;
+		try
 		{
-			throw new IOException(method.getStatusText());
-		} else
+			int status = client.executeMethod(method);
+			if (status == HttpStatus.SC_NOT_MODIFIED && validators != null)
+			{
+				File body = validatorCache.getBody(cacheUrl);
+				if (!body.exists())
+				{
+					validatorCache.remove(cacheUrl);
+					throw new IOException("Cached response for " + cacheUrl + " is missing");
+				}
+				Metrics.increment("http.notModified");
+				return new NotModifiedStream(new FileInputStream(body));
+			}
+			if (status != HttpStatus.SC_OK)
+				throw new IOException(method.getStatusText());
+
+			InputStream stream = method.getResponseBodyAsStream();
+			if (stream == null)
+				stream = new ByteArrayInputStream(new byte[0]);
+			Header encoding = method.getResponseHeader("Content-Encoding");
+			if (encoding != null && encoding.getValue().toLowerCase().contains("gzip"))
+				stream = new GZIPInputStream(stream, BUFFER_SIZE);
+
+			ResponseStream response = new ResponseStream(stream, method);
+			if (cacheUrl != null)
+				response.copyTo(cacheUrl,
+					value(method.getResponseHeader("ETag")),
+					value(method.getResponseHeader("Last-Modified")));
+			opened = true;
+			return response;
+		} finally
 		{
-			stream = new ByteArrayInputStream(method.getResponseBody());
+			if (!opened)
+				method.releaseConnection();
+			Metrics.stop("http.open", start);
 		}
+    }
 
-        return stream;
+    private static String value(Header header)
+    {
+        return header != null ? header.getValue() : null;
     }
 
     public BufferedReader bufferReaderPOST(String url, NameValuePair[] query)
@@ -224,6 +308,164 @@ public final class ProxyManager
         return isOnline;
     }
 	
+    /**
+     * Response body that releases the connection when it is closed. A body
+     * closed before its end aborts the connection instead of reading the rest
+     * of it. It can also copy the body to the validator cache while it is
+     * read, the copy is kept only if the whole body was read.
+     */
+    private static final class NotModifiedStream extends BufferedInputStream
+    {
+
+        private NotModifiedStream(InputStream in)
+        {
+            super(in, BUFFER_SIZE);
+        }
+
+    }
+
+    private final class ResponseStream extends FilterInputStream
+    {
+
+        private final HttpMethod method;
+        private boolean eof = false;
+        private boolean closed = false;
+
+        private String url;
+        private String etag;
+        private String lastModified;
+        private File copy;
+        private OutputStream out;
+
+        private ResponseStream(InputStream in, HttpMethod method)
+        {
+            super(in);
+            this.method = method;
+        }
+
+        private void copyTo(String url, String etag, String lastModified)
+        {
+            if (etag == null && lastModified == null)
+                return;
+            try
+            {
+                this.url = url;
+                this.etag = etag;
+                this.lastModified = lastModified;
+                copy = validatorCache.createTempBody(url);
+                out = new BufferedOutputStream(new FileOutputStream(copy), BUFFER_SIZE);
+            } catch (IOException ex)
+            {
+                LOG.log(Level.FINE, "Could not cache " + url, ex);
+                copy = null;
+                out = null;
+            }
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int b = super.read();
+            if (b == -1)
+                eof = true;
+            else if (out != null)
+                write(new byte[] {(byte) b}, 0, 1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int count = super.read(b, off, len);
+            if (count == -1)
+                eof = true;
+            else if (out != null)
+                write(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            if (out == null)
+                return super.skip(n);
+            byte[] buffer = new byte[(int) Math.min(n, BUFFER_SIZE)];
+            int count = read(buffer, 0, buffer.length);
+            return count == -1 ? 0 : count;
+        }
+
+        @Override
+        public boolean markSupported()
+        {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (closed)
+                return;
+            closed = true;
+            try
+            {
+                if (!eof)
+                    method.abort();
+                super.close();
+            } catch (IOException ex)
+            {
+                if (eof)
+                    throw ex;
+            } finally
+            {
+                method.releaseConnection();
+                if (out != null)
+                    cache();
+            }
+        }
+
+        private void write(byte[] b, int off, int len)
+        {
+            try
+            {
+                out.write(b, off, len);
+            } catch (IOException ex)
+            {
+                LOG.log(Level.FINE, "Could not cache " + url, ex);
+                discard();
+            }
+        }
+
+        private void cache()
+        {
+            try
+            {
+                out.close();
+                if (eof)
+                    validatorCache.store(url, etag, lastModified, copy);
+                else
+                    copy.delete();
+            } catch (IOException ex)
+            {
+                LOG.log(Level.FINE, "Could not cache " + url, ex);
+                copy.delete();
+            }
+            out = null;
+        }
+
+        private void discard()
+        {
+            try
+            {
+                out.close();
+            } catch (IOException ex)
+            {
+            }
+            copy.delete();
+            out = null;
+        }
+
+    }
+
     private static final String PROXY_TYPE_KEY = "proxyType";
     private static final String PROXY_HTTP_HOST_KEY = "proxyHttpHost";
     private static final String PROXY_HTTP_PORT_KEY = "proxyHttpPort";
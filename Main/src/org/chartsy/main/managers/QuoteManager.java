@@ -0,0 +1,211 @@
+package org.chartsy.main.managers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.chartsy.main.data.DataProvider;
+import org.chartsy.main.data.Quote;
+import org.chartsy.main.data.Stock;
+import org.chartsy.main.events.QuoteEvent;
+import org.chartsy.main.events.QuoteListener;
+import org.chartsy.main.metrics.Metrics;
+
+/**
+ * Keeps the quotes of the watched stocks up to date. All the stocks watched
+ * from one data provider are refreshed together with a single call to
+ * DataProvider.fetchQuotes every refresh interval of the provider, and only
+ * the listeners of the stocks whose quote changed are notified.
+ */
+public class QuoteManager
+{
+
+	private static final Logger LOG = Logger.getLogger(QuoteManager.class.getName());
+	// lets a whole watchlist register before the first request is made
+	private static final long BATCH_DELAY = 100; // ms
+
+	private static QuoteManager instance;
+
+	private final ScheduledExecutorService service;
+	private final Map<String, Feed> feeds = new HashMap<String, Feed>();
+
+	public static synchronized QuoteManager getDefault()
+	{
+		if (instance == null)
+			instance = new QuoteManager();
+		return instance;
+	}
+
+	private QuoteManager()
+	{
+		service = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "quotes");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Starts watching the stock, the listener is called from the refresh
+	 * thread whenever its quote changes.
+	 *
+	 * @return the last quote of the stock, or null if it was not fetched yet
+	 */
+	public synchronized Quote addQuoteListener(String dataProvider, Stock stock, QuoteListener listener)
+	{
+		Feed feed = feeds.get(dataProvider);
+		if (feed == null)
+		{
+			DataProvider provider = DataProviderManager.getDefault().getDataProvider(dataProvider);
+			if (provider == null)
+				return null;
+			feed = new Feed(dataProvider, Math.max(1, provider.getRefreshInterval()));
+			feeds.put(dataProvider, feed);
+		}
+
+		Watch watch = feed.watches.get(stock.getKey());
+		if (watch == null)
+		{
+			watch = new Watch(stock);
+			feed.watches.put(stock.getKey(), watch);
+		}
+		watch.listeners.add(listener);
+		if (watch.quote == null)
+			feed.refreshSoon();
+		return watch.quote;
+	}
+
+	public synchronized void removeQuoteListener(String dataProvider, Stock stock, QuoteListener listener)
+	{
+		Feed feed = feeds.get(dataProvider);
+		if (feed == null)
+			return;
+		Watch watch = feed.watches.get(stock.getKey());
+		if (watch == null)
+			return;
+
+		watch.listeners.remove(listener);
+		if (watch.listeners.isEmpty())
+			feed.watches.remove(stock.getKey());
+		if (feed.watches.isEmpty())
+		{
+			feed.stop();
+			feeds.remove(dataProvider);
+		}
+	}
+
+	public synchronized Quote getQuote(String dataProvider, Stock stock)
+	{
+		Feed feed = feeds.get(dataProvider);
+		Watch watch = feed == null ? null : feed.watches.get(stock.getKey());
+		return watch == null ? null : watch.quote;
+	}
+
+	private void refresh(Feed feed)
+	{
+		List<Stock> stocks = new ArrayList<Stock>();
+		synchronized (this)
+		{
+			if (feeds.get(feed.dataProvider) != feed)
+				return;
+			for (Watch watch : feed.watches.values())
+				stocks.add(watch.stock);
+		}
+		DataProvider provider = DataProviderManager.getDefault().getDataProvider(feed.dataProvider);
+		if (provider == null || stocks.isEmpty())
+			return;
+
+		Map<String, Quote> quotes;
+		long start = Metrics.start();
+		try
+		{
+			quotes = provider.fetchQuotes(stocks);
+		} catch (Exception ex)
+		{
+			LOG.log(Level.FINE, "Could not fetch quotes from " + feed.dataProvider, ex);
+			return;
+		} finally
+		{
+			Metrics.stop("quotes.refresh", start);
+		}
+
+		for (Map.Entry<String, Quote> entry : quotes.entrySet())
+		{
+			Watch watch;
+			synchronized (this)
+			{
+				watch = feed.watches.get(entry.getKey());
+				if (watch == null || entry.getValue().equals(watch.quote))
+					continue;
+				watch.quote = entry.getValue();
+			}
+			QuoteEvent event = new QuoteEvent(entry.getKey(), entry.getValue());
+			for (QuoteListener listener : watch.listeners)
+				listener.quoteChanged(event);
+		}
+	}
+
+	private final class Feed implements Runnable
+	{
+
+		private final String dataProvider;
+		private final Map<String, Watch> watches = new LinkedHashMap<String, Watch>();
+		private final ScheduledFuture<?> periodic;
+		private ScheduledFuture<?> early;
+
+		private Feed(String dataProvider, int refreshInterval)
+		{
+			this.dataProvider = dataProvider;
+			periodic = service.scheduleWithFixedDelay(
+				this, refreshInterval, refreshInterval, TimeUnit.SECONDS);
+		}
+
+		public void run()
+		{
+			refresh(this);
+		}
+
+		private void refreshSoon()
+		{
+			// a refresh already running may have missed the new stocks
+			if (early == null || early.getDelay(TimeUnit.MILLISECONDS) <= 0)
+				early = service.schedule(this, BATCH_DELAY, TimeUnit.MILLISECONDS);
+		}
+
+		private void stop()
+		{
+			periodic.cancel(false);
+			if (early != null)
+				early.cancel(false);
+		}
+
+	}
+
+	private static final class Watch
+	{
+
+		private final Stock stock;
+		private final List<QuoteListener> listeners = new CopyOnWriteArrayList<QuoteListener>();
+		private Quote quote;
+
+		private Watch(Stock stock)
+		{
+			this.stock = stock;
+		}
+
+	}
+
+}
@@ -15,7 +15,7 @@ public class StockManager
     private ArrayList<Stock> stocks;
     //private String path;
 
-    public static StockManager getDefault()
+    public static synchronized StockManager getDefault()
     {
         if (instance == null)
             instance = new StockManager();
@@ -0,0 +1,53 @@
+package org.chartsy.main.managers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import org.chartsy.main.backtest.Strategy;
+import org.openide.util.Lookup;
+
+public class StrategyManager
+{
+
+	private static StrategyManager instance;
+	private LinkedHashMap<String, Strategy> strategies;
+
+	public static synchronized StrategyManager getDefault()
+	{
+		if (instance == null)
+			instance = new StrategyManager();
+		return instance;
+	}
+
+	private StrategyManager()
+	{
+		Collection<? extends Strategy> all = Lookup.getDefault().lookupAll(Strategy.class);
+		List<String> names = new ArrayList<String>();
+		for (Strategy strategy : all)
+			names.add(strategy.getName());
+		Collections.sort(names);
+
+		strategies = new LinkedHashMap<String, Strategy>();
+		for (String name : names)
+			for (Strategy strategy : all)
+				if (strategy.getName().equals(name))
+					strategies.put(name, strategy);
+	}
+
+	/**
+	 * @return a new instance of the strategy, or null
+	 */
+	public Strategy getStrategy(String name)
+	{
+		Strategy strategy = strategies.get(name);
+		return strategy == null ? null : strategy.newInstance();
+	}
+
+	public List<String> getStrategies()
+	{
+		return new ArrayList<String>(strategies.keySet());
+	}
+
+}
@@ -0,0 +1,138 @@
+package org.chartsy.main.managers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.chartsy.main.data.DataProvider;
+import org.chartsy.main.data.StockNode;
+import org.chartsy.main.data.StockSet;
+import org.chartsy.main.data.SymbolDirectory;
+import org.chartsy.main.utils.FileUtils;
+
+/**
+ * Keeps the symbol directory of every data provider that publishes one,
+ * in memory and in the cache folder, so autocomplete can answer from it
+ * even before the provider loaded its market list again. Providers that
+ * do not publish a directory are asked through fetchAutocomplete.
+ */
+public class SymbolDirectoryManager
+{
+
+	private static final Logger LOG = Logger.getLogger(SymbolDirectoryManager.class.getName());
+	private static SymbolDirectoryManager instance;
+
+	private final ConcurrentHashMap<String, SymbolDirectory> directories
+		= new ConcurrentHashMap<String, SymbolDirectory>();
+
+	public static synchronized SymbolDirectoryManager getDefault()
+	{
+		if (instance == null)
+			instance = new SymbolDirectoryManager();
+		return instance;
+	}
+
+	private SymbolDirectoryManager()
+	{
+	}
+
+	/**
+	 * @return the directory of the data provider, read from the cache if
+	 * needed, or null if it never published one
+	 */
+	public SymbolDirectory getDirectory(String dataProvider)
+	{
+		SymbolDirectory directory = directories.get(dataProvider);
+		if (directory != null)
+			return directory;
+
+		File file = getFile(dataProvider);
+		if (!file.exists())
+			return null;
+		try
+		{
+			DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file)));
+			try
+			{
+				directory = SymbolDirectory.read(in);
+			} finally
+			{
+				in.close();
+			}
+		} catch (IOException ex)
+		{
+			LOG.log(Level.WARNING, "Could not read the symbols of " + dataProvider, ex);
+			file.delete();
+			return null;
+		}
+
+		SymbolDirectory previous = directories.putIfAbsent(dataProvider, directory);
+		return previous != null ? previous : directory;
+	}
+
+	/**
+	 * Replaces the directory of the data provider and writes it to the cache.
+	 */
+	public SymbolDirectory publish(String dataProvider, Collection<StockNode> stocks)
+	{
+		SymbolDirectory directory = new SymbolDirectory(stocks);
+		directories.put(dataProvider, directory);
+
+		File file = getFile(dataProvider);
+		File temp = new File(file.getPath() + ".tmp");
+		try
+		{
+			DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temp)));
+			try
+			{
+				directory.write(out);
+			} finally
+			{
+				out.close();
+			}
+			file.delete();
+			if (!temp.renameTo(file))
+				throw new IOException("Could not rename " + temp + " to " + file);
+		} catch (IOException ex)
+		{
+			LOG.log(Level.WARNING, "Could not cache the symbols of " + dataProvider, ex);
+			temp.delete();
+		}
+		return directory;
+	}
+
+	/**
+	 * Finds at most limit stocks matching the text, from the directory of
+	 * the data provider or else from the provider itself. May block, call it
+	 * off the event dispatch thread.
+	 */
+	public StockSet search(String dataProvider, String text, int limit)
+		throws IOException
+	{
+		SymbolDirectory directory = getDirectory(dataProvider);
+		if (directory != null)
+			return directory.search(text, limit);
+
+		DataProvider provider = DataProviderManager.getDefault().getDataProvider(dataProvider);
+		if (provider == null)
+			return new StockSet();
+		return provider.fetchAutocomplete(text);
+	}
+
+	private File getFile(String dataProvider)
+	{
+		return new File(FileUtils.cacheSymbolsFolder(),
+			FileUtils.getStringHash(dataProvider) + ".symbols");
+	}
+
+}
@@ -28,7 +28,7 @@ public class TemplateManager
     private File defaultTemplate;
     private File templatesXML;
 
-    public static TemplateManager getDefault()
+    public static synchronized TemplateManager getDefault()
     {
         if (instance == null)
             instance = new TemplateManager();
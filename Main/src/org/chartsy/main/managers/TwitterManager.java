@@ -43,7 +43,7 @@ public final class TwitterManager
 
     private PhotoCaptionPanel captionPanel;
 
-    public static TwitterManager getDefault()
+    public static synchronized TwitterManager getDefault()
     {
         if (instance == null) {
             instance = new TwitterManager();
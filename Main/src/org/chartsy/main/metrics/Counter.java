@@ -0,0 +1,47 @@
+package org.chartsy.main.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class Counter implements CounterMBean
+{
+
+	private final String name;
+	private final AtomicLong count = new AtomicLong();
+
+	Counter(String name)
+	{
+		this.name = name;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public void increment()
+	{
+		count.incrementAndGet();
+	}
+
+	public void add(long value)
+	{
+		count.addAndGet(value);
+	}
+
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	public void reset()
+	{
+		count.set(0);
+	}
+
+	@Override
+	public String toString()
+	{
+		return name + " count=" + getCount();
+	}
+
+}
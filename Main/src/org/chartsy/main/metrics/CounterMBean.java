@@ -0,0 +1,10 @@
+package org.chartsy.main.metrics;
+
+public interface CounterMBean
+{
+
+	long getCount();
+
+	void reset();
+
+}
@@ -0,0 +1,163 @@
+package org.chartsy.main.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram with log-linear buckets, every power of two range is
+ * split in 32 sub-buckets so recorded values keep about 3% precision over
+ * the whole long range. Timings are recorded in nanoseconds.
+ */
+public class Histogram implements HistogramMBean
+{
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int LINEAR = SUB_BUCKETS * 2;
+	private static final int BUCKETS = LINEAR + (64 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+	private final String name;
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong max = new AtomicLong(0);
+
+	Histogram(String name)
+	{
+		this.name = name;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public void record(long value)
+	{
+		if (value < 0)
+			value = 0;
+		counts.incrementAndGet(index(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+
+		long current;
+		while (value < (current = min.get()))
+			if (min.compareAndSet(current, value))
+				break;
+		while (value > (current = max.get()))
+			if (max.compareAndSet(current, value))
+				break;
+	}
+
+	public void recordSince(long startNanos)
+	{
+		record(System.nanoTime() - startNanos);
+	}
+
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	public double getMean()
+	{
+		long n = count.get();
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+
+	public long getMin()
+	{
+		long value = min.get();
+		return value == Long.MAX_VALUE ? 0 : value;
+	}
+
+	public long getMax()
+	{
+		return max.get();
+	}
+
+	public long getPercentile(double percentile)
+	{
+		long n = count.get();
+		if (n == 0)
+			return 0;
+
+		long rank = (long) Math.ceil(percentile / 100d * n);
+		if (rank < 1)
+			rank = 1;
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			seen += counts.get(i);
+			if (seen >= rank)
+				return Math.min(highestValue(i), getMax());
+		}
+		return getMax();
+	}
+
+	public long getPercentile50()
+	{
+		return getPercentile(50);
+	}
+
+	public long getPercentile90()
+	{
+		return getPercentile(90);
+	}
+
+	public long getPercentile99()
+	{
+		return getPercentile(99);
+	}
+
+	public long getPercentile999()
+	{
+		return getPercentile(99.9);
+	}
+
+	public void reset()
+	{
+		for (int i = 0; i < BUCKETS; i++)
+			counts.set(i, 0);
+		count.set(0);
+		sum.set(0);
+		min.set(Long.MAX_VALUE);
+		max.set(0);
+	}
+
+	@Override
+	public String toString()
+	{
+		return name
+			+ " count=" + getCount()
+			+ " mean=" + millis((long) getMean())
+			+ " p50=" + millis(getPercentile50())
+			+ " p99=" + millis(getPercentile99())
+			+ " max=" + millis(getMax()) + " ms";
+	}
+
+	private static String millis(long nanos)
+	{
+		return String.format("%.3f", nanos / 1000000d);
+	}
+
+	private static int index(long value)
+	{
+		if (value < LINEAR)
+			return (int) value;
+		int shift = 64 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS + 1);
+		int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+		return LINEAR + (shift - 1) * SUB_BUCKETS + subBucket;
+	}
+
+	private static long highestValue(int index)
+	{
+		if (index < LINEAR)
+			return index;
+		int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+		long subBucket = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+}
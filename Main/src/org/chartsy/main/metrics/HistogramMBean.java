@@ -0,0 +1,24 @@
+package org.chartsy.main.metrics;
+
+public interface HistogramMBean
+{
+
+	long getCount();
+
+	double getMean();
+
+	long getMin();
+
+	long getMax();
+
+	long getPercentile50();
+
+	long getPercentile90();
+
+	long getPercentile99();
+
+	long getPercentile999();
+
+	void reset();
+
+}
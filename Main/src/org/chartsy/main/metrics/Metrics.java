@@ -0,0 +1,163 @@
+package org.chartsy.main.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.chartsy.main.utils.TaskEngine;
+
+/**
+ * Registry of the application counters and timing histograms. Every metric
+ * is registered as an MBean under "org.chartsy:type=Metrics" and all of them
+ * are written to the log every chartsy.metrics.dump seconds (300 by default,
+ * 0 turns the dump off).
+ *
+ * Run with -Dchartsy.metrics=false to turn instrumentation off, the checks
+ * against ENABLED are then removed by the compiler.
+ */
+public class Metrics
+{
+
+	public static final boolean ENABLED
+		= !"false".equalsIgnoreCase(System.getProperty("chartsy.metrics"));
+
+	private static final Logger LOG = Logger.getLogger(Metrics.class.getName());
+	private static Metrics instance;
+
+	private final ConcurrentHashMap<String, Histogram> histograms
+		= new ConcurrentHashMap<String, Histogram>();
+	private final ConcurrentHashMap<String, Counter> counters
+		= new ConcurrentHashMap<String, Counter>();
+
+	public static synchronized Metrics getDefault()
+	{
+		if (instance == null)
+			instance = new Metrics();
+		return instance;
+	}
+
+	private Metrics()
+	{
+		int period = Integer.getInteger("chartsy.metrics.dump", 300);
+		if (ENABLED && period > 0)
+		{
+			TaskEngine.getInstance().scheduleAtFixedRate(new TimerTask()
+			{
+				public void run()
+				{
+					dump();
+				}
+			}, period * 1000L, period * 1000L);
+		}
+	}
+
+	public static long start()
+	{
+		return ENABLED ? System.nanoTime() : 0;
+	}
+
+	public static void stop(String name, long start)
+	{
+		if (ENABLED)
+			getDefault().histogram(name).recordSince(start);
+	}
+
+	public static void increment(String name)
+	{
+		if (ENABLED)
+			getDefault().counter(name).increment();
+	}
+
+	public Histogram histogram(String name)
+	{
+		Histogram histogram = histograms.get(name);
+		if (histogram == null)
+		{
+			Histogram created = new Histogram(name);
+			histogram = histograms.putIfAbsent(name, created);
+			if (histogram == null)
+			{
+				histogram = created;
+				register(name, created);
+			}
+		}
+		return histogram;
+	}
+
+	public Counter counter(String name)
+	{
+		Counter counter = counters.get(name);
+		if (counter == null)
+		{
+			Counter created = new Counter(name);
+			counter = counters.putIfAbsent(name, created);
+			if (counter == null)
+			{
+				counter = created;
+				register(name, created);
+			}
+		}
+		return counter;
+	}
+
+	public List<Histogram> getHistograms()
+	{
+		List<String> names = new ArrayList<String>(histograms.keySet());
+		Collections.sort(names);
+		List<Histogram> list = new ArrayList<Histogram>();
+		for (String name : names)
+			list.add(histograms.get(name));
+		return list;
+	}
+
+	public List<Counter> getCounters()
+	{
+		List<String> names = new ArrayList<String>(counters.keySet());
+		Collections.sort(names);
+		List<Counter> list = new ArrayList<Counter>();
+		for (String name : names)
+			list.add(counters.get(name));
+		return list;
+	}
+
+	public void dump()
+	{
+		StringBuilder sb = new StringBuilder("Metrics");
+		for (Counter counter : getCounters())
+			sb.append("\n  ").append(counter);
+		for (Histogram histogram : getHistograms())
+			if (histogram.getCount() > 0)
+				sb.append("\n  ").append(histogram);
+		LOG.info(sb.toString());
+	}
+
+	public void reset()
+	{
+		for (Counter counter : counters.values())
+			counter.reset();
+		for (Histogram histogram : histograms.values())
+			histogram.reset();
+	}
+
+	private void register(String name, Object mbean)
+	{
+		try
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(
+				"org.chartsy:type=Metrics,name=" + ObjectName.quote(name));
+			if (!server.isRegistered(objectName))
+				server.registerMBean(mbean, objectName);
+		} catch (Exception ex)
+		{
+			LOG.log(Level.FINE, "Could not register metric " + name, ex);
+		}
+	}
+
+}
@@ -0,0 +1,32 @@
+package org.chartsy.main.optimizer;
+
+import org.chartsy.main.backtest.Backtest;
+import org.chartsy.main.backtest.BacktestSettings;
+import org.chartsy.main.backtest.Strategy;
+
+/**
+ * Maximizes the return of a strategy built from the parameters.
+ */
+public abstract class BacktestObjective implements Objective
+{
+
+	private final BacktestSettings settings;
+
+	public BacktestObjective(BacktestSettings settings)
+	{
+		this.settings = settings;
+	}
+
+	/**
+	 * @return a new strategy for the parameters, it may read the shared
+	 * series of the columns
+	 */
+	protected abstract Strategy createStrategy(PriceColumns columns, double[] parameters);
+
+	public double evaluate(PriceColumns columns, double[] parameters)
+	{
+		Strategy strategy = createStrategy(columns, parameters);
+		return new Backtest(columns.getDataset(), strategy, settings).run().getReturn();
+	}
+
+}
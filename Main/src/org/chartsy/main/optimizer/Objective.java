@@ -0,0 +1,16 @@
+package org.chartsy.main.optimizer;
+
+/**
+ * What the optimizer maximizes. Called from several threads at once with
+ * the same columns, which must only be read.
+ */
+public interface Objective
+{
+
+	/**
+	 * @param parameters the values of the parameters, in the order they
+	 * were given to the optimizer
+	 */
+	double evaluate(PriceColumns columns, double[] parameters);
+
+}
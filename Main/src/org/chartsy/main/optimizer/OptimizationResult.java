@@ -0,0 +1,94 @@
+package org.chartsy.main.optimizer;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The objective at every combination of the parameters. Combinations are
+ * numbered like the digits of a number, the last parameter changing the
+ * fastest.
+ */
+public class OptimizationResult
+{
+
+	private final List<Parameter> parameters;
+	private final double[] objective;
+
+	OptimizationResult(List<Parameter> parameters, double[] objective)
+	{
+		this.parameters = Collections.unmodifiableList(new ArrayList<Parameter>(parameters));
+		this.objective = objective;
+	}
+
+	public List<Parameter> getParameters()
+	{
+		return parameters;
+	}
+
+	/**
+	 * @return the number of combinations
+	 */
+	public int size()
+	{
+		return objective.length;
+	}
+
+	/**
+	 * @return the objective of the combination, NaN if it could not be
+	 * evaluated
+	 */
+	public double getObjective(int combination)
+	{
+		return objective[combination];
+	}
+
+	public double[] getValues(int combination)
+	{
+		return values(parameters, combination);
+	}
+
+	/**
+	 * @return the combination with the largest objective, or -1
+	 */
+	public int getBest()
+	{
+		int best = -1;
+		for (int i = 0; i < objective.length; i++)
+			if (!Double.isNaN(objective[i]) && (best < 0 || objective[i] > objective[best]))
+				best = i;
+		return best;
+	}
+
+	/**
+	 * Writes every combination and its objective as comma separated values.
+	 */
+	public void writeSurface(PrintWriter out)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (Parameter parameter : parameters)
+			sb.append(parameter.getName()).append(',');
+		out.println(sb.append("objective"));
+		for (int i = 0; i < objective.length; i++)
+		{
+			sb.setLength(0);
+			for (double value : getValues(i))
+				sb.append(value).append(',');
+			out.println(sb.append(objective[i]));
+		}
+	}
+
+	static double[] values(List<Parameter> parameters, int combination)
+	{
+		double[] values = new double[parameters.size()];
+		for (int i = values.length - 1; i >= 0; i--)
+		{
+			Parameter parameter = parameters.get(i);
+			values[i] = parameter.getValue(combination % parameter.size());
+			combination /= parameter.size();
+		}
+		return values;
+	}
+
+}
@@ -0,0 +1,110 @@
+package org.chartsy.main.optimizer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.chartsy.main.metrics.Metrics;
+
+/**
+ * Evaluates an objective at every combination of some parameter ranges,
+ * on one thread per core. The combinations are split in small chunks the
+ * threads take in turn, so slow combinations do not hold the others back.
+ */
+public class Optimizer
+{
+
+	private static final Logger LOG = Logger.getLogger(Optimizer.class.getName());
+	// chunks per thread
+	private static final int CHUNKS = 16;
+
+	private final int threads;
+
+	public Optimizer()
+	{
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public Optimizer(int threads)
+	{
+		this.threads = Math.max(1, threads);
+	}
+
+	public OptimizationResult optimize(final PriceColumns columns,
+		final List<Parameter> parameters, final Objective objective)
+		throws InterruptedException
+	{
+		long size = 1;
+		for (Parameter parameter : parameters)
+			size *= parameter.size();
+		if (size > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Too many combinations: " + size);
+
+		final double[] result = new double[(int) size];
+		int chunk = Math.max(1, (int) (size / (threads * CHUNKS)));
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int from = 0; from < size; from += chunk)
+		{
+			final int start = from;
+			final int end = (int) Math.min(size, (long) from + chunk);
+			tasks.add(new Callable<Void>()
+			{
+				public Void call()
+				{
+					for (int i = start; i < end; i++)
+					{
+						if (Thread.currentThread().isInterrupted())
+							return null;
+						try
+						{
+							result[i] = objective.evaluate(columns,
+								OptimizationResult.values(parameters, i));
+						} catch (RuntimeException ex)
+						{
+							LOG.log(Level.FINE, "Could not evaluate combination " + i, ex);
+							result[i] = Double.NaN;
+						}
+					}
+					return null;
+				}
+			});
+		}
+
+		long start = Metrics.start();
+		ExecutorService service = Executors.newFixedThreadPool(threads, new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "optimizer");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+		try
+		{
+			for (Future<Void> future : service.invokeAll(tasks))
+			{
+				try
+				{
+					future.get();
+				} catch (ExecutionException ex)
+				{
+					LOG.log(Level.WARNING, "Optimization failed", ex.getCause());
+				}
+			}
+		} finally
+		{
+			service.shutdownNow();
+			Metrics.stop("optimizer.run", start);
+		}
+		return new OptimizationResult(parameters, result);
+	}
+
+}
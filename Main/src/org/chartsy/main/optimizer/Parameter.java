@@ -0,0 +1,39 @@
+package org.chartsy.main.optimizer;
+
+/**
+ * A range of values to try for one parameter, from and to included.
+ */
+public final class Parameter
+{
+
+	private final String name;
+	private final double[] values;
+
+	public Parameter(String name, double from, double to, double step)
+	{
+		if (step <= 0 || to < from)
+			throw new IllegalArgumentException("Empty range for " + name);
+		this.name = name;
+		// the last step may fall short of to because of rounding
+		int count = (int) Math.floor((to - from) / step + 1e-9) + 1;
+		values = new double[count];
+		for (int i = 0; i < count; i++)
+			values[i] = from + i * step;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public int size()
+	{
+		return values.length;
+	}
+
+	public double getValue(int index)
+	{
+		return values[index];
+	}
+
+}
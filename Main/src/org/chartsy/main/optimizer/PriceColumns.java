@@ -0,0 +1,198 @@
+package org.chartsy.main.optimizer;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import org.chartsy.main.data.DataItem;
+import org.chartsy.main.data.Dataset;
+
+/**
+ * The prices of a dataset as primitive arrays, shared by all the tasks of
+ * an optimization. Series calculated from them, like the EMA of a period,
+ * are calculated once by the first task asking for them and then shared
+ * too. None of the arrays may be modified.
+ */
+public class PriceColumns
+{
+
+	private final Dataset dataset;
+	private final long[] times;
+	private final double[] open;
+	private final double[] high;
+	private final double[] low;
+	private final double[] close;
+	private final double[] volume;
+	private final ConcurrentHashMap<String, FutureTask<double[]>> series
+		= new ConcurrentHashMap<String, FutureTask<double[]>>();
+
+	public PriceColumns(Dataset dataset)
+	{
+		this.dataset = dataset;
+		int count = dataset.getItemsCount();
+		times = new long[count];
+		open = new double[count];
+		high = new double[count];
+		low = new double[count];
+		close = new double[count];
+		volume = new double[count];
+		for (int i = 0; i < count; i++)
+		{
+			DataItem item = dataset.getDataItem(i);
+			if (item == null)
+			{
+				open[i] = high[i] = low[i] = close[i] = volume[i] = Double.NaN;
+				continue;
+			}
+			times[i] = item.getTime();
+			open[i] = item.getOpen();
+			high[i] = item.getHigh();
+			low[i] = item.getLow();
+			close[i] = item.getClose();
+			volume[i] = item.getVolume();
+		}
+	}
+
+	public Dataset getDataset()
+	{
+		return dataset;
+	}
+
+	public int size()
+	{
+		return close.length;
+	}
+
+	public long[] getTimes()
+	{
+		return times;
+	}
+
+	public double[] getOpen()
+	{
+		return open;
+	}
+
+	public double[] getHigh()
+	{
+		return high;
+	}
+
+	public double[] getLow()
+	{
+		return low;
+	}
+
+	public double[] getClose()
+	{
+		return close;
+	}
+
+	public double[] getVolume()
+	{
+		return volume;
+	}
+
+	/**
+	 * Returns the series stored under the key, calculating it first if no
+	 * task did yet. Tasks asking for a series being calculated wait for it.
+	 */
+	public double[] getSeries(String key, Callable<double[]> calculation)
+	{
+		FutureTask<double[]> task = series.get(key);
+		if (task == null)
+		{
+			FutureTask<double[]> newTask = new FutureTask<double[]>(calculation);
+			task = series.putIfAbsent(key, newTask);
+			if (task == null)
+			{
+				task = newTask;
+				task.run();
+			}
+		}
+		try
+		{
+			return task.get();
+		} catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(ex);
+		} catch (ExecutionException ex)
+		{
+			series.remove(key, task);
+			throw new IllegalStateException("Could not calculate " + key, ex.getCause());
+		}
+	}
+
+	/**
+	 * @return the exponential moving average of the close, seeded with the
+	 * simple average of the first period like Dataset.EMA, NaN before it
+	 */
+	public double[] getEMA(final int period)
+	{
+		return getSeries("ema." + period, new Callable<double[]>()
+		{
+			public double[] call()
+			{
+				return ema(close, period);
+			}
+		});
+	}
+
+	/**
+	 * @return the simple moving average of the close, NaN before a whole
+	 * period
+	 */
+	public double[] getSMA(final int period)
+	{
+		return getSeries("sma." + period, new Callable<double[]>()
+		{
+			public double[] call()
+			{
+				double[] result = new double[close.length];
+				double sum = 0;
+				for (int i = 0; i < close.length; i++)
+				{
+					sum += close[i];
+					if (i >= period)
+						sum -= close[i - period];
+					result[i] = i >= period - 1 ? sum / period : Double.NaN;
+				}
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * Exponential moving average of any series, skipping its leading NaNs.
+	 */
+	public static double[] ema(double[] values, int period)
+	{
+		double[] result = new double[values.length];
+		int start = 0;
+		while (start < values.length && Double.isNaN(values[start]))
+			result[start++] = Double.NaN;
+
+		double k = 2 / ((double) (period + 1));
+		double value = 0;
+		for (int i = start; i < values.length; i++)
+		{
+			int n = i - start + 1;
+			if (n < period)
+			{
+				value += values[i];
+				result[i] = Double.NaN;
+			} else if (n == period)
+			{
+				value = (value + values[i]) / period;
+				result[i] = value;
+			} else
+			{
+				value = (values[i] - value) * k + value;
+				result[i] = value;
+			}
+		}
+		return result;
+	}
+
+}
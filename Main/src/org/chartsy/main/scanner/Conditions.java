@@ -0,0 +1,159 @@
+package org.chartsy.main.scanner;
+
+import org.chartsy.main.chart.Indicator;
+import org.chartsy.main.data.DataItem;
+import org.chartsy.main.data.Dataset;
+import org.chartsy.main.managers.IndicatorManager;
+
+/**
+ * The conditions the scanner knows about.
+ */
+public final class Conditions
+{
+
+	// recursive averages forget their seed after a few periods
+	private static final int WARMUP = 6;
+
+	private Conditions()
+	{
+	}
+
+	/**
+	 * Compares a line of an installed indicator, calculated with its default
+	 * properties, for example indicator("RSI", "rsi", BELOW, 30, 100).
+	 *
+	 * @param name the name of the indicator
+	 * @param key the key the indicator adds the line under
+	 * @param lookback the number of bars the indicator is calculated over
+	 */
+	public static ScanCondition indicator(String name, String key, int comparison, double threshold, int lookback)
+	{
+		Indicator indicator = IndicatorManager.getDefault().getIndicator(name);
+		if (indicator == null)
+			throw new IllegalArgumentException("Unknown indicator " + name);
+		return new IndicatorCondition(indicator, key, comparison, threshold, lookback);
+	}
+
+	/**
+	 * Compares the distance of the close from its exponential moving average,
+	 * in percent, so priceEMA(200, ABOVE, 0) holds for prices above EMA(200).
+	 */
+	public static ScanCondition priceEMA(int period, int comparison, double percent)
+	{
+		return new EMACondition(period, comparison, percent);
+	}
+
+	/**
+	 * Compares the average directional index calculated by Dataset.ADX.
+	 */
+	public static ScanCondition adx(int period, int comparison, double threshold)
+	{
+		return new ADXCondition(period, comparison, threshold);
+	}
+
+	private static double lastClose(Dataset dataset)
+	{
+		if (dataset == null || dataset.isEmpty())
+			return Double.NaN;
+		DataItem item = dataset.getLastDataItem();
+		return item == null ? Double.NaN : item.getClose();
+	}
+
+	private static class IndicatorCondition extends ScanCondition
+	{
+
+		private final Indicator indicator;
+		private final String key;
+		private final int lookback;
+
+		private IndicatorCondition(Indicator indicator, String key, int comparison, double threshold, int lookback)
+		{
+			super(comparison, threshold);
+			this.indicator = indicator;
+			this.key = key;
+			this.lookback = lookback;
+		}
+
+		public String getLabel()
+		{
+			return indicator.getName();
+		}
+
+		public int getLookback()
+		{
+			return lookback;
+		}
+
+		public double getValue(Dataset tail)
+		{
+			// indicators keep their results, every call needs its own
+			Indicator instance = indicator.newInstance();
+			instance.calculate(tail);
+			return lastClose(instance.getCalculatedDataset(key));
+		}
+
+	}
+
+	private static class EMACondition extends ScanCondition
+	{
+
+		private final int period;
+
+		private EMACondition(int period, int comparison, double percent)
+		{
+			super(comparison, percent);
+			this.period = period;
+		}
+
+		public String getLabel()
+		{
+			return "Close/EMA(" + period + ") %";
+		}
+
+		public int getLookback()
+		{
+			return period * WARMUP;
+		}
+
+		public double getValue(Dataset tail)
+		{
+			if (tail.getItemsCount() < period)
+				return Double.NaN;
+			double ema = lastClose(Dataset.EMA(tail, period));
+			double close = lastClose(tail);
+			return (close - ema) / ema * 100;
+		}
+
+	}
+
+	private static class ADXCondition extends ScanCondition
+	{
+
+		private final int period;
+
+		private ADXCondition(int period, int comparison, double threshold)
+		{
+			super(comparison, threshold);
+			this.period = period;
+		}
+
+		public String getLabel()
+		{
+			return "ADX(" + period + ")";
+		}
+
+		public int getLookback()
+		{
+			return period * WARMUP * 2;
+		}
+
+		public double getValue(Dataset tail)
+		{
+			if (tail.getItemsCount() < period * 2)
+				return Double.NaN;
+			return lastClose(Dataset.ADX(tail, period)[2]);
+		}
+
+	}
+
+}
@@ -0,0 +1,238 @@
+package org.chartsy.main.scanner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.chartsy.main.data.DataItem;
+import org.chartsy.main.data.DataProvider;
+import org.chartsy.main.data.Dataset;
+import org.chartsy.main.data.StockNode;
+import org.chartsy.main.data.SymbolDirectory;
+import org.chartsy.main.intervals.Interval;
+import org.chartsy.main.managers.CacheManager;
+import org.chartsy.main.managers.DataProviderManager;
+import org.chartsy.main.managers.DatasetUsage;
+import org.chartsy.main.managers.SymbolDirectoryManager;
+import org.chartsy.main.metrics.Metrics;
+
+/**
+ * Evaluates a set of conditions on the last bar of many markets at once,
+ * without opening charts. Markets are scanned in parallel, each from the
+ * dataset in memory or else from the dataset cache, and the conditions
+ * only look at the last bars they need. A market whose last bar did not
+ * change since the previous scan is not evaluated again.
+ */
+public class MarketScanner
+{
+
+	private static final Logger LOG = Logger.getLogger(MarketScanner.class.getName());
+
+	private static final ExecutorService service = Executors.newFixedThreadPool(
+		Runtime.getRuntime().availableProcessors(), new ThreadFactory()
+	{
+		public Thread newThread(Runnable r)
+		{
+			Thread thread = new Thread(r, "scanner");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}
+	});
+
+	private static final Comparator<ScanResult> RANKING = new Comparator<ScanResult>()
+	{
+		public int compare(ScanResult r1, ScanResult r2)
+		{
+			if (r1.matches() != r2.matches())
+				return r1.matches() ? -1 : 1;
+			return Double.compare(r2.getScore(), r1.getScore());
+		}
+	};
+
+	private final ScanCondition[] conditions;
+	private final int lookback;
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	public MarketScanner(List<ScanCondition> conditions)
+	{
+		if (conditions.isEmpty())
+			throw new IllegalArgumentException("Nothing to scan for");
+		this.conditions = conditions.toArray(new ScanCondition[conditions.size()]);
+		int max = 1;
+		for (ScanCondition condition : conditions)
+			max = Math.max(max, condition.getLookback());
+		this.lookback = max;
+	}
+
+	public List<ScanCondition> getConditions()
+	{
+		List<ScanCondition> list = new ArrayList<ScanCondition>();
+		Collections.addAll(list, conditions);
+		return list;
+	}
+
+	/**
+	 * Scans every symbol in the directory of the data provider that has a
+	 * dataset for the interval.
+	 */
+	public List<ScanResult> scan(String dataProvider, Interval interval)
+		throws InterruptedException
+	{
+		List<String> symbols = new ArrayList<String>();
+		SymbolDirectory directory = SymbolDirectoryManager.getDefault().getDirectory(dataProvider);
+		if (directory != null)
+			for (StockNode stock : directory.getStocks())
+				symbols.add(stock.getSymbol());
+		return scan(dataProvider, symbols, interval);
+	}
+
+	/**
+	 * Scans the symbols that have a dataset for the interval, in memory or
+	 * in the cache, and ranks them: markets matching all the conditions
+	 * first, then by the margin of the first condition.
+	 */
+	public List<ScanResult> scan(String dataProvider, Collection<String> symbols, final Interval interval)
+		throws InterruptedException
+	{
+		final DataProvider provider = DataProviderManager.getDefault().getDataProvider(dataProvider);
+		if (provider == null)
+			return new ArrayList<ScanResult>();
+
+		long start = Metrics.start();
+		List<Callable<ScanResult>> tasks = new ArrayList<Callable<ScanResult>>(symbols.size());
+		for (final String symbol : symbols)
+		{
+			tasks.add(new Callable<ScanResult>()
+			{
+				public ScanResult call()
+					throws Exception
+				{
+					return scan(symbol, provider.getDatasetKey(symbol, interval));
+				}
+			});
+		}
+
+		List<ScanResult> results = new ArrayList<ScanResult>();
+		for (Future<ScanResult> future : service.invokeAll(tasks))
+		{
+			try
+			{
+				ScanResult result = future.get();
+				if (result != null)
+					results.add(result);
+			} catch (ExecutionException ex)
+			{
+				LOG.log(Level.WARNING, "Scan failed", ex.getCause());
+			}
+		}
+		Collections.sort(results, RANKING);
+		Metrics.stop("scanner.scan", start);
+		return results;
+	}
+
+	/**
+	 * Forgets the results of the previous scans.
+	 */
+	public void clear()
+	{
+		entries.clear();
+	}
+
+	private ScanResult scan(String symbol, String key)
+		throws IOException
+	{
+		Entry entry = entries.get(key);
+		Dataset dataset = DatasetUsage.getInstance().getDatasetFromMemory(key);
+		Dataset tail;
+		long modified = 0;
+		if (dataset != null)
+		{
+			if (entry != null && entry.isCurrent(dataset))
+				return entry.result;
+			tail = dataset.getVisibleDataset(lookback, dataset.getItemsCount());
+		} else
+		{
+			CacheManager cache = CacheManager.getInstance();
+			modified = cache.datasetCacheModified(key);
+			if (modified == 0)
+			{
+				entries.remove(key);
+				return null;
+			}
+			if (entry != null && entry.modified == modified)
+				return entry.result;
+			// only the partitions holding the last bars are read
+			tail = cache.fetchVisibleDatasetFromCache(key, lookback, cache.fetchDatasetSize(key));
+		}
+
+		DataItem last = tail.isEmpty() ? null : tail.getLastDataItem();
+		if (last == null)
+			return null;
+
+		long start = Metrics.start();
+		double[] values = new double[conditions.length];
+		boolean matches = true;
+		for (int i = 0; i < conditions.length; i++)
+		{
+			ScanCondition condition = conditions[i];
+			int count = tail.getItemsCount();
+			Dataset bars = count > condition.getLookback()
+				? tail.getVisibleDataset(condition.getLookback(), count) : tail;
+			values[i] = condition.getValue(bars);
+			if (!(condition.getMargin(values[i]) > 0))
+				matches = false;
+		}
+		Metrics.stop("scanner.evaluate", start);
+
+		ScanResult result = new ScanResult(symbol, key, last.getTime(), last.getClose(),
+			values, matches, conditions[0].getMargin(values[0]));
+		entries.put(key, new Entry(dataset != null ? dataset.getItemsCount() : 0, last, modified, result));
+		return result;
+	}
+
+	private static final class Entry
+	{
+
+		private final int count;
+		private final long time;
+		private final double close;
+		private final double volume;
+		private final long modified;
+		private final ScanResult result;
+
+		private Entry(int count, DataItem last, long modified, ScanResult result)
+		{
+			this.count = count;
+			this.time = last.getTime();
+			this.close = last.getClose();
+			this.volume = last.getVolume();
+			this.modified = modified;
+			this.result = result;
+		}
+
+		private boolean isCurrent(Dataset dataset)
+		{
+			DataItem last = dataset.isEmpty() ? null : dataset.getLastDataItem();
+			return modified == 0
+				&& last != null
+				&& dataset.getItemsCount() == count
+				&& last.getTime() == time
+				&& last.getClose() == close
+				&& last.getVolume() == volume;
+		}
+
+	}
+
+}
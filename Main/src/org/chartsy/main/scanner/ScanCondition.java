@@ -0,0 +1,70 @@
+package org.chartsy.main.scanner;
+
+import org.chartsy.main.data.Dataset;
+
+/**
+ * A test the scanner runs on the last bar of every market, like RSI below
+ * 30. The value is computed from the tail of the dataset only, so a
+ * condition tells how many bars it needs for its value to settle.
+ */
+public abstract class ScanCondition
+{
+
+	public static final int ABOVE = 0;
+	public static final int BELOW = 1;
+
+	private final int comparison;
+	private final double threshold;
+
+	protected ScanCondition(int comparison, double threshold)
+	{
+		if (comparison != ABOVE && comparison != BELOW)
+			throw new IllegalArgumentException("Unknown comparison " + comparison);
+		this.comparison = comparison;
+		this.threshold = threshold;
+	}
+
+	public abstract String getLabel();
+
+	/**
+	 * @return the number of bars at the end of the dataset the value is
+	 * calculated from
+	 */
+	public abstract int getLookback();
+
+	/**
+	 * Called from several threads at once.
+	 *
+	 * @param tail the last bars of the dataset, at most getLookback of them
+	 * @return the value on the last bar, or NaN if it can not be calculated
+	 */
+	public abstract double getValue(Dataset tail);
+
+	public int getComparison()
+	{
+		return comparison;
+	}
+
+	public double getThreshold()
+	{
+		return threshold;
+	}
+
+	/**
+	 * @return how far the value is past the threshold, negative or zero when
+	 * the condition does not hold
+	 */
+	public double getMargin(double value)
+	{
+		if (Double.isNaN(value))
+			return Double.NEGATIVE_INFINITY;
+		return comparison == ABOVE ? value - threshold : threshold - value;
+	}
+
+	@Override
+	public String toString()
+	{
+		return getLabel() + (comparison == ABOVE ? " > " : " < ") + threshold;
+	}
+
+}
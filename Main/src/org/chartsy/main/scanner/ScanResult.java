@@ -0,0 +1,79 @@
+package org.chartsy.main.scanner;
+
+/**
+ * What a scan found for one market, the values are in the order of the
+ * conditions of the scanner.
+ */
+public final class ScanResult
+{
+
+	private final String symbol;
+	private final String datasetKey;
+	private final long time;
+	private final double close;
+	private final double[] values;
+	private final boolean matches;
+	private final double score;
+
+	ScanResult(String symbol, String datasetKey, long time, double close, double[] values, boolean matches, double score)
+	{
+		this.symbol = symbol;
+		this.datasetKey = datasetKey;
+		this.time = time;
+		this.close = close;
+		this.values = values;
+		this.matches = matches;
+		this.score = score;
+	}
+
+	public String getSymbol()
+	{
+		return symbol;
+	}
+
+	public String getDatasetKey()
+	{
+		return datasetKey;
+	}
+
+	/**
+	 * @return the time of the bar the conditions were evaluated on
+	 */
+	public long getTime()
+	{
+		return time;
+	}
+
+	public double getClose()
+	{
+		return close;
+	}
+
+	public double getValue(int condition)
+	{
+		return values[condition];
+	}
+
+	/**
+	 * @return true if all the conditions hold
+	 */
+	public boolean matches()
+	{
+		return matches;
+	}
+
+	/**
+	 * @return the margin of the first condition, results are ranked by it
+	 */
+	public double getScore()
+	{
+		return score;
+	}
+
+	@Override
+	public String toString()
+	{
+		return symbol + (matches ? " matches " : " ") + score;
+	}
+
+}
@@ -17,6 +17,21 @@ import org.openide.filesystems.FileUtil;
  */
 public final class FileUtils {
 
+    // a digest for every thread instead of a new one for every hash
+    private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<MessageDigest>()
+    {
+        protected @Override MessageDigest initialValue()
+        {
+            try
+            {
+                return MessageDigest.getInstance("md5");
+            } catch (NoSuchAlgorithmException ex)
+            {
+                return null;
+            }
+        }
+    };
+
     protected FileUtils() {}
 
     // Copy-pasted from netpeans platform sources:
@@ -108,6 +123,27 @@ public final class FileUtils {
 		return result;
 	}
 
+	public static String cacheHttpFolder()
+	{
+		String result = cacheFolder() + File.separator + "http";
+		createFolder(result);
+		return result;
+	}
+
+	public static String cacheSymbolsFolder()
+	{
+		String result = cacheFolder() + File.separator + "symbols";
+		createFolder(result);
+		return result;
+	}
+
+	public static String cacheSpillFolder()
+	{
+		String result = cacheFolder() + File.separator + "spill";
+		createFolder(result);
+		return result;
+	}
+
 	public static String cacheChartsFolder()
 	{
 		String result = cacheFolder() + File.separator + "charts";
@@ -162,22 +198,16 @@ public final class FileUtils {
 
 	public static String getStringHash(String fileName)
 	{
-		try
-		{
-			MessageDigest digest = MessageDigest.getInstance("md5");
-			digest.reset();
-			digest.update(fileName.getBytes());
-			byte messageDigest[] = digest.digest();
-			StringBuilder builder = new StringBuilder();
-			for (int i = 0; i < messageDigest.length; i++)
-				builder.append(Integer.toHexString(0xFF & messageDigest[i]));
-			String result = builder.toString();
-			return result;
-
-		} catch (NoSuchAlgorithmException ex)
-		{
+		MessageDigest digest = DIGEST.get();
+		if (digest == null)
 			return fileName;
-		}
+		digest.reset();
+		digest.update(fileName.getBytes());
+		byte messageDigest[] = digest.digest();
+		StringBuilder builder = new StringBuilder(32);
+		for (int i = 0; i < messageDigest.length; i++)
+			builder.append(Integer.toHexString(0xFF & messageDigest[i]));
+		return builder.toString();
 	}
 
     public static String getHistoryFolder()
@@ -8,6 +8,10 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import javax.swing.AbstractAction;
 import javax.swing.Action;
@@ -19,13 +23,21 @@ import javax.swing.JMenu;
 import javax.swing.JMenuItem;
 import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.JToggleButton;
+import javax.swing.SwingUtilities;
 import org.chartsy.main.ChartFrame;
 import org.chartsy.main.ChartToolbar;
+import org.chartsy.main.backtest.Backtest;
+import org.chartsy.main.backtest.BacktestResult;
+import org.chartsy.main.backtest.BacktestSettings;
 import org.chartsy.main.chart.Annotation;
 import org.chartsy.main.chart.Chart;
 import org.chartsy.main.data.ChartData;
+import org.chartsy.main.data.DataItem;
+import org.chartsy.main.data.Dataset;
 import org.chartsy.main.dialogs.AnnotationProperties;
 import org.chartsy.main.dialogs.Indicators;
 import org.chartsy.main.dialogs.Overlays;
@@ -36,7 +48,10 @@ import org.chartsy.main.favorites.nodes.StockAPI;
 import org.chartsy.main.favorites.nodes.StockAPINode;
 import org.chartsy.main.intervals.Interval;
 import org.chartsy.main.managers.AnnotationManager;
+import org.chartsy.main.managers.CacheManager;
+import org.chartsy.main.managers.DatasetUsage;
 import org.chartsy.main.managers.ChartManager;
+import org.chartsy.main.managers.StrategyManager;
 import org.chartsy.main.managers.TemplateManager;
 import org.chartsy.main.resources.ResourcesUtils;
 import org.chartsy.main.data.DataProvider;
@@ -44,6 +59,8 @@ import org.chartsy.main.history.HistoryItem;
 import org.chartsy.main.managers.FacebookManager;
 import org.chartsy.main.managers.TwitterManager;
 import org.netbeans.api.print.PrintManager;
+import org.netbeans.api.progress.ProgressHandle;
+import org.netbeans.api.progress.ProgressHandleFactory;
 import org.openide.DialogDescriptor;
 import org.openide.DialogDisplayer;
 import org.openide.NotifyDescriptor;
@@ -51,8 +68,10 @@ import org.openide.NotifyDescriptor.Confirmation;
 import org.openide.NotifyDescriptor.InputLine;
 import org.openide.explorer.ExplorerManager;
 import org.openide.nodes.Node;
+import org.openide.util.Exceptions;
 import org.openide.util.NbBundle;
 import org.openide.util.NbPreferences;
+import org.openide.util.RequestProcessor;
 import org.openide.windows.TopComponent;
 import org.openide.windows.WindowManager;
 
@@ -324,6 +343,15 @@ public final class MainActions
         return menu;
     }
 
+    public static JMenu generateBacktestMenu(ChartFrame chartFrame)
+    {
+        JMenu menu = new JMenu(NbBundle.getMessage(MainActions.class, "ACT_Backtest"));
+        for (String strategy : StrategyManager.getDefault().getStrategies())
+            menu.add(new JMenuItem(RunBacktest.getAction(chartFrame, strategy)));
+        menu.setEnabled(menu.getItemCount() > 0);
+        return menu;
+    }
+
 
     /*
      * Abstract MainAction
@@ -1179,6 +1207,122 @@ public final class MainActions
         }
     }
 
+    private static class RunBacktest extends MainAction
+    {
+
+        private static final RequestProcessor RP = new RequestProcessor("backtests", 1);
+
+        private ChartFrame chartFrame;
+        private String strategy;
+
+        public static Action getAction(ChartFrame chartFrame, String strategy)
+        {
+            return new RunBacktest(chartFrame, strategy);
+        }
+
+        private RunBacktest(ChartFrame chartFrame, String strategy)
+        {
+            super("Backtest", false);
+            this.chartFrame = chartFrame;
+            this.strategy = strategy;
+            putValue(NAME, strategy);
+            putValue(SHORT_DESCRIPTION, strategy);
+        }
+
+		@Override
+        public void actionPerformed(ActionEvent e)
+        {
+            final String key = chartFrame.getChartData().getDatasetKey();
+            final String title = NbBundle.getMessage(MainActions.class, "ACT_Backtest")
+                    + " " + strategy + " " + chartFrame.getChartData().getStock().getKey();
+            if (key == null)
+                return;
+
+            final ProgressHandle handle = ProgressHandleFactory.createHandle(title);
+            handle.start();
+            handle.switchToIndeterminate();
+            RP.post(new Runnable()
+            {
+                public void run()
+                {
+                    final String text;
+                    try
+                    {
+                        Dataset dataset = getHistory(key);
+                        if (dataset == null)
+                        {
+                            handle.finish();
+                            return;
+                        }
+                        BacktestResult result = new Backtest(dataset,
+                                StrategyManager.getDefault().getStrategy(strategy),
+                                new BacktestSettings()).run();
+                        StringWriter writer = new StringWriter();
+                        PrintWriter out = new PrintWriter(writer);
+                        out.println(result.getSummary());
+                        result.writeTrades(out);
+                        out.flush();
+                        text = writer.toString();
+                    } catch (IOException ex)
+                    {
+                        handle.finish();
+                        Exceptions.printStackTrace(ex);
+                        return;
+                    } catch (RuntimeException ex)
+                    {
+                        handle.finish();
+                        Exceptions.printStackTrace(ex);
+                        return;
+                    }
+                    handle.finish();
+
+                    SwingUtilities.invokeLater(new Runnable()
+                    {
+                        public void run()
+                        {
+                            JTextArea area = new JTextArea(text, 20, 60);
+                            area.setEditable(false);
+                            area.setCaretPosition(0);
+                            DialogDescriptor descriptor = new DialogDescriptor(
+                                    new JScrollPane(area), title, false, null);
+                            descriptor.setMessageType(DialogDescriptor.PLAIN_MESSAGE);
+                            descriptor.setOptions(new Object[] {DialogDescriptor.CLOSED_OPTION});
+                            DialogDisplayer.getDefault().notify(descriptor);
+                        }
+                    });
+                }
+            });
+        }
+
+        /**
+         * @return the whole cached history of the dataset with the bars of
+         * the chart from its first one on, copied so the feed doesn't change
+         * them while the backtest runs, or null if there is neither
+         */
+        private static Dataset getHistory(String key)
+            throws IOException
+        {
+            List<DataItem> recent = null;
+            synchronized (DatasetUsage.getInstance().getLock(key))
+            {
+                Dataset dataset = DatasetUsage.getInstance().getDatasetFromMemory(key);
+                if (dataset != null)
+                    recent = new ArrayList<DataItem>(dataset.getDataItems());
+            }
+            if (!CacheManager.getInstance().datasetCacheExists(key))
+                return recent == null ? null : new Dataset(recent);
+
+            List<DataItem> items = new ArrayList<DataItem>();
+            long first = recent == null || recent.isEmpty() ? Long.MAX_VALUE : recent.get(0).getTime();
+            for (DataItem item : CacheManager.getInstance().getDatasetFromCache(key).getDataItems())
+                if (item != null && item.getTime() < first)
+                    items.add(item);
+            if (recent != null)
+                items.addAll(recent);
+            return new Dataset(items);
+        }
+    }
+
     private static class SaveToTemplate extends MainAction
     {
 
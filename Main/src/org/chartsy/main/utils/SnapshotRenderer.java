@@ -0,0 +1,313 @@
+package org.chartsy.main.utils;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+import org.chartsy.main.ChartFrame;
+import org.chartsy.main.chart.Chart;
+import org.chartsy.main.chart.Indicator;
+import org.chartsy.main.chart.Overlay;
+import org.chartsy.main.data.ChartData;
+import org.chartsy.main.data.DataProvider;
+import org.chartsy.main.data.Stock;
+import org.chartsy.main.intervals.Interval;
+import org.chartsy.main.managers.DataProviderManager;
+import org.chartsy.main.managers.DatasetUsage;
+import org.chartsy.main.templates.Template;
+
+/**
+ * Renders charts to images without opening them, so it can run with
+ * java.awt.headless=true. Snapshots of the same dataset share it in memory.
+ */
+public class SnapshotRenderer
+{
+
+	private static final Logger LOG = Logger.getLogger(SnapshotRenderer.class.getName());
+	private static SnapshotRenderer instance;
+
+	private ExecutorService executor;
+	private final AtomicLong snapshotsRendered = new AtomicLong();
+	private volatile double snapshotsPerSecond = 0;
+
+	public static synchronized SnapshotRenderer getDefault()
+	{
+		if (instance == null)
+			instance = new SnapshotRenderer();
+		return instance;
+	}
+
+	private SnapshotRenderer()
+	{
+		int threads = Runtime.getRuntime().availableProcessors();
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory()
+		{
+            final AtomicInteger threadNumber = new AtomicInteger(1);
+
+            public Thread newThread(Runnable runnable)
+			{
+                Thread thread = new Thread(Thread.currentThread().getThreadGroup(), runnable,
+					"snapshot-chartsy" + threadNumber.getAndIncrement(), 0);
+                thread.setDaemon(true);
+                if (thread.getPriority() != Thread.NORM_PRIORITY)
+                    thread.setPriority(Thread.NORM_PRIORITY);
+                return thread;
+            }
+        });
+	}
+
+	public BufferedImage render(Snapshot snapshot) throws Exception
+	{
+		DataProvider dataProvider = DataProviderManager.getDefault()
+			.getDataProvider(snapshot.getDataProviderName());
+		String key = dataProvider.getDatasetKey(snapshot.getStock(), snapshot.getInterval());
+
+		acquireDataset(dataProvider, snapshot.getStock(), snapshot.getInterval(), key);
+		try
+		{
+			return paint(snapshot);
+		} finally
+		{
+			DatasetUsage.getInstance().chartClosed(key);
+		}
+	}
+
+	public Future<BufferedImage> submit(final Snapshot snapshot)
+	{
+		return executor.submit(new Callable<BufferedImage>()
+		{
+			public BufferedImage call() throws Exception
+			{
+				return render(snapshot);
+			}
+		});
+	}
+
+	/**
+	 * Renders all the snapshots on the worker pool and returns the images in
+	 * the same order. Every dataset is loaded once before rendering starts,
+	 * a snapshot that fails has a null image.
+	 */
+	public List<BufferedImage> renderAll(List<Snapshot> snapshots)
+		throws InterruptedException
+	{
+		long start = System.nanoTime();
+
+		Map<String, DataProvider> keys = new LinkedHashMap<String, DataProvider>();
+		List<String> loaded = new ArrayList<String>();
+		for (Snapshot snapshot : snapshots)
+		{
+			DataProvider dataProvider = DataProviderManager.getDefault()
+				.getDataProvider(snapshot.getDataProviderName());
+			String key = dataProvider.getDatasetKey(snapshot.getStock(), snapshot.getInterval());
+			if (!keys.containsKey(key))
+			{
+				keys.put(key, dataProvider);
+				try
+				{
+					acquireDataset(dataProvider, snapshot.getStock(), snapshot.getInterval(), key);
+					loaded.add(key);
+				} catch (Exception ex)
+				{
+					LOG.log(Level.WARNING, "Could not load dataset " + key, ex);
+				}
+			}
+		}
+
+		List<BufferedImage> images = new ArrayList<BufferedImage>(snapshots.size());
+		try
+		{
+			List<Future<BufferedImage>> futures = new ArrayList<Future<BufferedImage>>(snapshots.size());
+			for (final Snapshot snapshot : snapshots)
+			{
+				futures.add(executor.submit(new Callable<BufferedImage>()
+				{
+					public BufferedImage call() throws Exception
+					{
+						return paint(snapshot);
+					}
+				}));
+			}
+
+			for (Future<BufferedImage> future : futures)
+			{
+				try
+				{
+					images.add(future.get());
+				} catch (ExecutionException ex)
+				{
+					LOG.log(Level.WARNING, "Snapshot failed", ex.getCause());
+					images.add(null);
+				}
+			}
+		} finally
+		{
+			for (String key : loaded)
+				DatasetUsage.getInstance().chartClosed(key);
+		}
+
+		long elapsed = System.nanoTime() - start;
+		if (elapsed > 0)
+			snapshotsPerSecond = snapshots.size() * 1000000000d / elapsed;
+		LOG.log(Level.INFO, "Rendered {0} snapshots, {1} snapshots/s",
+			new Object[] {snapshots.size(), String.format("%.2f", snapshotsPerSecond)});
+		return images;
+	}
+
+	public double getSnapshotsPerSecond()
+	{
+		return snapshotsPerSecond;
+	}
+
+	public long getSnapshotsRendered()
+	{
+		return snapshotsRendered.get();
+	}
+
+	public void shutdown()
+	{
+		if (executor != null)
+		{
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	private void acquireDataset(DataProvider dataProvider, Stock stock, Interval interval, String key)
+		throws Exception
+	{
+		synchronized (key.intern())
+		{
+			if (!DatasetUsage.getInstance().isDatasetInMemory(key))
+				dataProvider.fetchDataset(stock, interval);
+			DatasetUsage.getInstance().fetchDataset(key);
+		}
+	}
+
+	private BufferedImage paint(Snapshot snapshot) throws IOException
+	{
+		ChartData chartData = new ChartData();
+		chartData.setStock(snapshot.getStock());
+		chartData.setInterval(snapshot.getInterval());
+		chartData.setDataProviderName(snapshot.getDataProviderName());
+		chartData.setChart(snapshot.getChart());
+
+		// snapshots of the same template are painted in parallel, each with
+		// its own overlays and indicators
+		Template template = snapshot.getTemplate();
+		List<Overlay> overlays = new ArrayList<Overlay>();
+		List<Indicator> indicators = new ArrayList<Indicator>();
+		if (template != null)
+		{
+			for (Overlay overlay : template.getOverlays())
+			{
+				Overlay copy = overlay.newInstance();
+				copy.setPropertyValues(overlay.getPropertyValues());
+				overlays.add(copy);
+			}
+			for (Indicator indicator : template.getIndicators())
+			{
+				Indicator copy = indicator.newInstance();
+				copy.setMaximized(indicator.isMaximized());
+				copy.setMaximizedHeight(indicator.getMaximizedHeight());
+				copy.setPropertyValues(indicator.getPropertyValues());
+				indicators.add(copy);
+			}
+		}
+
+		ChartFrame chartFrame = ChartFrame.getOffscreenInstance(chartData,
+			template != null ? template.getChartProperties() : null, overlays, indicators);
+		BufferedImage image = chartFrame.getOffscreenImage(snapshot.getWidth(), snapshot.getHeight());
+		if (snapshot.getFile() != null)
+			ImageIO.write(image, "png", snapshot.getFile());
+
+		snapshotsRendered.incrementAndGet();
+		return image;
+	}
+
+	public static class Snapshot
+	{
+
+		private String dataProviderName;
+		private Stock stock;
+		private Interval interval;
+		private Chart chart;
+		private Template template;
+		private int width;
+		private int height;
+		private File file;
+
+		public Snapshot(String dataProviderName, Stock stock, Interval interval,
+			Chart chart, Template template, int width, int height)
+		{
+			this.dataProviderName = dataProviderName;
+			this.stock = stock;
+			this.interval = interval;
+			this.chart = chart;
+			this.template = template;
+			this.width = width;
+			this.height = height;
+		}
+
+		public String getDataProviderName()
+		{
+			return dataProviderName;
+		}
+
+		public Stock getStock()
+		{
+			return stock;
+		}
+
+		public Interval getInterval()
+		{
+			return interval;
+		}
+
+		public Chart getChart()
+		{
+			return chart;
+		}
+
+		public Template getTemplate()
+		{
+			return template;
+		}
+
+		public int getWidth()
+		{
+			return width;
+		}
+
+		public int getHeight()
+		{
+			return height;
+		}
+
+		public File getFile()
+		{
+			return file;
+		}
+
+		public void setFile(File file)
+		{
+			this.file = file;
+		}
+
+	}
+
+}
@@ -4,6 +4,10 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.AbstractAction;
@@ -14,6 +18,7 @@ import javax.swing.JPopupMenu;
 import javax.swing.JScrollPane;
 import javax.swing.JTextField;
 import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
 import javax.swing.Timer;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
@@ -40,22 +45,20 @@ public abstract class AutoCompleter
 	protected JTextComponent component;
 
 	private static final String AUTOCOMPLETER = "AUTOCOMPLETER";
+	private static ExecutorService searchExecutor;
+
+	private Future<?> pending;
+	private int generation = 0;
 
 	public AutoCompleter(JTextComponent comp)
 	{
-		delayTimer = new Timer(500, new ActionListener()
+		delayTimer = new Timer(200, new ActionListener()
 		{
 			@Override
 			public void actionPerformed(ActionEvent e)
 			{
 				timerStoped = false;
-				try
-				{
-					showPopup();
-				} catch (IOException ex)
-				{
-					return;
-				}
+				showPopup();
 			}
 		});
 		delayTimer.setRepeats(false);
@@ -176,12 +179,73 @@ public abstract class AutoCompleter
 		public void changedUpdate(DocumentEvent e) {}
 	};
 
+	/**
+	 * Looks up the list data for the current text on the search thread. A
+	 * search still running for older text is cancelled, and results that
+	 * arrive after the text changed again are dropped.
+	 */
 	private void showPopup()
-		throws IOException
+	{
+		final String text = component.getText();
+		final int current = ++generation;
+		if (pending != null)
+			pending.cancel(true);
+		if (!component.isEnabled())
+		{
+			popupMenu.setVisible(false);
+			return;
+		}
+
+		pending = searchExecutor().submit(new Runnable()
+		{
+			public void run()
+			{
+				final Object[] data;
+				try
+				{
+					data = findListData(text);
+				} catch (IOException ex)
+				{
+					LOG.log(Level.FINE, null, ex);
+					return;
+				}
+				if (Thread.currentThread().isInterrupted())
+					return;
+				SwingUtilities.invokeLater(new Runnable()
+				{
+					public void run()
+					{
+						if (current == generation)
+							showPopup(data);
+					}
+				});
+			}
+		});
+	}
+
+	private static synchronized ExecutorService searchExecutor()
+	{
+		if (searchExecutor == null)
+		{
+			searchExecutor = Executors.newSingleThreadExecutor(new ThreadFactory()
+			{
+				public Thread newThread(Runnable r)
+				{
+					Thread thread = new Thread(r, "autocomplete");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return searchExecutor;
+	}
+
+	private void showPopup(Object[] data)
 	{
 		popupMenu.setVisible(false);
+		list.setListData(data);
 		if(component.isEnabled()
-			&& updateListData()
+			&& component.isShowing()
 			&& list.getModel().getSize()!=0)
 		{
 			if(!(component instanceof JTextField))
@@ -225,15 +289,7 @@ public abstract class AutoCompleter
                 if(completer.popupMenu.isVisible())
                     completer.selectNextPossibleValue();
                 else
-				{
-					try
-					{
-						completer.showPopup();
-					} catch (IOException ex)
-					{
-						return;
-					}
-				}
+					completer.showPopup();
             }
         }
     };
@@ -295,8 +351,8 @@ public abstract class AutoCompleter
         }
     }
 
-	// update list model depending on the data in textfield
-    protected abstract boolean updateListData() throws IOException;
+	// list data for the text in textfield, called off the event dispatch thread
+    protected abstract Object[] findListData(String text) throws IOException;
 
     // user has selected some item in the list. update textfield accordingly...
     protected abstract void acceptedListItem(Object selected);
@@ -4,7 +4,7 @@ import java.io.IOException;
 import javax.swing.text.JTextComponent;
 import org.chartsy.main.data.StockNode;
 import org.chartsy.main.data.StockSet;
-import org.chartsy.main.managers.DataProviderManager;
+import org.chartsy.main.managers.SymbolDirectoryManager;
 
 /**
  *
@@ -13,7 +13,9 @@ import org.chartsy.main.managers.DataProviderManager;
 public class StockAutoCompleter extends AutoCompleter
 {
 
-	private String dataProvider;
+	private static final int LIMIT = 50;
+
+	private volatile String dataProvider;
 
 	public StockAutoCompleter(JTextComponent comp)
 	{
@@ -26,19 +28,16 @@ public class StockAutoCompleter extends AutoCompleter
 	}
 
 	@Override
-	protected boolean updateListData() throws IOException
+	protected Object[] findListData(String value) throws IOException
 	{
-		String value = component.getText();
 		if (!value.isEmpty())
 		{
-			StockSet stockSet = DataProviderManager.getDefault().getDataProvider(dataProvider).fetchAutocomplete(value);
-			list.setListData(stockSet.stocks());
-			return true;
+			StockSet stockSet = SymbolDirectoryManager.getDefault().search(dataProvider, value, LIMIT);
+			return stockSet.stocks();
 		}
 		else
 		{
-			list.setListData(new String[0]);
-			return true;
+			return new String[0];
 		}
 	}
 
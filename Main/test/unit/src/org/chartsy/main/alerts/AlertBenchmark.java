@@ -0,0 +1,117 @@
+package org.chartsy.main.alerts;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.chartsy.main.events.AlertEvent;
+import org.chartsy.main.events.AlertListener;
+import org.chartsy.main.events.TickEvent;
+import org.chartsy.main.managers.DatasetUsage;
+
+/**
+ * Measures the time from a tick arriving to the alerts it fires, with
+ * synthetic ticks sent through DatasetUsage the way a live feed sends
+ * them:
+ *
+ * <pre>
+ * AlertBenchmark [alerts=10000] [symbols=100] [ticks=200000]
+ * </pre>
+ *
+ * Every symbol gets the same number of price, crossover, RSI and volume
+ * alerts on one minute bars, the ticks are one second apart.
+ */
+public final class AlertBenchmark
+{
+
+	private static final String PROVIDER = "Benchmark";
+
+	private AlertBenchmark()
+	{
+	}
+
+	public static void main(String[] args)
+	{
+		int alerts = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int symbols = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		int ticks = args.length > 2 ? Integer.parseInt(args[2]) : 200000;
+
+		Random random = new Random(1);
+		double[] prices = new double[symbols];
+		Arrays.fill(prices, 100);
+
+		AlertEngine engine = new AlertEngine();
+		for (int i = 0; i < alerts; i++)
+		{
+			String symbol = "S" + (i % symbols);
+			int direction = (i / symbols) % 2 == 0 ? Alert.ABOVE : Alert.BELOW;
+			switch ((i / symbols) % 4)
+			{
+				case 0:
+					engine.add(new PriceAlert(PROVIDER, symbol, direction, 95 + random.nextDouble() * 10));
+					break;
+				case 1:
+					engine.add(new CrossoverAlert(PROVIDER, symbol, 60, 5 + random.nextInt(10), 20 + random.nextInt(20), direction));
+					break;
+				case 2:
+					engine.add(new RSIAlert(PROVIDER, symbol, 60, 14, direction, direction == Alert.ABOVE ? 70 : 30));
+					break;
+				default:
+					engine.add(new VolumeAlert(PROVIDER, symbol, 60, 20, 2 + random.nextDouble()));
+					break;
+			}
+		}
+
+		final long[][] latencies = { new long[1024] };
+		final int[] fired = { 0 };
+		engine.addAlertListener(new AlertListener()
+		{
+			public void alertFired(AlertEvent evt)
+			{
+				long latency = System.nanoTime() - evt.getTick().getReceived();
+				if (fired[0] == latencies[0].length)
+					latencies[0] = Arrays.copyOf(latencies[0], fired[0] * 2);
+				latencies[0][fired[0]++] = latency;
+			}
+		});
+		DatasetUsage.getInstance().addTickListener(engine);
+
+		long[] costs = new long[ticks];
+		long time = 0;
+		long total = System.nanoTime();
+		for (int i = 0; i < ticks; i++)
+		{
+			int s = i % symbols;
+			if (s == 0)
+				time += 1000;
+			prices[s] *= Math.exp(random.nextGaussian() * 0.002);
+			double volume = random.nextDouble() < 0.01 ? 50 : random.nextDouble();
+
+			TickEvent tick = new TickEvent(PROVIDER, "S" + s, time, prices[s], volume);
+			DatasetUsage.getInstance().fireTick(tick);
+			costs[i] = System.nanoTime() - tick.getReceived();
+		}
+		total = System.nanoTime() - total;
+		DatasetUsage.getInstance().removeTickListener(engine);
+
+		System.out.println(alerts + " alerts on " + symbols + " symbols, "
+			+ ticks + " ticks in " + total / 1000000 + " ms");
+		System.out.println("Tick, all alerts of the symbol: " + summary(costs, ticks));
+		System.out.println("Tick to alert fired (" + fired[0] + " fired): " + summary(latencies[0], fired[0]));
+	}
+
+	private static String summary(long[] values, int count)
+	{
+		if (count == 0)
+			return "-";
+		long[] sorted = Arrays.copyOf(values, count);
+		Arrays.sort(sorted);
+		return "p50 " + micros(sorted[count / 2])
+			+ ", p99 " + micros(sorted[(int) (count * 0.99)])
+			+ ", max " + micros(sorted[count - 1]) + " us";
+	}
+
+	private static String micros(long nanos)
+	{
+		return Double.toString(Math.round(nanos / 100d) / 10d);
+	}
+
+}
@@ -0,0 +1,160 @@
+package org.chartsy.main.data;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Measures SeriesCodec on minute bars: the encode and decode speed and the
+ * size against the properties files the cache used to write and against
+ * the uncompressed binary items.
+ *
+ * <pre>
+ * CodecBenchmark [trades.csv] [runs=10]
+ * </pre>
+ *
+ * The trades file is a bitcoincharts trade history, lines of unix time,
+ * price and amount, aggregated to minute bars. Without it a year of minute
+ * bars is made up from random trades with the tick and amount precision of
+ * the exchanges, about two trades a minute.
+ */
+public final class CodecBenchmark
+{
+
+	private static final long MINUTE = 60000;
+	// the size of an item written without the codec
+	private static final int RAW_ITEM = 49;
+
+	private CodecBenchmark()
+	{
+	}
+
+	public static void main(String[] args)
+		throws IOException
+	{
+		String path = args.length > 0 && !args[0].matches("\\d+") ? args[0] : null;
+		int runs = args.length > 0 && path == null ? Integer.parseInt(args[0])
+			: (args.length > 1 ? Integer.parseInt(args[1]) : 10);
+
+		List<DataItem> bars = path != null ? readTrades(path) : randomTrades(525600);
+		int count = bars.size();
+		double raw = (double) count * RAW_ITEM;
+
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		long encode = Long.MAX_VALUE;
+		for (int i = 0; i < runs; i++)
+		{
+			buffer.reset();
+			long start = System.nanoTime();
+			SeriesCodec.write(new DataOutputStream(buffer), bars);
+			encode = Math.min(encode, System.nanoTime() - start);
+		}
+		byte[] encoded = buffer.toByteArray();
+
+		long decode = Long.MAX_VALUE;
+		List<DataItem> decoded = null;
+		for (int i = 0; i < runs; i++)
+		{
+			long start = System.nanoTime();
+			decoded = SeriesCodec.read(new DataInputStream(new ByteArrayInputStream(encoded)));
+			decode = Math.min(decode, System.nanoTime() - start);
+		}
+		for (int i = 0; i < count; i++)
+			if (!same(bars.get(i), decoded.get(i)))
+				throw new IllegalStateException("Bar " + i + " decoded as " + decoded.get(i));
+
+		long properties = propertiesSize(bars);
+		System.out.println(count + " minute bars" + (path != null ? " from " + path : ", random"));
+		System.out.println("Properties " + properties + " bytes, binary " + (long) raw
+			+ " bytes, codec " + encoded.length + " bytes, "
+			+ String.format("%.1f bytes a bar", (double) encoded.length / count));
+		System.out.println(String.format("Ratio %.1fx against properties, %.1fx against binary",
+			(double) properties / encoded.length, raw / encoded.length));
+		System.out.println(String.format("Encode %.0f MB/s, decode %.0f MB/s of binary bars",
+			raw / encode * 1000, raw / decode * 1000));
+	}
+
+	private static List<DataItem> readTrades(String path)
+		throws IOException
+	{
+		List<DataItem> bars = new ArrayList<DataItem>();
+		CsvParser parser = new CsvParser(new BufferedInputStream(new FileInputStream(path)));
+		try
+		{
+			while (parser.next())
+			{
+				long time = parser.getLong(0) * 1000 / MINUTE * MINUTE;
+				add(bars, time, parser.getDouble(1), parser.getDouble(2));
+			}
+		} finally
+		{
+			parser.close();
+		}
+		return bars;
+	}
+
+	private static List<DataItem> randomTrades(int minutes)
+	{
+		Random random = new Random(1);
+		List<DataItem> bars = new ArrayList<DataItem>(minutes);
+		long time = 1356998400000L;
+		long cents = 1350000;
+		for (int i = 0; i < minutes; i++, time += MINUTE)
+		{
+			// trades come in bursts, many minutes have one or none
+			int trades = random.nextDouble() < 0.3 ? 0 : (int) (-Math.log(random.nextDouble()) * 2);
+			for (int j = 0; j < trades; j++)
+			{
+				cents += Math.round(random.nextGaussian() * 150);
+				double amount = Math.round(-Math.log(random.nextDouble()) * 1e8) / 1e8;
+				add(bars, time, cents / 100d, amount);
+			}
+		}
+		return bars;
+	}
+
+	private static void add(List<DataItem> bars, long time, double price, double amount)
+	{
+		DataItem last = bars.isEmpty() ? null : bars.get(bars.size() - 1);
+		if (last != null && last.getTime() == time)
+		{
+			last.setHigh(Math.max(last.getHigh(), price));
+			last.setLow(Math.min(last.getLow(), price));
+			last.setClose(price);
+			last.setVolume(last.getVolume() + amount);
+		} else
+		{
+			bars.add(new DataItem(time, price, price, price, price, amount));
+		}
+	}
+
+	private static long propertiesSize(List<DataItem> bars)
+		throws IOException
+	{
+		Properties properties = new Properties();
+		for (int i = 0; i < bars.size(); i++)
+			properties.setProperty(Integer.toString(i), bars.get(i).toString());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		properties.store(out, "");
+		return out.size();
+	}
+
+	private static boolean same(DataItem a, DataItem b)
+	{
+		return a.getTime() == b.getTime()
+			&& Double.compare(a.getOpen(), b.getOpen()) == 0
+			&& Double.compare(a.getHigh(), b.getHigh()) == 0
+			&& Double.compare(a.getLow(), b.getLow()) == 0
+			&& Double.compare(a.getClose(), b.getClose()) == 0
+			&& Double.compare(a.getVolume(), b.getVolume()) == 0;
+	}
+
+}
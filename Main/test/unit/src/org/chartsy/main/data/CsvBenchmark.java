@@ -0,0 +1,266 @@
+package org.chartsy.main.data;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures CsvParser and CsvColumns against the String.split and
+ * Double.parseDouble parsing the providers used before them, on a trades
+ * history and on daily bars sent newest first, checking both give the
+ * same values.
+ *
+ * <pre>
+ * CsvBenchmark [trades.csv] [runs=5]
+ * </pre>
+ *
+ * The trades file is a bitcoincharts trade history, lines of unix time,
+ * price and amount. Without it 4 million trades are made up. The daily
+ * bars are always made up, 40000 days in the Yahoo table.csv layout.
+ */
+public final class CsvBenchmark
+{
+
+	private static final int TRADES = 4000000;
+	private static final int DAYS = 40000;
+
+	private CsvBenchmark()
+	{
+	}
+
+	public static void main(String[] args)
+		throws IOException, ParseException
+	{
+		String path = args.length > 0 && !args[0].matches("\\d+") ? args[0] : null;
+		int runs = args.length > 0 && path == null ? Integer.parseInt(args[0])
+			: (args.length > 1 ? Integer.parseInt(args[1]) : 5);
+
+		byte[] trades = path != null ? readFile(path) : randomTrades(TRADES);
+		long split = Long.MAX_VALUE;
+		long parsed = Long.MAX_VALUE;
+		double[][] expected = null;
+		CsvColumns columns = null;
+		for (int i = 0; i < runs; i++)
+		{
+			long start = System.nanoTime();
+			expected = splitTrades(trades);
+			split = Math.min(split, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			CsvParser parser = new CsvParser(new ByteArrayInputStream(trades));
+			try
+			{
+				columns = CsvColumns.read(parser, 0, CsvColumns.SECONDS, 1, 2);
+			} finally
+			{
+				parser.close();
+			}
+			parsed = Math.min(parsed, System.nanoTime() - start);
+		}
+		int rows = columns.size();
+		if (rows != expected[0].length)
+			throw new IllegalStateException(rows + " trades parsed, " + expected[0].length + " split");
+		for (int i = 0; i < rows; i++)
+			if (columns.getTime(i) != (long) expected[0][i]
+				|| Double.compare(columns.getValue(0, i), expected[1][i]) != 0
+				|| Double.compare(columns.getValue(1, i), expected[2][i]) != 0)
+				throw new IllegalStateException("Trade " + i + " parsed differently");
+		System.out.println(rows + " trades" + (path != null ? " from " + path : ", random")
+			+ String.format(", %.1f MB", trades.length / 1048576d));
+		System.out.println(String.format("Split %.0f ms, CsvParser %.0f ms, %.1fx",
+			split / 1e6, parsed / 1e6, (double) split / parsed));
+
+		byte[] days = randomDays(DAYS);
+		split = Long.MAX_VALUE;
+		parsed = Long.MAX_VALUE;
+		List<DataItem> splitItems = null;
+		List<DataItem> parsedItems = null;
+		for (int i = 0; i < runs; i++)
+		{
+			long start = System.nanoTime();
+			splitItems = splitDays(days);
+			split = Math.min(split, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			CsvParser parser = new CsvParser(new ByteArrayInputStream(days));
+			try
+			{
+				parser.skipLine();
+				parsedItems = CsvColumns.read(parser, 0, CsvColumns.DATE, 1, 2, 3, 4, 5).toDataItems();
+			} finally
+			{
+				parser.close();
+			}
+			parsed = Math.min(parsed, System.nanoTime() - start);
+		}
+		for (int i = 0; i < splitItems.size(); i++)
+			if (!same(splitItems.get(i), parsedItems.get(i)))
+				throw new IllegalStateException("Day " + i + " parsed as " + parsedItems.get(i));
+		System.out.println(parsedItems.size() + " daily bars, newest first");
+		System.out.println(String.format("Split and sort %.0f ms, CsvColumns %.0f ms, %.1fx",
+			split / 1e6, parsed / 1e6, (double) split / parsed));
+	}
+
+	private static double[][] splitTrades(byte[] trades)
+		throws IOException
+	{
+		double[][] columns = new double[3][1024];
+		int size = 0;
+		BufferedReader reader = new BufferedReader(
+			new InputStreamReader(new ByteArrayInputStream(trades), "US-ASCII"));
+		String line;
+		while ((line = reader.readLine()) != null)
+		{
+			String[] values = line.split(",");
+			if (size == columns[0].length)
+				for (int i = 0; i < columns.length; i++)
+				{
+					double[] column = new double[size * 2];
+					System.arraycopy(columns[i], 0, column, 0, size);
+					columns[i] = column;
+				}
+			columns[0][size] = Long.parseLong(values[0]) * 1000;
+			columns[1][size] = Double.parseDouble(values[1]);
+			columns[2][size] = Double.parseDouble(values[2]);
+			size++;
+		}
+		for (int i = 0; i < columns.length; i++)
+		{
+			double[] column = new double[size];
+			System.arraycopy(columns[i], 0, column, 0, size);
+			columns[i] = column;
+		}
+		return columns;
+	}
+
+	private static List<DataItem> splitDays(byte[] days)
+		throws IOException, ParseException
+	{
+		List<DataItem> items = new ArrayList<DataItem>();
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+		BufferedReader reader = new BufferedReader(
+			new InputStreamReader(new ByteArrayInputStream(days), "US-ASCII"));
+		reader.readLine();
+		String line;
+		while ((line = reader.readLine()) != null)
+		{
+			String[] values = line.split(",");
+			items.add(new DataItem(format.parse(values[0]).getTime(),
+				Double.parseDouble(values[1]), Double.parseDouble(values[2]),
+				Double.parseDouble(values[3]), Double.parseDouble(values[4]),
+				Double.parseDouble(values[5])));
+		}
+		Collections.sort(items);
+		return items;
+	}
+
+	private static byte[] readFile(String path)
+		throws IOException
+	{
+		File file = new File(path);
+		byte[] bytes = new byte[(int) file.length()];
+		FileInputStream in = new FileInputStream(file);
+		try
+		{
+			int read = 0;
+			while (read < bytes.length)
+			{
+				int n = in.read(bytes, read, bytes.length - read);
+				if (n < 0)
+					break;
+				read += n;
+			}
+		} finally
+		{
+			in.close();
+		}
+		return bytes;
+	}
+
+	private static byte[] randomTrades(int trades)
+	{
+		Random random = new Random(1);
+		StringBuilder text = new StringBuilder(trades * 32);
+		long time = 1356998400L;
+		long cents = 1350000;
+		for (int i = 0; i < trades; i++)
+		{
+			time += (long) (-Math.log(random.nextDouble()) * 30);
+			cents += Math.round(random.nextGaussian() * 150);
+			long amount = Math.round(-Math.log(random.nextDouble()) * 1e8);
+			text.append(time).append(',').append(cents / 100).append('.')
+				.append(pad(cents % 100, 2)).append(',').append(amount / 100000000).append('.')
+				.append(pad(amount % 100000000, 8)).append('\n');
+		}
+		return ascii(text);
+	}
+
+	private static byte[] randomDays(int days)
+	{
+		Random random = new Random(1);
+		StringBuilder text = new StringBuilder(days * 64);
+		text.append("Date,Open,High,Low,Close,Volume,Adj Close\n");
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(2010, Calendar.JANUARY, 1);
+		long cents = 5000;
+		for (int i = 0; i < days; i++)
+		{
+			long open = cents;
+			cents = Math.max(100, cents + Math.round(random.nextGaussian() * 50));
+			long high = Math.max(open, cents) + random.nextInt(30);
+			long low = Math.min(open, cents) - random.nextInt(30);
+			text.append(calendar.get(Calendar.YEAR)).append('-')
+				.append(pad(calendar.get(Calendar.MONTH) + 1, 2)).append('-')
+				.append(pad(calendar.get(Calendar.DAY_OF_MONTH), 2)).append(',')
+				.append(price(open)).append(',').append(price(high)).append(',')
+				.append(price(low)).append(',').append(price(cents)).append(',')
+				.append(random.nextInt(10000000)).append(',').append(price(cents)).append('\n');
+			calendar.add(Calendar.DATE, -1);
+		}
+		return ascii(text);
+	}
+
+	private static String price(long cents)
+	{
+		return cents / 100 + "." + pad(cents % 100, 2);
+	}
+
+	private static String pad(long value, int digits)
+	{
+		String text = Long.toString(value);
+		while (text.length() < digits)
+			text = "0" + text;
+		return text;
+	}
+
+	private static byte[] ascii(StringBuilder text)
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream(text.length());
+		for (int i = 0; i < text.length(); i++)
+			out.write(text.charAt(i));
+		return out.toByteArray();
+	}
+
+	private static boolean same(DataItem a, DataItem b)
+	{
+		return a.getTime() == b.getTime()
+			&& Double.compare(a.getOpen(), b.getOpen()) == 0
+			&& Double.compare(a.getHigh(), b.getHigh()) == 0
+			&& Double.compare(a.getLow(), b.getLow()) == 0
+			&& Double.compare(a.getClose(), b.getClose()) == 0
+			&& Double.compare(a.getVolume(), b.getVolume()) == 0;
+	}
+
+}
@@ -116,6 +116,10 @@ public class RSI
         }
     }
 
+    @Override
+    public int getLookback()
+    { return properties.getPeriod() + 1; }
+
     public boolean hasZeroLine()
     {
         return false;
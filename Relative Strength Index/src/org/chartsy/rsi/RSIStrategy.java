@@ -0,0 +1,48 @@
+package org.chartsy.rsi;
+
+import org.chartsy.main.backtest.Backtest;
+import org.chartsy.main.backtest.Strategy;
+
+/**
+ * Buys when the RSI crosses back above the oversold level and sells when
+ * it crosses back below the overbought level.
+ */
+public class RSIStrategy
+        extends Strategy
+{
+
+    private static final double OVERSOLD = 30;
+    private static final double OVERBOUGHT = 70;
+
+    private double[] rsi;
+
+    public String getName()
+    {
+        return "RSI Reversal";
+    }
+
+    public Strategy newInstance()
+    {
+        return new RSIStrategy();
+    }
+
+    @Override
+    public void start(Backtest test)
+    {
+        rsi = test.getValues(new RSI(), RSI.RSI);
+    }
+
+    public void onBar(Backtest test)
+    {
+        int i = test.getIndex();
+        if (i == 0)
+            return;
+        double previous = rsi[i - 1];
+        double current = rsi[i];
+        if (test.getPosition() == 0 && previous < OVERSOLD && current >= OVERSOLD)
+            test.setExposure(1);
+        else if (test.getPosition() > 0 && previous > OVERBOUGHT && current <= OVERBOUGHT)
+            test.setPosition(0);
+    }
+
+}
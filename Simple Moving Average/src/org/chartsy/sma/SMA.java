@@ -80,6 +80,10 @@ public class SMA
         }
     }
 
+    @Override
+    public int getLookback()
+    { return properties.getPeriod(); }
+
     public Color[] getColors() 
     { return new Color[] {properties.getColor()}; }
 
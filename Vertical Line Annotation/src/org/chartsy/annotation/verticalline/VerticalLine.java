@@ -46,6 +46,12 @@ public class VerticalLine
         return (getActionPoint(x, y) != NONE) || lineContains(X, bounds.getMinY(), X, bounds.getMaxY(), x, y, 4);
     }
 
+    public @Override double getMinValue()
+    { return Double.NEGATIVE_INFINITY; }
+
+    public @Override double getMaxValue()
+    { return Double.POSITIVE_INFINITY; }
+
     public void paint(Graphics2D g) 
     {
         Rectangle bounds = getAnnotationPanel().getBounds();
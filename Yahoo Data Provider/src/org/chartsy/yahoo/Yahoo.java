@@ -9,11 +9,15 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import org.chartsy.main.data.CsvColumns;
+import org.chartsy.main.data.CsvParser;
 import org.chartsy.main.data.DataItem;
 import org.chartsy.main.data.DataProvider;
 import org.chartsy.main.data.Dataset;
+import org.chartsy.main.data.Quote;
 import org.chartsy.main.data.Stock;
 import org.chartsy.main.data.StockSet;
 import org.chartsy.main.exceptions.InvalidStockException;
@@ -32,6 +36,8 @@ public class Yahoo extends DataProvider
 {
 
     private static final long serialVersionUID = SerialVersion.APPVERSION;
+	// symbols per quotes request
+	private static final int QUOTES_BATCH = 200;
 
     public Yahoo()
     {
@@ -60,27 +66,32 @@ public class Yahoo extends DataProvider
 		if (bufferedReader == null)
 			throw new InvalidStockException();
 
-		String inputLine;
-        while ((inputLine = bufferedReader.readLine()) != null)
-        {
-            if (inputLine.contains("<title>"))
-            {
-                String title = inputLine.split("<title>")[1].split("</title>")[0];
-                if (title.equals("Symbol Lookup from Yahoo! Finance"))
-                {
-                    throw new StockNotFoundException();
-                } else if (title.startsWith(symbol))
-                {
-                    company = title.split("Summary for ")[1].split("-")[0];
-                    break;
-                } else
-                {
-                    throw new InvalidStockException();
-                }
-            }
-        }
-
-		bufferedReader.close();
+		try
+		{
+			String inputLine;
+			while ((inputLine = bufferedReader.readLine()) != null)
+			{
+				if (inputLine.contains("<title>"))
+				{
+					String title = inputLine.split("<title>")[1].split("</title>")[0];
+					if (title.equals("Symbol Lookup from Yahoo! Finance"))
+					{
+						throw new StockNotFoundException();
+					} else if (title.startsWith(symbol))
+					{
+						company = title.split("Summary for ")[1].split("-")[0];
+						break;
+					} else
+					{
+						throw new InvalidStockException();
+					}
+				}
+			}
+		} finally
+		{
+			// the connection goes back to the pool
+			bufferedReader.close();
+		}
 
 		return company;
 	}
@@ -93,35 +104,13 @@ public class Yahoo extends DataProvider
         {
 			Dataset result = null;
             List<DataItem> items = new ArrayList<DataItem>();
-			List<DataItem> aux = new ArrayList<DataItem>();
-            DateFormat df = new SimpleDateFormat("yyyy-MM-dd");
-
-			BufferedReader bufferedReader = null;
 			String uri = getFavoritesDataURL(stock);
-			bufferedReader = ProxyManager.getDefault().bufferReaderGET(uri);
-
-			bufferedReader.readLine(); // ignore first line
-			String inputLine;
-			while ((inputLine = bufferedReader.readLine()) != null)
-			{
-				String[] values = inputLine.split(",");
-				long time = df.parse(values[0]).getTime();
-				double open = Double.parseDouble(values[1]);
-				double high = Double.parseDouble(values[2]);
-				double low = Double.parseDouble(values[3]);
-				double close = Double.parseDouble(values[4]);
-				double volume = Double.parseDouble(values[5]);
-				DataItem item = new DataItem(time, open, high, low, close, volume);
-				aux.add(item);
-			}
-			Collections.sort(aux);
+			List<DataItem> aux = readItems(uri);
 			int count = aux.size();
 			items.add(aux.get(count - 2));
 			items.add(aux.get(count - 1));
 			result = new Dataset(items);
 
-			bufferedReader.close();
-
             return result;
         }
 	}
@@ -133,36 +122,35 @@ public class Yahoo extends DataProvider
         synchronized ((stock.toString() + "-" + interval.getTimeParam()).intern())
         {
 			Dataset result = null;
-            List<DataItem> items = new ArrayList<DataItem>();
-            DateFormat df = new SimpleDateFormat("yyyy-MM-dd");
-
-			BufferedReader bufferedReader = null;
 			String uri = getDataURL(stock, interval);
-			bufferedReader = ProxyManager.getDefault().bufferReaderGET(uri);
-			
-			bufferedReader.readLine(); // ignore first line
-			String inputLine;
-			while ((inputLine = bufferedReader.readLine()) != null)
-			{
-				String[] values = inputLine.split(",");
-				long time = df.parse(values[0]).getTime();
-				double open = Double.parseDouble(values[1]);
-				double high = Double.parseDouble(values[2]);
-				double low = Double.parseDouble(values[3]);
-				double close = Double.parseDouble(values[4]);
-				double volume = Double.parseDouble(values[5]);
-				DataItem item = new DataItem(time, open, high, low, close, volume);
-				items.add(item);
-			}
-			Collections.sort(items);
+			List<DataItem> items = readItems(uri);
 			result = new Dataset(items);
 
-			bufferedReader.close();
-
             return result;
         }
     }
 
+	/**
+	 * Reads a Date,Open,High,Low,Close,Volume csv, which Yahoo sends with
+	 * the newest day first, into items sorted by time.
+	 */
+	private List<DataItem> readItems(String uri)
+		throws IOException
+	{
+		CsvParser parser = new CsvParser(ProxyManager.getDefault().inputStreamGET(uri));
+		try
+		{
+			parser.skipLine(); // ignore first line
+			return CsvColumns.read(parser, 0, CsvColumns.DATE, 1, 2, 3, 4, 5).toDataItems();
+		} catch (NumberFormatException ex)
+		{
+			throw new IOException(ex);
+		} finally
+		{
+			parser.close();
+		}
+	}
+
     @Override
     protected DataItem fetchLastDataItem(Stock stock, Interval interval)
 		throws IOException, ParseException
@@ -177,86 +165,161 @@ public class Yahoo extends DataProvider
 			String uri = getLastDataURL(stock);
 			bufferedReader = ProxyManager.getDefault().bufferReaderGET(uri);
 
-			String inputLine;
-			while ((inputLine = bufferedReader.readLine()) != null)
+			try
 			{
-				String[] values = inputLine.split(",");
-				double close = new Double(values[1]);
-				String date = values[2];
-				date = date.substring(1, date.length() - 1);
-				if (!date.equals("N/A"))
+				String inputLine;
+				while ((inputLine = bufferedReader.readLine()) != null)
 				{
-					long time = df.parse(date).getTime();
-					if (!values[5].equals("N/A"))
+					String[] values = inputLine.split(",");
+					double close = new Double(values[1]);
+					String date = values[2];
+					date = date.substring(1, date.length() - 1);
+					if (!date.equals("N/A"))
 					{
-						double open = Double.parseDouble(values[5]);
-						double high = Double.parseDouble(values[6]);
-						double low = Double.parseDouble(values[7]);
-						double volume = Double.parseDouble(values[8]);
-						dataItem = new DataItem(time, open, high, low, close, volume);
+						long time = df.parse(date).getTime();
+						if (!values[5].equals("N/A"))
+						{
+							double open = Double.parseDouble(values[5]);
+							double high = Double.parseDouble(values[6]);
+							double low = Double.parseDouble(values[7]);
+							double volume = Double.parseDouble(values[8]);
+							dataItem = new DataItem(time, open, high, low, close, volume);
 
-						/*int index = dataset.getLastIndex();
+							/*int index = dataset.getLastIndex();
 
-						if (interval.equals(DAILY))
-						{
-							if (time == lastTime)
+							if (interval.equals(DAILY))
 							{
-								dataset.setDataItem(index, item);
-							} else
+								if (time == lastTime)
+								{
+									dataset.setDataItem(index, item);
+								} else
+								{
+									dataset.addDataItem(item);
+								}
+							} else if (interval.equals(WEEKLY))
 							{
-								dataset.addDataItem(item);
-							}
-						} else if (interval.equals(WEEKLY))
-						{
-							Calendar cal1 = Calendar.getInstance();
-							cal1.setTimeInMillis(lastTime);
-							cal1.setFirstDayOfWeek(Calendar.MONDAY);
-							Calendar cal2 = Calendar.getInstance();
-							cal2.setTimeInMillis(lastTime);
-							cal2.setFirstDayOfWeek(Calendar.MONDAY);
-
-							if ((cal1.get(Calendar.WEEK_OF_YEAR) == cal2.get(Calendar.WEEK_OF_YEAR))
-									&& (cal1.get(Calendar.YEAR) == cal2.get(Calendar.YEAR)))
+								Calendar cal1 = Calendar.getInstance();
+								cal1.setTimeInMillis(lastTime);
+								cal1.setFirstDayOfWeek(Calendar.MONDAY);
+								Calendar cal2 = Calendar.getInstance();
+								cal2.setTimeInMillis(lastTime);
+								cal2.setFirstDayOfWeek(Calendar.MONDAY);
+
+								if ((cal1.get(Calendar.WEEK_OF_YEAR) == cal2.get(Calendar.WEEK_OF_YEAR))
+										&& (cal1.get(Calendar.YEAR) == cal2.get(Calendar.YEAR)))
+								{
+									dataset.setCloseAt(index, close);
+									dataset.setHighAt(index, Math.max(high, dataset.getHighAt(index)));
+									dataset.setLowAt(index, Math.min(low, dataset.getLowAt(index)));
+									dataset.setVolumeAt(index, volume);
+								} else
+								{
+									dataset.addDataItem(item);
+								}
+							} else if (interval.equals(MONTHLY))
 							{
-								dataset.setCloseAt(index, close);
-								dataset.setHighAt(index, Math.max(high, dataset.getHighAt(index)));
-								dataset.setLowAt(index, Math.min(low, dataset.getLowAt(index)));
-								dataset.setVolumeAt(index, volume);
-							} else
-							{
-								dataset.addDataItem(item);
-							}
-						} else if (interval.equals(MONTHLY))
-						{
-							Calendar cal1 = Calendar.getInstance();
-							cal1.setTimeInMillis(lastTime);
-							cal1.setFirstDayOfWeek(Calendar.MONDAY);
-							Calendar cal2 = Calendar.getInstance();
-							cal2.setTimeInMillis(lastTime);
-							cal2.setFirstDayOfWeek(Calendar.MONDAY);
-
-							if ((cal1.get(Calendar.MONTH) == cal2.get(Calendar.MONTH))
-									&& (cal1.get(Calendar.YEAR) == cal2.get(Calendar.YEAR)))
-							{
-								dataset.setCloseAt(index, close);
-								dataset.setHighAt(index, Math.max(high, dataset.getHighAt(index)));
-								dataset.setLowAt(index, Math.min(low, dataset.getLowAt(index)));
-								dataset.setVolumeAt(index, volume);
-							} else
-							{
-								dataset.addDataItem(item);
-							}
-						}*/
+								Calendar cal1 = Calendar.getInstance();
+								cal1.setTimeInMillis(lastTime);
+								cal1.setFirstDayOfWeek(Calendar.MONDAY);
+								Calendar cal2 = Calendar.getInstance();
+								cal2.setTimeInMillis(lastTime);
+								cal2.setFirstDayOfWeek(Calendar.MONDAY);
+
+								if ((cal1.get(Calendar.MONTH) == cal2.get(Calendar.MONTH))
+										&& (cal1.get(Calendar.YEAR) == cal2.get(Calendar.YEAR)))
+								{
+									dataset.setCloseAt(index, close);
+									dataset.setHighAt(index, Math.max(high, dataset.getHighAt(index)));
+									dataset.setLowAt(index, Math.min(low, dataset.getLowAt(index)));
+									dataset.setVolumeAt(index, volume);
+								} else
+								{
+									dataset.addDataItem(item);
+								}
+							}*/
+						}
 					}
-					
-					bufferedReader.close();
 				}
+			} finally
+			{
+				// the connection goes back to the pool
+				bufferedReader.close();
 			}
 				
             return dataItem;
         }
     }
 
+	/**
+	 * Quotes up to QUOTES_BATCH stocks with one request.
+	 */
+	@Override
+	public Map<String, Quote> fetchQuotes(List<Stock> stocks)
+		throws IOException
+	{
+		Map<String, Quote> quotes = new HashMap<String, Quote>();
+		DateFormat df = new SimpleDateFormat("MM/dd/yyyy");
+		for (int from = 0; from < stocks.size(); from += QUOTES_BATCH)
+		{
+			List<Stock> batch = stocks.subList(from, Math.min(stocks.size(), from + QUOTES_BATCH));
+			Map<String, String> keys = new HashMap<String, String>();
+			for (Stock stock : batch)
+				keys.put(stock.getKey().toUpperCase(), stock.getKey());
+
+			CsvParser parser = new CsvParser(ProxyManager.getDefault().inputStreamGET(getQuotesURL(batch)));
+			try
+			{
+				while (parser.next())
+				{
+					if (parser.getColumnCount() < 5)
+						continue;
+					String key = keys.get(unquote(parser.getString(0)).toUpperCase());
+					String date = unquote(parser.getString(2));
+					if (key == null || date.equals("N/A"))
+						continue;
+					try
+					{
+						double last = parser.getDouble(1);
+						double change = parser.getDouble(3);
+						double volume = parser.getDouble(4);
+						long time = df.parse(date).getTime();
+						quotes.put(key, new Quote(last, last - change, volume, time));
+					} catch (NumberFormatException ex)
+					{
+						// N/A values, the stock is not quoted
+					} catch (ParseException ex)
+					{
+						// the stock is not quoted
+					}
+				}
+			} finally
+			{
+				parser.close();
+			}
+		}
+		return quotes;
+	}
+
+	private static String unquote(String value)
+	{
+		if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\""))
+			return value.substring(1, value.length() - 1);
+		return value;
+	}
+
+	private String getQuotesURL(List<Stock> stocks)
+		throws UnsupportedEncodingException
+	{
+		StringBuilder symbols = new StringBuilder();
+		for (Stock stock : stocks)
+		{
+			if (symbols.length() > 0)
+				symbols.append('+');
+			symbols.append(URLEncoder.encode(stock.getKey(), "UTF-8"));
+		}
+		return NbBundle.getMessage(Yahoo.class, "Quotes_URL", symbols.toString());
+	}
+
 	private String getSymbolURL(String symbol)
 		throws UnsupportedEncodingException
     {